@@ -0,0 +1,337 @@
+package org.multibit.hd.brit.crypto;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.bouncycastle.openpgp.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Registry to provide the following to BRIT API:</p>
+ * <ul>
+ * <li>Public and secret key rings parsed once from their files and shared between threads</li>
+ * <li>Lookup of keys by key ID and by usage (encryption or signing) without iterating the rings</li>
+ * <li>Reloading when a key ring file changes on disk</li>
+ * <li>Counts of lookups, misses and reloads for monitoring</li>
+ * </ul>
+ * <p>Each load produces an immutable snapshot. Files are checked for a change in size or modification
+ * time at most once per check interval, so lookups normally cost a map access. A file that cannot be
+ * parsed on reload leaves the previous snapshot in place.</p>
+ *
+ * @since 0.3.6
+ */
+public class PGPKeyRingRegistry {
+
+  private static final Logger log = LoggerFactory.getLogger(PGPKeyRingRegistry.class);
+
+  /**
+   * The default minimum time between checks of the key ring files
+   */
+  public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1_000;
+
+  private final List<File> keyRingFiles;
+
+  private final long checkIntervalMillis;
+
+  private final Object reloadLock = new Object();
+
+  private volatile KeyRings keyRings;
+
+  private volatile long lastCheckMillis;
+
+  private final AtomicLong lookupCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  private final AtomicLong reloadCount = new AtomicLong();
+
+  /**
+   * @param checkIntervalMillis The minimum time between checks of the files for changes (zero checks on every lookup)
+   * @param keyRingFiles        The public or secret key ring files (binary or ASCII armored)
+   *
+   * @throws IOException  If a file cannot be read
+   * @throws PGPException If a file does not contain valid key rings
+   */
+  public PGPKeyRingRegistry(long checkIntervalMillis, File... keyRingFiles) throws IOException, PGPException {
+
+    Preconditions.checkArgument(checkIntervalMillis >= 0, "'checkIntervalMillis' must not be negative");
+    Preconditions.checkArgument(keyRingFiles.length > 0, "'keyRingFiles' must contain at least one file");
+
+    this.checkIntervalMillis = checkIntervalMillis;
+    this.keyRingFiles = ImmutableList.copyOf(keyRingFiles);
+
+    this.keyRings = load();
+    this.lastCheckMillis = System.currentTimeMillis();
+
+  }
+
+  /**
+   * @return The first key suitable for encryption (public key rings take precedence in file order)
+   */
+  public Optional<PGPPublicKey> getEncryptionKey() {
+
+    List<PGPPublicKey> encryptionKeys = current().encryptionKeys;
+
+    return record(encryptionKeys.isEmpty() ? null : encryptionKeys.get(0));
+  }
+
+  /**
+   * @param keyID The key ID
+   *
+   * @return The public key with the ID (including the public part of a secret key)
+   */
+  public Optional<PGPPublicKey> getPublicKey(long keyID) {
+    return record(current().publicKeys.get(keyID));
+  }
+
+  /**
+   * @param keyID The key ID
+   *
+   * @return The secret key with the ID
+   */
+  public Optional<PGPSecretKey> getSecretKey(long keyID) {
+    return record(current().secretKeys.get(keyID));
+  }
+
+  /**
+   * @return The keys suitable for encryption in file order
+   */
+  public List<PGPPublicKey> getEncryptionKeys() {
+    return current().encryptionKeys;
+  }
+
+  /**
+   * @return The secret keys suitable for signing in file order
+   */
+  public List<PGPSecretKey> getSigningKeys() {
+    return current().signingKeys;
+  }
+
+  /**
+   * <p>Unlock every secret key in the registry without reading the key ring files again</p>
+   * <p>Unlocking a key is expensive so callers should keep the result until {@link #getGeneration()} changes.</p>
+   *
+   * @param password The passphrase to decrypt the secret keys with
+   *
+   * @return The unlocked private keys indexed by key ID (keys that cannot be unlocked with the passphrase are omitted)
+   *
+   * @throws NoSuchProviderException If the Bouncy Castle provider is not available
+   */
+  public Map<Long, PGPPrivateKey> extractPrivateKeys(char[] password) throws NoSuchProviderException {
+    return PGPUtils.extractPrivateKeys(current().secretKeys.values().iterator(), password);
+  }
+
+  /**
+   * @return The number of times the key rings have been loaded (changes whenever a reload takes place)
+   */
+  public long getGeneration() {
+    return current().generation;
+  }
+
+  /**
+   * <p>Check the key ring files now and reload them if they have changed</p>
+   *
+   * @return True if the key rings were reloaded
+   */
+  public boolean reloadIfModified() {
+
+    synchronized (reloadLock) {
+
+      lastCheckMillis = System.currentTimeMillis();
+
+      if (Arrays.equals(keyRings.stamps, stamps())) {
+        return false;
+      }
+
+      try {
+        keyRings = load();
+      } catch (IOException | PGPException e) {
+        // Most likely caught part way through an update so try again at the next check
+        log.warn("Could not reload key rings. Keeping the previous keys: {}", e.getMessage());
+        return false;
+      }
+
+      reloadCount.incrementAndGet();
+      log.info("Reloaded key rings: {} public, {} secret keys", keyRings.publicKeys.size(), keyRings.secretKeys.size());
+
+      return true;
+    }
+  }
+
+  /**
+   * @return The number of key lookups
+   */
+  public long getLookupCount() {
+    return lookupCount.get();
+  }
+
+  /**
+   * @return The number of key lookups that found no key
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return The number of reloads after a file changed
+   */
+  public long getReloadCount() {
+    return reloadCount.get();
+  }
+
+  /**
+   * @return The current key rings (checking the files first if the check interval has passed)
+   */
+  private KeyRings current() {
+
+    if (System.currentTimeMillis() - lastCheckMillis >= checkIntervalMillis) {
+      synchronized (reloadLock) {
+        // Another thread may have checked while this one waited
+        if (System.currentTimeMillis() - lastCheckMillis >= checkIntervalMillis) {
+          reloadIfModified();
+        }
+      }
+    }
+
+    return keyRings;
+  }
+
+  private <T> Optional<T> record(T key) {
+
+    lookupCount.incrementAndGet();
+    if (key == null) {
+      missCount.incrementAndGet();
+    }
+
+    return Optional.fromNullable(key);
+  }
+
+  /**
+   * @return The size and modification time of each file (read before parsing so a change during a load is detected later)
+   */
+  private long[] stamps() {
+
+    long[] stamps = new long[keyRingFiles.size() * 2];
+    for (int i = 0; i < keyRingFiles.size(); i++) {
+      stamps[2 * i] = keyRingFiles.get(i).length();
+      stamps[2 * i + 1] = keyRingFiles.get(i).lastModified();
+    }
+
+    return stamps;
+  }
+
+  @SuppressWarnings("unchecked")
+  private KeyRings load() throws IOException, PGPException {
+
+    long[] stamps = stamps();
+
+    Map<Long, PGPPublicKey> publicKeys = Maps.newLinkedHashMap();
+    Map<Long, PGPSecretKey> secretKeys = Maps.newLinkedHashMap();
+    ImmutableList.Builder<PGPPublicKey> encryptionKeys = ImmutableList.builder();
+    ImmutableList.Builder<PGPSecretKey> signingKeys = ImmutableList.builder();
+
+    for (File keyRingFile : keyRingFiles) {
+
+      int keyCount = publicKeys.size() + secretKeys.size();
+
+      try (InputStream keyIn = new FileInputStream(keyRingFile)) {
+
+        PGPObjectFactory pgpFactory = new PGPObjectFactory(PGPUtil.getDecoderStream(keyIn));
+
+        Object o;
+        while ((o = pgpFactory.nextObject()) != null) {
+
+          if (o instanceof PGPPublicKeyRing) {
+            Iterator<PGPPublicKey> kIt = ((PGPPublicKeyRing) o).getPublicKeys();
+            while (kIt.hasNext()) {
+              PGPPublicKey key = kIt.next();
+              if (publicKeys.put(key.getKeyID(), key) == null && key.isEncryptionKey()) {
+                encryptionKeys.add(key);
+              }
+            }
+          } else if (o instanceof PGPSecretKeyRing) {
+            Iterator<PGPSecretKey> kIt = ((PGPSecretKeyRing) o).getSecretKeys();
+            while (kIt.hasNext()) {
+              PGPSecretKey key = kIt.next();
+              secretKeys.put(key.getKeyID(), key);
+              if (key.isSigningKey()) {
+                signingKeys.add(key);
+              }
+              if (publicKeys.put(key.getKeyID(), key.getPublicKey()) == null && key.getPublicKey().isEncryptionKey()) {
+                encryptionKeys.add(key.getPublicKey());
+              }
+            }
+          } else {
+            throw new PGPException("Unexpected object in key ring file '" + keyRingFile.getName() + "': " + o.getClass().getSimpleName());
+          }
+        }
+      }
+
+      if (publicKeys.size() + secretKeys.size() == keyCount) {
+        throw new PGPException("No keys found in key ring file '" + keyRingFile.getName() + "'");
+      }
+    }
+
+    long generation = keyRings == null ? 1 : keyRings.generation + 1;
+
+    log.debug("Loaded key rings (generation {}): {} public, {} secret keys", generation, publicKeys.size(), secretKeys.size());
+
+    return new KeyRings(
+      generation,
+      stamps,
+      ImmutableMap.copyOf(publicKeys),
+      ImmutableMap.copyOf(secretKeys),
+      encryptionKeys.build(),
+      signingKeys.build()
+    );
+  }
+
+  /**
+   * <p>An immutable snapshot of the loaded key rings</p>
+   */
+  private static class KeyRings {
+
+    private final long generation;
+
+    private final long[] stamps;
+
+    private final Map<Long, PGPPublicKey> publicKeys;
+
+    private final Map<Long, PGPSecretKey> secretKeys;
+
+    private final List<PGPPublicKey> encryptionKeys;
+
+    private final List<PGPSecretKey> signingKeys;
+
+    private KeyRings(
+      long generation,
+      long[] stamps,
+      Map<Long, PGPPublicKey> publicKeys,
+      Map<Long, PGPSecretKey> secretKeys,
+      List<PGPPublicKey> encryptionKeys,
+      List<PGPSecretKey> signingKeys) {
+
+      this.generation = generation;
+      this.stamps = stamps;
+      this.publicKeys = publicKeys;
+      this.secretKeys = secretKeys;
+      this.encryptionKeys = encryptionKeys;
+      this.signingKeys = signingKeys;
+    }
+  }
+
+}
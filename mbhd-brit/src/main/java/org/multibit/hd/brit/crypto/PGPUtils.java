@@ -1,5 +1,7 @@
 package org.multibit.hd.brit.crypto;
 
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.*;
@@ -8,12 +10,16 @@ import java.io.*;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * <p>Utility to provide the following to BRIT API:</p>
  * <ul>
  * <li>Access to PGP crypto functions in Bouncy Castle</li>
+ * <li>Streaming and in-memory encryption so plaintext never needs to touch the disk</li>
  * </ul>
  * <p>Derived from <code>org.bouncycastle.openpgp.examples</code> by seamans</p>
  *
@@ -21,6 +27,16 @@ import java.util.Iterator;
  */
 public class PGPUtils {
 
+  /**
+   * The buffer size for streaming encryption (packets are written as each buffer fills)
+   */
+  private static final int BUFFER_SIZE = 1 << 12;
+
+  /**
+   * Shared source of randomness for session keys (seeding a new instance per message is expensive)
+   */
+  private static final SecureRandom secureRandom = new SecureRandom();
+
   /**
    * Utilities have private constructors
    */
@@ -96,6 +112,65 @@ public class PGPUtils {
     return pgpSecKey.extractPrivateKey(pass, "BC");
   }
 
+  /**
+   * <p>Load a secret key ring collection and unlock every secret key in it.</p>
+   * <p>Unlocking a key is expensive so long running services should do this once and reuse the result.</p>
+   *
+   * @param keyIn input stream representing a key ring collection.
+   * @param pass  passphrase to decrypt the secret keys with.
+   *
+   * @return The unlocked private keys indexed by key ID (keys that cannot be unlocked with the passphrase are omitted)
+   *
+   * @throws IOException
+   * @throws PGPException
+   * @throws NoSuchProviderException
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<Long, PGPPrivateKey> extractPrivateKeys(InputStream keyIn, char[] pass)
+    throws IOException, PGPException, NoSuchProviderException {
+
+    addProvider();
+
+    PGPSecretKeyRingCollection pgpSec = new PGPSecretKeyRingCollection(
+      org.bouncycastle.openpgp.PGPUtil.getDecoderStream(keyIn));
+
+    Map<Long, PGPPrivateKey> privateKeys = Maps.newHashMap();
+
+    Iterator<PGPSecretKeyRing> rIt = pgpSec.getKeyRings();
+    while (rIt.hasNext()) {
+      privateKeys.putAll(extractPrivateKeys(rIt.next().getSecretKeys(), pass));
+    }
+
+    return Collections.unmodifiableMap(privateKeys);
+  }
+
+  /**
+   * @param secretKeys The secret keys to unlock
+   * @param pass       passphrase to decrypt the secret keys with.
+   *
+   * @return The unlocked private keys indexed by key ID (keys that cannot be unlocked with the passphrase are omitted)
+   *
+   * @throws NoSuchProviderException
+   */
+  static Map<Long, PGPPrivateKey> extractPrivateKeys(Iterator<PGPSecretKey> secretKeys, char[] pass)
+    throws NoSuchProviderException {
+
+    addProvider();
+
+    Map<Long, PGPPrivateKey> privateKeys = Maps.newHashMap();
+
+    while (secretKeys.hasNext()) {
+      PGPSecretKey pgpSecKey = secretKeys.next();
+      try {
+        privateKeys.put(pgpSecKey.getKeyID(), pgpSecKey.extractPrivateKey(pass, "BC"));
+      } catch (PGPException e) {
+        // Not unlocked by this passphrase so cannot be used for decryption
+      }
+    }
+
+    return Collections.unmodifiableMap(privateKeys);
+  }
+
   /**
    * Decrypt the passed in message stream
    *
@@ -110,24 +185,46 @@ public class PGPUtils {
   public static void decryptFile(InputStream encryptedInputStream, OutputStream decryptedOutputStream, InputStream keyInputStream, char[] password)
     throws Exception {
 
-    Security.addProvider(new BouncyCastleProvider());
+    addProvider();
 
-    encryptedInputStream = PGPUtil.getDecoderStream(encryptedInputStream);
+    final PGPEncryptedDataList enc = readEncryptedDataList(encryptedInputStream);
 
-    final PGPObjectFactory pgpFactory = new PGPObjectFactory(encryptedInputStream);
+    // Find the private key matching the public key in the secret key ring
+    final Iterator<PGPPublicKeyEncryptedData> it = enc.getEncryptedDataObjects();
+    PGPPrivateKey privateKey = null;
+    PGPPublicKeyEncryptedData pbe = null;
 
-    final PGPEncryptedDataList enc;
+    while (privateKey == null && it.hasNext()) {
+      pbe = it.next();
 
-    final Object o = pgpFactory.nextObject();
+      privateKey = findPrivateKey(keyInputStream, pbe.getKeyID(), password);
+    }
 
-    // The first object might be a PGP marker packet.
-    if (o instanceof PGPEncryptedDataList) {
-      enc = (PGPEncryptedDataList) o;
-    } else {
-      enc = (PGPEncryptedDataList) pgpFactory.nextObject();
+    if (privateKey == null) {
+      throw new IllegalArgumentException("Secret key for message not found.");
     }
 
-    // Find the private key matching the public key in the secret key ring
+    decryptData(pbe, privateKey, decryptedOutputStream);
+  }
+
+  /**
+   * <p>Decrypt the passed in message stream using already unlocked private keys (safe for concurrent use)</p>
+   *
+   * @param encryptedInputStream  The input stream
+   * @param decryptedOutputStream The output stream
+   * @param privateKeys           The unlocked private keys indexed by key ID (see {@link #extractPrivateKeys(InputStream, char[])})
+   *
+   * @throws Exception TODO This is too general (many exceptions wrapped up into one)
+   */
+  @SuppressWarnings("unchecked")
+  public static void decryptFile(InputStream encryptedInputStream, OutputStream decryptedOutputStream, Map<Long, PGPPrivateKey> privateKeys)
+    throws Exception {
+
+    addProvider();
+
+    final PGPEncryptedDataList enc = readEncryptedDataList(encryptedInputStream);
+
+    // Find the private key matching the public key
     final Iterator<PGPPublicKeyEncryptedData> it = enc.getEncryptedDataObjects();
     PGPPrivateKey privateKey = null;
     PGPPublicKeyEncryptedData pbe = null;
@@ -135,13 +232,68 @@ public class PGPUtils {
     while (privateKey == null && it.hasNext()) {
       pbe = it.next();
 
-      privateKey = findPrivateKey(keyInputStream, pbe.getKeyID(), password);
+      privateKey = privateKeys.get(pbe.getKeyID());
     }
 
     if (privateKey == null) {
       throw new IllegalArgumentException("Secret key for message not found.");
     }
 
+    decryptData(pbe, privateKey, decryptedOutputStream);
+  }
+
+  /**
+   * <p>Decrypt an in-memory message using already unlocked private keys (safe for concurrent use)</p>
+   *
+   * @param encryptedBytes The armored encrypted message
+   * @param privateKeys    The unlocked private keys indexed by key ID (see {@link #extractPrivateKeys(InputStream, char[])})
+   *
+   * @return The plaintext
+   *
+   * @throws Exception TODO This is too general (many exceptions wrapped up into one)
+   */
+  public static byte[] decryptBytes(byte[] encryptedBytes, Map<Long, PGPPrivateKey> privateKeys) throws Exception {
+
+    ByteArrayOutputStream decryptedOutputStream = new ByteArrayOutputStream(encryptedBytes.length);
+
+    decryptFile(new ByteArrayInputStream(encryptedBytes), decryptedOutputStream, privateKeys);
+
+    return decryptedOutputStream.toByteArray();
+  }
+
+  /**
+   * @param encryptedInputStream The (possibly armored) encrypted input stream
+   *
+   * @return The encrypted data list
+   *
+   * @throws IOException
+   */
+  private static PGPEncryptedDataList readEncryptedDataList(InputStream encryptedInputStream) throws IOException {
+
+    encryptedInputStream = PGPUtil.getDecoderStream(encryptedInputStream);
+
+    final PGPObjectFactory pgpFactory = new PGPObjectFactory(encryptedInputStream);
+
+    final Object o = pgpFactory.nextObject();
+
+    // The first object might be a PGP marker packet.
+    if (o instanceof PGPEncryptedDataList) {
+      return (PGPEncryptedDataList) o;
+    } else {
+      return (PGPEncryptedDataList) pgpFactory.nextObject();
+    }
+  }
+
+  /**
+   * @param pbe                   The encrypted data
+   * @param privateKey            The private key matching the encrypted data
+   * @param decryptedOutputStream The output stream
+   *
+   * @throws Exception If the message cannot be decrypted or fails the integrity check
+   */
+  private static void decryptData(PGPPublicKeyEncryptedData pbe, PGPPrivateKey privateKey, OutputStream decryptedOutputStream)
+    throws Exception {
+
     final InputStream clear = pbe.getDataStream(privateKey, "BC");
 
     final PGPObjectFactory plainFact = new PGPObjectFactory(clear);
@@ -158,12 +310,8 @@ public class PGPUtils {
     if (message instanceof PGPLiteralData) {
       PGPLiteralData ld = (PGPLiteralData) message;
 
-      InputStream unc = ld.getInputStream();
-      int ch;
+      ByteStreams.copy(ld.getInputStream(), decryptedOutputStream);
 
-      while ((ch = unc.read()) >= 0) {
-        decryptedOutputStream.write(ch);
-      }
     } else if (message instanceof PGPOnePassSignatureList) {
       throw new PGPException("Encrypted message contains a signed message - not literal data.");
     } else {
@@ -177,6 +325,17 @@ public class PGPUtils {
     }
   }
 
+  /**
+   * <p>Register the Bouncy Castle provider if it is not already present</p>
+   */
+  private static void addProvider() {
+
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+  }
+
   /**
    * <p>Encrypt a file</p>
    *
@@ -193,43 +352,106 @@ public class PGPUtils {
                                  PGPPublicKey encKey)
     throws IOException, NoSuchProviderException, PGPException {
 
-    Security.addProvider(new BouncyCastleProvider());
+    try (InputStream plainIn = new FileInputStream(inputFile)) {
+      encrypt(armoredOut, plainIn, inputFile.getName(), new Date(inputFile.lastModified()), encKey);
+    }
+  }
 
-    // Armored output
-    armoredOut = new ArmoredOutputStream(armoredOut);
+  /**
+   * <p>Encrypt a stream without buffering the whole message (the public key can be parsed once and reused)</p>
+   *
+   * @param armoredOut The output stream
+   * @param plainIn    The plaintext input stream (read to the end but not closed)
+   * @param encKey     The PGP public key for encrypting
+   *
+   * @throws IOException
+   * @throws NoSuchProviderException
+   * @throws PGPException
+   */
+  public static void encryptStream(OutputStream armoredOut,
+                                   InputStream plainIn,
+                                   PGPPublicKey encKey)
+    throws IOException, NoSuchProviderException, PGPException {
 
-    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    encrypt(armoredOut, plainIn, PGPLiteralData.CONSOLE, new Date(), encKey);
+  }
 
-    final PGPCompressedDataGenerator comData = new PGPCompressedDataGenerator(PGPCompressedData.ZIP);
+  /**
+   * <p>Encrypt an in-memory message</p>
+   *
+   * @param plainBytes The plaintext
+   * @param encKey     The PGP public key for encrypting
+   *
+   * @return The armored encrypted message
+   *
+   * @throws IOException
+   * @throws NoSuchProviderException
+   * @throws PGPException
+   */
+  public static byte[] encryptBytes(byte[] plainBytes, PGPPublicKey encKey)
+    throws IOException, NoSuchProviderException, PGPException {
 
-    PGPUtil.writeFileToLiteralData(
-      comData.open(baos),
-      PGPLiteralData.BINARY,
-      inputFile
-    );
+    // Armoring and the PGP headers roughly double a short message
+    ByteArrayOutputStream armoredOut = new ByteArrayOutputStream(plainBytes.length * 2 + 1024);
 
-    comData.close();
+    encryptStream(armoredOut, new ByteArrayInputStream(plainBytes), encKey);
+
+    return armoredOut.toByteArray();
+  }
+
+  /**
+   * @param armoredOut The output stream
+   * @param plainIn    The plaintext input stream
+   * @param name       The name recorded in the literal data packet
+   * @param modified   The modification date recorded in the literal data packet
+   * @param encKey     The PGP public key for encrypting
+   */
+  private static void encrypt(OutputStream armoredOut,
+                              InputStream plainIn,
+                              String name,
+                              Date modified,
+                              PGPPublicKey encKey)
+    throws IOException, NoSuchProviderException, PGPException {
+
+    addProvider();
+
+    // Armored output
+    armoredOut = new ArmoredOutputStream(armoredOut);
 
     final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
       PGPEncryptedData.CAST5,
       // Always perform an integrity check
       true,
-      new SecureRandom(),
+      secureRandom,
       "BC"
     );
 
     encryptedDataGenerator.addMethod(encKey);
 
-    byte[] bytes = baos.toByteArray();
+    // Each layer writes partial packets so the message length need not be known in advance
+    final OutputStream encryptedOut = encryptedDataGenerator.open(armoredOut, new byte[BUFFER_SIZE]);
+
+    final PGPCompressedDataGenerator comData = new PGPCompressedDataGenerator(PGPCompressedData.ZIP);
+
+    final PGPLiteralDataGenerator literalData = new PGPLiteralDataGenerator();
+
+    final OutputStream literalOut = literalData.open(
+      comData.open(encryptedOut, new byte[BUFFER_SIZE]),
+      PGPLiteralData.BINARY,
+      name,
+      modified,
+      new byte[BUFFER_SIZE]
+    );
 
-    OutputStream os = encryptedDataGenerator.open(armoredOut, bytes.length);
+    ByteStreams.copy(plainIn, literalOut);
 
-    os.write(bytes);
+    literalData.close();
 
-    os.close();
+    comData.close();
+
+    encryptedDataGenerator.close();
 
     armoredOut.close();
   }
 
-
-}
\ No newline at end of file
+}
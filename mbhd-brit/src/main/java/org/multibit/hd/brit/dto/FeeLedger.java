@@ -0,0 +1,262 @@
+package org.multibit.hd.brit.dto;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.Set;
+
+/**
+ * <p>DTO to provide the following to FeeService:</p>
+ * <ul>
+ * <li>A running total of the sends and fees paid by a wallet</li>
+ * </ul>
+ * <p>The ledger is updated as transactions arrive so that the fee state does not need
+ * to re-scan the whole wallet on every request. The set of processed transactions is
+ * not persisted and is rebuilt from the wallet when first required after a load.</p>
+ * <p>A transaction that spends the wallet's coins but is not yet known to be sent by self is
+ * "undecided" and is re-checked on each fee state request, since the sent by self flag can
+ * be set after the transaction first appears.</p>
+ *
+ * @since 0.3.6
+ */
+public class FeeLedger {
+
+  /**
+   * The number of sends by self processed so far
+   */
+  private int sendCount;
+
+  /**
+   * The total amount paid to fee addresses
+   */
+  private Coin feePaid;
+
+  /**
+   * The send count (counting from 0) of the last send that paid a fee
+   */
+  private Optional<Integer> lastFeePayingSendCount;
+
+  /**
+   * The fee address most recently paid
+   */
+  private Optional<Address> lastFeePayingAddress;
+
+  /**
+   * The number of wallet transactions (of any kind) processed so far
+   */
+  private int transactionCount;
+
+  /**
+   * The hash of the fee address universe used to build this ledger
+   */
+  private int feeAddressesHash;
+
+  /**
+   * The transactions processed so far (null until attached to a wallet)
+   */
+  private Set<Sha256Hash> processedTransactions;
+
+  /**
+   * The processed transactions that spend the wallet's coins but are not yet counted as sends by self
+   */
+  private final Set<Sha256Hash> undecidedTransactions;
+
+  /**
+   * @param feeAddressesHash The hash of the fee address universe
+   *
+   * @return An empty ledger
+   */
+  public static FeeLedger newEmptyLedger(int feeAddressesHash) {
+
+    FeeLedger feeLedger = new FeeLedger(0, Coin.ZERO, Optional.<Integer>absent(), Optional.<Address>absent(), 0, feeAddressesHash, ImmutableSet.<Sha256Hash>of());
+    feeLedger.processedTransactions = Sets.newHashSet();
+
+    return feeLedger;
+  }
+
+  public FeeLedger(
+    int sendCount,
+    Coin feePaid,
+    Optional<Integer> lastFeePayingSendCount,
+    Optional<Address> lastFeePayingAddress,
+    int transactionCount,
+    int feeAddressesHash,
+    Set<Sha256Hash> undecidedTransactions
+  ) {
+
+    Preconditions.checkNotNull(feePaid, "'feePaid' must be present");
+    Preconditions.checkNotNull(lastFeePayingSendCount, "'lastFeePayingSendCount' must be present");
+    Preconditions.checkNotNull(lastFeePayingAddress, "'lastFeePayingAddress' must be present");
+    Preconditions.checkNotNull(undecidedTransactions, "'undecidedTransactions' must be present");
+
+    this.sendCount = sendCount;
+    this.feePaid = feePaid;
+    this.lastFeePayingSendCount = lastFeePayingSendCount;
+    this.lastFeePayingAddress = lastFeePayingAddress;
+    this.transactionCount = transactionCount;
+    this.feeAddressesHash = feeAddressesHash;
+    this.undecidedTransactions = Sets.newHashSet(undecidedTransactions);
+  }
+
+  /**
+   * @return True if the processed transactions are known (the ledger has been attached to its wallet)
+   */
+  public boolean isAttached() {
+    return processedTransactions != null;
+  }
+
+  /**
+   * <p>Attach a loaded ledger to the transactions of its wallet</p>
+   *
+   * @param transactionHashes The hashes of the wallet transactions already accounted for
+   */
+  public void attach(Set<Sha256Hash> transactionHashes) {
+
+    Preconditions.checkNotNull(transactionHashes, "'transactionHashes' must be present");
+
+    this.processedTransactions = Sets.newHashSet(transactionHashes);
+  }
+
+  /**
+   * @param transactionHash The transaction hash
+   *
+   * @return True if the transaction has already been processed
+   */
+  public boolean isProcessed(Sha256Hash transactionHash) {
+    return processedTransactions != null && processedTransactions.contains(transactionHash);
+  }
+
+  /**
+   * <p>Record a transaction that is not sent by self (e.g. a receive)</p>
+   *
+   * @param transactionHash The transaction hash
+   */
+  public void recordOther(Sha256Hash transactionHash) {
+
+    Preconditions.checkState(isAttached(), "'processedTransactions' must be attached");
+
+    if (processedTransactions.add(transactionHash)) {
+      transactionCount++;
+    }
+  }
+
+  /**
+   * <p>Record a transaction that spends the wallet's coins but is not (yet) known to be sent by self</p>
+   *
+   * @param transactionHash The transaction hash
+   */
+  public void recordUndecided(Sha256Hash transactionHash) {
+
+    Preconditions.checkState(isAttached(), "'processedTransactions' must be attached");
+
+    if (processedTransactions.add(transactionHash)) {
+      undecidedTransactions.add(transactionHash);
+      transactionCount++;
+    }
+  }
+
+  /**
+   * @return The transactions to re-check for being sent by self
+   */
+  public Set<Sha256Hash> getUndecidedTransactions() {
+    return ImmutableSet.copyOf(undecidedTransactions);
+  }
+
+  /**
+   * <p>Record a send by self (including an undecided transaction now known to be a send by self)</p>
+   *
+   * @param transactionHash The transaction hash
+   * @param feeAmount       The amount paid to fee addresses (zero if none)
+   * @param feeAddress      The fee address paid (absent if none)
+   */
+  public void recordSend(Sha256Hash transactionHash, Coin feeAmount, Optional<Address> feeAddress) {
+
+    Preconditions.checkState(isAttached(), "'processedTransactions' must be attached");
+
+    if (processedTransactions.add(transactionHash)) {
+      transactionCount++;
+    } else if (!undecidedTransactions.remove(transactionHash)) {
+      // Already counted
+      return;
+    }
+
+    if (feeAddress.isPresent()) {
+      feePaid = feePaid.add(feeAmount);
+      lastFeePayingSendCount = Optional.of(sendCount);
+      lastFeePayingAddress = feeAddress;
+    }
+
+    sendCount++;
+  }
+
+  public int getSendCount() {
+    return sendCount;
+  }
+
+  public Coin getFeePaid() {
+    return feePaid;
+  }
+
+  public Optional<Integer> getLastFeePayingSendCount() {
+    return lastFeePayingSendCount;
+  }
+
+  public Optional<Address> getLastFeePayingAddress() {
+    return lastFeePayingAddress;
+  }
+
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  public int getFeeAddressesHash() {
+    return feeAddressesHash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    FeeLedger that = (FeeLedger) o;
+
+    if (sendCount != that.sendCount) return false;
+    if (transactionCount != that.transactionCount) return false;
+    if (feeAddressesHash != that.feeAddressesHash) return false;
+    if (!feePaid.equals(that.feePaid)) return false;
+    if (!undecidedTransactions.equals(that.undecidedTransactions)) return false;
+    if (!lastFeePayingSendCount.equals(that.lastFeePayingSendCount)) return false;
+    return lastFeePayingAddress.equals(that.lastFeePayingAddress);
+
+  }
+
+  @Override
+  public int hashCode() {
+    int result = sendCount;
+    result = 31 * result + feePaid.hashCode();
+    result = 31 * result + lastFeePayingSendCount.hashCode();
+    result = 31 * result + lastFeePayingAddress.hashCode();
+    result = 31 * result + transactionCount;
+    result = 31 * result + feeAddressesHash;
+    result = 31 * result + undecidedTransactions.hashCode();
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "FeeLedger{" +
+      "sendCount=" + sendCount +
+      ", feePaid=" + feePaid +
+      ", lastFeePayingSendCount=" + lastFeePayingSendCount +
+      ", lastFeePayingAddress=" + lastFeePayingAddress +
+      ", transactionCount=" + transactionCount +
+      ", feeAddressesHash=" + feeAddressesHash +
+      ", undecidedTransactions=" + undecidedTransactions.size() +
+      '}';
+  }
+}
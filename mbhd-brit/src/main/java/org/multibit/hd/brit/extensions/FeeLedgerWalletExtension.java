@@ -0,0 +1,151 @@
+package org.multibit.hd.brit.extensions;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.dto.FeeLedger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.Strings;
+
+import java.util.Set;
+
+/**
+ * <p>Wallet Extension to provide the following to Wallet:</p>
+ * <ul>
+ * <li>Persistence of a FeeLedger</li>
+ * </ul>
+ * <p>An empty extension (no ledger) causes the FeeService to recalculate from the wallet transactions.</p>
+ *
+ * @since 0.3.6
+ */
+public class FeeLedgerWalletExtension implements WalletExtension {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeLedgerWalletExtension.class);
+
+  public static final String FEE_LEDGER_WALLET_EXTENSION_ID = "org.multibit.hd.brit.FeeLedger";
+
+  public static final String NOT_PRESENT_MARKER = SendFeeDtoWalletExtension.NOT_PRESENT_MARKER;
+  public static final char SEPARATOR = SendFeeDtoWalletExtension.SEPARATOR;
+
+  private FeeLedger feeLedger;
+
+  public FeeLedgerWalletExtension() {
+    this.feeLedger = null;
+  }
+
+  public FeeLedgerWalletExtension(FeeLedger feeLedger) {
+    this.feeLedger = feeLedger;
+  }
+
+  @Override
+  public String getWalletExtensionID() {
+    return FEE_LEDGER_WALLET_EXTENSION_ID;
+  }
+
+  @Override
+  public boolean isWalletExtensionMandatory() {
+    return false;
+  }
+
+  @Override
+  public byte[] serializeWalletExtension() {
+    if (feeLedger != null) {
+
+      StringBuilder builder = new StringBuilder();
+
+      builder.append(feeLedger.getSendCount()).append(SEPARATOR);
+      builder.append(feeLedger.getFeePaid().getValue()).append(SEPARATOR);
+
+      if (feeLedger.getLastFeePayingSendCount().isPresent()) {
+        builder.append(feeLedger.getLastFeePayingSendCount().get().toString()).append(SEPARATOR);
+      } else {
+        builder.append(NOT_PRESENT_MARKER).append(SEPARATOR);
+      }
+
+      if (feeLedger.getLastFeePayingAddress().isPresent()) {
+        builder.append(feeLedger.getLastFeePayingAddress().get()).append(SEPARATOR);
+      } else {
+        builder.append(NOT_PRESENT_MARKER).append(SEPARATOR);
+      }
+
+      builder.append(feeLedger.getTransactionCount()).append(SEPARATOR);
+      builder.append(feeLedger.getFeeAddressesHash()).append(SEPARATOR);
+
+      for (Sha256Hash undecidedTransaction : feeLedger.getUndecidedTransactions()) {
+        builder.append(undecidedTransaction).append(SEPARATOR);
+      }
+
+      return builder.toString().getBytes(Charsets.UTF_8);
+
+    } else {
+      return new byte[0];
+    }
+  }
+
+  @Override
+  public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
+
+    String serialisedString = new String(data, Charsets.UTF_8);
+    log.debug("Parsing string '{}'", serialisedString);
+
+    String[] tokens = Strings.split(serialisedString, SEPARATOR);
+    if (tokens != null && tokens.length >= 6) {
+
+      try {
+        int sendCount = Integer.parseInt(tokens[0]);
+        Coin feePaid = Coin.valueOf(Long.parseLong(tokens[1]));
+
+        Optional<Integer> lastFeePayingSendCount = Optional.absent();
+        if (!NOT_PRESENT_MARKER.equals(tokens[2])) {
+          lastFeePayingSendCount = Optional.of(Integer.parseInt(tokens[2]));
+        }
+
+        Optional<Address> lastFeePayingAddress = Optional.absent();
+        if (!NOT_PRESENT_MARKER.equals(tokens[3])) {
+          lastFeePayingAddress = Optional.of(new Address(MainNetParams.get(), tokens[3]));
+        }
+
+        int transactionCount = Integer.parseInt(tokens[4]);
+        int feeAddressesHash = Integer.parseInt(tokens[5]);
+
+        // Older ledgers have no undecided transactions
+        Set<Sha256Hash> undecidedTransactions = Sets.newHashSet();
+        for (int i = 6; i < tokens.length; i++) {
+          if (!tokens[i].isEmpty()) {
+            undecidedTransactions.add(new Sha256Hash(tokens[i]));
+          }
+        }
+
+        feeLedger = new FeeLedger(sendCount, feePaid, lastFeePayingSendCount, lastFeePayingAddress, transactionCount, feeAddressesHash, undecidedTransactions);
+
+      } catch (IllegalArgumentException iae) {
+        // Includes number format exceptions so the ledger will be recalculated from the wallet
+        log.warn("Could not parse fee ledger", iae);
+        feeLedger = null;
+      }
+    } else if (data.length > 0) {
+      log.error("Parse failed");
+    }
+  }
+
+  /**
+   * @return The fee ledger (null if not present or invalidated)
+   */
+  public FeeLedger getFeeLedger() {
+    return feeLedger;
+  }
+
+  @Override
+  public String toString() {
+    return "FeeLedgerWalletExtension{" +
+      "feeLedger=" + feeLedger +
+      '}';
+  }
+}
@@ -5,20 +5,20 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPKeyRingRegistry;
 import org.multibit.hd.brit.crypto.PGPUtils;
 import org.multibit.hd.brit.dto.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -26,6 +26,8 @@ import java.util.Set;
  * <ul>
  * <li>Ability to match Redeemers and Payers</li>
  * </ul>
+ * <p>A single instance can serve many concurrent requests. The Matcher secret keyring is parsed on first use
+ * and the keys are unlocked again only if the keyring file changes.</p>
  *
  * @since 0.0.1
  */
@@ -42,13 +44,29 @@ public class BasicMatcher implements Matcher {
    */
   private static final int NUMBER_OF_ADDRESSES_PER_DAY = 4; // TODO Increase this
 
-  private SecureRandom secureRandom;
+  private final SecureRandom secureRandom;
 
   /**
-   * The last payerRequest received.
-   * (Having a single last payerRequest won't work in a multi-threaded environment)
+   * The last payerRequest processed on each thread (only for the deprecated single argument encryption)
    */
-  private PayerRequest lastPayerRequest;
+  private final ThreadLocal<PayerRequest> lastPayerRequest = new ThreadLocal<>();
+
+  /**
+   * The parsed Matcher secret keyring (loaded on first use)
+   */
+  private volatile PGPKeyRingRegistry keyRingRegistry;
+
+  /**
+   * The unlocked Matcher private keys by key ID
+   */
+  private volatile Map<Long, PGPPrivateKey> privateKeys;
+
+  /**
+   * The keyring generation the private keys were unlocked from
+   */
+  private volatile long privateKeysGeneration;
+
+  private final Object privateKeysLock = new Object();
 
   /**
    * The matcher store containing all the bitcoin address information
@@ -76,46 +94,39 @@ public class BasicMatcher implements Matcher {
   public PayerRequest decryptPayerRequest(EncryptedPayerRequest encryptedPayerRequest) throws Exception {
     log.trace("Attempting to decrypt payload:\n{}\n", new String(encryptedPayerRequest.getPayload(), Charsets.UTF_8));
 
-    ByteArrayInputStream serialisedPayerRequestEncryptedInputStream = new ByteArrayInputStream(encryptedPayerRequest.getPayload());
+    // PGP decrypt the request
+    byte[] serialisedPayerRequest = PGPUtils.decryptBytes(encryptedPayerRequest.getPayload(), getPrivateKeys());
+
+    return PayerRequest.parse(serialisedPayerRequest);
+  }
+
+  @Override
+  public EncryptedMatcherResponse match(EncryptedPayerRequest encryptedPayerRequest) throws Exception {
 
-    ByteArrayOutputStream serialisedPayerRequestOutputStream = new ByteArrayOutputStream(1024);
+    PayerRequest payerRequest = decryptPayerRequest(encryptedPayerRequest);
 
-    // PGP encrypt the file
-    PGPUtils.decryptFile(serialisedPayerRequestEncryptedInputStream, serialisedPayerRequestOutputStream,
-            new FileInputStream(matcherConfig.getMatcherSecretKeyringFile()), matcherConfig.getPassword());
+    MatcherResponse matcherResponse = process(payerRequest);
 
-    return PayerRequest.parse(serialisedPayerRequestOutputStream.toByteArray());
+    return encryptMatcherResponse(matcherResponse, payerRequest);
   }
 
   @Override
   public MatcherResponse process(PayerRequest payerRequest) {
 
-    lastPayerRequest = payerRequest;
+    lastPayerRequest.set(payerRequest);
 
     WalletToEncounterDateLink previousEncounter = matcherStore.lookupWalletToEncounterDateLink(payerRequest.getBritWalletId());
-
-    // The replay date is the earliest of:
-    // + the payerRequest.firstTreatmentDate in the PayerRequest (if available)
-    // + the firstTransactionDate in the previousEncounter (which would have been supplied in the past for this wallet)
-    // + the previousEncounterDate (the first time this wallet was seen by the Matcher
-    // BRITWalletId
-    Date replayDate = new Date();   // If this is a brand new wallet, never used or seen before by the matcher you can replay from now.
-    if (previousEncounter != null && previousEncounter.getEncounterDateOptional().isPresent()) {
-      replayDate = previousEncounter.getEncounterDateOptional().get();
-    }
-    if (previousEncounter != null && previousEncounter.getFirstTransactionDate().isPresent()) {
-      replayDate = previousEncounter.getFirstTransactionDate().get().before(replayDate) ? previousEncounter.getFirstTransactionDate().get() : replayDate;
-    }
-    if (payerRequest.getFirstTransactionDate().isPresent()) {
-      replayDate = payerRequest.getFirstTransactionDate().get().before(replayDate) ? payerRequest.getFirstTransactionDate().get() : replayDate;
-    }
+    Date replayDate = calculateReplayDate(previousEncounter, payerRequest);
 
     // TODO update record if replay date coming in is earlier than the one on the existing record (or if it is absent)
 
-    // If the previousEncounter was null then store this encounter
+    // If the previousEncounter was null then store this encounter unless another request got there first
     if (previousEncounter == null) {
       WalletToEncounterDateLink thisEncounter = new WalletToEncounterDateLink(payerRequest.getBritWalletId(), Optional.of(new Date()), Optional.of(replayDate));
-      matcherStore.storeWalletToEncounterDateLink(thisEncounter);
+      previousEncounter = matcherStore.storeWalletToEncounterDateLinkIfAbsent(thisEncounter);
+      if (previousEncounter != null) {
+        replayDate = calculateReplayDate(previousEncounter, payerRequest);
+      }
     }
     // Lookup the current valid set of Bitcoin addresses to return to the payer
     Date now = new Date();
@@ -160,12 +171,25 @@ public class BasicMatcher implements Matcher {
   }
 
   @Override
+  @Deprecated
   public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException {
+
+    PayerRequest payerRequest = lastPayerRequest.get();
+    Preconditions.checkState(payerRequest != null, "'payerRequest' must be processed on this thread first");
+
+    return encryptMatcherResponse(matcherResponse, payerRequest);
+  }
+
+  @Override
+  public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse, PayerRequest payerRequest) throws NoSuchAlgorithmException {
+
+    Preconditions.checkNotNull(payerRequest, "'payerRequest' must be present");
+
     // Stretch the 20 byte britWalletId to 32 bytes (256 bits)
-    byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(lastPayerRequest.getBritWalletId().getBytes());
+    byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(payerRequest.getBritWalletId().getBytes());
 
     // Create an AES key from the stretchedBritWalletId and the sessionKey and decrypt the payload
-    byte[] encryptedMatcherResponsePayload = AESUtils.encrypt(matcherResponse.serialise(), new KeyParameter(stretchedBritWalletId), lastPayerRequest.getSessionKey());
+    byte[] encryptedMatcherResponsePayload = AESUtils.encrypt(matcherResponse.serialise(), new KeyParameter(stretchedBritWalletId), payerRequest.getSessionKey());
 
     return new EncryptedMatcherResponse(encryptedMatcherResponsePayload);
   }
@@ -174,4 +198,69 @@ public class BasicMatcher implements Matcher {
   public MatcherStore getMatcherStore() {
     return matcherStore;
   }
+
+  /**
+   * @return The unlocked Matcher private keys, reading the secret keyring on first use and again if it changes
+   *
+   * @throws Exception If the secret keyring cannot be read
+   */
+  private Map<Long, PGPPrivateKey> getPrivateKeys() throws Exception {
+
+    PGPKeyRingRegistry registry = keyRingRegistry;
+    if (registry == null) {
+      synchronized (privateKeysLock) {
+        registry = keyRingRegistry;
+        if (registry == null) {
+          registry = new PGPKeyRingRegistry(PGPKeyRingRegistry.DEFAULT_CHECK_INTERVAL_MILLIS, matcherConfig.getMatcherSecretKeyringFile());
+          keyRingRegistry = registry;
+        }
+      }
+    }
+
+    // Reads the generation first so a reload while unlocking is picked up on the next call
+    long generation = registry.getGeneration();
+    // The generation is written after the keys so reading it first guarantees matching keys
+    boolean current = privateKeysGeneration == generation;
+    Map<Long, PGPPrivateKey> result = privateKeys;
+    if (result == null || !current) {
+      synchronized (privateKeysLock) {
+        result = privateKeys;
+        if (result == null || privateKeysGeneration != generation) {
+          result = registry.extractPrivateKeys(matcherConfig.getPassword());
+          log.debug("Unlocked {} Matcher private keys", result.size());
+          privateKeys = result;
+          privateKeysGeneration = generation;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * The replay date is the earliest of:
+   * + the payerRequest.firstTreatmentDate in the PayerRequest (if available)
+   * + the firstTransactionDate in the previousEncounter (which would have been supplied in the past for this wallet)
+   * + the previousEncounterDate (the first time this wallet was seen by the Matcher
+   *
+   * @param previousEncounter The previous encounter with this wallet (null if never seen before)
+   * @param payerRequest      The payer request
+   *
+   * @return The date from which the payer should replay the blockchain
+   */
+  private Date calculateReplayDate(WalletToEncounterDateLink previousEncounter, PayerRequest payerRequest) {
+
+    Date replayDate = new Date();   // If this is a brand new wallet, never used or seen before by the matcher you can replay from now.
+    if (previousEncounter != null && previousEncounter.getEncounterDateOptional().isPresent()) {
+      replayDate = previousEncounter.getEncounterDateOptional().get();
+    }
+    if (previousEncounter != null && previousEncounter.getFirstTransactionDate().isPresent()) {
+      replayDate = previousEncounter.getFirstTransactionDate().get().before(replayDate) ? previousEncounter.getFirstTransactionDate().get() : replayDate;
+    }
+    if (payerRequest.getFirstTransactionDate().isPresent()) {
+      replayDate = payerRequest.getFirstTransactionDate().get().before(replayDate) ? payerRequest.getFirstTransactionDate().get() : replayDate;
+    }
+
+    return replayDate;
+  }
 }
@@ -33,6 +33,7 @@ import java.util.Set;
  * <li>File store and lookup of wallet to encounter date links. These are stored in a file backingStore/Directory/links.txt</li>
  * <li>File store and lookup of Bitcoin addresses by day. For each date these are stored in a file backingStoreDirectory/by-date/yyyy-mm-dd.txt</li>
  * </ul>
+ * <p>Lookups are safe from many threads and stores are serialised so that the backing files are not interleaved.</p>
  *
  * @since 0.0.1
  */
@@ -61,7 +62,7 @@ public class BasicMatcherStore implements MatcherStore {
   /**
    * A map containing the link from a BRITWalletId to the previous encounter of this wallet (if available)
    */
-  private Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newHashMap();
+  private Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newConcurrentMap();
 
   /**
    * The file to which the wallet to encounter dates are appended
@@ -71,12 +72,12 @@ public class BasicMatcherStore implements MatcherStore {
   /**
    * The set of all the Bitcoin addresses in the MatcherStore
    */
-  private Set<Address> allBitcoinAddresses = Sets.newHashSet();
+  private volatile Set<Address> allBitcoinAddresses = Sets.newHashSet();
 
   /**
    * A map from the date of encounter to the list of Bitcoins used that day
    */
-  private Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+  private Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
 
   /**
    * @param backingStoreDirectory The Matcher backing store directory
@@ -151,7 +152,7 @@ public class BasicMatcherStore implements MatcherStore {
   @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
   private void buildEncounterMaps() {
 
-    encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+    encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
     // Go through all the files in the NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE directory
     // that have the filename yyyy-mm-dd.txt and add these bitcoin addresses as a list to the map, by the date yyyy-mm-dd
     String linksDirectory = backingStoreDirectory + File.separator + NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE;
@@ -178,12 +179,12 @@ public class BasicMatcherStore implements MatcherStore {
     }
 
     // Read in all the existing britWalletId to encounter date links
-    previousEncounterMap = Maps.newHashMap();
+    previousEncounterMap = Maps.newConcurrentMap();
     walletToEncounterDateFile = new File(backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
   }
 
   @Override
-  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+  public synchronized void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
 
     // Update the in memory data representation
     previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
@@ -199,6 +200,18 @@ public class BasicMatcherStore implements MatcherStore {
 
   }
 
+  @Override
+  public synchronized WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    // Stores are synchronized so no other link can be written between the lookup and the store
+    WalletToEncounterDateLink previousEncounter = previousEncounterMap.get(walletToEncounterDateLink.getBritWalletId());
+    if (previousEncounter == null) {
+      storeWalletToEncounterDateLink(walletToEncounterDateLink);
+    }
+
+    return previousEncounter;
+  }
+
   @Override
   public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
 
@@ -216,7 +229,7 @@ public class BasicMatcherStore implements MatcherStore {
 
   @SuppressFBWarnings({"PATH_TRAVERSAL_IN", "PATH_TRAVERSAL_IN"})
   @Override
-  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+  public synchronized void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
 
     // Update the in memory data representation
     encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), bitcoinAddresses);
@@ -246,7 +259,7 @@ public class BasicMatcherStore implements MatcherStore {
   }
 
   @Override
-  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+  public synchronized void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
 
     // Update the in memory data representation
     this.allBitcoinAddresses = allBitcoinAddresses;
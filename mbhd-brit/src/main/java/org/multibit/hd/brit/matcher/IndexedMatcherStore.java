@@ -0,0 +1,267 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.bitcoinj.core.Address;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * <p>Store to provide the following to Matcher classes:</p>
+ * <ul>
+ * <li>Append-only log of wallet to encounter date links in backingStoreDirectory/links.log with a memory mapped index</li>
+ * <li>Packed store of all Bitcoin addresses in backingStoreDirectory/all.bin</li>
+ * <li>Packed store of Bitcoin addresses by day in backingStoreDirectory/by-date/yyyy-mm-dd.bin</li>
+ * </ul>
+ * <p>Start up maps the link log rather than parsing it, and address sets for a day are only read
+ * when first requested. Concurrent link stores are group committed so they share a single sync.</p>
+ * <p>Use {@link MatcherStoreMigration} to convert a {@link BasicMatcherStore} directory.</p>
+ *
+ * @since 0.3.6
+ */
+public class IndexedMatcherStore implements MatcherStore, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedMatcherStore.class);
+
+  public static final String NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES = "all.bin";
+
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS = "links.log";
+
+  public static final String NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE = BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE;
+
+  public static final String ADDRESSES_FILENAME_SUFFIX = ".bin";
+
+  /**
+   * The number of links held outside the mapped index before it is extended
+   */
+  private static final int RECENT_LINK_LIMIT = 65_536;
+
+  /**
+   * The number of per wallet locks guarding link stores
+   */
+  private static final int LINK_LOCK_STRIPES = 64;
+
+  /**
+   * Produces "2000-04-01" for simplified short user date
+   */
+  private static final DateTimeFormatter utcShortDateWithHyphensFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+
+  /**
+   * The directory in which the backing files reside
+   */
+  private final File backingStoreDirectory;
+
+  private final LinkLog linkLog;
+
+  private final LinkIndex linkIndex;
+
+  /**
+   * Serialises link stores for the same wallet (different wallets still share a group commit)
+   */
+  private final Striped<Lock> linkLocks = Striped.lock(LINK_LOCK_STRIPES);
+
+  /**
+   * The Bitcoin addresses by day that have been read so far
+   */
+  private final Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = new ConcurrentHashMap<>();
+
+  /**
+   * All the Bitcoin addresses once read (replaced each time the set is stored)
+   */
+  private volatile Set<Address> allBitcoinAddresses;
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @throws IOException If the link log cannot be opened
+   */
+  public IndexedMatcherStore(File backingStoreDirectory) throws IOException {
+
+    Preconditions.checkNotNull(backingStoreDirectory, "'backingStoreDirectory' must be present");
+
+    this.backingStoreDirectory = backingStoreDirectory;
+
+    File linksFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    this.linkLog = new LinkLog(linksFile, LinkIndex.RECORD_LENGTH);
+    this.linkIndex = new LinkIndex(linkLog, RECENT_LINK_LIMIT);
+
+    log.debug("Mapped {} wallet to encounter date links", linkIndex.getMappedRecordCount());
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkNotNull(walletToEncounterDateLink, "'walletToEncounterDateLink' must be present");
+
+    Lock linkLock = linkLocks.get(walletToEncounterDateLink.getBritWalletId());
+    linkLock.lock();
+    try {
+      // Only visible once durable so a lookup never returns an unwritten link
+      linkLog.append(LinkIndex.toRecord(walletToEncounterDateLink));
+      linkIndex.put(walletToEncounterDateLink);
+    } catch (IOException e) {
+      log.error(e.getMessage(), e);
+    } finally {
+      linkLock.unlock();
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkNotNull(walletToEncounterDateLink, "'walletToEncounterDateLink' must be present");
+
+    // Reentrant so the store below can take the same lock
+    Lock linkLock = linkLocks.get(walletToEncounterDateLink.getBritWalletId());
+    linkLock.lock();
+    try {
+      WalletToEncounterDateLink previousEncounter = linkIndex.lookup(walletToEncounterDateLink.getBritWalletId());
+      if (previousEncounter == null) {
+        storeWalletToEncounterDateLink(walletToEncounterDateLink);
+      }
+      return previousEncounter;
+    } finally {
+      linkLock.unlock();
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+
+    // If this is present, return it.
+    // If this is null, return a null.
+    return linkIndex.lookup(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+
+    Date midnight = convertToMidnight(encounterDate);
+
+    Set<Address> bitcoinAddresses = encounterDateToBitcoinAddressesMap.get(midnight);
+    if (bitcoinAddresses != null) {
+      return bitcoinAddresses;
+    }
+
+    File file = getBitcoinAddressesForDateFile(encounterDate);
+    if (!file.exists()) {
+      return null;
+    }
+
+    try {
+      bitcoinAddresses = Collections.unmodifiableSet(PackedAddresses.read(file));
+      encounterDateToBitcoinAddressesMap.put(midnight, bitcoinAddresses);
+      return bitcoinAddresses;
+    } catch (IOException e) {
+      log.error("Failed to read Bitcoin addresses for date", e);
+      return null;
+    }
+  }
+
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
+  @Override
+  public synchronized void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+
+    File linksDirectory = new File(backingStoreDirectory, NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
+    if (!linksDirectory.exists()) {
+      Preconditions.checkState(linksDirectory.mkdir(), "Could not create the directory of '" + linksDirectory + "'");
+    }
+    Preconditions.checkState(linksDirectory.isDirectory(), "Incorrectly identified the directory of '" + linksDirectory + " as a file");
+
+    File file = getBitcoinAddressesForDateFile(encounterDate);
+    if (file.exists()) {
+      // Cannot overwrite a per day list of bitcoin addresses - it may have been sent back to Payers
+      throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + encounterDate.toString() + "'. It already exists");
+    }
+
+    // Update the in memory data representation
+    encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), Collections.unmodifiableSet(bitcoinAddresses));
+
+    try {
+      PackedAddresses.write(bitcoinAddresses, file);
+    } catch (IOException e) {
+      log.error("Failed to store Bitcoin addresses for date", e);
+    }
+  }
+
+  @Override
+  public synchronized void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+
+    try {
+      PackedAddresses.write(allBitcoinAddresses, new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES));
+    } catch (IOException e) {
+      log.error("Failed to store all Bitcoin addresses", e);
+    }
+
+    this.allBitcoinAddresses = Collections.unmodifiableSet(Sets.newHashSet(allBitcoinAddresses));
+  }
+
+  /**
+   * <p>The full set is only needed when choosing the addresses for a new day so it is read on first demand
+   * and then held until the next store</p>
+   */
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+
+    Set<Address> addresses = allBitcoinAddresses;
+    if (addresses != null) {
+      return addresses;
+    }
+
+    synchronized (this) {
+      if (allBitcoinAddresses == null) {
+        try {
+          allBitcoinAddresses = Collections.unmodifiableSet(PackedAddresses.read(new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES)));
+        } catch (IOException e) {
+          log.error("Failed to read all Bitcoin addresses", e);
+          return Collections.emptySet();
+        }
+      }
+      return allBitcoinAddresses;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    linkLog.close();
+  }
+
+  /**
+   * @param encounterDate The encounter date
+   *
+   * @return The file holding the Bitcoin addresses for the day
+   */
+  private File getBitcoinAddressesForDateFile(Date encounterDate) {
+
+    File linksDirectory = new File(backingStoreDirectory, NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
+
+    return new File(linksDirectory, utcShortDateWithHyphensFormatter.print(new DateTime(encounterDate, DateTimeZone.UTC)) + ADDRESSES_FILENAME_SUFFIX);
+  }
+
+  /**
+   * Convert a compete date into a Date at midnight
+   */
+  private Date convertToMidnight(Date inputDate) {
+    return (new DateTime(inputDate, DateTimeZone.UTC)).toDateMidnight().toDate();
+  }
+}
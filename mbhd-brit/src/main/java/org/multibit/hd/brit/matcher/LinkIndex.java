@@ -0,0 +1,382 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Utils;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Index to provide the following to IndexedMatcherStore:</p>
+ * <ul>
+ * <li>Lookup of wallet to encounter date links by BRITWalletId without holding the links as objects</li>
+ * <li>Conversion between links and fixed length log records</li>
+ * </ul>
+ * <p>The committed part of the link log is memory mapped and an open addressing table of record
+ * numbers is built over it. Later records for a wallet replace earlier ones. Links stored since the
+ * last mapping are held in a small map and folded into the table once it reaches a limit.</p>
+ * <p>The log is mapped in fixed size chunks. A fold maps only the chunks that have grown and shares
+ * the full ones with the previous table, so mappings (which are only released by the garbage
+ * collector) do not pile up as the log grows.</p>
+ *
+ * @since 0.3.6
+ */
+class LinkIndex {
+
+  /**
+   * The length of a BRITWalletId (hash160)
+   */
+  static final int KEY_LENGTH = 20;
+
+  /**
+   * Key, encounter date and first transaction date
+   */
+  static final int RECORD_LENGTH = KEY_LENGTH + 8 + 8;
+
+  /**
+   * Marks an absent date in a record
+   */
+  private static final long NOT_PRESENT = Long.MIN_VALUE;
+
+  private static final int MINIMUM_CAPACITY = 1024;
+
+  /**
+   * The number of records in each mapped chunk (2.25Mb)
+   */
+  static final int DEFAULT_CHUNK_RECORDS = 65_536;
+
+  /**
+   * The number of recent links that triggers a fold into the mapped table
+   */
+  private final int recentLimit;
+
+  private final LinkLog linkLog;
+
+  private final int chunkRecords;
+
+  /**
+   * The total bytes mapped so far (updated under the fold lock or during construction)
+   */
+  private long mappedBytes;
+
+  private final Map<BRITWalletId, WalletToEncounterDateLink> recentLinks = new ConcurrentHashMap<>();
+
+  private final ReentrantLock foldLock = new ReentrantLock();
+
+  private volatile Segment segment;
+
+  /**
+   * @param linkLog     The committed link log
+   * @param recentLimit The number of recent links to hold before folding
+   *
+   * @throws IOException If the log cannot be mapped
+   */
+  LinkIndex(LinkLog linkLog, int recentLimit) throws IOException {
+    this(linkLog, recentLimit, DEFAULT_CHUNK_RECORDS);
+  }
+
+  /**
+   * @param linkLog      The committed link log
+   * @param recentLimit  The number of recent links to hold before folding
+   * @param chunkRecords The number of records in each mapped chunk (a power of two)
+   *
+   * @throws IOException If the log cannot be mapped
+   */
+  LinkIndex(LinkLog linkLog, int recentLimit, int chunkRecords) throws IOException {
+
+    Preconditions.checkArgument(recentLimit > 0, "'recentLimit' must be positive");
+    Preconditions.checkArgument(Integer.bitCount(chunkRecords) == 1, "'chunkRecords' must be a power of two");
+
+    this.linkLog = linkLog;
+    this.recentLimit = recentLimit;
+    this.chunkRecords = chunkRecords;
+    this.segment = build(linkLog.getCommittedLength(), null);
+  }
+
+  /**
+   * @return The number of records in the mapped table (including replaced records)
+   */
+  int getMappedRecordCount() {
+    return segment.records;
+  }
+
+  /**
+   * @return The total number of bytes of the log mapped (including chunks mapped again as they grew)
+   */
+  long getMappedBytes() {
+    foldLock.lock();
+    try {
+      return mappedBytes;
+    } finally {
+      foldLock.unlock();
+    }
+  }
+
+  /**
+   * @param britWalletId The wallet ID
+   *
+   * @return The latest link for the wallet, or null if never seen
+   */
+  WalletToEncounterDateLink lookup(BRITWalletId britWalletId) {
+
+    // Check recent links before the table so that a concurrent fold cannot hide a link
+    WalletToEncounterDateLink link = recentLinks.get(britWalletId);
+    if (link != null) {
+      return link;
+    }
+
+    return segment.lookup(britWalletId.getBytes());
+  }
+
+  /**
+   * <p>Make a link visible to lookups once it has been committed to the log</p>
+   *
+   * @param link The committed link
+   *
+   * @throws IOException If the log cannot be remapped
+   */
+  void put(WalletToEncounterDateLink link) throws IOException {
+
+    recentLinks.put(link.getBritWalletId(), link);
+
+    if (recentLinks.size() >= recentLimit && foldLock.tryLock()) {
+      try {
+        fold();
+      } finally {
+        foldLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * <p>Remap the committed log and drop the recent links that it now covers</p>
+   *
+   * @throws IOException If the log cannot be remapped
+   */
+  void fold() throws IOException {
+
+    Segment folded = build(linkLog.getCommittedLength(), segment);
+    segment = folded;
+
+    for (Map.Entry<BRITWalletId, WalletToEncounterDateLink> entry : recentLinks.entrySet()) {
+      if (entry.getValue().equals(folded.lookup(entry.getKey().getBytes()))) {
+        recentLinks.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @param length   The committed length of the log
+   * @param previous The previous segment to extend (may be null)
+   *
+   * @return A segment covering the committed log
+   *
+   * @throws IOException If the log cannot be mapped
+   */
+  private Segment build(long length, Segment previous) throws IOException {
+
+    Preconditions.checkState(length / RECORD_LENGTH <= Integer.MAX_VALUE / 2, "Link log is too large to index");
+
+    int records = (int) (length / RECORD_LENGTH);
+    int chunkCount = (records + chunkRecords - 1) / chunkRecords;
+
+    ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      long chunkLength = (long) Math.min(chunkRecords, records - chunk * chunkRecords) * RECORD_LENGTH;
+      if (previous != null && chunk < previous.chunks.length && previous.chunks[chunk].capacity() == chunkLength) {
+        // Unchanged since the previous mapping
+        chunks[chunk] = previous.chunks[chunk];
+      } else {
+        chunks[chunk] = linkLog.getChannel().map(FileChannel.MapMode.READ_ONLY, (long) chunk * chunkRecords * RECORD_LENGTH, chunkLength);
+        mappedBytes += chunkLength;
+      }
+    }
+
+    return Segment.build(chunks, chunkRecords, records, previous);
+  }
+
+  /**
+   * @param link The link
+   *
+   * @return The fixed length record for the link log
+   */
+  static byte[] toRecord(WalletToEncounterDateLink link) {
+
+    byte[] key = link.getBritWalletId().getBytes();
+    Preconditions.checkArgument(key.length == KEY_LENGTH, "'britWalletId' must be " + KEY_LENGTH + " bytes");
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+    record.put(key);
+    record.putLong(link.getEncounterDateOptional().isPresent() ? link.getEncounterDateOptional().get().getTime() : NOT_PRESENT);
+    record.putLong(link.getFirstTransactionDate().isPresent() ? link.getFirstTransactionDate().get().getTime() : NOT_PRESENT);
+
+    return record.array();
+  }
+
+  /**
+   * @param buffer The buffer containing records
+   * @param offset The offset of the record
+   *
+   * @return The link
+   */
+  static WalletToEncounterDateLink fromRecord(ByteBuffer buffer, int offset) {
+
+    byte[] key = new byte[KEY_LENGTH];
+    for (int i = 0; i < KEY_LENGTH; i++) {
+      key[i] = buffer.get(offset + i);
+    }
+
+    return new WalletToEncounterDateLink(
+      new BRITWalletId(Utils.HEX.encode(key)),
+      toDate(buffer.getLong(offset + KEY_LENGTH)),
+      toDate(buffer.getLong(offset + KEY_LENGTH + 8))
+    );
+  }
+
+  private static Optional<Date> toDate(long time) {
+    return time == NOT_PRESENT ? Optional.<Date>absent() : Optional.of(new Date(time));
+  }
+
+  /**
+   * @return A well mixed hash of the leading bytes of a key (wallet IDs are already hashes)
+   */
+  private static int hash(int leadingBytes) {
+    int h = leadingBytes * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int leadingBytes(byte[] key) {
+    return ((key[0] & 0xff) << 24) | ((key[1] & 0xff) << 16) | ((key[2] & 0xff) << 8) | (key[3] & 0xff);
+  }
+
+  /**
+   * <p>An immutable mapping of part of the log with its open addressing table</p>
+   */
+  private static final class Segment {
+
+    private final ByteBuffer[] chunks;
+
+    private final int chunkShift;
+
+    private final int chunkMask;
+
+    private final int records;
+
+    /**
+     * Record number plus one for each occupied slot (zero is empty)
+     */
+    private final int[] slots;
+
+    private final int mask;
+
+    private Segment(ByteBuffer[] chunks, int chunkRecords, int records, int[] slots) {
+      this.chunks = chunks;
+      this.chunkShift = Integer.numberOfTrailingZeros(chunkRecords);
+      this.chunkMask = chunkRecords - 1;
+      this.records = records;
+      this.slots = slots;
+      this.mask = slots.length - 1;
+    }
+
+    /**
+     * @param chunks       The mapped chunks of the log
+     * @param chunkRecords The number of records in each full chunk
+     * @param records      The number of records in the chunks
+     * @param previous     The previous segment to extend (may be null)
+     *
+     * @return A segment covering the chunks
+     */
+    private static Segment build(ByteBuffer[] chunks, int chunkRecords, int records, Segment previous) {
+
+      int capacity = Integer.highestOneBit(Math.max(MINIMUM_CAPACITY, records * 2 - 1)) << 1;
+
+      int[] slots;
+      int firstNewRecord;
+      if (previous != null && previous.slots.length == capacity) {
+        // Only the records appended since the previous mapping need to be added
+        slots = previous.slots.clone();
+        firstNewRecord = previous.records;
+      } else {
+        slots = new int[capacity];
+        firstNewRecord = 0;
+      }
+
+      Segment segment = new Segment(chunks, chunkRecords, records, slots);
+      for (int record = firstNewRecord; record < records; record++) {
+        segment.insert(record);
+      }
+
+      return segment;
+    }
+
+    private void insert(int record) {
+
+      int slot = hash(chunk(record).getInt(offset(record))) & mask;
+
+      while (slots[slot] != 0) {
+        if (keyEquals(slots[slot] - 1, record)) {
+          // A later link for the same wallet
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      slots[slot] = record + 1;
+    }
+
+    private WalletToEncounterDateLink lookup(byte[] key) {
+
+      int slot = hash(leadingBytes(key)) & mask;
+
+      while (slots[slot] != 0) {
+        int record = slots[slot] - 1;
+        if (keyEquals(record, key)) {
+          return fromRecord(chunk(record), offset(record));
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      return null;
+    }
+
+    private ByteBuffer chunk(int record) {
+      return chunks[record >>> chunkShift];
+    }
+
+    private int offset(int record) {
+      return (record & chunkMask) * RECORD_LENGTH;
+    }
+
+    private boolean keyEquals(int record, byte[] key) {
+      ByteBuffer buffer = chunk(record);
+      int offset = offset(record);
+      for (int i = 0; i < KEY_LENGTH; i++) {
+        if (buffer.get(offset + i) != key[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean keyEquals(int record, int otherRecord) {
+      ByteBuffer buffer = chunk(record);
+      int offset = offset(record);
+      ByteBuffer otherBuffer = chunk(otherRecord);
+      int otherOffset = offset(otherRecord);
+      for (int i = 0; i < KEY_LENGTH; i++) {
+        if (buffer.get(offset + i) != otherBuffer.get(otherOffset + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * <p>Append-only log to provide the following to IndexedMatcherStore:</p>
+ * <ul>
+ * <li>Durable storage of fixed length records</li>
+ * <li>Group commit so that concurrent writers share a single write and sync</li>
+ * </ul>
+ * <p>Each caller of {@link #append(byte[])} returns only once its record has been forced to disk.
+ * The first waiting caller writes every record queued so far on behalf of the others.</p>
+ *
+ * @since 0.3.6
+ */
+class LinkLog implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(LinkLog.class);
+
+  private final int recordLength;
+
+  private final FileChannel channel;
+
+  private final Object lock = new Object();
+
+  /**
+   * Records waiting for the next commit (guarded by lock)
+   */
+  private List<byte[]> pending = Lists.newArrayList();
+
+  /**
+   * Sequence numbers of the last record appended and the last record on disk (guarded by lock)
+   */
+  private long appendedSequence;
+  private long committedSequence;
+
+  /**
+   * True while a caller is writing a batch (guarded by lock)
+   */
+  private boolean committing;
+
+  /**
+   * The failure that stopped the log (guarded by lock)
+   */
+  private IOException failure;
+
+  /**
+   * The length of the log on disk (only changed by the committing caller)
+   */
+  private volatile long committedLength;
+
+  /**
+   * @param file         The log file (created if absent)
+   * @param recordLength The length of every record
+   *
+   * @throws IOException If the log cannot be opened
+   */
+  LinkLog(File file, int recordLength) throws IOException {
+
+    Preconditions.checkArgument(recordLength > 0, "'recordLength' must be positive");
+
+    this.recordLength = recordLength;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    long size = channel.size();
+    long partial = size % recordLength;
+    if (partial != 0) {
+      // A record was only partly written (e.g. power failure) so it was never acknowledged
+      log.warn("Discarding {} bytes of a partial record at the end of '{}'", partial, file.getAbsolutePath());
+      channel.truncate(size - partial);
+      channel.force(true);
+    }
+
+    this.committedLength = channel.size();
+  }
+
+  /**
+   * @return The channel for mapping the committed part of the log
+   */
+  FileChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * @return The length of the log that has been forced to disk
+   */
+  long getCommittedLength() {
+    return committedLength;
+  }
+
+  /**
+   * <p>Append a record and wait for it to reach the disk</p>
+   *
+   * @param record The record
+   *
+   * @throws IOException If the log could not be written
+   */
+  void append(byte[] record) throws IOException {
+
+    Preconditions.checkArgument(record.length == recordLength, "'record' has the wrong length");
+
+    final long sequence;
+    synchronized (lock) {
+      if (failure != null) {
+        throw failure;
+      }
+      pending.add(record);
+      sequence = ++appendedSequence;
+    }
+
+    while (true) {
+
+      final List<byte[]> batch;
+      final long batchSequence;
+
+      synchronized (lock) {
+        try {
+          while (committing && committedSequence < sequence && failure == null) {
+            lock.wait();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for the log to commit");
+        }
+
+        if (failure != null) {
+          throw failure;
+        }
+        if (committedSequence >= sequence) {
+          // Another caller wrote this record
+          return;
+        }
+
+        // Commit everything queued so far
+        committing = true;
+        batch = pending;
+        batchSequence = appendedSequence;
+        pending = Lists.newArrayList();
+      }
+
+      IOException batchFailure = null;
+      try {
+        write(batch);
+      } catch (IOException e) {
+        batchFailure = e;
+      }
+
+      synchronized (lock) {
+        committing = false;
+        if (batchFailure == null) {
+          committedSequence = batchSequence;
+        } else {
+          failure = batchFailure;
+        }
+        lock.notifyAll();
+      }
+
+      if (batchFailure != null) {
+        throw batchFailure;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void write(List<byte[]> batch) throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.allocate(batch.size() * recordLength);
+    for (byte[] record : batch) {
+      buffer.put(record);
+    }
+    buffer.flip();
+
+    long position = committedLength;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    channel.force(false);
+
+    committedLength = position;
+  }
+}
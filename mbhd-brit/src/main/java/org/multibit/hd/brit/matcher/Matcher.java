@@ -54,9 +54,35 @@ public interface Matcher {
    * @return The encrypted MatcherResponse
    *
    * @throws NoSuchAlgorithmException
+   * @deprecated Use {@link #encryptMatcherResponse(MatcherResponse, PayerRequest)} which does not depend on the last request processed
    */
+  @Deprecated
   public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException;
 
+  /**
+   * Encrypt the matcherResponse with an AES key derived from the Payer's BRITWalletId and sessionId
+   *
+   * @param matcherResponse The unencrypted Matcher Response
+   * @param payerRequest    The PayerRequest the response is for (provides the BRITWalletId and sessionId)
+   *
+   * @return The encrypted MatcherResponse
+   *
+   * @throws NoSuchAlgorithmException
+   */
+  public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse, PayerRequest payerRequest) throws NoSuchAlgorithmException;
+
+  /**
+   * Decrypt, process and encrypt a single exchange with a Payer.
+   * Implementations must be safe to call from many threads at once.
+   *
+   * @param encryptedPayerRequest The encrypted PayerRequest received from the Payer
+   *
+   * @return The encrypted MatcherResponse to return to the Payer
+   *
+   * @throws Exception If the request cannot be decrypted or the response cannot be encrypted
+   */
+  public EncryptedMatcherResponse match(EncryptedPayerRequest encryptedPayerRequest) throws Exception;
+
 
   /**
    * Get the MatcherStore used to persist the Matcher information
@@ -26,6 +26,16 @@ public interface MatcherStore {
    */
   public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink);
 
+  /**
+   * Store the link between the wallet and the encounter date only if the wallet has never been seen before.
+   * The lookup and the store happen as a single atomic step so concurrent requests for a new wallet store one link.
+   *
+   * @param walletToEncounterDateLink The wallet to encounter date link object
+   *
+   * @return The previously stored WalletToEncounterDateLink for this britWalletId, or null if this link was stored
+   */
+  public WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink);
+
   /**
    * Lookup the Wallet to encounter date that is previously stored, if available
    *
@@ -0,0 +1,166 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * <p>Tool to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Migration of a BasicMatcherStore text layout to the IndexedMatcherStore binary layout</li>
+ * </ul>
+ * <p>The links file is streamed line by line so the migration does not need to hold every link in memory.
+ * The source directory is not modified.</p>
+ *
+ * <p>Usage: <code>java org.multibit.hd.brit.matcher.MatcherStoreMigration source-directory target-directory</code></p>
+ *
+ * @since 0.3.6
+ */
+public class MatcherStoreMigration {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherStoreMigration.class);
+
+  /**
+   * Utilities have private constructors
+   */
+  private MatcherStoreMigration() {
+  }
+
+  public static void main(String[] args) throws IOException {
+
+    if (args.length != 2) {
+      System.err.println("Usage: MatcherStoreMigration <basic store directory> <indexed store directory>");
+      System.exit(1);
+    }
+
+    int links = migrate(new File(args[0]), new File(args[1]));
+
+    System.out.println("Migrated " + links + " wallet to encounter date links");
+  }
+
+  /**
+   * @param basicStoreDirectory   The directory containing a BasicMatcherStore
+   * @param indexedStoreDirectory The directory to create the IndexedMatcherStore in (must not already contain a link log)
+   *
+   * @return The number of wallet to encounter date links migrated
+   *
+   * @throws IOException If the migration fails
+   */
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
+  public static int migrate(File basicStoreDirectory, File indexedStoreDirectory) throws IOException {
+
+    Preconditions.checkArgument(basicStoreDirectory.isDirectory(), "'basicStoreDirectory' must be a directory");
+
+    if (!indexedStoreDirectory.exists()) {
+      Preconditions.checkState(indexedStoreDirectory.mkdirs(), "Could not create the directory of '" + indexedStoreDirectory + "'");
+    }
+
+    File linkLogFile = new File(indexedStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    Preconditions.checkState(!linkLogFile.exists(), "'" + linkLogFile + "' already exists");
+
+    // All addresses
+    PackedAddresses.write(
+      readBitcoinAddresses(new File(basicStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES)),
+      new File(indexedStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES)
+    );
+
+    // Addresses by date
+    File basicByDateDirectory = new File(basicStoreDirectory, BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
+    File[] byDateFiles = basicByDateDirectory.listFiles();
+    if (byDateFiles != null) {
+
+      File indexedByDateDirectory = new File(indexedStoreDirectory, IndexedMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
+      if (!indexedByDateDirectory.exists()) {
+        Preconditions.checkState(indexedByDateDirectory.mkdir(), "Could not create the directory of '" + indexedByDateDirectory + "'");
+      }
+
+      for (File byDateFile : byDateFiles) {
+        String name = byDateFile.getName();
+        if (name.endsWith(BasicMatcherStore.LINKS_FILENAME_SUFFIX)) {
+          String date = name.substring(0, name.length() - BasicMatcherStore.LINKS_FILENAME_SUFFIX.length());
+          PackedAddresses.write(readBitcoinAddresses(byDateFile), new File(indexedByDateDirectory, date + IndexedMatcherStore.ADDRESSES_FILENAME_SUFFIX));
+        }
+      }
+    }
+
+    // Wallet to encounter date links in their original order so later links still win
+    int links = 0;
+    File linksFile = new File(basicStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    if (linksFile.exists()) {
+
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(linksFile), Charsets.UTF_8));
+           FileOutputStream linkLogOutputStream = new FileOutputStream(linkLogFile);
+           OutputStream linkLogBufferedStream = new BufferedOutputStream(linkLogOutputStream, 1 << 16)) {
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (Strings.isNullOrEmpty(line)) {
+            continue;
+          }
+          try {
+            WalletToEncounterDateLink link = WalletToEncounterDateLink.parse(line);
+            if (link != null) {
+              linkLogBufferedStream.write(LinkIndex.toRecord(link));
+              links++;
+            }
+          } catch (MatcherStoreException | IllegalArgumentException e) {
+            log.warn("Skipping malformed link '{}'", line);
+          }
+        }
+
+        // A single sync for the whole log
+        linkLogBufferedStream.flush();
+        linkLogOutputStream.getFD().sync();
+      }
+    }
+
+    log.info("Migrated {} wallet to encounter date links from '{}' to '{}'", links, basicStoreDirectory, indexedStoreDirectory);
+
+    return links;
+  }
+
+  private static Set<Address> readBitcoinAddresses(File addressesFile) throws IOException {
+
+    Set<Address> addresses = Sets.newHashSet();
+    if (!addressesFile.exists()) {
+      return addresses;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(addressesFile), Charsets.UTF_8))) {
+      String rawAddress;
+      int line = 0;
+      while ((rawAddress = reader.readLine()) != null) {
+        line++;
+        if (Strings.isNullOrEmpty(rawAddress)) {
+          continue;
+        }
+        try {
+          addresses.add(new Address(MainNetParams.get(), rawAddress));
+        } catch (AddressFormatException e) {
+          log.error("Malformed BRIT address in '" + addressesFile.getName() + "' line: " + line + ". Ignoring.", e);
+        }
+      }
+    }
+
+    return addresses;
+  }
+}
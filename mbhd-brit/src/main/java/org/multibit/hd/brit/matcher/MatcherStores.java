@@ -27,4 +27,14 @@ public class MatcherStores {
   public static MatcherStore newBasicMatcherStore(File matcherStoreDirectory) throws IOException {
     return new BasicMatcherStore(matcherStoreDirectory);
   }
+
+  /**
+   * @param matcherStoreDirectory The directory the matcher store backing files are stored in
+   *
+   * @return The indexed Matcher store (suited to large numbers of wallets)
+   * @throws java.io.IOException If the matcher backing store cannot be opened
+   */
+  public static MatcherStore newIndexedMatcherStore(File matcherStoreDirectory) throws IOException {
+    return new IndexedMatcherStore(matcherStoreDirectory);
+  }
 }
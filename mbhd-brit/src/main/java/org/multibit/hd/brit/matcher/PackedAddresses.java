@@ -0,0 +1,124 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.WrongNetworkException;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+/**
+ * <p>Utility to provide the following to IndexedMatcherStore:</p>
+ * <ul>
+ * <li>Compact binary encoding of Bitcoin address sets</li>
+ * </ul>
+ * <p>Each address is its version byte followed by its hash160 (21 bytes rather than a
+ * 34 character line and a parsed object per address).</p>
+ *
+ * @since 0.3.6
+ */
+class PackedAddresses {
+
+  /**
+   * Version byte and hash160
+   */
+  static final int PACKED_ADDRESS_LENGTH = 21;
+
+  /**
+   * Always use MainNet in BRIT
+   */
+  private static final NetworkParameters networkParameters = MainNetParams.get();
+
+  /**
+   * Utilities have private constructors
+   */
+  private PackedAddresses() {
+  }
+
+  /**
+   * @param addresses The addresses
+   *
+   * @return The packed addresses
+   */
+  static byte[] pack(Set<Address> addresses) {
+
+    byte[] packed = new byte[addresses.size() * PACKED_ADDRESS_LENGTH];
+
+    int offset = 0;
+    for (Address address : addresses) {
+      packed[offset] = (byte) address.getVersion();
+      System.arraycopy(address.getHash160(), 0, packed, offset + 1, PACKED_ADDRESS_LENGTH - 1);
+      offset += PACKED_ADDRESS_LENGTH;
+    }
+
+    return packed;
+  }
+
+  /**
+   * @param packed The packed addresses
+   *
+   * @return The addresses
+   */
+  static Set<Address> unpack(byte[] packed) {
+
+    if (packed.length % PACKED_ADDRESS_LENGTH != 0) {
+      throw new MatcherStoreException("Packed addresses have a length of " + packed.length + " which is not a multiple of " + PACKED_ADDRESS_LENGTH);
+    }
+
+    Set<Address> addresses = Sets.newHashSetWithExpectedSize(packed.length / PACKED_ADDRESS_LENGTH);
+
+    byte[] hash160 = new byte[PACKED_ADDRESS_LENGTH - 1];
+    for (int offset = 0; offset < packed.length; offset += PACKED_ADDRESS_LENGTH) {
+      System.arraycopy(packed, offset + 1, hash160, 0, hash160.length);
+      try {
+        addresses.add(new Address(networkParameters, packed[offset] & 0xff, hash160.clone()));
+      } catch (WrongNetworkException e) {
+        throw new MatcherStoreException("Packed address at offset " + offset + " is not a MainNet address", e);
+      }
+    }
+
+    return addresses;
+  }
+
+  /**
+   * @param file The file to read (absent is treated as empty)
+   *
+   * @return The addresses
+   *
+   * @throws IOException If the file cannot be read
+   */
+  static Set<Address> read(File file) throws IOException {
+
+    if (!file.exists()) {
+      return Sets.newHashSet();
+    }
+
+    return unpack(Files.toByteArray(file));
+  }
+
+  /**
+   * <p>Write the addresses via a temporary file so that a reader never sees a partial set</p>
+   *
+   * @param addresses The addresses
+   * @param file      The file to write
+   *
+   * @throws IOException If the file cannot be written
+   */
+  static void write(Set<Address> addresses, File file) throws IOException {
+
+    Preconditions.checkNotNull(addresses, "'addresses' must be present");
+
+    File tempFile = new File(file.getAbsolutePath() + ".tmp");
+    Files.write(pack(addresses), tempFile);
+
+    // Readers see either the old or the new set, never a missing file
+    java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+}
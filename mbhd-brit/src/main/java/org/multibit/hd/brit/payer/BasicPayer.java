@@ -1,7 +1,6 @@
 package org.multibit.hd.brit.payer;
 
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import org.bitcoinj.crypto.KeyCrypterException;
 import org.bouncycastle.openpgp.PGPException;
 import org.multibit.hd.brit.crypto.AESUtils;
@@ -13,7 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.*;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -62,30 +61,8 @@ public class BasicPayer implements Payer {
       // Serialise the contents of the payerRequest
       byte[] serialisedPayerRequest = payerRequest.serialise();
 
-      ByteArrayOutputStream encryptedBytesOutputStream = new ByteArrayOutputStream(1024);
-
-      // TODO Can we change PGPUtils to accept a stream rather than a file to reduce IO vulnerability?
-      // Make a temporary file containing the serialised payer request
-      File tempFile = File.createTempFile("req", "tmp");
-
-      // Write serialised payerRequest to the temporary file
-      try (OutputStream tempStream = new FileOutputStream(tempFile)) {
-        // Copy the original to the temporary location
-        ByteStreams.copy(new ByteArrayInputStream(serialisedPayerRequest), tempStream);
-        // Attempt to force the bits to hit the disk. In reality the OS or hard disk itself may still decide
-        // to not write through to physical media for at least a few seconds, but this is the best we can do.
-        tempStream.flush();
-      }
-
-      // PGP encrypt the file
-      PGPUtils.encryptFile(encryptedBytesOutputStream, tempFile, payerConfig.getMatcherPublicKey());
-
-      // TODO Secure file delete (or avoid File altogether) - consider recommendations from #295 (MultiBit Common)
-      if (!tempFile.delete()) {
-        throw new IOException("Could not delete file + '" + tempFile.getAbsolutePath() + "'");
-      }
-
-      return new EncryptedPayerRequest(encryptedBytesOutputStream.toByteArray());
+      // PGP encrypt in memory so the plaintext never reaches the disk
+      return new EncryptedPayerRequest(PGPUtils.encryptBytes(serialisedPayerRequest, payerConfig.getMatcherPublicKey()));
     } catch (IOException | NoSuchProviderException | PGPException e) {
       throw new PayerRequestException("Could not encrypt PayerRequest", e);
     }
@@ -9,22 +9,26 @@ import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.core.WalletExtension;
 import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.wallet.WalletTransaction;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.dto.BRITWalletId;
 import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
 import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.FeeLedger;
 import org.multibit.hd.brit.dto.FeeState;
 import org.multibit.hd.brit.dto.MatcherResponse;
 import org.multibit.hd.brit.dto.PayerRequest;
 import org.multibit.hd.brit.dto.SendFeeDto;
 import org.multibit.hd.brit.exceptions.MatcherResponseException;
 import org.multibit.hd.brit.exceptions.PayerRequestException;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.extensions.SendFeeDtoWalletExtension;
 import org.multibit.hd.brit.payer.Payer;
@@ -42,6 +46,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -75,6 +80,11 @@ public class FeeService {
    */
   private static final NetworkParameters networkParameters = MainNetParams.get();
 
+  /**
+   * The hardwired fee addresses (parsed once)
+   */
+  private static final Set<Address> HARDWIRED_FEE_ADDRESSES = newHardwiredFeeAddresses();
+
   private final PGPPublicKey matcherPublicKey;
   private final URL matcherURL;
 
@@ -96,6 +106,11 @@ public class FeeService {
 
   private TransactionSentBySelfProvider transactionSentBySelfProvider;
 
+  /**
+   * The matcher response used to build the last fee address universe
+   */
+  private MatcherResponse lastMatcherResponse;
+  private Set<Address> lastFeeAddressesUniverse;
 
   private SecureRandom secureRandom;
 
@@ -119,7 +134,7 @@ public class FeeService {
     transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
   }
 
-  public void setTransactionSentBySelfProvider(TransactionSentBySelfProvider transactionSentBySelfProvider) {
+  public synchronized void setTransactionSentBySelfProvider(TransactionSentBySelfProvider transactionSentBySelfProvider) {
     this.transactionSentBySelfProvider = transactionSentBySelfProvider;
   }
 
@@ -177,53 +192,30 @@ public class FeeService {
    * @param wallet   The wallet to calculate the fee state for
    * @param forceNow True if the fee should be paid immediately (dust levels permitting)
    */
-  public FeeState calculateFeeState(Wallet wallet, boolean forceNow) {
+  public synchronized FeeState calculateFeeState(Wallet wallet, boolean forceNow) {
 
     //log.debug("Wallet at beginning of calculateFeeState = {}", wallet.toString(false, true, true, null));
 
-    // Get all the send transactions sent by me, ordered by date
-    List<Transaction> sendTransactions = getSentBySelfTransactionList(wallet);
-    int currentNumberOfSends = sendTransactions.size();
-    log.debug("The wallet send count is {}", currentNumberOfSends);
-
-    // Work out the total amount that should be paid by the Payer for this wallet
-    Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
-
     // Get the previous persisted MatcherResponse from the wallet, if available
     MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
 
     // Calculate all the possible fee addresses
-    Set<Address> feeAddressesUniverse = Sets.newHashSet(getHardwiredFeeAddresses());
-    if (matcherResponseFromWallet != null && matcherResponseFromWallet.getBitcoinAddresses() != null) {
-      feeAddressesUniverse.addAll(matcherResponseFromWallet.getBitcoinAddresses());
-    }
+    Set<Address> feeAddressesUniverse = getFeeAddressesUniverse(matcherResponseFromWallet);
 
-    // Work out which of the sends actually send money to a fee address.
-    // Keep track of the amount sent as fees and the count of the last send to fees made
-    int lastFeePayingSendCount = 0;
-    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
-    Optional<Integer> lastFeePayingSendingCountOptional = Optional.absent();
-    Coin feePaid = Coin.ZERO;
-
-    for (Transaction sendTransaction : sendTransactions) {
-      List<TransactionOutput> sendTransactionOutputList = sendTransaction.getOutputs();
-      if (sendTransactionOutputList != null) {
-        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
-          try {
-            Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
-            if (feeAddressesUniverse.contains(toAddress)) {
-              // It pays some fee
-              feePaid = feePaid.add(sendTransactionOutput.getValue());
-              lastFeePayingSendAddressOptional = Optional.of(toAddress.toString());
-              lastFeePayingSendingCountOptional = Optional.of(lastFeePayingSendCount);
-            }
-          } catch (ScriptException se) {
-            log.debug("Cannot cast script to Address for transaction: {}", sendTransaction.getHash().toString());
-          }
-        }
-      }
-      lastFeePayingSendCount++;
-    }
+    // Bring the running totals up to date (usually nothing to do since they follow the wallet events)
+    FeeLedger feeLedger = getUpToDateFeeLedger(wallet, feeAddressesUniverse);
+
+    int currentNumberOfSends = feeLedger.getSendCount();
+    log.debug("The wallet send count is {}", currentNumberOfSends);
+
+    // Work out the total amount that should be paid by the Payer for this wallet
+    Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
+
+    // The amount sent as fees and the count of the last send to fees made
+    int lastFeePayingSendCount = currentNumberOfSends;
+    Optional<Address> lastFeePayingSendAddressOptional = feeLedger.getLastFeePayingAddress();
+    Optional<Integer> lastFeePayingSendingCountOptional = feeLedger.getLastFeePayingSendCount();
+    Coin feePaid = feeLedger.getFeePaid();
 
     // The net amount fee still to be paid is the gross amount minus the amount paid so far
     // This could be negative if the user has overpaid
@@ -362,32 +354,247 @@ public class FeeService {
   }
 
   /**
-   * Get all the send transactions in the wallet that are sent by self
-   * (Sends that originate from another copy of this HD have no client fee attached)
+   * <p>Record a transaction as soon as it appears in the wallet so that the next fee state calculation does not need to scan</p>
    *
-   * @param wallet the wallet to look for sends for
+   * @param wallet      The wallet containing the transaction
+   * @param transaction The new transaction
+   */
+  public synchronized void recordTransaction(Wallet wallet, Transaction transaction) {
+
+    FeeLedger feeLedger = getFeeLedgerFromWallet(wallet);
+    if (feeLedger == null || !feeLedger.isAttached() || feeLedger.isProcessed(transaction.getHash())) {
+      // Nothing to do or the next fee state calculation will rebuild the ledger
+      return;
+    }
+
+    Set<Address> feeAddressesUniverse = getFeeAddressesUniverse(getMatcherResponseFromWallet(wallet));
+
+    if (feeLedger.getFeeAddressesHash() == feeAddressesUniverse.hashCode()
+      && feeLedger.getTransactionCount() + 1 == getWalletTransactionCount(wallet)) {
+      // This is the only transaction the ledger is missing
+      recordTransactions(wallet, feeLedger, Collections.singletonList(transaction), feeAddressesUniverse);
+    } else {
+      getUpToDateFeeLedger(wallet, feeAddressesUniverse);
+    }
+
+  }
+
+  /**
+   * <p>Discard the running fee totals so that they are recalculated from the wallet transactions (e.g. after a reorganisation)</p>
    *
-   * @return List of the transactions in this wallet sent by self
+   * @param wallet The wallet
    */
-  private List<Transaction> getSentBySelfTransactionList(Wallet wallet) {
+  public static void invalidateFeeLedger(Wallet wallet) {
 
-    // Get all the wallets transactions and sort by date
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    Collections.sort(transactions, new TransactionUpdateTimeComparator());
+    if (getFeeLedgerFromWallet(wallet) != null) {
+      wallet.addOrUpdateExtension(new FeeLedgerWalletExtension());
+    }
 
-    // Iterate over all transactions sorted by date, looking for transaction outputs that are sends
-    List<Transaction> sendTransactions = Lists.newArrayList();
+  }
 
-    for (Transaction transaction : transactions) {
-      boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+  /**
+   * @param wallet The wallet
+   *
+   * @return The persisted fee ledger, or null if not present
+   */
+  public static FeeLedger getFeeLedgerFromWallet(Wallet wallet) {
+
+    Map<String, WalletExtension> walletExtensionsMap = wallet.getExtensions();
 
-      if (sentBySelf) {
-        // This transaction sends from self - this will exclude unconfirmed tx
-        sendTransactions.add(transaction);
+    if (walletExtensionsMap != null && walletExtensionsMap.get(FeeLedgerWalletExtension.FEE_LEDGER_WALLET_EXTENSION_ID) != null) {
+      return ((FeeLedgerWalletExtension) walletExtensionsMap.get(FeeLedgerWalletExtension.FEE_LEDGER_WALLET_EXTENSION_ID)).getFeeLedger();
+    } else {
+      return null;
+    }
+
+  }
+
+  /**
+   * <p>Get the fee ledger for the wallet, recording any transactions it has not yet seen.</p>
+   * <p>The ledger is rebuilt from all the wallet transactions if it is missing, was built against
+   * different fee addresses or accounts for more transactions than the wallet now holds.</p>
+   *
+   * @param wallet               The wallet
+   * @param feeAddressesUniverse All the possible fee addresses
+   *
+   * @return The fee ledger, persisted as a wallet extension
+   */
+  private FeeLedger getUpToDateFeeLedger(Wallet wallet, Set<Address> feeAddressesUniverse) {
+
+    int walletTransactionCount = getWalletTransactionCount(wallet);
+    int feeAddressesHash = feeAddressesUniverse.hashCode();
+
+    FeeLedger feeLedger = getFeeLedgerFromWallet(wallet);
+
+    boolean rebuild = feeLedger == null
+      || feeLedger.getFeeAddressesHash() != feeAddressesHash
+      || feeLedger.getTransactionCount() > walletTransactionCount;
+
+    if (!rebuild && !feeLedger.isAttached()) {
+      if (feeLedger.getTransactionCount() == walletTransactionCount) {
+        // Freshly loaded ledger that matches the wallet
+        feeLedger.attach(getTransactionHashes(wallet.getTransactions(false)));
+      } else {
+        // Cannot tell which transactions arrived since the ledger was written
+        rebuild = true;
       }
     }
 
-    return sendTransactions;
+    if (rebuild) {
+      log.debug("Rebuilding the fee ledger from {} transactions", walletTransactionCount);
+
+      feeLedger = FeeLedger.newEmptyLedger(feeAddressesHash);
+      recordTransactions(wallet, feeLedger, wallet.getTransactions(false), feeAddressesUniverse);
+
+      // Persist back to wallet
+      wallet.addOrUpdateExtension(new FeeLedgerWalletExtension(feeLedger));
+
+    } else if (feeLedger.getTransactionCount() < walletTransactionCount) {
+
+      // Catch up with only the transactions that arrived without an event
+      List<Transaction> unprocessedTransactions = Lists.newArrayList();
+      for (Transaction transaction : wallet.getTransactions(false)) {
+        if (!feeLedger.isProcessed(transaction.getHash())) {
+          unprocessedTransactions.add(transaction);
+        }
+      }
+      log.debug("Recording {} new transactions in the fee ledger", unprocessedTransactions.size());
+
+      recordTransactions(wallet, feeLedger, unprocessedTransactions, feeAddressesUniverse);
+    }
+
+    recheckUndecidedTransactions(wallet, feeLedger, feeAddressesUniverse);
+
+    return feeLedger;
+  }
+
+  /**
+   * <p>Count any undecided transactions that are now known to be sent by self (e.g. their transaction info was written later)</p>
+   *
+   * @param wallet               The wallet
+   * @param feeLedger            The fee ledger to update
+   * @param feeAddressesUniverse All the possible fee addresses
+   */
+  private void recheckUndecidedTransactions(Wallet wallet, FeeLedger feeLedger, Set<Address> feeAddressesUniverse) {
+
+    for (Sha256Hash transactionHash : feeLedger.getUndecidedTransactions()) {
+      Transaction transaction = wallet.getTransaction(transactionHash);
+      if (transaction != null && transactionSentBySelfProvider.isSentBySelf(wallet, transaction)) {
+        log.debug("Transaction {} is now known to be sent by self", transactionHash);
+        recordSend(feeLedger, transaction, feeAddressesUniverse);
+      }
+    }
+
+  }
+
+  /**
+   * <p>Record the transactions in the ledger in date order, counting the sends by self and the fees they pay</p>
+   * <p>Sends that originate from another copy of this HD have no client fee attached</p>
+   *
+   * @param wallet               The wallet
+   * @param feeLedger            The fee ledger to update
+   * @param transactions         The transactions not yet in the ledger
+   * @param feeAddressesUniverse All the possible fee addresses
+   */
+  private void recordTransactions(Wallet wallet, FeeLedger feeLedger, Collection<Transaction> transactions, Set<Address> feeAddressesUniverse) {
+
+    List<Transaction> sortedTransactions = Lists.newArrayList(transactions);
+    Collections.sort(sortedTransactions, new TransactionUpdateTimeComparator());
+
+    for (Transaction transaction : sortedTransactions) {
+
+      // This will exclude unconfirmed tx
+      if (!transactionSentBySelfProvider.isSentBySelf(wallet, transaction)) {
+        if (transaction.getValueSentFromMe(wallet).signum() > 0) {
+          // May yet be marked as sent by self
+          feeLedger.recordUndecided(transaction.getHash());
+        } else {
+          feeLedger.recordOther(transaction.getHash());
+        }
+        continue;
+      }
+
+      recordSend(feeLedger, transaction, feeAddressesUniverse);
+    }
+
+  }
+
+  /**
+   * <p>Record a send by self, working out whether it pays a fee</p>
+   *
+   * @param feeLedger            The fee ledger to update
+   * @param transaction          The send by self
+   * @param feeAddressesUniverse All the possible fee addresses
+   */
+  private void recordSend(FeeLedger feeLedger, Transaction transaction, Set<Address> feeAddressesUniverse) {
+
+    // Work out if this send actually sends money to a fee address
+    Coin feeAmount = Coin.ZERO;
+    Optional<Address> feeAddress = Optional.absent();
+
+    List<TransactionOutput> sendTransactionOutputList = transaction.getOutputs();
+    if (sendTransactionOutputList != null) {
+      for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
+        try {
+          Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
+          if (feeAddressesUniverse.contains(toAddress)) {
+            // It pays some fee
+            feeAmount = feeAmount.add(sendTransactionOutput.getValue());
+            feeAddress = Optional.of(toAddress);
+          }
+        } catch (ScriptException se) {
+          log.debug("Cannot cast script to Address for transaction: {}", transaction.getHash().toString());
+        }
+      }
+    }
+
+    feeLedger.recordSend(transaction.getHash(), feeAmount, feeAddress);
+
+  }
+
+  /**
+   * @param matcherResponse The persisted matcher response (may be null)
+   *
+   * @return All the possible fee addresses (the hardwired addresses and any from the matcher)
+   */
+  private Set<Address> getFeeAddressesUniverse(MatcherResponse matcherResponse) {
+
+    if (matcherResponse == null || matcherResponse.getBitcoinAddresses() == null) {
+      return HARDWIRED_FEE_ADDRESSES;
+    }
+
+    // Avoid rebuilding a large set on every request
+    if (matcherResponse != lastMatcherResponse) {
+      Set<Address> feeAddressesUniverse = Sets.newHashSet(HARDWIRED_FEE_ADDRESSES);
+      feeAddressesUniverse.addAll(matcherResponse.getBitcoinAddresses());
+
+      lastFeeAddressesUniverse = Collections.unmodifiableSet(feeAddressesUniverse);
+      lastMatcherResponse = matcherResponse;
+    }
+
+    return lastFeeAddressesUniverse;
+  }
+
+  /**
+   * @param wallet The wallet
+   *
+   * @return The number of transactions that are not dead (the same as the size of getTransactions(false) without a copy)
+   */
+  private static int getWalletTransactionCount(Wallet wallet) {
+
+    return wallet.getTransactionPool(WalletTransaction.Pool.UNSPENT).size()
+      + wallet.getTransactionPool(WalletTransaction.Pool.SPENT).size()
+      + wallet.getTransactionPool(WalletTransaction.Pool.PENDING).size();
+  }
+
+  private static Set<Sha256Hash> getTransactionHashes(Collection<Transaction> transactions) {
+
+    Set<Sha256Hash> transactionHashes = Sets.newHashSet();
+    for (Transaction transaction : transactions) {
+      transactionHashes.add(transaction.getHash());
+    }
+
+    return transactionHashes;
   }
 
   public static MatcherResponse getMatcherResponseFromWallet(Wallet wallet) {
@@ -421,6 +628,11 @@ public class FeeService {
    */
   public Set<Address> getHardwiredFeeAddresses() {
 
+    return Sets.newHashSet(HARDWIRED_FEE_ADDRESSES);
+  }
+
+  private static Set<Address> newHardwiredFeeAddresses() {
+
     // TODO (BS) add in some very well secured addresses owned by Bitcoin Solutions Ltd
 
     String[] rawAddresses = new String[]{
@@ -445,7 +657,7 @@ public class FeeService {
       throw new IllegalArgumentException("Hardwired BRIT address is malformed.", e);
     }
 
-    return hardwiredFeeAddresses;
+    return Collections.unmodifiableSet(hardwiredFeeAddresses);
   }
 
   /**
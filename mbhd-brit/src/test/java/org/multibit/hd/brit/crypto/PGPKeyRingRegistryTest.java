@@ -0,0 +1,139 @@
+package org.multibit.hd.brit.crypto;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PGPKeyRingRegistryTest {
+
+  private static final Logger log = LoggerFactory.getLogger(PGPKeyRingRegistryTest.class);
+
+  @Test
+  public void testLookup_ByIdAndUsage() throws Exception {
+
+    PGPKeyRingRegistry testObject = new PGPKeyRingRegistry(
+      PGPKeyRingRegistry.DEFAULT_CHECK_INTERVAL_MILLIS,
+      PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEYRING_FILE),
+      PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE)
+    );
+
+    // Same choice of encryption key as parsing the public keyring directly
+    PGPPublicKey expectedKey;
+    try (InputStream publicKeyRingInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEYRING_FILE))) {
+      expectedKey = PGPUtils.readPublicKey(publicKeyRingInputStream);
+    }
+    long keyID = expectedKey.getKeyID();
+
+    assertThat(testObject.getEncryptionKey().get().getKeyID()).isEqualTo(keyID);
+    assertThat(testObject.getEncryptionKeys()).isNotEmpty();
+    assertThat(testObject.getPublicKey(keyID).isPresent()).isTrue();
+    assertThat(testObject.getSecretKey(keyID).isPresent()).isTrue();
+    assertThat(testObject.getSigningKeys()).isNotEmpty();
+
+    // Unknown keys are counted as misses
+    assertThat(testObject.getPublicKey(0L).isPresent()).isFalse();
+    assertThat(testObject.getLookupCount()).isEqualTo(4);
+    assertThat(testObject.getMissCount()).isEqualTo(1);
+
+    // Private keys unlock from the parsed rings and decrypt as before
+    Map<Long, PGPPrivateKey> privateKeys = testObject.extractPrivateKeys(PGPUtilsTest.TEST_DATA_PASSWORD);
+    assertThat(privateKeys.containsKey(keyID)).isTrue();
+
+    byte[] plainBytes = "Registry".getBytes(Charsets.UTF_8);
+    byte[] encryptedBytes = PGPUtils.encryptBytes(plainBytes, testObject.getEncryptionKey().get());
+    assertThat(PGPUtils.decryptBytes(encryptedBytes, privateKeys)).isEqualTo(plainBytes);
+
+  }
+
+  @Test
+  public void testReload_FileChanged() throws Exception {
+
+    File keyRingFile = new File(Files.createTempDir(), "matcher.gpg");
+    Files.copy(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE), keyRingFile);
+
+    // Check the file on every lookup
+    PGPKeyRingRegistry testObject = new PGPKeyRingRegistry(0, keyRingFile);
+    long keyID = testObject.getEncryptionKey().get().getKeyID();
+
+    assertThat(testObject.getGeneration()).isEqualTo(1);
+    assertThat(testObject.getSecretKey(keyID).isPresent()).isFalse();
+    assertThat(testObject.reloadIfModified()).isFalse();
+
+    // Replace with the secret keyring
+    Files.copy(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE), keyRingFile);
+    assertThat(keyRingFile.setLastModified(keyRingFile.lastModified() + 10_000)).isTrue();
+
+    assertThat(testObject.getSecretKey(keyID).isPresent()).isTrue();
+    assertThat(testObject.getGeneration()).isEqualTo(2);
+    assertThat(testObject.getReloadCount()).isEqualTo(1);
+
+    // A damaged file leaves the previous keys in place
+    Files.write("Not a keyring".getBytes(Charsets.UTF_8), keyRingFile);
+
+    assertThat(testObject.getSecretKey(keyID).isPresent()).isTrue();
+    assertThat(testObject.getGeneration()).isEqualTo(2);
+    assertThat(testObject.getReloadCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testLookup_Benchmark() throws Exception {
+
+    File publicKeyRingFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEYRING_FILE);
+
+    // Parse the keyring for every lookup
+    int parses = 200;
+    long start = System.nanoTime();
+    for (int i = 0; i < parses; i++) {
+      try (InputStream publicKeyRingInputStream = new FileInputStream(publicKeyRingFile)) {
+        assertThat(PGPUtils.readPublicKey(publicKeyRingInputStream)).isNotNull();
+      }
+    }
+    long parseNanos = (System.nanoTime() - start) / parses;
+
+    // Parse once and look up from the registry
+    PGPKeyRingRegistry testObject = new PGPKeyRingRegistry(PGPKeyRingRegistry.DEFAULT_CHECK_INTERVAL_MILLIS, publicKeyRingFile);
+    long keyID = testObject.getEncryptionKey().get().getKeyID();
+    int lookups = 100_000;
+    start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      assertThat(testObject.getPublicKey(keyID).isPresent()).isTrue();
+    }
+    long lookupNanos = (System.nanoTime() - start) / lookups;
+
+    log.info("Parse per lookup: {} ns, registry lookup: {} ns", parseNanos, lookupNanos);
+
+    assertThat(lookupNanos).isLessThan(parseNanos);
+    assertThat(testObject.getLookupCount()).isEqualTo(lookups + 1);
+    assertThat(testObject.getMissCount()).isEqualTo(0);
+
+  }
+
+}
@@ -20,6 +20,7 @@ import com.google.common.base.Charsets;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import org.bitcoinj.core.Utils;
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.Map;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -100,6 +102,69 @@ public class PGPUtilsTest {
     assertThat(Arrays.equals( EXAMPLE_TEXT.getBytes(Charsets.UTF_8), rebornBytes)).isTrue();
   }
 
+  @Test
+  public void testPGPEncryptDecryptBytes() throws Exception {
+
+    PGPPublicKey encryptionKey;
+    try (InputStream publicKeyInputStream = new FileInputStream(makeFile(TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      encryptionKey = PGPUtils.readPublicKey(publicKeyInputStream);
+    }
+    Map<Long, PGPPrivateKey> privateKeys;
+    try (InputStream secretKeyRingInputStream = new FileInputStream(makeFile(TEST_MATCHER_SECRET_KEYRING_FILE))) {
+      privateKeys = PGPUtils.extractPrivateKeys(secretKeyRingInputStream, TEST_DATA_PASSWORD);
+    }
+
+    // Larger than the streaming buffer to exercise partial packets
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      builder.append(EXAMPLE_TEXT);
+    }
+    byte[] plainBytes = builder.toString().getBytes(Charsets.UTF_8);
+
+    byte[] encryptedBytes = PGPUtils.encryptBytes(plainBytes, encryptionKey);
+    assertThat(new String(encryptedBytes, Charsets.UTF_8)).startsWith("-----BEGIN PGP MESSAGE-----");
+
+    assertThat(PGPUtils.decryptBytes(encryptedBytes, privateKeys)).isEqualTo(plainBytes);
+
+    // Messages encrypted from a file are still readable
+    File testDir = Files.createTempDir();
+    File inputFile = new File(testDir, "plain.txt");
+    Files.write(plainBytes, inputFile);
+    ByteArrayOutputStream encryptedOutputStream = new ByteArrayOutputStream();
+    PGPUtils.encryptFile(encryptedOutputStream, inputFile, encryptionKey);
+
+    assertThat(PGPUtils.decryptBytes(encryptedOutputStream.toByteArray(), privateKeys)).isEqualTo(plainBytes);
+
+  }
+
+  @Test
+  public void testPGPEncryptBytes_Throughput() throws Exception {
+
+    // The public key is parsed once and reused as a Payer would
+    PGPPublicKey encryptionKey;
+    try (InputStream publicKeyInputStream = new FileInputStream(makeFile(TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      encryptionKey = PGPUtils.readPublicKey(publicKeyInputStream);
+    }
+    Map<Long, PGPPrivateKey> privateKeys;
+    try (InputStream secretKeyRingInputStream = new FileInputStream(makeFile(TEST_MATCHER_SECRET_KEYRING_FILE))) {
+      privateKeys = PGPUtils.extractPrivateKeys(secretKeyRingInputStream, TEST_DATA_PASSWORD);
+    }
+
+    // Roughly the size of a serialised payer request
+    byte[] plainBytes = EXAMPLE_TEXT.getBytes(Charsets.UTF_8);
+
+    int messages = 200;
+    long start = System.nanoTime();
+    for (int i = 0; i < messages; i++) {
+      byte[] encryptedBytes = PGPUtils.encryptBytes(plainBytes, encryptionKey);
+      assertThat(PGPUtils.decryptBytes(encryptedBytes, privateKeys)).isEqualTo(plainBytes);
+    }
+    long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+    log.info("Round trip of {} messages in {} ms ({} messages/s)", messages, elapsedMillis, messages * 1_000L / elapsedMillis);
+
+  }
+
   @Test
   public void testLoadPGPPublicKeyFromASCIIArmoredFile() throws Exception {
     File publicKeyFile = makeFile(TEST_MATCHER_PUBLIC_KEY_FILE);
@@ -171,4 +171,22 @@ public class BasicMatcherStoreTest {
     assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId2)).isEqualTo(walletToEncounterLink2);
 
   }
+
+  @Test
+  public void testStoreWalletToEncounterDateLinkIfAbsent() throws Exception {
+
+    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    byte[] seed1 = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(BRITWalletIdTest.SEED_PHRASE_1));
+    BRITWalletId britWalletId1 = new BRITWalletId(seed1);
+
+    WalletToEncounterDateLink first = new WalletToEncounterDateLink(britWalletId1, Optional.of(DateTime.now().minusDays(1).toDate()), Optional.<Date>absent());
+    WalletToEncounterDateLink second = new WalletToEncounterDateLink(britWalletId1, Optional.of(DateTime.now().toDate()), Optional.<Date>absent());
+
+    // The first store wins and the second sees it
+    assertThat(matcherStore.storeWalletToEncounterDateLinkIfAbsent(first)).isNull();
+    assertThat(matcherStore.storeWalletToEncounterDateLinkIfAbsent(second)).isEqualTo(first);
+
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(britWalletId1)).isEqualTo(first);
+
+  }
 }
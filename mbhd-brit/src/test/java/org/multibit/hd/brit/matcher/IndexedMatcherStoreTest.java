@@ -0,0 +1,324 @@
+package org.multibit.hd.brit.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexedMatcherStoreTest {
+
+  private final Random random = new Random(42);
+
+  private File matcherStoreDirectory;
+
+  private IndexedMatcherStore matcherStore;
+
+  private Set<Address> testAddresses;
+
+  @Before
+  public void setUp() throws Exception {
+
+    matcherStoreDirectory = Files.createTempDir();
+    matcherStore = new IndexedMatcherStore(matcherStoreDirectory);
+
+    testAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      new Address(MainNetParams.get(), "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH"),
+      // P2SH
+      new Address(MainNetParams.get(), "3EktnHQD7RiAE6uzMj2ZifT9YgRrkSgzQX")
+    );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    matcherStore.close();
+  }
+
+  @Test
+  public void testStoreAndGetBitcoinAddresses() throws Exception {
+
+    Date today = DateTime.now().toDate();
+
+    matcherStore.storeAllBitcoinAddresses(testAddresses);
+    matcherStore.storeBitcoinAddressesForDate(testAddresses, today);
+
+    IndexedMatcherStore rebornMatcherStore = new IndexedMatcherStore(matcherStoreDirectory);
+
+    assertThat(rebornMatcherStore.getAllBitcoinAddresses()).isEqualTo(testAddresses);
+    assertThat(rebornMatcherStore.lookupBitcoinAddressListForDate(today)).isEqualTo(testAddresses);
+    assertThat(rebornMatcherStore.lookupBitcoinAddressListForDate(DateTime.now().plusDays(1).toDate())).isNull();
+
+    rebornMatcherStore.close();
+  }
+
+  @Test
+  public void testGetAllBitcoinAddresses_ReadOnce() throws Exception {
+
+    matcherStore.storeAllBitcoinAddresses(testAddresses);
+
+    IndexedMatcherStore rebornMatcherStore = new IndexedMatcherStore(matcherStoreDirectory);
+
+    // Decoded on first use then shared
+    Set<Address> allAddresses = rebornMatcherStore.getAllBitcoinAddresses();
+    assertThat(allAddresses).isEqualTo(testAddresses);
+    assertThat(rebornMatcherStore.getAllBitcoinAddresses()).isSameAs(allAddresses);
+
+    // A new set replaces the held one
+    Set<Address> fewerAddresses = Sets.newHashSet(testAddresses.iterator().next());
+    rebornMatcherStore.storeAllBitcoinAddresses(fewerAddresses);
+    assertThat(rebornMatcherStore.getAllBitcoinAddresses()).isEqualTo(fewerAddresses);
+
+    rebornMatcherStore.close();
+  }
+
+  @Test
+  public void testStoreAndLookupLinks_LatestWins() throws Exception {
+
+    BRITWalletId britWalletId = newBritWalletId();
+
+    WalletToEncounterDateLink first = new WalletToEncounterDateLink(britWalletId, Optional.of(new Date(1_000L)), Optional.<Date>absent());
+    WalletToEncounterDateLink second = new WalletToEncounterDateLink(britWalletId, Optional.of(new Date(1_000L)), Optional.of(new Date(500L)));
+
+    matcherStore.storeWalletToEncounterDateLink(first);
+    matcherStore.storeWalletToEncounterDateLink(second);
+
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(britWalletId)).isEqualTo(second);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(newBritWalletId())).isNull();
+
+    // Bounce the MatcherStore to check the log is mapped on start up
+    IndexedMatcherStore rebornMatcherStore = new IndexedMatcherStore(matcherStoreDirectory);
+    assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId)).isEqualTo(second);
+    rebornMatcherStore.close();
+
+  }
+
+  @Test
+  public void testLinkIndex_Fold() throws Exception {
+
+    File linksFile = new File(matcherStoreDirectory, "fold.log");
+    LinkLog linkLog = new LinkLog(linksFile, LinkIndex.RECORD_LENGTH);
+
+    // A small limit forces several folds including a resize of the table
+    LinkIndex linkIndex = new LinkIndex(linkLog, 100);
+
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (int i = 0; i < 5_000; i++) {
+      WalletToEncounterDateLink link = new WalletToEncounterDateLink(newBritWalletId(), Optional.of(new Date(i)), Optional.of(new Date(i + 1)));
+      linkLog.append(LinkIndex.toRecord(link));
+      linkIndex.put(link);
+      links.add(link);
+    }
+
+    assertThat(linkIndex.getMappedRecordCount()).isGreaterThan(4_800);
+
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(linkIndex.lookup(link.getBritWalletId())).isEqualTo(link);
+    }
+
+    linkLog.close();
+  }
+
+  @Test
+  public void testLinkIndex_FullChunksMappedOnce() throws Exception {
+
+    File linksFile = new File(matcherStoreDirectory, "chunks.log");
+    LinkLog linkLog = new LinkLog(linksFile, LinkIndex.RECORD_LENGTH);
+
+    // Small chunks so the log spans many of them across the folds
+    int chunkRecords = 64;
+    LinkIndex linkIndex = new LinkIndex(linkLog, 100, chunkRecords);
+
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (int i = 0; i < 5_000; i++) {
+      WalletToEncounterDateLink link = new WalletToEncounterDateLink(newBritWalletId(), Optional.of(new Date(i)), Optional.<Date>absent());
+      linkLog.append(LinkIndex.toRecord(link));
+      linkIndex.put(link);
+      links.add(link);
+    }
+
+    // Remapping the whole log on each of the 50 folds would map about 25 times its length
+    assertThat(linkIndex.getMappedBytes()).isLessThan(2 * linksFile.length());
+
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(linkIndex.lookup(link.getBritWalletId())).isEqualTo(link);
+    }
+
+    linkLog.close();
+  }
+
+  @Test
+  public void testConcurrentStores_GroupCommitted() throws Exception {
+
+    final int threads = 8;
+    final int linksPerThread = 200;
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Future<List<WalletToEncounterDateLink>>> futures = Lists.newArrayList();
+
+    for (int i = 0; i < threads; i++) {
+      futures.add(executorService.submit(new Callable<List<WalletToEncounterDateLink>>() {
+        @Override
+        public List<WalletToEncounterDateLink> call() throws Exception {
+          List<WalletToEncounterDateLink> stored = Lists.newArrayList();
+          for (int j = 0; j < linksPerThread; j++) {
+            WalletToEncounterDateLink link = new WalletToEncounterDateLink(newBritWalletId(), Optional.of(new Date()), Optional.<Date>absent());
+            matcherStore.storeWalletToEncounterDateLink(link);
+            stored.add(link);
+          }
+          return stored;
+        }
+      }));
+    }
+
+    List<WalletToEncounterDateLink> stored = Lists.newArrayList();
+    for (Future<List<WalletToEncounterDateLink>> future : futures) {
+      stored.addAll(future.get(1, TimeUnit.MINUTES));
+    }
+    executorService.shutdown();
+
+    File linksFile = new File(matcherStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    assertThat(linksFile.length()).isEqualTo((long) threads * linksPerThread * LinkIndex.RECORD_LENGTH);
+
+    IndexedMatcherStore rebornMatcherStore = new IndexedMatcherStore(matcherStoreDirectory);
+    for (WalletToEncounterDateLink link : stored) {
+      assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    }
+    rebornMatcherStore.close();
+  }
+
+  @Test
+  public void testStoreIfAbsent_OneLinkPerWallet() throws Exception {
+
+    final int threads = 8;
+    final BRITWalletId britWalletId = newBritWalletId();
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Future<WalletToEncounterDateLink>> futures = Lists.newArrayList();
+
+    for (int i = 0; i < threads; i++) {
+      final WalletToEncounterDateLink link = new WalletToEncounterDateLink(britWalletId, Optional.of(new Date(1_000L + i)), Optional.<Date>absent());
+      futures.add(executorService.submit(new Callable<WalletToEncounterDateLink>() {
+        @Override
+        public WalletToEncounterDateLink call() throws Exception {
+          WalletToEncounterDateLink previous = matcherStore.storeWalletToEncounterDateLinkIfAbsent(link);
+          return previous == null ? link : null;
+        }
+      }));
+    }
+
+    List<WalletToEncounterDateLink> stored = Lists.newArrayList();
+    for (Future<WalletToEncounterDateLink> future : futures) {
+      WalletToEncounterDateLink link = future.get(1, TimeUnit.MINUTES);
+      if (link != null) {
+        stored.add(link);
+      }
+    }
+    executorService.shutdown();
+
+    // Only the first request stores a link and the rest see it
+    assertThat(stored.size()).isEqualTo(1);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(britWalletId)).isEqualTo(stored.get(0));
+
+    File linksFile = new File(matcherStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    assertThat(linksFile.length()).isEqualTo((long) LinkIndex.RECORD_LENGTH);
+  }
+
+  @Test
+  public void testPartialRecord_Discarded() throws Exception {
+
+    WalletToEncounterDateLink link = new WalletToEncounterDateLink(newBritWalletId(), Optional.of(new Date()), Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link);
+    matcherStore.close();
+
+    // Simulate a crash part way through writing the next record
+    File linksFile = new File(matcherStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    try (RandomAccessFile file = new RandomAccessFile(linksFile, "rw")) {
+      file.seek(file.length());
+      file.write(new byte[10]);
+    }
+
+    matcherStore = new IndexedMatcherStore(matcherStoreDirectory);
+    assertThat(linksFile.length()).isEqualTo((long) LinkIndex.RECORD_LENGTH);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+  }
+
+  @Test
+  public void testMigration() throws Exception {
+
+    File basicStoreDirectory = Files.createTempDir();
+    MatcherStore basicMatcherStore = MatcherStores.newBasicMatcherStore(basicStoreDirectory);
+
+    Date today = DateTime.now().toDate();
+    basicMatcherStore.storeAllBitcoinAddresses(testAddresses);
+    basicMatcherStore.storeBitcoinAddressesForDate(testAddresses, today);
+
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (int i = 0; i < 50; i++) {
+      WalletToEncounterDateLink link = new WalletToEncounterDateLink(newBritWalletId(), Optional.of(new Date(i * 1_000L)), Optional.<Date>absent());
+      basicMatcherStore.storeWalletToEncounterDateLink(link);
+      links.add(link);
+    }
+
+    File indexedStoreDirectory = new File(Files.createTempDir(), "indexed");
+    assertThat(MatcherStoreMigration.migrate(basicStoreDirectory, indexedStoreDirectory)).isEqualTo(50);
+
+    IndexedMatcherStore migratedMatcherStore = new IndexedMatcherStore(indexedStoreDirectory);
+
+    assertThat(migratedMatcherStore.getAllBitcoinAddresses()).isEqualTo(testAddresses);
+    assertThat(migratedMatcherStore.lookupBitcoinAddressListForDate(today)).isEqualTo(testAddresses);
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(migratedMatcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    }
+
+    migratedMatcherStore.close();
+  }
+
+  private BRITWalletId newBritWalletId() {
+
+    byte[] bytes = new byte[LinkIndex.KEY_LENGTH];
+    synchronized (random) {
+      random.nextBytes(bytes);
+    }
+
+    return new BRITWalletId(Utils.HEX.encode(bytes));
+  }
+}
@@ -0,0 +1,267 @@
+package org.multibit.hd.brit.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.params.MainNetParams;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Load test harness for a single Matcher shared by many concurrent Payers.</p>
+ * <p>A local HTTP endpoint stands in for the Matcher deployment. Increase the load with
+ * <code>-Dbrit.load.threads=16 -Dbrit.load.requests=1000</code> (requests per thread).</p>
+ */
+public class MatcherLoadTest {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherLoadTest.class);
+
+  private static final int THREADS = Integer.getInteger("brit.load.threads", 4);
+
+  private static final int REQUESTS_PER_THREAD = Integer.getInteger("brit.load.requests", 25);
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private HttpServer server;
+
+  private ExecutorService serverExecutor;
+
+  private URL matcherURL;
+
+  private PGPPublicKey matcherPublicKey;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // One matcher instance serves every request
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD);
+
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(Files.createTempDir());
+    Set<Address> bitcoinAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      new Address(MainNetParams.get(), "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH")
+    );
+    matcherStore.storeBitcoinAddressesForDate(bitcoinAddresses, new Date());
+
+    final Matcher matcher = Matchers.newBasicMatcher(matcherConfig, matcherStore);
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/brit", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try (InputStream requestBody = exchange.getRequestBody()) {
+
+          byte[] payload = ByteStreams.toByteArray(requestBody);
+          byte[] response = matcher.match(new EncryptedPayerRequest(payload)).getPayload();
+
+          exchange.sendResponseHeaders(200, response.length);
+          try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(response);
+          }
+
+        } catch (Exception e) {
+          log.error("Matcher failed", e);
+          exchange.sendResponseHeaders(500, -1);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+
+    serverExecutor = Executors.newFixedThreadPool(THREADS);
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    matcherURL = new URL("http://localhost:" + server.getAddress().getPort() + "/brit");
+
+    try (InputStream matcherPublicKeyInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      matcherPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    server.stop(0);
+    serverExecutor.shutdownNow();
+
+  }
+
+  @Test
+  public void testConcurrentPayers() throws Exception {
+
+    // Encrypt the requests up front so only the exchange is measured
+    final List<List<Exchange>> exchangesByThread = Lists.newArrayList();
+    for (int i = 0; i < THREADS; i++) {
+      List<Exchange> exchanges = Lists.newArrayList();
+      for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+        exchanges.add(newExchange());
+      }
+      exchangesByThread.add(exchanges);
+    }
+
+    // Warm up the matcher (unlocks the private key)
+    post(newExchange().encryptedPayerRequest.getPayload());
+
+    ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+    List<Future<List<Long>>> futures = Lists.newArrayList();
+
+    long start = System.nanoTime();
+    for (final List<Exchange> exchanges : exchangesByThread) {
+      futures.add(clients.submit(new Callable<List<Long>>() {
+        @Override
+        public List<Long> call() throws Exception {
+
+          List<Long> latencies = Lists.newArrayList();
+          for (Exchange exchange : exchanges) {
+
+            long requestStart = System.nanoTime();
+            byte[] response = post(exchange.encryptedPayerRequest.getPayload());
+            latencies.add(System.nanoTime() - requestStart);
+
+            // Only the Payer that made the request can read the response
+            MatcherResponse matcherResponse = exchange.payer.decryptMatcherResponse(new EncryptedMatcherResponse(response));
+            assertThat(matcherResponse.getBitcoinAddresses()).isNotEmpty();
+          }
+          return latencies;
+        }
+      }));
+    }
+
+    List<Long> latencies = Lists.newArrayList();
+    for (Future<List<Long>> future : futures) {
+      latencies.addAll(future.get(5, TimeUnit.MINUTES));
+    }
+    long elapsed = System.nanoTime() - start;
+    clients.shutdown();
+
+    assertThat(latencies.size()).isEqualTo(THREADS * REQUESTS_PER_THREAD);
+
+    Collections.sort(latencies);
+    log.info(
+      "{} threads, {} requests: {} requests/sec, latency p50 {} ms, p90 {} ms, p99 {} ms, max {} ms",
+      THREADS,
+      latencies.size(),
+      String.format("%.1f", latencies.size() / (elapsed / 1e9)),
+      percentileMillis(latencies, 50),
+      percentileMillis(latencies, 90),
+      percentileMillis(latencies, 99),
+      percentileMillis(latencies, 100)
+    );
+
+  }
+
+  private Exchange newExchange() throws Exception {
+
+    byte[] walletSeed = new byte[64];
+    secureRandom.nextBytes(walletSeed);
+
+    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionId);
+
+    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPublicKey));
+    EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(
+      payer.newPayerRequest(new BRITWalletId(walletSeed), sessionId, Optional.of(new Date()))
+    );
+
+    return new Exchange(payer, encryptedPayerRequest);
+  }
+
+  private byte[] post(byte[] payload) throws IOException {
+
+    HttpURLConnection connection = (HttpURLConnection) matcherURL.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+    try (DataOutputStream postOutputStream = new DataOutputStream(connection.getOutputStream())) {
+      postOutputStream.write(payload);
+    }
+
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+
+    try (InputStream responseInputStream = connection.getInputStream()) {
+      return ByteStreams.toByteArray(responseInputStream);
+    }
+  }
+
+  private static long percentileMillis(List<Long> sortedLatencies, int percentile) {
+
+    int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.size()) - 1;
+    return TimeUnit.NANOSECONDS.toMillis(sortedLatencies.get(Math.max(0, index)));
+  }
+
+  /**
+   * A Payer and the request it made (the Payer holds the session key for the response)
+   */
+  private static class Exchange {
+
+    private final Payer payer;
+    private final EncryptedPayerRequest encryptedPayerRequest;
+
+    private Exchange(Payer payer, EncryptedPayerRequest encryptedPayerRequest) {
+      this.payer = payer;
+      this.encryptedPayerRequest = encryptedPayerRequest;
+    }
+  }
+}
@@ -18,6 +18,7 @@ package org.multibit.hd.brit.services;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.bitcoinj.core.*;
 import org.bitcoinj.params.MainNetParams;
@@ -33,7 +34,9 @@ import org.junit.Test;
 import org.multibit.hd.brit.crypto.PGPUtils;
 import org.multibit.hd.brit.crypto.PGPUtilsTest;
 import org.multibit.hd.brit.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.dto.FeeLedger;
 import org.multibit.hd.brit.dto.FeeState;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
@@ -159,6 +162,107 @@ public class FeeServicesTest {
     checkFeeState(feeState, true, NUMBER_OF_NON_FEE_SENDS + 1, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
   }
 
+  @Test
+  public void testFeeLedger_MatchesFullRecalculation() throws Exception {
+
+    FeeService feeService = BRITServices.newFeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+
+    // Build the ledger against an empty wallet so that later changes are incremental
+    feeService.calculateFeeState(wallet1, false);
+    assertThat(FeeService.getFeeLedgerFromWallet(wallet1)).isNotNull();
+
+    receiveATransaction(wallet1, toAddress1);
+
+    Address feeAddress = feeService.getHardwiredFeeAddresses().iterator().next();
+    for (int i = 0; i < 5; i++) {
+      Transaction tx = sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+      feeService.recordTransaction(wallet1, tx);
+    }
+    Transaction feeTx = sendBitcoin(parseCoin("0.0001"), feeAddress, null);
+    feeService.recordTransaction(wallet1, feeTx);
+
+    // A send that arrives without an event is picked up on the next request
+    sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    FeeState incrementalFeeState = feeService.calculateFeeState(wallet1, false);
+
+    FeeLedger incrementalLedger = FeeService.getFeeLedgerFromWallet(wallet1);
+    assertThat(incrementalLedger.getSendCount()).isEqualTo(7);
+    assertThat(incrementalLedger.getFeePaid()).isEqualTo(parseCoin("0.0001"));
+    assertThat(incrementalLedger.getLastFeePayingSendCount().get()).isEqualTo(5);
+    assertThat(incrementalLedger.getLastFeePayingAddress().get()).isEqualTo(feeAddress);
+
+    // Force a full recalculation (as after a reorganisation) and compare
+    FeeService.invalidateFeeLedger(wallet1);
+    assertThat(FeeService.getFeeLedgerFromWallet(wallet1)).isNull();
+
+    FeeState recalculatedFeeState = feeService.calculateFeeState(wallet1, false);
+    assertThat(FeeService.getFeeLedgerFromWallet(wallet1)).isEqualTo(incrementalLedger);
+    assertThat(recalculatedFeeState.getCurrentNumberOfSends()).isEqualTo(incrementalFeeState.getCurrentNumberOfSends());
+    assertThat(recalculatedFeeState.getFeeOwed()).isEqualTo(incrementalFeeState.getFeeOwed());
+
+    // Round trip through the wallet extension
+    FeeLedgerWalletExtension extension = new FeeLedgerWalletExtension(incrementalLedger);
+    FeeLedgerWalletExtension readExtension = new FeeLedgerWalletExtension();
+    readExtension.deserializeWalletExtension(wallet1, extension.serializeWalletExtension());
+    assertThat(readExtension.getFeeLedger()).isEqualTo(incrementalLedger);
+    assertThat(readExtension.getFeeLedger().isAttached()).isFalse();
+
+    // A loaded ledger that matches the wallet is attached without a rebuild
+    wallet1.addOrUpdateExtension(readExtension);
+    feeService.calculateFeeState(wallet1, false);
+    assertThat(FeeService.getFeeLedgerFromWallet(wallet1)).isSameAs(readExtension.getFeeLedger());
+    assertThat(readExtension.getFeeLedger().isAttached()).isTrue();
+
+  }
+
+  @Test
+  public void testFeeLedger_SentBySelfSetAfterRecord() throws Exception {
+
+    FeeService feeService = BRITServices.newFeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+
+    // Sent by self is only known once the transaction info is written (as MainController does after the send)
+    final Set<Sha256Hash> sentBySelf = Sets.newHashSet();
+    feeService.setTransactionSentBySelfProvider(new TransactionSentBySelfProvider() {
+      @Override
+      public boolean isSentBySelf(Wallet wallet, Transaction transaction) {
+        return sentBySelf.contains(transaction.getHash());
+      }
+    });
+
+    feeService.calculateFeeState(wallet1, false);
+    receiveATransaction(wallet1, toAddress1);
+
+    Transaction tx = sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    feeService.recordTransaction(wallet1, tx);
+
+    FeeState feeState = feeService.calculateFeeState(wallet1, false);
+    assertThat(feeState.getCurrentNumberOfSends()).isEqualTo(0);
+    assertThat(FeeService.getFeeLedgerFromWallet(wallet1).getUndecidedTransactions()).containsOnly(tx.getHash());
+
+    // Undecided transactions survive a save and load
+    FeeLedgerWalletExtension readExtension = new FeeLedgerWalletExtension();
+    readExtension.deserializeWalletExtension(wallet1, new FeeLedgerWalletExtension(FeeService.getFeeLedgerFromWallet(wallet1)).serializeWalletExtension());
+    assertThat(readExtension.getFeeLedger()).isEqualTo(FeeService.getFeeLedgerFromWallet(wallet1));
+
+    // The next fee state request counts the send
+    sentBySelf.add(tx.getHash());
+    feeState = feeService.calculateFeeState(wallet1, false);
+    assertThat(feeState.getCurrentNumberOfSends()).isEqualTo(1);
+    assertThat(feeState.getFeeOwed()).isEqualTo(FeeService.FEE_PER_SEND);
+
+    FeeLedger feeLedger = FeeService.getFeeLedgerFromWallet(wallet1);
+    assertThat(feeLedger.getUndecidedTransactions()).isEmpty();
+    assertThat(feeLedger.getTransactionCount()).isEqualTo(2);
+
+    // Receives are never undecided and the ledger matches a full recalculation
+    FeeService.invalidateFeeLedger(wallet1);
+    feeService.calculateFeeState(wallet1, false);
+    assertThat(FeeService.getFeeLedgerFromWallet(wallet1)).isEqualTo(feeLedger);
+
+  }
+
   @Test
   public void checkFeePerKB() {
 
@@ -277,7 +381,7 @@ public class FeeServicesTest {
 
   }
 
-  private void sendBitcoin(Coin amount, Address destinationAddress, KeyParameter aesKey) throws Exception {
+  private Transaction sendBitcoin(Coin amount, Address destinationAddress, KeyParameter aesKey) throws Exception {
 
     Wallet.SendRequest req = Wallet.SendRequest.to(destinationAddress, amount);
     req.aesKey = aesKey;
@@ -290,6 +394,8 @@ public class FeeServicesTest {
     // Broadcast the transaction and commit.
     broadcastAndCommit(wallet1, req.tx);
 
+    return req.tx;
+
   }
 }
 
@@ -262,6 +262,11 @@ public class Configuration {
     configuration.setTrezor(isTrezor());
     configuration.setShowRestoreBeta7Wallets(isShowRestoreBeta7Wallets());
 
+    // Preserve unknown objects so they survive persisting a copy
+    for (Map.Entry<String, Object> entry : other.entrySet()) {
+      configuration.set(entry.getKey(), entry.getValue());
+    }
+
     return configuration;
   }
 }
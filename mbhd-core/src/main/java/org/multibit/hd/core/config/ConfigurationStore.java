@@ -0,0 +1,204 @@
+package org.multibit.hd.core.config;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Store to provide the following to Configurations:</p>
+ * <ul>
+ * <li>Persistence of configurations on a background writer so callers (often the EDT) never wait for disk</li>
+ * <li>Coalescing of rapid successive changes into a single write of the latest configuration</li>
+ * <li>Skipping of writes when the serialised form is unchanged</li>
+ * <li>Atomic replacement of the configuration file so a crash never leaves it half written</li>
+ * </ul>
+ *
+ * @since 0.3.6
+ */
+public class ConfigurationStore {
+
+  private static final Logger log = LoggerFactory.getLogger(ConfigurationStore.class);
+
+  private final ListeningScheduledExecutorService writerService = SafeExecutors.newSingleThreadScheduledExecutor("configuration-writer");
+
+  private final long coalesceMillis;
+
+  /**
+   * The most recent configuration awaiting a write (null if none)
+   */
+  private Configuration pendingConfiguration;
+
+  private File pendingFile;
+
+  /**
+   * True if a write is scheduled for the pending configuration
+   */
+  private boolean writeScheduled = false;
+
+  /**
+   * The last serialised form written (only accessed by the writer)
+   */
+  private byte[] lastWrittenBytes;
+
+  private File lastWrittenFile;
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong writeCount = new AtomicLong();
+  private final AtomicLong unchangedCount = new AtomicLong();
+
+  /**
+   * @param coalesceMillis The time to wait for further changes before writing
+   */
+  public ConfigurationStore(long coalesceMillis) {
+
+    Preconditions.checkArgument(coalesceMillis >= 0, "'coalesceMillis' must not be negative");
+
+    this.coalesceMillis = coalesceMillis;
+
+  }
+
+  /**
+   * <p>Request a write of the configuration. This returns immediately.</p>
+   *
+   * @param configuration     The configuration (callers must not change it afterwards - pass a deep copy of a live configuration)
+   * @param configurationFile The configuration file
+   */
+  public synchronized void persistLater(Configuration configuration, File configurationFile) {
+
+    Preconditions.checkNotNull(configuration, "'configuration' must be present");
+    Preconditions.checkNotNull(configurationFile, "'configurationFile' must be present");
+
+    requestCount.incrementAndGet();
+
+    pendingConfiguration = configuration;
+    pendingFile = configurationFile;
+
+    if (!writeScheduled) {
+      writeScheduled = true;
+      writerService.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            writePending();
+          }
+        }, coalesceMillis, TimeUnit.MILLISECONDS);
+    }
+
+  }
+
+  /**
+   * <p>Write any pending configuration and wait for it to reach the disk (e.g. during shutdown)</p>
+   */
+  public void flush() {
+
+    Future<?> future = writerService.submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          writePending();
+        }
+      });
+
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("Configuration flush failed", e.getCause());
+    }
+
+  }
+
+  /**
+   * @return The number of writes requested
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * @return The number of writes that reached the disk
+   */
+  public long getWriteCount() {
+    return writeCount.get();
+  }
+
+  /**
+   * @return The number of writes skipped because nothing had changed
+   */
+  public long getUnchangedCount() {
+    return unchangedCount.get();
+  }
+
+  /**
+   * <p>Write the pending configuration (runs on the writer thread)</p>
+   */
+  private void writePending() {
+
+    Configuration configuration;
+    File configurationFile;
+    synchronized (this) {
+      configuration = pendingConfiguration;
+      configurationFile = pendingFile;
+      pendingConfiguration = null;
+      pendingFile = null;
+      writeScheduled = false;
+    }
+
+    if (configuration == null) {
+      return;
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Yaml.writeYaml(baos, configuration);
+    byte[] configurationBytes = baos.toByteArray();
+
+    if (configurationFile.equals(lastWrittenFile) && Arrays.equals(configurationBytes, lastWrittenBytes)) {
+      unchangedCount.incrementAndGet();
+      return;
+    }
+
+    try {
+      writeAtomically(configurationBytes, configurationFile);
+      lastWrittenBytes = configurationBytes;
+      lastWrittenFile = configurationFile;
+      writeCount.incrementAndGet();
+      log.debug("Persisted configuration ({} bytes)", configurationBytes.length);
+    } catch (IOException e) {
+      log.error("Could not persist configuration to '" + configurationFile.getAbsolutePath() + "'", e);
+    }
+
+  }
+
+  private static void writeAtomically(byte[] bytes, File file) throws IOException {
+
+    File tempFile = new File(file.getAbsolutePath() + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+      fos.write(bytes);
+      fos.getFD().sync();
+    }
+
+    try {
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+  }
+
+}
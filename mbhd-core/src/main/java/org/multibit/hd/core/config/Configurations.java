@@ -2,14 +2,11 @@ package org.multibit.hd.core.config;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.multibit.hd.core.events.CoreEvents;
-import org.multibit.hd.core.exceptions.ExceptionHandler;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.Locale;
 
 /**
@@ -29,6 +26,11 @@ public class Configurations {
 
   private static final Logger log = LoggerFactory.getLogger(Configurations.class);
 
+  /**
+   * The time to wait for further changes before writing the configuration
+   */
+  private static final long PERSIST_DELAY_MILLIS = 250;
+
   /**
    * The current runtime configuration (preserved across soft restarts)
    */
@@ -39,6 +41,11 @@ public class Configurations {
    */
   public static Configuration previousConfiguration;
 
+  /**
+   * Writes configurations on a background thread, coalescing rapid changes
+   */
+  private static final ConfigurationStore configurationStore = new ConfigurationStore(PERSIST_DELAY_MILLIS);
+
   /**
    * Utilities have private constructors
    */
@@ -94,6 +101,9 @@ public class Configurations {
   /**
    * <p>Persist the current configuration</p>
    *
+   * <p>The write takes place on a background thread so this returns immediately. Use {@link #flushConfiguration()}
+   * to wait for the write to complete.</p>
+   *
    * <p>No locale change or event takes place (see {@link #switchConfiguration(Configuration)})</p>
    */
   public static synchronized void persistCurrentConfiguration() {
@@ -105,14 +115,18 @@ public class Configurations {
     // in unit tests (see BitcoinURIListeningServiceTest for an example)
     File configurationFile = InstallationManager.getConfigurationFile();
 
-    // Persist the new configuration
-    try (FileOutputStream fos = new FileOutputStream(configurationFile)) {
+    // Persist a copy so later changes to the live configuration cannot race the writer
+    configurationStore.persistLater(currentConfiguration.deepCopy(), configurationFile);
+
+  }
+
+  /**
+   * <p>Wait for any pending configuration write to reach the disk (e.g. during shutdown)</p>
+   */
+  public static void flushConfiguration() {
 
-      Yaml.writeYaml(fos, Configurations.currentConfiguration);
+    configurationStore.flush();
 
-    } catch (IOException e) {
-      ExceptionHandler.handleThrowable(e);
-    }
   }
 
 }
@@ -0,0 +1,210 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>Session to provide the following to wizards creating or restoring wallets:</p>
+ * <ul>
+ * <li>Memoisation of the deliberately expensive entropy derived from a seed (wallet IDs, backup keys)</li>
+ * <li>An explicit lifetime so derived material is only held while the owner is open</li>
+ * <li>Zeroing of all memoised material on close</li>
+ * </ul>
+ * <p>Only derivations made through the session are memoised. The owner passes the session to the code
+ * deriving from the seed, so password based derivations and other callers of {@link AESUtils} are
+ * never affected.</p>
+ * <p>Entries are keyed by an HMAC of the secret and salt under a random key created for the session
+ * so the memo holds nothing that can be used to test guesses at the secret without the scrypt cost.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * SeedDerivationSession session = SeedDerivationSession.open();
+ * try {
+ *   // Derive wallet IDs and backup keys as often as required
+ * } finally {
+ *   session.close();
+ * }
+ * </pre>
+ *
+ * @since 0.3.6
+ */
+public class SeedDerivationSession {
+
+  private static final Logger log = LoggerFactory.getLogger(SeedDerivationSession.class);
+
+  private static final String MEMO_KEY_ALGORITHM = "HmacSHA256";
+
+  private static final int MEMO_KEY_LENGTH = 32;
+
+  /**
+   * Derived entropy keyed by an HMAC of the secret and salt (never the secret itself)
+   */
+  private final Map<String, byte[]> memo = Maps.newHashMap();
+
+  /**
+   * The random key used for the memo HMAC, zeroed on close
+   */
+  private final byte[] memoKey = new byte[MEMO_KEY_LENGTH];
+
+  private long derivationCount = 0;
+  private long memoHitCount = 0;
+
+  private boolean closed = false;
+
+  private SeedDerivationSession() {
+
+    new SecureRandom().nextBytes(memoKey);
+
+  }
+
+  /**
+   * @return A new session which must be closed when the owner has finished with the seed
+   */
+  public static SeedDerivationSession open() {
+
+    log.debug("Opened seed derivation session");
+
+    return new SeedDerivationSession();
+
+  }
+
+  /**
+   * <p>Close this session, zeroing all memoised material. Closing is idempotent.</p>
+   * <p>Derivations made through a closed session are performed in full and not memoised.</p>
+   */
+  public synchronized void close() {
+
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    for (byte[] entropy : memo.values()) {
+      Arrays.fill(entropy, (byte) 0);
+    }
+    memo.clear();
+    Arrays.fill(memoKey, (byte) 0);
+
+    log.debug("Closed seed derivation session");
+
+  }
+
+  /**
+   * @return True if this session has been closed
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @param seed The seed bytes
+   * @param salt The salt
+   *
+   * @return The entropy as {@link AESUtils#generate160BitsOfEntropy(byte[], byte[])}, memoised while the session is open
+   */
+  public byte[] generate160BitsOfEntropy(byte[] seed, byte[] salt) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(salt, "'salt' must be present");
+
+    String key;
+    synchronized (this) {
+      if (closed) {
+        return AESUtils.generate160BitsOfEntropy(seed, salt);
+      }
+      key = memoKey(seed, salt);
+      byte[] entropy = memo.get(key);
+      if (entropy != null) {
+        memoHitCount++;
+        return Arrays.copyOf(entropy, entropy.length);
+      }
+    }
+
+    // Derive outside the lock since scrypt is deliberately slow
+    byte[] entropy = AESUtils.generate160BitsOfEntropy(seed, salt);
+
+    synchronized (this) {
+      derivationCount++;
+      if (!closed) {
+        memo.put(key, Arrays.copyOf(entropy, entropy.length));
+      }
+    }
+
+    return entropy;
+
+  }
+
+  /**
+   * @param seed The seed bytes
+   * @param salt The salt
+   *
+   * @return The AES key as {@link AESUtils#createAESKey(byte[], byte[])}, memoised while the session is open
+   *
+   * @throws NoSuchAlgorithmException If SHA-256 is not available
+   */
+  public KeyParameter createAESKey(byte[] seed, byte[] salt) throws NoSuchAlgorithmException {
+
+    byte[] entropy = generate160BitsOfEntropy(seed, salt);
+
+    // Stretch the 20 byte entropy to 32 bytes (256 bits) using SHA256
+    byte[] stretchedEntropy = MessageDigest.getInstance("SHA-256").digest(entropy);
+    Arrays.fill(entropy, (byte) 0);
+
+    return new KeyParameter(stretchedEntropy);
+
+  }
+
+  /**
+   * @return The number of full derivations performed through this session
+   */
+  public synchronized long getDerivationCount() {
+    return derivationCount;
+  }
+
+  /**
+   * @return The number of derivations answered from the memo
+   */
+  public synchronized long getMemoHitCount() {
+    return memoHitCount;
+  }
+
+  /**
+   * @return The number of memoised derivations
+   */
+  synchronized int size() {
+    return memo.size();
+  }
+
+  private String memoKey(byte[] secret, byte[] salt) {
+
+    try {
+      Mac mac = Mac.getInstance(MEMO_KEY_ALGORITHM);
+      mac.init(new SecretKeySpec(memoKey, MEMO_KEY_ALGORITHM));
+
+      // Length prefixes keep (secret, salt) pairs unambiguous
+      mac.update(ByteBuffer.allocate(4).putInt(secret.length).array());
+      mac.update(secret);
+      mac.update(ByteBuffer.allocate(4).putInt(salt.length).array());
+      mac.update(salt);
+
+      return BaseEncoding.base16().encode(mac.doFinal());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot create the seed derivation memo key", e);
+    }
+
+  }
+
+}
@@ -25,6 +25,8 @@ public class BackupSummary {
 
   private DateTime created;
 
+  private boolean corrupt = false;
+
   /**
    * @param walletId The unique wallet identifier
    * @param name     The name given to the wallet
@@ -70,12 +72,24 @@ public class BackupSummary {
     this.created = created;
   }
 
+  /**
+   * @return True if the backup does not match its backup catalog entry (offered last in case the catalog is stale)
+   */
+  public boolean isCorrupt() {
+    return corrupt;
+  }
+
+  public void setCorrupt(boolean corrupt) {
+    this.corrupt = corrupt;
+  }
+
   @Override
   public String toString() {
     return "BackupSummary{" +
       "walletId=" + walletId +
       ", name='" + name + '\'' +
       ", created=" + created +
+      ", corrupt=" + corrupt +
       '}';
   }
 }
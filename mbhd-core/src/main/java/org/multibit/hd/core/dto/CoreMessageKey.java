@@ -75,6 +75,9 @@ public enum CoreMessageKey {
   @Deprecated
   TRANSACTION_BY("core_transaction_by"),
 
+  // Export messages
+  EXPORT_WAS_CANCELLED("core_export_was_cancelled"),
+
   // Exchange messages
   EXCHANGE_OK("core_exchange_ok"),
   EXCHANGE_ERROR("core_exchange_error"),
@@ -0,0 +1,78 @@
+package org.multibit.hd.core.dto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * <p>Value object to provide the following to paged payment views:</p>
+ * <ul>
+ * <li>A window of sorted, filtered payments</li>
+ * <li>The total number of payments matching the query so the view can size itself</li>
+ * </ul>
+ *
+ * @since 0.3.6
+ */
+public class PaymentPage {
+
+  private final int offset;
+
+  private final int totalCount;
+
+  private final List<PaymentData> payments;
+
+  /**
+   * @param offset     The offset of the first payment in this page within the full result
+   * @param totalCount The total number of payments matching the query
+   * @param payments   The payments in this page
+   */
+  public PaymentPage(int offset, int totalCount, List<PaymentData> payments) {
+
+    Preconditions.checkArgument(offset >= 0, "'offset' must be non-negative");
+    Preconditions.checkNotNull(payments, "'payments' must be present");
+
+    this.offset = offset;
+    this.totalCount = totalCount;
+    this.payments = ImmutableList.copyOf(payments);
+  }
+
+  /**
+   * @return The offset of the first payment in this page
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return The total number of payments matching the query (not just this page)
+   */
+  public int getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @return The payments in this page in sort order
+   */
+  public List<PaymentData> getPayments() {
+    return payments;
+  }
+
+  /**
+   * @param index The absolute index within the full result
+   *
+   * @return True if this page holds the payment at the given index
+   */
+  public boolean contains(int index) {
+    return index >= offset && index < offset + payments.size();
+  }
+
+  @Override
+  public String toString() {
+    return "PaymentPage{" +
+      "offset=" + offset +
+      ", totalCount=" + totalCount +
+      ", size=" + payments.size() +
+      '}';
+  }
+}
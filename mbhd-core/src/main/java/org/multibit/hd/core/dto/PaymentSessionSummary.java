@@ -2,6 +2,7 @@ package org.multibit.hd.core.dto;
 
 import com.google.common.base.Optional;
 import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.protocols.payments.PaymentProtocol;
 import org.bitcoinj.protocols.payments.PaymentProtocolException;
 import org.bitcoinj.protocols.payments.PaymentSession;
 import org.slf4j.Logger;
@@ -24,6 +25,7 @@ public class PaymentSessionSummary {
 
   private final PaymentSessionStatus status;
   private final Optional<PaymentSession> paymentSession;
+  private final Optional<PaymentProtocol.PkiVerificationData> pkiVerificationData;
 
   private final RAGStatus severity;
 
@@ -38,8 +40,21 @@ public class PaymentSessionSummary {
    * @return A new "payment session OK" summary
    */
   public static PaymentSessionSummary newPaymentSessionOK(PaymentSession paymentSession) {
+    return newPaymentSessionOK(paymentSession, null);
+  }
+
+  /**
+   * <p>The server has returned a well-formed payment request that has been verified separately from the payment session</p>
+   *
+   * @param paymentSession      The payment session containing meta data
+   * @param pkiVerificationData The PKI verification data (null if the payment request has no PKI)
+   *
+   * @return A new "payment session OK" summary
+   */
+  public static PaymentSessionSummary newPaymentSessionOK(PaymentSession paymentSession, PaymentProtocol.PkiVerificationData pkiVerificationData) {
     return new PaymentSessionSummary(
       Optional.fromNullable(paymentSession),
+      Optional.fromNullable(pkiVerificationData),
       PaymentSessionStatus.TRUSTED,
       RAGStatus.GREEN,
       Optional.of(CoreMessageKey.PAYMENT_SESSION_OK),
@@ -265,7 +280,29 @@ public class PaymentSessionSummary {
     Optional<Object[]> messageData
   ) {
 
+    this(paymentSession, Optional.<PaymentProtocol.PkiVerificationData>absent(), status, severity, messageKey, messageData);
+
+  }
+
+  /**
+   * @param paymentSession      The optional payment session
+   * @param pkiVerificationData The optional PKI verification data if verified separately from the payment session
+   * @param status              The payment session status (e.g. OK)
+   * @param severity            The severity (Red, Amber, Green)
+   * @param messageKey          The error key to allow localisation
+   * @param messageData         The error data for insertion into the error message
+   */
+  public PaymentSessionSummary(
+    Optional<PaymentSession> paymentSession,
+    Optional<PaymentProtocol.PkiVerificationData> pkiVerificationData,
+    PaymentSessionStatus status,
+    RAGStatus severity,
+    Optional<CoreMessageKey> messageKey,
+    Optional<Object[]> messageData
+  ) {
+
     this.paymentSession = paymentSession;
+    this.pkiVerificationData = pkiVerificationData;
 
     this.status = status;
     this.severity = severity;
@@ -282,6 +319,13 @@ public class PaymentSessionSummary {
     return paymentSession;
   }
 
+  /**
+   * @return The PKI verification data if it was verified separately from the payment session
+   */
+  public Optional<PaymentProtocol.PkiVerificationData> getPkiVerificationData() {
+    return pkiVerificationData;
+  }
+
   /**
    * @return The severity (e.g. AMBER)
    */
@@ -313,6 +357,7 @@ public class PaymentSessionSummary {
       "messageData=" + messageData +
       ", status=" + status +
       ", paymentSession=" + paymentSession +
+      ", pkiVerificationData=" + pkiVerificationData +
       ", severity=" + severity +
       ", messageKey=" + messageKey +
       '}';
@@ -0,0 +1,68 @@
+package org.multibit.hd.core.dto;
+
+import java.util.Comparator;
+
+/**
+ * <p>Enum to provide the following to WalletService paged queries:</p>
+ * <ul>
+ * <li>The available orderings of payments</li>
+ * </ul>
+ * <p>Each sort key is also a comparator so it can be used to maintain a sorted index.
+ * Ties are always broken on a secondary field to stop the order 'flicking' on sync.</p>
+ *
+ * @since 0.3.6
+ */
+public enum PaymentSortKey implements Comparator<PaymentData> {
+
+  /**
+   * Newest first, then smallest amount first (the default payments screen order)
+   */
+  DATE_DESCENDING {
+    @Override
+    public int compare(PaymentData o1, PaymentData o2) {
+      int dateSort = o2.getDate().compareTo(o1.getDate());
+      if (dateSort != 0) {
+        return dateSort;
+      }
+      return o1.getAmountCoin().compareTo(o2.getAmountCoin());
+    }
+  },
+
+  /**
+   * Oldest first, then largest amount first
+   */
+  DATE_ASCENDING {
+    @Override
+    public int compare(PaymentData o1, PaymentData o2) {
+      return DATE_DESCENDING.compare(o2, o1);
+    }
+  },
+
+  /**
+   * Largest amount first, then newest first
+   */
+  AMOUNT_DESCENDING {
+    @Override
+    public int compare(PaymentData o1, PaymentData o2) {
+      int amountSort = o2.getAmountCoin().compareTo(o1.getAmountCoin());
+      if (amountSort != 0) {
+        return amountSort;
+      }
+      return o2.getDate().compareTo(o1.getDate());
+    }
+  },
+
+  /**
+   * Smallest amount first, then oldest first
+   */
+  AMOUNT_ASCENDING {
+    @Override
+    public int compare(PaymentData o1, PaymentData o2) {
+      return AMOUNT_DESCENDING.compare(o2, o1);
+    }
+  },
+
+  // End of enum
+  ;
+
+}
@@ -3,6 +3,7 @@ package org.multibit.hd.core.dto;
 import org.bitcoinj.core.Utils;
 import com.google.common.base.Preconditions;
 import org.multibit.hd.core.crypto.AESUtils;
+import org.multibit.hd.core.crypto.SeedDerivationSession;
 import org.multibit.hd.core.managers.WalletManager;
 
 import java.io.File;
@@ -92,6 +93,27 @@ public class WalletId {
     walletId = AESUtils.generate160BitsOfEntropy(seed, salt);
   }
 
+  /**
+   * Create an MBHD wallet id from the given seed, memoising the derivation in the given session
+   *
+   * @param seed    The seed to use in deriving the wallet id
+   * @param session The seed derivation session of the caller
+   */
+  public WalletId(byte[] seed, SeedDerivationSession session) {
+    walletId = session.generate160BitsOfEntropy(seed, WALLET_ID_SALT_USED_IN_SCRYPT_FOR_MBHD_WALLETS);
+  }
+
+  /**
+   * Create a wallet id from the given seed and salt, memoising the derivation in the given session
+   *
+   * @param seed    The seed to use in deriving the wallet id
+   * @param salt    The salt (e.g. WALLET_ID_SALT_USED_IN_SCRYPT_FOR_TREZOR_SOFT_WALLETS)
+   * @param session The seed derivation session of the caller
+   */
+  public WalletId(byte[] seed, byte[] salt, SeedDerivationSession session) {
+    walletId = session.generate160BitsOfEntropy(seed, salt);
+  }
+
   /**
    * Create a WalletId from a wallet filename - the filename is parsed into a walletId byte array
    * The wallet filename should be the whole file name e.g /herp/derp/mbhd-23bb865e-161bfefc-3020c418-66bf6f75-7fecdfcc/mbhd.wallet
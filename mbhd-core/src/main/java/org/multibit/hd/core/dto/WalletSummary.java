@@ -74,6 +74,23 @@ public class WalletSummary {
     this.walletId = walletId;
   }
 
+  /**
+   * <p>Copy constructor for the persisted details (the Bitcoinj wallet, wallet file and password are not copied)</p>
+   *
+   * @param walletSummary The wallet summary to copy
+   */
+  public WalletSummary(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+
+    this.walletId = walletSummary.walletId;
+    this.walletType = walletSummary.walletType;
+    this.name = walletSummary.name;
+    this.notes = walletSummary.notes;
+    this.encryptedPassword = walletSummary.encryptedPassword == null ? null : Arrays.copyOf(walletSummary.encryptedPassword, walletSummary.encryptedPassword.length);
+    this.encryptedBackupKey = walletSummary.encryptedBackupKey == null ? null : Arrays.copyOf(walletSummary.encryptedBackupKey, walletSummary.encryptedBackupKey.length);
+  }
+
   /**
    * @return The Bitcoinj wallet associated with this summary (can be null)
    */
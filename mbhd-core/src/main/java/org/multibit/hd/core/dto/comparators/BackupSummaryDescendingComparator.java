@@ -8,7 +8,7 @@ import java.util.Comparator;
 /**
  * <p>Comparator to provide the following to application:</p>
  * <ul>
- * <li>Sorting by backup summary date descending (newest first)</li>
+ * <li>Sorting by backup summary date descending (newest first) with corrupt backups last</li>
  * </ul>
  *
  * @since 0.0.5
@@ -28,6 +28,10 @@ public class BackupSummaryDescendingComparator implements Comparator<BackupSumma
       return 1;
     }
 
+    if (o1.isCorrupt() != o2.isCorrupt()) {
+      return o1.isCorrupt() ? 1 : -1;
+    }
+
     if (o1.getCreated() == null && o2.getCreated() != null) {
       return -1;
     }
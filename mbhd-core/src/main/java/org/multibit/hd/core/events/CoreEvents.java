@@ -412,6 +412,22 @@ public class CoreEvents {
       });
   }
 
+  /**
+   * <p>Broadcast a new "export progress" event</p>
+   *
+   * @param exportProgressEvent The export progress event
+   */
+  public static void fireExportProgressEvent(final ExportProgressEvent exportProgressEvent) {
+    eventExecutor.submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          log.trace("Firing 'export progress' event");
+          coreEventBus.post(exportProgressEvent);
+        }
+      });
+  }
+
   /**
    * <p>Broadcast a new "export performed" event</p>
    *
@@ -0,0 +1,52 @@
+package org.multibit.hd.core.events;
+
+/**
+ * <p>Event to provide the following to Core event subscribers</p>
+ * <ul>
+ * <li>Update of the progress of a payments export</li>
+ * </ul>
+ * <p>This is fired once per exported chunk so it is not high frequency</p>
+ *
+ * @since 0.3.6
+ */
+public class ExportProgressEvent implements CoreEvent {
+
+  private final String exportFilename;
+
+  private final int rowsExported;
+
+  private final int totalRows;
+
+  /**
+   * @param exportFilename The file being written
+   * @param rowsExported   The number of rows written so far
+   * @param totalRows      The number of rows to write
+   */
+  public ExportProgressEvent(String exportFilename, int rowsExported, int totalRows) {
+
+    this.exportFilename = exportFilename;
+    this.rowsExported = rowsExported;
+    this.totalRows = totalRows;
+  }
+
+  public String getExportFilename() {
+    return exportFilename;
+  }
+
+  public int getRowsExported() {
+    return rowsExported;
+  }
+
+  public int getTotalRows() {
+    return totalRows;
+  }
+
+  @Override
+  public String toString() {
+    return "ExportProgressEvent{" +
+      "exportFilename='" + exportFilename + '\'' +
+      ", rowsExported=" + rowsExported +
+      ", totalRows=" + totalRows +
+      '}';
+  }
+}
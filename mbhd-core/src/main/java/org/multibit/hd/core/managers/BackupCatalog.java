@@ -0,0 +1,439 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import org.multibit.hd.core.dto.WalletId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Catalog to provide the following to BackupManager:</p>
+ * <ul>
+ * <li>Plaintext metadata (size, timestamp, modification time, content digest, wallet height and last transaction) for each backup in a directory</li>
+ * <li>Detection of corrupt or truncated backups without decrypting them</li>
+ * <li>A quick check on size and modification time alone for listing backups</li>
+ * <li>Ordering of restore candidates so the best valid backup is decrypted first</li>
+ * </ul>
+ * <p>The catalog lives alongside the backups it describes rather than in a header on each encrypted file so that
+ * backups remain readable by earlier versions. Catalogs for cloud backups are kept in the application directory
+ * instead so that the plaintext wallet height and transaction hash are never synced. Each entry carries a MAC keyed by its wallet ID which detects a
+ * damaged catalog or an entry copied between wallets. The MAC is not a secret so it does not guard against
+ * deliberate tampering - that remains the job of the backup encryption.</p>
+ *
+ * @since 0.3.6
+ */
+class BackupCatalog {
+
+  private static final Logger log = LoggerFactory.getLogger(BackupCatalog.class);
+
+  /**
+   * The name of the catalog file in the backup directory (never matches a backup)
+   */
+  static final String CATALOG_FILE_NAME = WalletManager.MBHD_WALLET_PREFIX + "-backups.catalog";
+
+  private static final String CATALOG_HEADER = "# MultiBit HD backup catalog, version 1";
+
+  private static final String FIELD_SEPARATOR = "\t";
+
+  private static final String NO_TRANSACTION = "-";
+
+  /**
+   * The modification time of an entry written before it was recorded (always checked by digest)
+   */
+  private static final long UNKNOWN_MODIFIED = -1;
+
+  /**
+   * The result of checking a backup against the catalog
+   */
+  enum Status {
+
+    /**
+     * The backup matches its catalog entry
+     */
+    VALID,
+
+    /**
+     * The backup differs from its catalog entry (e.g. truncated or overwritten)
+     */
+    CORRUPT,
+
+    /**
+     * The backup has no trustworthy catalog entry (e.g. written by an earlier version)
+     */
+    UNCATALOGUED
+
+    // End of enum
+    ;
+
+  }
+
+  private final File directory;
+
+  private final File catalogFile;
+
+  private final Map<String, Entry> entries = Maps.newLinkedHashMap();
+
+  private boolean loaded = false;
+
+  private long digestCount = 0;
+
+  /**
+   * @param directory The backup directory
+   */
+  BackupCatalog(File directory) {
+    this(directory, new File(directory, CATALOG_FILE_NAME));
+  }
+
+  /**
+   * @param directory   The backup directory
+   * @param catalogFile The file holding the catalog (kept outside a cloud backup directory)
+   */
+  BackupCatalog(File directory, File catalogFile) {
+
+    Preconditions.checkNotNull(directory, "'directory' must be present");
+    Preconditions.checkNotNull(catalogFile, "'catalogFile' must be present");
+
+    this.directory = directory;
+    this.catalogFile = catalogFile;
+
+  }
+
+  /**
+   * <p>Record a backup that has just been written</p>
+   *
+   * @param backupFile          The encrypted backup file
+   * @param walletId            The wallet ID
+   * @param created             The creation timestamp in millis
+   * @param walletHeight        The last block seen by the wallet (-1 if not known)
+   * @param lastTransactionHash The hash of the most recent wallet transaction (absent if none or not known)
+   *
+   * @throws IOException If the backup could not be read or the catalog could not be written
+   */
+  synchronized void record(File backupFile, WalletId walletId, long created, int walletHeight, Optional<String> lastTransactionHash) throws IOException {
+
+    Preconditions.checkNotNull(backupFile, "'backupFile' must be present");
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(lastTransactionHash, "'lastTransactionHash' must be present");
+
+    load();
+
+    Entry entry = new Entry(
+      backupFile.getName(),
+      walletId.toFormattedString(),
+      backupFile.length(),
+      created,
+      backupFile.lastModified(),
+      digest(backupFile),
+      walletHeight,
+      lastTransactionHash.or(NO_TRANSACTION)
+    );
+    entries.put(entry.fileName, entry);
+
+    persist();
+
+  }
+
+  /**
+   * <p>Forget a backup that has been deleted</p>
+   *
+   * @param backupFile The backup file
+   */
+  synchronized void remove(File backupFile) {
+
+    load();
+
+    if (entries.remove(backupFile.getName()) != null) {
+      try {
+        persist();
+      } catch (IOException e) {
+        log.warn("Could not update backup catalog: {}", e.getMessage());
+      }
+    }
+
+  }
+
+  /**
+   * @param backupFile The backup file
+   *
+   * @return The status of the backup against its catalog entry
+   */
+  synchronized Status check(File backupFile) {
+
+    load();
+
+    Entry entry = entries.get(backupFile.getName());
+    if (entry == null) {
+      return Status.UNCATALOGUED;
+    }
+
+    // Cheap checks first
+    if (!backupFile.isFile() || backupFile.length() != entry.size) {
+      return Status.CORRUPT;
+    }
+
+    try {
+      return digest(backupFile).equals(entry.digest) ? Status.VALID : Status.CORRUPT;
+    } catch (IOException e) {
+      log.warn("Could not read backup '{}': {}", backupFile.getName(), e.getMessage());
+      return Status.CORRUPT;
+    }
+
+  }
+
+  /**
+   * <p>Check a backup on its size and modification time, falling back to the digest only if the file has been
+   * touched since it was catalogued</p>
+   *
+   * <p>This is cheap enough to run over every backup each time they are listed. Damage that leaves the size and
+   * modification time unchanged is only caught by {@link #check(File)} which is used before a restore.</p>
+   *
+   * @param backupFile The backup file
+   *
+   * @return The status of the backup against its catalog entry
+   */
+  synchronized Status checkQuickly(File backupFile) {
+
+    load();
+
+    Entry entry = entries.get(backupFile.getName());
+    if (entry == null) {
+      return Status.UNCATALOGUED;
+    }
+
+    if (!backupFile.isFile() || backupFile.length() != entry.size) {
+      return Status.CORRUPT;
+    }
+
+    if (entry.modified != UNKNOWN_MODIFIED && backupFile.lastModified() == entry.modified) {
+      return Status.VALID;
+    }
+
+    return check(backupFile);
+  }
+
+  /**
+   * @return The number of backups hashed to check them against the catalog (or to record them)
+   */
+  synchronized long getDigestCount() {
+    return digestCount;
+  }
+
+  /**
+   * <p>Order backups for restore with the best candidates first:</p>
+   * <ol>
+   * <li>Valid backups with the highest wallet height, newest first</li>
+   * <li>Uncatalogued backups, newest first</li>
+   * <li>Corrupt backups (a last resort in case the catalog itself is stale)</li>
+   * </ol>
+   *
+   * @param backupFiles The backup files, oldest first
+   *
+   * @return The backup files in restore order
+   */
+  synchronized List<File> orderForRestore(List<File> backupFiles) {
+
+    List<File> valid = Lists.newArrayList();
+    List<File> uncatalogued = Lists.newArrayList();
+    List<File> corrupt = Lists.newArrayList();
+
+    // Walk newest first so each group is newest first
+    for (File backupFile : Lists.reverse(backupFiles)) {
+      switch (check(backupFile)) {
+        case VALID:
+          valid.add(backupFile);
+          break;
+        case CORRUPT:
+          log.warn("Backup '{}' does not match the catalog", backupFile.getName());
+          corrupt.add(backupFile);
+          break;
+        default:
+          uncatalogued.add(backupFile);
+      }
+    }
+
+    // A stable sort keeps newest first within the same height
+    Collections.sort(valid, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        return Integer.compare(entries.get(o2.getName()).walletHeight, entries.get(o1.getName()).walletHeight);
+      }
+    });
+
+    List<File> ordered = Lists.newArrayList(valid);
+    ordered.addAll(uncatalogued);
+    ordered.addAll(corrupt);
+
+    return ordered;
+
+  }
+
+  private void load() {
+
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+
+    if (!catalogFile.isFile()) {
+      return;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(catalogFile), Charsets.UTF_8))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        Optional<Entry> entry = Entry.parse(line);
+        if (entry.isPresent()) {
+          entries.put(entry.get().fileName, entry.get());
+        } else {
+          log.warn("Ignoring damaged backup catalog entry in '{}'", directory.getAbsolutePath());
+        }
+      }
+
+    } catch (IOException e) {
+      log.warn("Could not read backup catalog: {}", e.getMessage());
+      entries.clear();
+    }
+
+  }
+
+  private void persist() throws IOException {
+
+    File tempFile = new File(catalogFile.getAbsolutePath() + ".tmp");
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8))) {
+      writer.write(CATALOG_HEADER);
+      writer.newLine();
+      writer.write("# file, wallet id, size, created, [modified,] sha256, wallet height, last transaction, mac");
+      writer.newLine();
+      for (Entry entry : entries.values()) {
+        writer.write(entry.toLine());
+        writer.newLine();
+      }
+    }
+
+    // Readers see either the old or the new catalog, never a missing one
+    java.nio.file.Files.move(tempFile.toPath(), catalogFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+  }
+
+  private String digest(File file) throws IOException {
+    digestCount++;
+    return Files.hash(file, Hashing.sha256()).toString();
+  }
+
+  /**
+   * <p>The catalogued metadata of a single backup</p>
+   */
+  private static class Entry {
+
+    private final String fileName;
+    private final String walletId;
+    private final long size;
+    private final long created;
+    private final long modified;
+    private final String digest;
+    private final int walletHeight;
+    private final String lastTransactionHash;
+
+    private Entry(String fileName, String walletId, long size, long created, long modified, String digest, int walletHeight, String lastTransactionHash) {
+      this.fileName = fileName;
+      this.walletId = walletId;
+      this.size = size;
+      this.created = created;
+      this.modified = modified;
+      this.digest = digest;
+      this.walletHeight = walletHeight;
+      this.lastTransactionHash = lastTransactionHash;
+    }
+
+    /**
+     * @param line The catalog line
+     *
+     * @return The entry, absent if the line is malformed or its MAC does not match
+     */
+    private static Optional<Entry> parse(String line) {
+
+      List<String> fields = Lists.newArrayList(Splitter.on(FIELD_SEPARATOR).split(line));
+
+      // Entries written before the modification time was recorded have one field fewer
+      if (fields.size() == 8) {
+        fields.add(4, String.valueOf(UNKNOWN_MODIFIED));
+      }
+      if (fields.size() != 9) {
+        return Optional.absent();
+      }
+
+      try {
+        Entry entry = new Entry(
+          fields.get(0),
+          fields.get(1),
+          Long.parseLong(fields.get(2)),
+          Long.parseLong(fields.get(3)),
+          Long.parseLong(fields.get(4)),
+          fields.get(5),
+          Integer.parseInt(fields.get(6)),
+          fields.get(7)
+        );
+        return entry.mac().equals(fields.get(8)) ? Optional.of(entry) : Optional.<Entry>absent();
+      } catch (NumberFormatException e) {
+        return Optional.absent();
+      }
+
+    }
+
+    private String toLine() {
+      return fieldsWithoutMac() + FIELD_SEPARATOR + mac();
+    }
+
+    private String fieldsWithoutMac() {
+      return fileName + FIELD_SEPARATOR
+        + walletId + FIELD_SEPARATOR
+        + size + FIELD_SEPARATOR
+        + created + FIELD_SEPARATOR
+        + (modified == UNKNOWN_MODIFIED ? "" : modified + FIELD_SEPARATOR)
+        + digest + FIELD_SEPARATOR
+        + walletHeight + FIELD_SEPARATOR
+        + lastTransactionHash;
+    }
+
+    private String mac() {
+
+      try {
+        byte[] key = Hashing.sha256().hashString(CATALOG_HEADER + walletId, Charsets.UTF_8).asBytes();
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return BaseEncoding.base16().lowerCase().encode(mac.doFinal(fieldsWithoutMac().getBytes(Charsets.UTF_8)));
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+
+    }
+  }
+}
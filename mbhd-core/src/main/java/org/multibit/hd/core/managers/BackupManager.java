@@ -1,17 +1,21 @@
 package org.multibit.hd.core.managers;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.Wallet;
 import org.joda.time.DateTime;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.crypto.SeedDerivationSession;
 import org.multibit.hd.core.dto.BackupSummary;
 import org.multibit.hd.core.dto.CoreMessageKey;
 import org.multibit.hd.core.dto.WalletId;
@@ -39,6 +43,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.multibit.hd.core.dto.WalletId.LENGTH_OF_FORMATTED_WALLET_ID;
 import static org.multibit.hd.core.dto.WalletId.WALLET_ID_SEPARATOR;
@@ -65,6 +70,11 @@ public enum BackupManager {
   public static final int NUMBER_OF_FIRST_WALLET_ZIP_BACKUPS_TO_ALWAYS_KEEP = 2;
   public static final int NUMBER_OF_LAST_WALLET_ZIP_BACKUPS_TO_ALWAYS_KEEP = 8; // Must be at least 1.
 
+  /**
+   * The directory (within the application data directory) holding the catalogs of backup directories outside it
+   */
+  public static final String BACKUP_CATALOG_DIRECTORY_NAME = "backup-catalogs";
+
   public static final String BACKUP_TIMESTAMP_SUFFIX_FORMAT = "yyyyMMddHHmmss";
   private DateFormat dateFormat;
 
@@ -76,6 +86,9 @@ public enum BackupManager {
   // Where the cloud backups are stored (this is typically specified by the user and is a SpiderOak etc sync directory)
   private Optional<File> cloudBackupDirectory;
 
+  // The backup catalogs keyed by backup directory
+  private final ConcurrentMap<File, BackupCatalog> backupCatalogs = Maps.newConcurrentMap();
+
   /**
    * Initialise the backup manager to use the specified cloudBackupDirectory.
    * All the cloud backups will be written and read from this directory.
@@ -95,6 +108,7 @@ public enum BackupManager {
   public void shutdownNow() {
     this.applicationDataDirectory = null;
     this.cloudBackupDirectory = Optional.absent();
+    this.backupCatalogs.clear();
   }
 
   /**
@@ -131,9 +145,41 @@ public enum BackupManager {
    * @param walletId      The walletId to subset on
    * @param directoryName The directory to look in
    *
-   * @return The wallet backups available
+   * @return The wallet backups available with any that do not match the backup catalog marked as corrupt and last
    */
   public List<BackupSummary> getWalletBackups(WalletId walletId, File directoryName) {
+
+    List<BackupSummary> walletBackups = Lists.newArrayList();
+    List<BackupSummary> corruptBackups = Lists.newArrayList();
+
+    if (directoryName == null || !directoryName.exists()) {
+      // No directory - no backups
+      return walletBackups;
+    }
+
+    BackupCatalog backupCatalog = getBackupCatalog(directoryName);
+    for (BackupSummary backupSummary : listWalletBackups(walletId, directoryName)) {
+      // Size and modification time are enough here - the restore itself will fail on a damaged backup
+      if (backupCatalog.checkQuickly(backupSummary.getFile()) == BackupCatalog.Status.CORRUPT) {
+        log.warn("Backup does not match the backup catalog\n'{}'", backupSummary.getFile().getAbsolutePath());
+        backupSummary.setCorrupt(true);
+        corruptBackups.add(backupSummary);
+      } else {
+        walletBackups.add(backupSummary);
+      }
+    }
+    walletBackups.addAll(corruptBackups);
+
+    return walletBackups;
+  }
+
+  /**
+   * @param walletId      The walletId to subset on
+   * @param directoryName The directory to look in
+   *
+   * @return All the wallet backups in the directory without checking them against the backup catalog
+   */
+  private List<BackupSummary> listWalletBackups(WalletId walletId, File directoryName) {
     List<BackupSummary> walletBackups = Lists.newArrayList();
 
     if (directoryName == null || !directoryName.exists()) {
@@ -289,18 +335,27 @@ public enum BackupManager {
     File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
     log.debug("Created rolling-backup AES copy successfully as file:\n'{}'", encryptedAESCopy.getAbsolutePath());
 
+    Wallet wallet = walletSummary.getWallet();
+    List<Transaction> recentTransactions = wallet.getRecentTransactions(1, true);
+    recordBackup(
+      encryptedAESCopy,
+      walletSummary.getWalletId(),
+      wallet.getLastBlockSeenHeight(),
+      recentTransactions.isEmpty() ? Optional.<String>absent() : Optional.of(recentTransactions.get(0).getHashAsString())
+    );
+
     List<File> rollingBackups = getRollingBackups(walletSummary.getWalletId());
 
     // If there are more than the maximum number of rolling backups, secure delete the eldest
     if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS) {
       // Delete the eldest
-      SecureFiles.secureDelete(rollingBackups.get(0));
+      deleteBackup(rollingBackups.get(0));
     }
 
     // If there are even more than that trim off another one - over time this will gently reduce the number to the maximum
     if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS + 1) {
       // Delete the second eldest
-      SecureFiles.secureDelete(rollingBackups.get(1));
+      deleteBackup(rollingBackups.get(1));
     }
     return walletBackupFile;
   }
@@ -344,6 +399,7 @@ public enum BackupManager {
       (String) password,
       walletSummary.getEncryptedBackupKey());
     log.debug("Created encrypted local zip-backup successfully. Size = {} bytes", localBackupEncryptedFilename.length());
+    recordZipBackup(localBackupEncryptedFilename, walletId);
 
     // Thin the local backup directory
     thinBackupDirectory(walletId, localBackupDirectory);
@@ -390,6 +446,7 @@ public enum BackupManager {
         walletSummary.getEncryptedBackupKey());
 
       log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
+      recordZipBackup(cloudBackupEncryptedFilename, walletId);
 
       // Thin the local backup directory
       thinBackupDirectory(walletId, cloudBackupDirectory.get());
@@ -421,16 +478,17 @@ public enum BackupManager {
       Wallet wallet = null;
       File fileLoaded = null;
 
-      // Try loading each rolling backup in turn, newest first
-      for (int i = rollingBackupFiles.size(); i > 0; i--) {
+      // Try the best candidates first so corrupt backups are only decrypted as a last resort
+      List<File> candidates = getBackupCatalog(rollingBackupFiles.get(0).getParentFile()).orderForRestore(rollingBackupFiles);
+      for (File candidate : candidates) {
         try {
-          wallet = WalletManager.INSTANCE.loadWalletFromFile(rollingBackupFiles.get(i - 1), password);
+          wallet = WalletManager.INSTANCE.loadWalletFromFile(candidate, password);
           log.debug("Wallet read in from rolling backup file:\n'{}'", wallet.toString());
-          fileLoaded = rollingBackupFiles.get(i - 1);
+          fileLoaded = candidate;
           break;
         } catch (Exception e) {
           // Log the initial error (and then carry on to the next rolling backup
-          log.error("Could not load rolling backup:\n'{}'", rollingBackupFiles.get(i - 1).getAbsolutePath(), e);
+          log.error("Could not load rolling backup:\n'{}'", candidate.getAbsolutePath(), e);
         }
       }
 
@@ -455,11 +513,32 @@ public enum BackupManager {
    * @param seedPhrase       The seed phrase to use to decrypt the backup file
    */
   public WalletId loadZipBackup(File backupFileToLoad, List<String> seedPhrase) throws IOException {
+
+    SeedDerivationSession session = SeedDerivationSession.open();
+    try {
+      return loadZipBackup(backupFileToLoad, seedPhrase, session);
+    } finally {
+      session.close();
+    }
+
+  }
+
+  /**
+   * Load a zip backup file, copying all the backup files to the appropriate wallet root directory
+   *
+   * @param backupFileToLoad The encrypted backup file to load
+   * @param seedPhrase       The seed phrase to use to decrypt the backup file
+   * @param session          The seed derivation session of the caller used to derive the backup AES key
+   */
+  public WalletId loadZipBackup(File backupFileToLoad, List<String> seedPhrase, SeedDerivationSession session) throws IOException {
+
+    Preconditions.checkNotNull(session, "'session' must be present");
+
     try {
       SeedPhraseGenerator seedPhraseGenerator = new Bip39SeedPhraseGenerator();
       byte[] seed = seedPhraseGenerator.convertToSeed(seedPhrase);
 
-      KeyParameter seedDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(seed, WalletManager.scryptSalt());
+      KeyParameter seedDerivedAESKey = session.createAESKey(seed, WalletManager.scryptSalt());
 
       return loadZipBackup(backupFileToLoad, seedDerivedAESKey);
     } catch (Exception e) {
@@ -535,8 +614,8 @@ public enum BackupManager {
       return;
     }
 
-    // Find out how many wallet backups there are.
-    List<BackupSummary> backups = getWalletBackups(walletId, backupDirectory);
+    // Find out how many wallet backups there are (corrupt ones still take up space)
+    List<BackupSummary> backups = listWalletBackups(walletId, backupDirectory);
 
     if (backups.size() < MAXIMUM_NUMBER_OF_ZIP_BACKUPS) {
       // No thinning required.
@@ -600,13 +679,110 @@ public enum BackupManager {
             .getFile()
             .getAbsolutePath()
         );
-        SecureFiles.secureDelete(backups.get(walletBackupToDeleteIndex).getFile());
+        deleteBackup(backups.get(walletBackupToDeleteIndex).getFile());
       } catch (IOException ioe) {
         log.error(ioe.getClass().getName() + " " + ioe.getMessage());
       }
     }
   }
 
+  /**
+   * @param backupDirectory The backup directory
+   *
+   * @return The backup catalog for the directory
+   */
+  private BackupCatalog getBackupCatalog(File backupDirectory) {
+
+    File key = backupDirectory.getAbsoluteFile();
+    BackupCatalog backupCatalog = backupCatalogs.get(key);
+    if (backupCatalog == null) {
+      backupCatalogs.putIfAbsent(key, newBackupCatalog(key));
+      backupCatalog = backupCatalogs.get(key);
+    }
+
+    return backupCatalog;
+  }
+
+  /**
+   * <p>The catalog holds the wallet height and last transaction hash in plaintext so it must not be synced with a
+   * cloud backup directory. Catalogs for directories outside the application data directory are kept locally.</p>
+   *
+   * @param backupDirectory The absolute backup directory
+   *
+   * @return A new backup catalog for the directory
+   */
+  private BackupCatalog newBackupCatalog(File backupDirectory) {
+
+    createApplicationDataDirectoryIfNotSet();
+
+    File localRoot = applicationDataDirectory.getAbsoluteFile();
+    for (File parent = backupDirectory; parent != null; parent = parent.getParentFile()) {
+      if (parent.equals(localRoot)) {
+        return new BackupCatalog(backupDirectory);
+      }
+    }
+
+    // Remove any catalog written into the cloud directory by an earlier version
+    File cloudCatalogFile = new File(backupDirectory, BackupCatalog.CATALOG_FILE_NAME);
+    if (cloudCatalogFile.exists()) {
+      try {
+        SecureFiles.secureDelete(cloudCatalogFile);
+      } catch (IOException e) {
+        log.warn("Could not delete backup catalog from\n'{}'", backupDirectory.getAbsolutePath(), e);
+      }
+    }
+
+    File catalogDirectory = SecureFiles.verifyOrCreateDirectory(localRoot, BACKUP_CATALOG_DIRECTORY_NAME);
+    String catalogName = Hashing.sha256().hashString(backupDirectory.getAbsolutePath(), Charsets.UTF_8).toString() + ".catalog";
+
+    return new BackupCatalog(backupDirectory, new File(catalogDirectory, catalogName));
+  }
+
+  /**
+   * Record a zip backup in the catalog using the current wallet for the height if it matches
+   */
+  private void recordZipBackup(File backupFile, WalletId walletId) {
+
+    int walletHeight = -1;
+    Optional<String> lastTransactionHash = Optional.absent();
+
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    if (currentWalletSummary != null
+      && currentWalletSummary.isPresent()
+      && walletId.equals(currentWalletSummary.get().getWalletId())
+      && currentWalletSummary.get().getWallet() != null) {
+      Wallet wallet = currentWalletSummary.get().getWallet();
+      walletHeight = wallet.getLastBlockSeenHeight();
+      List<Transaction> recentTransactions = wallet.getRecentTransactions(1, true);
+      if (!recentTransactions.isEmpty()) {
+        lastTransactionHash = Optional.of(recentTransactions.get(0).getHashAsString());
+      }
+    }
+
+    recordBackup(backupFile, walletId, walletHeight, lastTransactionHash);
+  }
+
+  /**
+   * Record a backup in the catalog of its directory (a failure only loses the fast restore selection)
+   */
+  private void recordBackup(File backupFile, WalletId walletId, int walletHeight, Optional<String> lastTransactionHash) {
+
+    try {
+      getBackupCatalog(backupFile.getParentFile()).record(backupFile, walletId, Dates.nowUtc().getMillis(), walletHeight, lastTransactionHash);
+    } catch (IOException e) {
+      log.warn("Could not record backup in catalog\n'{}'", backupFile.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Secure delete a backup and forget it in the catalog
+   */
+  private void deleteBackup(File backupFile) throws IOException {
+
+    SecureFiles.secureDelete(backupFile);
+    getBackupCatalog(backupFile.getParentFile()).remove(backupFile);
+  }
+
   public void setApplicationDataDirectory(File applicationDataDirectory) {
     this.applicationDataDirectory = applicationDataDirectory;
   }
@@ -19,6 +19,7 @@ import java.util.Date;
  * <p>Manager to provide the following to BitcoinNetworkService:</p>
  * <ul>
  * <li>Create a blockstore</li>
+ * <li>Invalidate the recorded chain head (see {@link ChainHeadSidecar}) as the blockstore is opened</li>
  * </ul>
  */
 public class BlockStoreManager {
@@ -53,6 +54,9 @@ public class BlockStoreManager {
 
     boolean blockStoreCreatedNew = !blockStoreFile.exists();
 
+    // The store may move on from here so any recorded chain head is no longer reliable
+    ChainHeadSidecar.invalidate(blockStoreFile);
+
     // TODO copy checkpoints file from installation directory if does not exist
     // TODO use bigger of managers files if installed version is larger
 
@@ -0,0 +1,184 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>Sidecar to provide the following to WalletManager and BitcoinNetworkService:</p>
+ * <ul>
+ * <li>The chain head of a closed block store without opening (and memory mapping) it</li>
+ * <li>Validation against the size and modification time of the block store it describes</li>
+ * </ul>
+ * <p>The sidecar is removed whenever the block store is opened and written again when it is closed
+ * cleanly, so a sidecar that survives a crash can never describe a store that has since moved on.
+ * If the sidecar is absent or does not match the block store the caller must open the store.</p>
+ *
+ * @since 0.3.6
+ */
+public class ChainHeadSidecar {
+
+  private static final Logger log = LoggerFactory.getLogger(ChainHeadSidecar.class);
+
+  /**
+   * The suffix added to the block store file name
+   */
+  public static final String SIDECAR_SUFFIX = ".head";
+
+  private static final int SIDECAR_VERSION = 1;
+
+  private final int height;
+
+  private final Sha256Hash hash;
+
+  private final long timeSeconds;
+
+  private ChainHeadSidecar(int height, Sha256Hash hash, long timeSeconds) {
+    this.height = height;
+    this.hash = hash;
+    this.timeSeconds = timeSeconds;
+  }
+
+  /**
+   * @return The height of the chain head
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return The hash of the chain head
+   */
+  public Sha256Hash getHash() {
+    return hash;
+  }
+
+  /**
+   * @return The time of the chain head in seconds since the epoch
+   */
+  public long getTimeSeconds() {
+    return timeSeconds;
+  }
+
+  /**
+   * @param blockStoreFile The block store file
+   *
+   * @return The sidecar file for the block store
+   */
+  public static File getSidecarFile(File blockStoreFile) {
+    return new File(blockStoreFile.getAbsolutePath() + SIDECAR_SUFFIX);
+  }
+
+  /**
+   * <p>Remove the sidecar since the block store is about to change</p>
+   *
+   * @param blockStoreFile The block store file
+   */
+  public static void invalidate(File blockStoreFile) {
+
+    File sidecarFile = getSidecarFile(blockStoreFile);
+    if (sidecarFile.exists() && !sidecarFile.delete()) {
+      log.warn("Could not remove chain head sidecar '{}'", sidecarFile.getAbsolutePath());
+    }
+
+  }
+
+  /**
+   * <p>Record the chain head of a block store that has just been closed</p>
+   *
+   * @param blockStoreFile The closed block store file
+   * @param chainHead      The chain head at the time the block store was closed
+   */
+  public static void write(File blockStoreFile, StoredBlock chainHead) {
+
+    Preconditions.checkNotNull(blockStoreFile, "'blockStoreFile' must be present");
+    Preconditions.checkNotNull(chainHead, "'chainHead' must be present");
+
+    if (!blockStoreFile.exists()) {
+      return;
+    }
+
+    File sidecarFile = getSidecarFile(blockStoreFile);
+    File tempFile = new File(sidecarFile.getAbsolutePath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+      out.writeInt(SIDECAR_VERSION);
+      out.writeInt(chainHead.getHeight());
+      out.write(chainHead.getHeader().getHash().getBytes());
+      out.writeLong(chainHead.getHeader().getTimeSeconds());
+      out.writeLong(blockStoreFile.length());
+      out.writeLong(blockStoreFile.lastModified());
+
+    } catch (IOException e) {
+      log.warn("Could not write chain head sidecar: {}", e.getMessage());
+      return;
+    }
+
+    if ((sidecarFile.exists() && !sidecarFile.delete()) || !tempFile.renameTo(sidecarFile)) {
+      log.warn("Could not replace chain head sidecar '{}'", sidecarFile.getAbsolutePath());
+      return;
+    }
+
+    log.debug("Recorded chain head at height {}", chainHead.getHeight());
+
+  }
+
+  /**
+   * @param blockStoreFile The block store file (not opened)
+   *
+   * @return The chain head recorded when the block store was last closed, absent if unknown or out of date
+   */
+  public static Optional<ChainHeadSidecar> read(File blockStoreFile) {
+
+    Preconditions.checkNotNull(blockStoreFile, "'blockStoreFile' must be present");
+
+    File sidecarFile = getSidecarFile(blockStoreFile);
+    if (!sidecarFile.exists() || !blockStoreFile.exists()) {
+      return Optional.absent();
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecarFile)))) {
+
+      if (in.readInt() != SIDECAR_VERSION) {
+        log.debug("Ignoring chain head sidecar with an unknown version");
+        return Optional.absent();
+      }
+
+      int height = in.readInt();
+      byte[] hashBytes = new byte[32];
+      in.readFully(hashBytes);
+      long timeSeconds = in.readLong();
+      long blockStoreLength = in.readLong();
+      long blockStoreLastModified = in.readLong();
+
+      // The block store must be exactly as it was left
+      if (blockStoreLength != blockStoreFile.length() || blockStoreLastModified != blockStoreFile.lastModified()) {
+        log.debug("Chain head sidecar does not match the block store");
+        return Optional.absent();
+      }
+
+      return Optional.of(new ChainHeadSidecar(height, new Sha256Hash(hashBytes), timeSeconds));
+
+    } catch (EOFException e) {
+      log.warn("Chain head sidecar is truncated. Ignoring.");
+    } catch (IOException e) {
+      log.warn("Could not read chain head sidecar: {}", e.getMessage());
+    }
+
+    return Optional.absent();
+  }
+
+}
@@ -1,11 +1,14 @@
 package org.multibit.hd.core.managers;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.googlecode.jcsv.CSVStrategy;
+import com.googlecode.jcsv.writer.CSVColumnJoiner;
 import com.googlecode.jcsv.writer.CSVEntryConverter;
-import com.googlecode.jcsv.writer.CSVWriter;
-import com.googlecode.jcsv.writer.internal.CSVWriterBuilder;
+import com.googlecode.jcsv.writer.internal.CSVColumnJoinerImpl;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.dto.CoreMessageKey;
 import org.multibit.hd.core.dto.PaymentData;
@@ -13,27 +16,39 @@ import org.multibit.hd.core.dto.PaymentRequestData;
 import org.multibit.hd.core.dto.TransactionData;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ExportPerformedEvent;
+import org.multibit.hd.core.events.ExportProgressEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * <p>Manager to provide the following to other core classes:</p>
  * <ul>
  * <li>Exporting of transactions and payment requests to CSV files </li>
  * </ul>
- * </p>
+ * <p>Entries are pulled from an {@link ExportSource} in bounded chunks so an export never holds
+ * more than two chunks. Each chunk is formatted in parallel slices that are written in order while
+ * the next chunk is pulled. Progress is reported with an {@link ExportProgressEvent} per chunk and
+ * an export is cancelled by cancelling the future returned from {@link #export}.</p>
+ * <p>Converters are called from several threads so they must be thread safe.</p>
  *
  */
 public class ExportManager {
 
+  private static final Logger log = LoggerFactory.getLogger(ExportManager.class);
+
   /**
    * The suffix for the CSV files
    */
@@ -42,20 +57,111 @@ public class ExportManager {
   private static final String OPEN_BRACKET = "(";
   private static final String CLOSE_BRACKET = ")";
 
+  /**
+   * The maximum number of entries pulled from a source at a time
+   */
+  static final int CHUNK_SIZE = 1_000;
+
+  private static final int FORMAT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  /**
+   * Matches the jcsv CSVWriter output
+   */
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private static final CSVColumnJoiner columnJoiner = new CSVColumnJoinerImpl();
+
+  /**
+   * Exports run one at a time
+   */
+  private static final ListeningExecutorService exportExecutorService = SafeExecutors.newSingleThreadExecutor("export");
+
+  private static final ListeningExecutorService formatExecutorService = SafeExecutors.newFixedThreadPool(FORMAT_THREADS, "export-format");
+
+  /**
+   * <p>A source of entries in export order</p>
+   *
+   * @param <T> The entry type
+   */
+  public interface ExportSource<T> {
+
+    /**
+     * @return The number of entries expected (used for progress only)
+     */
+    int size();
+
+    /**
+     * @param maxEntries The maximum number of entries to return
+     *
+     * @return The next entries in export order (empty when the source is exhausted)
+     */
+    List<T> nextChunk(int maxEntries);
+
+  }
+
+  /**
+   * <p>Receives progress from the row writer</p>
+   */
+  interface ExportProgressListener {
+
+    /**
+     * @param rowsExported The number of rows written so far
+     * @param totalRows    The number of rows expected
+     */
+    void onRowsExported(int rowsExported, int totalRows);
+
+  }
+
   public ExportManager() {
 
   }
 
-  public static void export(final List<PaymentData> paymentDataList, final List<PaymentRequestData> paymentRequestDataList, final File exportDirectory, final String transactionFileStem, final String paymentRequestFileStem,
-                            final CSVEntryConverter<PaymentRequestData> paymentRequestHeaderConverter, final CSVEntryConverter<PaymentRequestData> paymentRequestConverter,
-                            final CSVEntryConverter<TransactionData> transactionHeaderConverter, final CSVEntryConverter<TransactionData> transactionConverter) {
-    ExecutorService executorService = SafeExecutors.newSingleThreadExecutor("export");
-    executorService.submit(new Runnable() {
+  /**
+   * <p>Export already materialised payments, sorting them by date descending first</p>
+   *
+   * @return The future of the export (cancel to abandon the export)
+   */
+  public static ListenableFuture<?> export(final List<PaymentData> paymentDataList, final List<PaymentRequestData> paymentRequestDataList, final File exportDirectory, final String transactionFileStem, final String paymentRequestFileStem,
+                                           final CSVEntryConverter<PaymentRequestData> paymentRequestHeaderConverter, final CSVEntryConverter<PaymentRequestData> paymentRequestConverter,
+                                           final CSVEntryConverter<TransactionData> transactionHeaderConverter, final CSVEntryConverter<TransactionData> transactionConverter) {
+
+    Collections.sort(paymentDataList, newestFirstComparator());
+    Collections.sort(paymentRequestDataList, newestFirstComparator());
+
+    List<TransactionData> transactionDataList = Lists.newArrayList();
+    for (PaymentData paymentData : paymentDataList) {
+      if (paymentData instanceof TransactionData) {
+        transactionDataList.add((TransactionData) paymentData);
+      }
+    }
+
+    return export(
+      newListSource(transactionDataList),
+      newListSource(paymentRequestDataList),
+      exportDirectory,
+      transactionFileStem,
+      paymentRequestFileStem,
+      paymentRequestHeaderConverter, paymentRequestConverter,
+      transactionHeaderConverter, transactionConverter
+    );
+  }
+
+  /**
+   * <p>Export payments from sources that are already in export order (typically date descending).</p>
+   * <p>On completion this fires an ExportPerformedEvent that you subscribe to to find out what happened</p>
+   *
+   * @return The future of the export (cancel to abandon the export and remove the partial files)
+   */
+  public static ListenableFuture<?> export(final ExportSource<TransactionData> transactionSource, final ExportSource<PaymentRequestData> paymentRequestSource, final File exportDirectory, final String transactionFileStem, final String paymentRequestFileStem,
+                                           final CSVEntryConverter<PaymentRequestData> paymentRequestHeaderConverter, final CSVEntryConverter<PaymentRequestData> paymentRequestConverter,
+                                           final CSVEntryConverter<TransactionData> transactionHeaderConverter, final CSVEntryConverter<TransactionData> transactionConverter) {
+
+    return exportExecutorService.submit(new Runnable() {
       @Override
       public void run() {
         ExportManager.exportInternal(
-          paymentDataList,
-          paymentRequestDataList,
+          transactionSource,
+          paymentRequestSource,
           exportDirectory,
           transactionFileStem,
           paymentRequestFileStem,
@@ -67,15 +173,168 @@ public class ExportManager {
 
   }
 
-  public static void exportInternal(final List<PaymentData> paymentDataList, final List<PaymentRequestData> paymentRequestDataList, final File exportDirectory, final String transactionFileStem, final String paymentRequestFileStem,
+  public static void exportInternal(final ExportSource<TransactionData> transactionSource, final ExportSource<PaymentRequestData> paymentRequestSource, final File exportDirectory, final String transactionFileStem, final String paymentRequestFileStem,
                                     final CSVEntryConverter<PaymentRequestData> paymentRequestHeaderConverter, final CSVEntryConverter<PaymentRequestData> paymentRequestConverter,
                                     final CSVEntryConverter<TransactionData> transactionHeaderConverter, final CSVEntryConverter<TransactionData> transactionConverter) {
     // Perform the export.
     // On completion this fires an ExportPerformedEvent that you subscribe to to find out what happened
     String[] exportFilenames = calculateExportFilenames(exportDirectory, transactionFileStem, paymentRequestFileStem);
 
-    String transactionsExportFilename = exportDirectory.getAbsolutePath() + File.separator + exportFilenames[0];
-    String paymentRequestsExportFilename = exportDirectory.getAbsolutePath() + File.separator + exportFilenames[1];
+    final String transactionsExportFilename = exportDirectory.getAbsolutePath() + File.separator + exportFilenames[0];
+    final String paymentRequestsExportFilename = exportDirectory.getAbsolutePath() + File.separator + exportFilenames[1];
+
+    // Never remove a file that was there before the export
+    final boolean transactionsFileExisted = new File(transactionsExportFilename).exists();
+    final boolean paymentRequestsFileExisted = new File(paymentRequestsExportFilename).exists();
+
+    boolean exportWasSuccessful = true;
+    String errorMessage = null;
+
+    try {
+
+      // Output transactions
+      try {
+        exportRows(
+          new File(transactionsExportFilename),
+          new TransactionData(null, null, null, null, null, null, null, null, null, null, false, null, null, 0, true),
+          transactionHeaderConverter,
+          transactionConverter,
+          transactionSource,
+          newProgressListener(transactionsExportFilename)
+        );
+        // Success
+      } catch (RuntimeException | IOException | ExecutionException e) {
+        exportWasSuccessful = false;
+        errorMessage = describe(e);
+      }
+
+      // Output payment requests
+      try {
+        exportRows(
+          new File(paymentRequestsExportFilename),
+          new PaymentRequestData(),
+          paymentRequestHeaderConverter,
+          paymentRequestConverter,
+          paymentRequestSource,
+          newProgressListener(paymentRequestsExportFilename)
+        );
+        // Success
+      } catch (RuntimeException | IOException | ExecutionException e) {
+        exportWasSuccessful = false;
+        errorMessage = describe(e);
+      }
+
+    } catch (InterruptedException e) {
+
+      log.debug("Export cancelled. Removing partial files.");
+      if (!transactionsFileExisted) {
+        deletePartialFile(transactionsExportFilename);
+      }
+      if (!paymentRequestsFileExisted) {
+        deletePartialFile(paymentRequestsExportFilename);
+      }
+
+      CoreEvents.fireExportPerformedEvent(new ExportPerformedEvent(null, null, false, CoreMessageKey.EXPORT_WAS_CANCELLED, new String[0]));
+
+      // Preserve the interrupt for the executor
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    if (exportWasSuccessful) {
+      CoreEvents.fireExportPerformedEvent(new ExportPerformedEvent(transactionsExportFilename,
+        paymentRequestsExportFilename, true, null, null));
+    } else {
+      CoreEvents.fireExportPerformedEvent(new ExportPerformedEvent(transactionsExportFilename, paymentRequestsExportFilename, false, CoreMessageKey.THE_ERROR_WAS, new String[]{errorMessage}));
+    }
+  }
+
+  /**
+   * <p>Write a header row followed by every entry of the source</p>
+   *
+   * @param file            The file to append to
+   * @param headerEntry     The mock entry for the header row
+   * @param headerConverter The header converter
+   * @param converter       The entry converter (must be thread safe)
+   * @param source          The source of entries in export order
+   * @param listener        The listener to receive progress after each chunk
+   *
+   * @return The number of rows written (excluding the header)
+   *
+   * @throws IOException          If the file cannot be written
+   * @throws ExecutionException   If a converter fails
+   * @throws InterruptedException If the export is cancelled
+   */
+  static <T> int exportRows(File file, T headerEntry, CSVEntryConverter<T> headerConverter, CSVEntryConverter<T> converter, ExportSource<T> source, ExportProgressListener listener)
+    throws IOException, ExecutionException, InterruptedException {
+
+    int totalRows = source.size();
+    int rowsExported = 0;
+
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8))) {
+
+      // Write the header row.
+      writer.write(formatRow(headerEntry, headerConverter));
+
+      // Write the body of the CSV file.
+      List<T> chunk = source.nextChunk(CHUNK_SIZE);
+      while (!chunk.isEmpty()) {
+
+        if (Thread.interrupted()) {
+          throw new InterruptedException("Export cancelled");
+        }
+
+        List<ListenableFuture<String>> slices = formatChunk(chunk, converter);
+        int chunkSize = chunk.size();
+
+        // Pull the next chunk while this one is formatted
+        chunk = source.nextChunk(CHUNK_SIZE);
+
+        for (ListenableFuture<String> slice : slices) {
+          writer.write(slice.get());
+        }
+
+        rowsExported += chunkSize;
+        listener.onRowsExported(rowsExported, Math.max(rowsExported, totalRows));
+      }
+
+    }
+
+    return rowsExported;
+  }
+
+  /**
+   * @param entries The entries to wrap (already in export order)
+   *
+   * @return A source that hands out the entries in chunks
+   */
+  public static <T> ExportSource<T> newListSource(final List<T> entries) {
+
+    Preconditions.checkNotNull(entries, "'entries' must be present");
+
+    return new ExportSource<T>() {
+
+      private int next = 0;
+
+      @Override
+      public int size() {
+        return entries.size();
+      }
+
+      @Override
+      public List<T> nextChunk(int maxEntries) {
+        int end = Math.min(entries.size(), next + maxEntries);
+        List<T> chunk = entries.subList(next, end);
+        next = end;
+        return chunk;
+      }
+    };
+  }
+
+  /**
+   * @return A comparator that orders payments by date descending with missing dates last
+   */
+  public static Comparator<PaymentData> newestFirstComparator() {
 
     // Sort payments and payment requests by date descending.
     Comparator<PaymentData> comparator = new Comparator<PaymentData>() {
@@ -122,65 +381,7 @@ public class ExportManager {
       }
     };
 
-    Collections.sort(paymentDataList, Collections.reverseOrder(comparator));
-    Collections.sort(paymentRequestDataList, Collections.reverseOrder(comparator));
-
-    List<TransactionData> transactionDataList = Lists.newArrayList();
-    for (PaymentData paymentData : paymentDataList) {
-      if (paymentData instanceof TransactionData) {
-        transactionDataList.add((TransactionData) paymentData);
-      }
-    }
-
-    boolean exportWasSuccessful = true;
-    String errorMessage = null;
-
-    // Output transactions
-    try (OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(transactionsExportFilename, true), Charsets.UTF_8)) {
-      // Write the header row.
-      CSVWriter<TransactionData> csvHeaderWriter = new CSVWriterBuilder<TransactionData>(outputStreamWriter).strategy(CSVStrategy.UK_DEFAULT)
-        .entryConverter(transactionHeaderConverter).build();
-
-      csvHeaderWriter.write(new TransactionData(null, null, null, null, null, null, null, null, null, null, false, null, null, 0, true));
-
-      // Write the body of the CSV file.
-      CSVWriter<TransactionData> csvWriter = new CSVWriterBuilder<TransactionData>(outputStreamWriter).strategy(CSVStrategy.UK_DEFAULT)
-        .entryConverter(transactionConverter).build();
-
-      csvWriter.writeAll(transactionDataList);
-
-      // Success
-    } catch (RuntimeException | IOException e) {
-      exportWasSuccessful = false;
-      errorMessage = e.getClass().getCanonicalName() + " " + e.getMessage();
-    }
-
-    // Output payment requests
-    try (OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(paymentRequestsExportFilename, true), Charsets.UTF_8)) {
-      // Write the header row.
-      CSVWriter<PaymentRequestData> csvHeaderWriter = new CSVWriterBuilder<PaymentRequestData>(outputStreamWriter).strategy(CSVStrategy.UK_DEFAULT)
-        .entryConverter(paymentRequestHeaderConverter).build();
-
-      csvHeaderWriter.write(new PaymentRequestData());
-
-      // Write the body of the CSV file.
-      CSVWriter<PaymentRequestData> csvWriter = new CSVWriterBuilder<PaymentRequestData>(outputStreamWriter).strategy(CSVStrategy.UK_DEFAULT)
-        .entryConverter(paymentRequestConverter).build();
-
-      csvWriter.writeAll(paymentRequestDataList);
-
-      // Success
-    } catch (RuntimeException | IOException e ) {
-      exportWasSuccessful = false;
-      errorMessage = e.getClass().getCanonicalName() + " " + e.getMessage();
-    }
-
-    if (exportWasSuccessful) {
-      CoreEvents.fireExportPerformedEvent(new ExportPerformedEvent(transactionsExportFilename,
-        paymentRequestsExportFilename, true, null, null));
-    } else {
-      CoreEvents.fireExportPerformedEvent(new ExportPerformedEvent(transactionsExportFilename, paymentRequestsExportFilename, false, CoreMessageKey.THE_ERROR_WAS, new String[]{errorMessage}));
-    }
+    return Collections.reverseOrder(comparator);
   }
 
   public static String[] calculateExportFilenames(File exportPaymentsLocationFile, String transactionFileStem, String paymentRequestFileStem) {
@@ -209,4 +410,60 @@ public class ExportManager {
     return null;
   }
 
+  /**
+   * @return Futures of the formatted slices of the chunk in chunk order
+   */
+  private static <T> List<ListenableFuture<String>> formatChunk(List<T> chunk, final CSVEntryConverter<T> converter) {
+
+    // Copy so the source is free to reuse its backing list
+    final List<T> entries = Lists.newArrayList(chunk);
+    int sliceSize = (entries.size() + FORMAT_THREADS - 1) / FORMAT_THREADS;
+
+    List<ListenableFuture<String>> slices = Lists.newArrayList();
+    for (int start = 0; start < entries.size(); start += sliceSize) {
+      final List<T> slice = entries.subList(start, Math.min(entries.size(), start + sliceSize));
+      slices.add(formatExecutorService.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          StringBuilder rows = new StringBuilder(slice.size() * 128);
+          for (T entry : slice) {
+            rows.append(formatRow(entry, converter));
+          }
+          return rows.toString();
+        }
+      }));
+    }
+
+    return slices;
+  }
+
+  private static <T> String formatRow(T entry, CSVEntryConverter<T> converter) {
+    return columnJoiner.joinColumns(converter.convertEntry(entry), CSVStrategy.UK_DEFAULT) + LINE_SEPARATOR;
+  }
+
+  private static ExportProgressListener newProgressListener(final String exportFilename) {
+
+    return new ExportProgressListener() {
+      @Override
+      public void onRowsExported(int rowsExported, int totalRows) {
+        CoreEvents.fireExportProgressEvent(new ExportProgressEvent(exportFilename, rowsExported, totalRows));
+      }
+    };
+  }
+
+  private static String describe(Exception e) {
+
+    Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+
+    return cause.getClass().getCanonicalName() + " " + cause.getMessage();
+  }
+
+  private static void deletePartialFile(String filename) {
+
+    File file = new File(filename);
+    if (file.exists() && !file.delete()) {
+      log.warn("Could not remove partial export file '{}'", filename);
+    }
+  }
+
 }
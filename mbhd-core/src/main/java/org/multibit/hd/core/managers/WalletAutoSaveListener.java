@@ -19,6 +19,7 @@ import java.io.IOException;
  * <p>Listener to provide the following to WalletManager:</p>
  * <ul>
  * <li>Saving of rolling wallet backups and zip backups</li>
+ * <li>Compaction of the wallet journal once the full save is encrypted</li>
  * </ul>
  * </p>
  */
@@ -27,18 +28,61 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
 
   private static final Logger log = LoggerFactory.getLogger(WalletAutoSaveListener.class);
 
+  private final Optional<WalletJournal> walletJournal;
+
+  /**
+   * The lock shared with WalletManager so that encrypting a save and compacting the journal happen one save at a time
+   */
+  private final Object saveLock;
+
+  /**
+   * The compaction mark taken by the save in progress on this thread (the before and after callbacks share a thread)
+   */
+  private final ThreadLocal<Long> compactionMark = new ThreadLocal<>();
+
+  /**
+   * @param walletJournal The wallet journal to compact after each save (absent if the wallet is not journaled)
+   * @param saveLock      The lock WalletManager holds while saving
+   */
+  public WalletAutoSaveListener(Optional<WalletJournal> walletJournal, Object saveLock) {
+    this.walletJournal = walletJournal;
+    this.saveLock = saveLock;
+  }
+
   @Override
   public void onBeforeAutoSave(File tempFile) {
 
     log.debug("Auto-saving wallet to tempFile:\n'{}'", tempFile.getAbsolutePath());
 
+    // Anything journaled from now on may be missing from the save so must survive compaction
+    compactionMark.set(walletJournal.isPresent() ? walletJournal.get().markCompaction() : -1L);
+
   }
 
   @Override
   public void onAfterAutoSave(File newlySavedFile) {
       log.debug("Wallet auto-saved to newlySavedFile:\n'{}'", newlySavedFile.getAbsolutePath());
 
+    Long mark = compactionMark.get();
+    compactionMark.remove();
+
+    synchronized (saveLock) {
+      onAfterAutoSave(newlySavedFile, mark == null ? -1 : mark);
+    }
+  }
+
+  private void onAfterAutoSave(File newlySavedFile, long mark) {
+
     try {
+      if (walletJournal.isPresent() && walletJournal.get().isSuperseded(mark)) {
+        // A later save has been encrypted and has compacted the journal past this one so writing it would lose changes
+        log.debug("Discarding auto-save that began before a later save completed");
+        if (newlySavedFile.exists()) {
+          SecureFiles.secureDelete(newlySavedFile);
+        }
+        return;
+      }
+
       Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
 
       if (walletSummary.isPresent()) {
@@ -53,6 +97,9 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
         // Work out what the encrypted wallet filename will be
         File newlySavedFileWithAES =  new File(newlySavedFile.getAbsoluteFile() + WalletManager.MBHD_AES_SUFFIX);
 
+        // Digest the unencrypted wallet so an unchanged save does not trigger backups
+        long walletDigest = BackupService.digest(newlySavedFile);
+
         // Rename the wallet to a temp file to reduce contention on secure delete
         File directory = newlySavedFile.getAbsoluteFile().getParentFile();
         File tempWalletToDelete = SecureFiles.createTemporaryFilename("wallet", ".tmp", directory);
@@ -65,15 +112,26 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
         File encryptedWalletFile = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(tempWalletToDelete, newlySavedFileWithAES, password);
         if (encryptedWalletFile != null && encryptedWalletFile.exists()) {
           log.debug("Save encrypted copy of wallet (size: {} bytes) as:\n'{}'", encryptedWalletFile.length(), encryptedWalletFile.getAbsolutePath());
+
+          // The journal records up to the start of the save are now redundant
+          if (walletJournal.isPresent()) {
+            walletJournal.get().compact(mark);
+          }
         } else {
           log.debug("No encrypted copy of wallet:\n'{}'", newlySavedFile.getAbsolutePath());
         }
 
         // Remember the info required for the next backups
-        BackupService backupService = CoreServices.getOrCreateBackupService();
-        backupService.rememberWalletSummaryAndPasswordForRollingBackup(walletSummary.get(), password);
-        backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.get().getWalletId(), password);
-        backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.get().getWalletId(), password);
+        // An autosave finishing after shutdown must not bring the backup service back
+        Optional<BackupService> backupService = CoreServices.getCurrentBackupService();
+        if (backupService.isPresent()) {
+          backupService.get().rememberWalletSummaryAndPasswordForRollingBackup(walletSummary.get(), password);
+          backupService.get().rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.get().getWalletId(), password);
+          backupService.get().rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.get().getWalletId(), password);
+          backupService.get().markChanged(BackupService.ChangeSource.WALLET, walletDigest);
+        } else {
+          log.debug("No backup service so backups are left to the next session");
+        }
       } else {
         log.error("No AES wallet encryption nor backups created as there was no wallet data to backup.");
       }
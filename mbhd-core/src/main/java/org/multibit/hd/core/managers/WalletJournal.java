@@ -0,0 +1,813 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.AbstractWalletEventListener;
+import org.bitcoinj.core.BlockChainListener;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Journal to provide the following to WalletManager:</p>
+ * <ul>
+ * <li>Durable, encrypted recording of wallet changes as they happen (transactions, block appearances and chain head)</li>
+ * <li>Crash recovery by replaying the changes on top of the last full wallet save</li>
+ * <li>Compaction once a full wallet save has completed</li>
+ * </ul>
+ * <p>The journal sits alongside the wallet as "mbhd.wallet.journal" and is a redo log of what the block chain and
+ * the network told the wallet. Each record is encrypted on its own with a fresh initialisation vector so appending
+ * never rewrites earlier records. Replay is idempotent: records already reflected in the wallet are skipped, which
+ * allows compaction to keep any records written while the full save was in progress.</p>
+ * <p>A block chain reorganisation cannot be replayed so it ends replay. The wallet then relies on the last full
+ * save and the normal block chain synchronisation.</p>
+ * <p>Only records describing transactions are forced to disk. The chain head changes with every block so the latest
+ * one is held back and written just before the next transaction record (or on close). A transaction made dead by a
+ * double spend is recovered by journaling the overriding transaction even if it is not otherwise relevant.</p>
+ * <p>The header carries a check value for the journal key so a journal written under another password is reported
+ * rather than mistaken for damage. Changing the wallet password re-encrypts the journal.</p>
+ *
+ * @since 0.3.6
+ */
+public class WalletJournal extends AbstractWalletEventListener implements BlockChainListener {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+  /**
+   * The suffix added to the wallet file name (without AES suffix) to give the journal file name
+   */
+  public static final String JOURNAL_SUFFIX = ".journal";
+
+  private static final byte[] MAGIC = "MBHDJRNL".getBytes(Charsets.US_ASCII);
+  private static final byte VERSION = 2;
+
+  private static final int IV_LENGTH = 16;
+  private static final int CHECKSUM_LENGTH = 8;
+  private static final int KEY_CHECK_LENGTH = 8;
+
+  private static final int HEADER_LENGTH = MAGIC.length + 1 + KEY_CHECK_LENGTH;
+
+  /**
+   * Guards against reading a damaged length as a huge allocation (a transaction is at most 100,000 bytes)
+   */
+  private static final int MAX_RECORD_LENGTH = 1_000_000;
+
+  private static final byte PENDING_TRANSACTION = 1;
+  private static final byte TRANSACTION_IN_BLOCK = 2;
+  private static final byte TRANSACTION_HASH_IN_BLOCK = 3;
+  private static final byte BEST_BLOCK = 4;
+  private static final byte REORGANIZE = 5;
+
+  private static final SecureRandom secureRandom = new SecureRandom();
+
+  private final File journalFile;
+
+  private final Wallet wallet;
+
+  private KeyParameter key;
+
+  private RandomAccessFile journal;
+
+  /**
+   * The latest chain head not yet written (written ahead of the next transaction record)
+   */
+  private byte[] pendingBestBlock;
+
+  /**
+   * Transactions that made a wallet transaction dead and have not yet been seen in a block
+   */
+  private final Set<Sha256Hash> overridingTransactions = Collections.newSetFromMap(new ConcurrentHashMap<Sha256Hash, Boolean>());
+
+  /**
+   * The logical journal position up to which records have been discarded by compaction
+   * (logical positions count record bytes since the journal was opened so they survive compaction)
+   */
+  private long compactedThrough = 0;
+
+  private final AtomicLong appendedRecords = new AtomicLong();
+  private final AtomicLong appendedBytes = new AtomicLong();
+  private final AtomicLong forcedWrites = new AtomicLong();
+
+  private WalletJournal(File journalFile, Wallet wallet, KeyParameter key) {
+    this.journalFile = journalFile;
+    this.wallet = wallet;
+    this.key = key;
+  }
+
+  /**
+   * <p>Open the journal for a wallet, creating it if necessary and discarding any partially written final record</p>
+   *
+   * @param walletFile The wallet file (without the AES suffix)
+   * @param wallet     The wallet being journaled
+   * @param password   The wallet password
+   *
+   * @return The journal ready for appending
+   *
+   * @throws IOException If the journal could not be opened
+   */
+  public static WalletJournal open(File walletFile, Wallet wallet, CharSequence password) throws IOException {
+
+    Preconditions.checkNotNull(walletFile, "'walletFile' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    WalletJournal walletJournal = new WalletJournal(getJournalFile(walletFile), wallet, deriveKey(password));
+    walletJournal.openForAppend();
+
+    return walletJournal;
+
+  }
+
+  /**
+   * <p>Replay the journal (if any) onto a wallet freshly loaded from its last full save</p>
+   *
+   * @param walletFile The wallet file (without the AES suffix)
+   * @param wallet     The wallet loaded from the last full save
+   * @param password   The wallet password
+   *
+   * @return The number of records that changed the wallet
+   *
+   * @throws IOException If the journal exists but could not be read or was encrypted with a different password
+   */
+  public static int replay(File walletFile, Wallet wallet, CharSequence password) throws IOException {
+
+    Preconditions.checkNotNull(walletFile, "'walletFile' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    File journalFile = getJournalFile(walletFile);
+    if (!journalFile.isFile() || journalFile.length() <= HEADER_LENGTH) {
+      // Nothing to do so avoid deriving the key
+      return 0;
+    }
+
+    WalletJournal walletJournal = new WalletJournal(journalFile, wallet, deriveKey(password));
+    try (RandomAccessFile replayJournal = new RandomAccessFile(journalFile, "r")) {
+      if (hasValidHeader(replayJournal) && !walletJournal.hasMatchingKey(replayJournal)) {
+        throw new IOException("Wallet journal '" + journalFile.getAbsolutePath() + "' was written with a different password");
+      }
+      return walletJournal.replay(replayJournal);
+    }
+
+  }
+
+  /**
+   * <p>Move the journal aside when the wallet it follows could not be loaded (e.g. a rolling backup was used instead)</p>
+   *
+   * @param walletFile The wallet file (without the AES suffix)
+   */
+  public static void retire(File walletFile) {
+
+    File journalFile = getJournalFile(walletFile);
+    if (journalFile.exists()) {
+      File retiredFile = new File(journalFile.getAbsolutePath() + ".old");
+      try {
+        java.nio.file.Files.move(journalFile.toPath(), retiredFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        log.warn("Retired wallet journal to '{}'", retiredFile.getAbsolutePath());
+      } catch (IOException e) {
+        log.warn("Could not retire wallet journal: {}", e.getMessage());
+      }
+    }
+
+  }
+
+  /**
+   * @param walletFile The wallet file (without the AES suffix)
+   *
+   * @return The journal file
+   */
+  public static File getJournalFile(File walletFile) {
+    return new File(walletFile.getAbsolutePath() + JOURNAL_SUFFIX);
+  }
+
+  /**
+   * <p>Called before a full wallet save begins so that compaction keeps anything written during the save</p>
+   * <p>Each save keeps its own mark so overlapping saves cannot move each other's mark.</p>
+   *
+   * @return The compaction mark to pass to <code>compact()</code> once this save is encrypted (-1 if not journaling)
+   */
+  public synchronized long markCompaction() {
+
+    if (journal == null) {
+      return -1;
+    }
+
+    try {
+      return compactedThrough + journal.length() - HEADER_LENGTH;
+    } catch (IOException e) {
+      log.warn("Could not mark wallet journal for compaction: {}", e.getMessage());
+      return -1;
+    }
+
+  }
+
+  /**
+   * @param mark The compaction mark taken when a save began
+   *
+   * @return True if a save that began later has already compacted the journal (so this save is out of date)
+   */
+  public synchronized boolean isSuperseded(long mark) {
+    return mark >= 0 && mark < compactedThrough;
+  }
+
+  /**
+   * <p>Called once a full wallet save is safely encrypted on disk to discard the records it contains</p>
+   *
+   * @param mark The compaction mark taken when the save began
+   */
+  public synchronized void compact(long mark) {
+
+    if (journal == null || mark <= compactedThrough) {
+      // Nothing to discard or already discarded by a later save
+      return;
+    }
+
+    try {
+      long length = journal.length();
+      long position = HEADER_LENGTH + mark - compactedThrough;
+      byte[] tail = new byte[(int) (length - position)];
+      journal.seek(position);
+      journal.readFully(tail);
+
+      File tempFile = new File(journalFile.getAbsolutePath() + ".tmp");
+      try (RandomAccessFile compacted = new RandomAccessFile(tempFile, "rw")) {
+        compacted.setLength(0);
+        compacted.write(header(key));
+        compacted.write(tail);
+        compacted.getChannel().force(true);
+      }
+
+      journal.close();
+      journal = null;
+      java.nio.file.Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      compactedThrough = mark;
+
+      log.debug("Compacted wallet journal from {} to {} bytes", length, HEADER_LENGTH + tail.length);
+
+    } catch (IOException e) {
+      log.warn("Could not compact wallet journal: {}", e.getMessage());
+    } finally {
+      if (journal == null) {
+        try {
+          openForAppend();
+        } catch (IOException e) {
+          log.error("Could not reopen wallet journal. Changes will only be kept by full saves.", e);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * <p>Re-encrypt the journal with a new wallet password</p>
+   * <p>Call this after a full save with the new password so that only a few records need re-encrypting. Records
+   * appended while this runs wait for it to complete and use the new password.</p>
+   *
+   * @param newPassword The new wallet password
+   *
+   * @throws IOException If the journal could not be rewritten (the journal is left encrypted with the old password)
+   */
+  public synchronized void changePassword(CharSequence newPassword) throws IOException {
+
+    Preconditions.checkNotNull(newPassword, "'newPassword' must be present");
+
+    if (journal == null) {
+      return;
+    }
+
+    KeyParameter newKey = deriveKey(newPassword);
+
+    File tempFile = new File(journalFile.getAbsolutePath() + ".tmp");
+    int records = 0;
+    try (RandomAccessFile rekeyed = new RandomAccessFile(tempFile, "rw")) {
+      rekeyed.setLength(0);
+      rekeyed.write(header(newKey));
+
+      journal.seek(HEADER_LENGTH);
+      byte[] plainBytes;
+      while ((plainBytes = readRecord(journal)) != null) {
+        rekeyed.write(encryptRecord(plainBytes, newKey).array());
+        records++;
+      }
+      rekeyed.getChannel().force(true);
+    }
+
+    journal.close();
+    journal = null;
+    try {
+      java.nio.file.Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      key = newKey;
+      log.debug("Re-encrypted {} wallet journal records with the new password", records);
+    } finally {
+      // Records re-encrypt to the same length so outstanding compaction marks remain valid
+      openForAppend();
+    }
+
+  }
+
+  /**
+   * <p>Close the journal (the records remain on disk until the next compaction)</p>
+   */
+  public synchronized void close() {
+
+    if (journal != null) {
+      if (pendingBestBlock != null) {
+        append(BEST_BLOCK, pendingBestBlock);
+      }
+      try {
+        journal.close();
+      } catch (IOException e) {
+        log.warn("Could not close wallet journal: {}", e.getMessage());
+      }
+      journal = null;
+    }
+
+  }
+
+  /**
+   * @return The number of records appended since the journal was opened
+   */
+  public long getAppendedRecords() {
+    return appendedRecords.get();
+  }
+
+  /**
+   * @return The number of bytes appended since the journal was opened
+   */
+  public long getAppendedBytes() {
+    return appendedBytes.get();
+  }
+
+  /**
+   * @return The number of times appended records were forced to disk since the journal was opened
+   */
+  public long getForcedWrites() {
+    return forcedWrites.get();
+  }
+
+  @Override
+  public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+    appendIfPending(tx);
+  }
+
+  @Override
+  public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+    appendIfPending(tx);
+  }
+
+  @Override
+  public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+
+    TransactionConfidence confidence = tx.getConfidence();
+    if (confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD && confidence.getOverridingTransaction() != null) {
+      // The wallet told the chain it wanted the overriding transaction but may no longer find it relevant
+      overridingTransactions.add(confidence.getOverridingTransaction().getHash());
+    }
+
+  }
+
+  @Override
+  public synchronized void notifyNewBestBlock(StoredBlock block) throws VerificationException {
+
+    // Catching up would otherwise force a record to disk for every block
+    pendingBestBlock = serializeBlock(block, 0).array();
+
+  }
+
+  @Override
+  public void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks, List<StoredBlock> newBlocks) throws VerificationException {
+    append(REORGANIZE, new byte[0]);
+  }
+
+  @Override
+  public boolean isTransactionRelevant(Transaction tx) throws ScriptException {
+    return overridingTransactions.contains(tx.getHash()) || wallet.isTransactionRelevant(tx);
+  }
+
+  @Override
+  public void receiveFromBlock(Transaction tx, StoredBlock block, AbstractBlockChain.NewBlockType blockType, int relativityOffset) throws VerificationException {
+
+    byte[] transactionBytes = tx.bitcoinSerialize();
+    ByteBuffer payload = serializeBlock(block, 1 + 4 + transactionBytes.length);
+    payload.put((byte) blockType.ordinal());
+    payload.putInt(relativityOffset);
+    payload.put(transactionBytes);
+
+    append(TRANSACTION_IN_BLOCK, payload.array());
+    overridingTransactions.remove(tx.getHash());
+
+  }
+
+  @Override
+  public boolean notifyTransactionIsInBlock(Sha256Hash txHash, StoredBlock block, AbstractBlockChain.NewBlockType blockType, int relativityOffset) throws VerificationException {
+
+    // Filtered blocks list every matching hash including false positives
+    if (wallet.getTransaction(txHash) == null) {
+      return false;
+    }
+
+    ByteBuffer payload = serializeBlock(block, 1 + 4 + 32);
+    payload.put((byte) blockType.ordinal());
+    payload.putInt(relativityOffset);
+    payload.put(txHash.getBytes());
+
+    append(TRANSACTION_HASH_IN_BLOCK, payload.array());
+
+    return true;
+
+  }
+
+  private void appendIfPending(Transaction tx) {
+
+    // Transactions in blocks are journaled as the block chain delivers them
+    if (tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.PENDING) {
+      append(PENDING_TRANSACTION, tx.bitcoinSerialize());
+    }
+
+  }
+
+  /**
+   * <p>Append a record, preceded by any pending chain head, and force it to disk</p>
+   *
+   * @param type    The record type
+   * @param payload The record payload
+   */
+  private synchronized void append(byte type, byte[] payload) {
+
+    if (journal == null) {
+      return;
+    }
+
+    ByteBuffer record = encryptRecord(plainRecord(type, payload), key);
+    ByteBuffer bestBlockRecord = null;
+    if (pendingBestBlock != null && type != BEST_BLOCK) {
+      bestBlockRecord = encryptRecord(plainRecord(BEST_BLOCK, pendingBestBlock), key);
+    }
+
+    try {
+      FileChannel channel = journal.getChannel();
+      channel.position(channel.size());
+      if (bestBlockRecord != null) {
+        write(channel, bestBlockRecord);
+      }
+      write(channel, record);
+      channel.force(false);
+      forcedWrites.incrementAndGet();
+
+      pendingBestBlock = null;
+    } catch (IOException e) {
+      log.error("Could not append to wallet journal. Changes will only be kept by full saves.", e);
+    }
+
+  }
+
+  private void write(FileChannel channel, ByteBuffer record) throws IOException {
+
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+
+    appendedRecords.incrementAndGet();
+    appendedBytes.addAndGet(record.capacity());
+
+  }
+
+  /**
+   * @return The record type, payload and checksum ready for encryption
+   */
+  private static byte[] plainRecord(byte type, byte[] payload) {
+
+    byte[] plainBytes = new byte[1 + payload.length + CHECKSUM_LENGTH];
+    plainBytes[0] = type;
+    System.arraycopy(payload, 0, plainBytes, 1, payload.length);
+    System.arraycopy(checksum(plainBytes, 1 + payload.length), 0, plainBytes, 1 + payload.length, CHECKSUM_LENGTH);
+
+    return plainBytes;
+
+  }
+
+  /**
+   * @return The length prefixed, encrypted record ready for writing
+   */
+  private static ByteBuffer encryptRecord(byte[] plainBytes, KeyParameter key) {
+
+    byte[] iv = new byte[IV_LENGTH];
+    secureRandom.nextBytes(iv);
+    byte[] encryptedBytes = AESUtils.encrypt(plainBytes, key, iv);
+
+    ByteBuffer record = ByteBuffer.allocate(4 + IV_LENGTH + encryptedBytes.length);
+    record.putInt(IV_LENGTH + encryptedBytes.length);
+    record.put(iv);
+    record.put(encryptedBytes);
+    record.flip();
+
+    return record;
+
+  }
+
+  /**
+   * <p>Open the journal file, writing the header if it is new and dropping any torn final record</p>
+   */
+  private void openForAppend() throws IOException {
+
+    journal = new RandomAccessFile(journalFile, "rw");
+
+    if (journal.length() > 0 && !hasValidHeader(journal)) {
+      log.warn("Wallet journal '{}' has no valid header. Starting a new journal.", journalFile.getAbsolutePath());
+      retireAndReopen();
+    } else if (journal.length() > 0 && !hasMatchingKey(journal)) {
+      // Never truncate records that may be recoverable with the other password
+      log.error("Wallet journal '{}' was written with a different password. Starting a new journal.", journalFile.getAbsolutePath());
+      retireAndReopen();
+    }
+
+    if (journal.length() == 0) {
+      journal.write(header(key));
+      journal.getChannel().force(true);
+      return;
+    }
+
+    long validLength = HEADER_LENGTH;
+    journal.seek(HEADER_LENGTH);
+    while (readRecord(journal) != null) {
+      validLength = journal.getFilePointer();
+    }
+    if (validLength < journal.length()) {
+      log.warn("Discarding {} bytes of incomplete wallet journal", journal.length() - validLength);
+      journal.setLength(validLength);
+    }
+
+  }
+
+  /**
+   * <p>Move the current journal aside and open an empty one in its place</p>
+   */
+  private void retireAndReopen() throws IOException {
+
+    journal.close();
+    journal = null;
+
+    // Fail rather than overwrite the records if they cannot be moved aside
+    File retiredFile = new File(journalFile.getAbsolutePath() + ".old");
+    java.nio.file.Files.move(journalFile.toPath(), retiredFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    log.warn("Retired wallet journal to '{}'", retiredFile.getAbsolutePath());
+
+    journal = new RandomAccessFile(journalFile, "rw");
+
+  }
+
+  private int replay(RandomAccessFile replayJournal) throws IOException {
+
+    if (!hasValidHeader(replayJournal)) {
+      log.warn("Wallet journal '{}' has no valid header. Nothing to replay.", journalFile.getAbsolutePath());
+      return 0;
+    }
+
+    NetworkParameters networkParameters = wallet.getParams();
+
+    int applied = 0;
+    int skipped = 0;
+    replayJournal.seek(HEADER_LENGTH);
+    byte[] plainBytes;
+    while ((plainBytes = readRecord(replayJournal)) != null) {
+
+      ByteBuffer payload = ByteBuffer.wrap(plainBytes, 1, plainBytes.length - 1 - CHECKSUM_LENGTH).slice();
+
+      try {
+        if (apply(networkParameters, plainBytes[0], payload)) {
+          applied++;
+        } else {
+          skipped++;
+        }
+      } catch (ReorganizeException e) {
+        log.warn("Wallet journal replay stopped at a block chain reorganisation. Synchronisation will catch up.");
+        break;
+      } catch (VerificationException e) {
+        log.warn("Wallet journal replay stopped at a record the wallet rejected: {}", e.getMessage());
+        break;
+      }
+    }
+
+    log.info("Replayed wallet journal: {} records applied, {} already in the wallet. Wallet height is now {}", applied, skipped, wallet.getLastBlockSeenHeight());
+
+    return applied;
+
+  }
+
+  /**
+   * @return True if the record changed the wallet, false if the wallet already reflected it
+   */
+  private boolean apply(NetworkParameters networkParameters, byte type, ByteBuffer payload) throws VerificationException, ReorganizeException {
+
+    switch (type) {
+      case PENDING_TRANSACTION: {
+        Transaction tx = new Transaction(networkParameters, remaining(payload));
+        if (wallet.getTransaction(tx.getHash()) != null || !wallet.isPendingTransactionRelevant(tx)) {
+          return false;
+        }
+        wallet.receivePending(tx, null);
+        return true;
+      }
+      case TRANSACTION_IN_BLOCK: {
+        StoredBlock block = StoredBlock.deserializeCompact(networkParameters, payload);
+        AbstractBlockChain.NewBlockType blockType = AbstractBlockChain.NewBlockType.values()[payload.get()];
+        int relativityOffset = payload.getInt();
+        Transaction tx = new Transaction(networkParameters, remaining(payload));
+        if (isInBlock(tx.getHash(), block)) {
+          return false;
+        }
+        wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+        return true;
+      }
+      case TRANSACTION_HASH_IN_BLOCK: {
+        StoredBlock block = StoredBlock.deserializeCompact(networkParameters, payload);
+        AbstractBlockChain.NewBlockType blockType = AbstractBlockChain.NewBlockType.values()[payload.get()];
+        int relativityOffset = payload.getInt();
+        Sha256Hash txHash = new Sha256Hash(remaining(payload));
+        if (wallet.getTransaction(txHash) == null || isInBlock(txHash, block)) {
+          return false;
+        }
+        return wallet.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+      }
+      case BEST_BLOCK: {
+        StoredBlock block = StoredBlock.deserializeCompact(networkParameters, payload);
+        if (block.getHeight() <= wallet.getLastBlockSeenHeight()) {
+          return false;
+        }
+        wallet.notifyNewBestBlock(block);
+        return true;
+      }
+      case REORGANIZE:
+        throw new ReorganizeException();
+      default:
+        log.warn("Ignoring unknown wallet journal record type {}", type);
+        return false;
+    }
+
+  }
+
+  /**
+   * @return True if the wallet already has the transaction in the given block
+   */
+  private boolean isInBlock(Sha256Hash txHash, StoredBlock block) {
+
+    Transaction existing = wallet.getTransaction(txHash);
+
+    return existing != null
+      && existing.getAppearsInHashes() != null
+      && existing.getAppearsInHashes().containsKey(block.getHeader().getHash());
+
+  }
+
+  /**
+   * @param file The journal positioned at the start of a record
+   *
+   * @return The decrypted record (type, payload and checksum) or null at the end of the journal or a damaged record
+   */
+  private byte[] readRecord(RandomAccessFile file) throws IOException {
+
+    long remaining = file.length() - file.getFilePointer();
+    if (remaining < 4) {
+      return null;
+    }
+
+    int length = file.readInt();
+    if (length <= IV_LENGTH || length > MAX_RECORD_LENGTH || length > remaining - 4) {
+      return null;
+    }
+
+    byte[] recordBytes = new byte[length];
+    file.readFully(recordBytes);
+
+    byte[] plainBytes;
+    try {
+      plainBytes = AESUtils.decrypt(Arrays.copyOfRange(recordBytes, IV_LENGTH, length), key, Arrays.copyOf(recordBytes, IV_LENGTH));
+    } catch (RuntimeException e) {
+      return null;
+    }
+
+    if (plainBytes == null || plainBytes.length < 1 + CHECKSUM_LENGTH) {
+      return null;
+    }
+    byte[] expectedChecksum = checksum(plainBytes, plainBytes.length - CHECKSUM_LENGTH);
+    byte[] actualChecksum = Arrays.copyOfRange(plainBytes, plainBytes.length - CHECKSUM_LENGTH, plainBytes.length);
+
+    return Arrays.equals(expectedChecksum, actualChecksum) ? plainBytes : null;
+
+  }
+
+  /**
+   * @return True if the file starts with the magic bytes and the current version
+   */
+  private static boolean hasValidHeader(RandomAccessFile file) throws IOException {
+
+    if (file.length() < HEADER_LENGTH) {
+      return false;
+    }
+
+    byte[] header = new byte[MAGIC.length + 1];
+    file.seek(0);
+    file.readFully(header);
+
+    return Arrays.equals(header, Arrays.copyOf(header(null), MAGIC.length + 1));
+
+  }
+
+  /**
+   * @return True if the header key check matches the key of this journal
+   */
+  private boolean hasMatchingKey(RandomAccessFile file) throws IOException {
+
+    byte[] header = new byte[HEADER_LENGTH];
+    file.seek(0);
+    file.readFully(header);
+
+    return Arrays.equals(header, header(key));
+
+  }
+
+  /**
+   * @param key The journal key (null to leave the key check empty)
+   *
+   * @return The header for a journal encrypted with the key
+   */
+  private static byte[] header(KeyParameter key) {
+
+    byte[] header = Arrays.copyOf(MAGIC, HEADER_LENGTH);
+    header[MAGIC.length] = VERSION;
+    if (key != null) {
+      byte[] keyCheck = Hashing.sha256().newHasher().putBytes(MAGIC).putBytes(key.getKey()).hash().asBytes();
+      System.arraycopy(keyCheck, 0, header, MAGIC.length + 1, KEY_CHECK_LENGTH);
+    }
+
+    return header;
+
+  }
+
+  private static byte[] checksum(byte[] bytes, int length) {
+    return Arrays.copyOf(Hashing.sha256().hashBytes(bytes, 0, length).asBytes(), CHECKSUM_LENGTH);
+  }
+
+  private static KeyParameter deriveKey(CharSequence password) {
+    return new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(WalletManager.scryptSalt())).deriveKey(password);
+  }
+
+  /**
+   * @param block      The block
+   * @param extraBytes The space required after the block
+   *
+   * @return A buffer containing the compact block ready for further content
+   */
+  private static ByteBuffer serializeBlock(StoredBlock block, int extraBytes) {
+
+    ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE + extraBytes);
+    block.serializeCompact(buffer);
+
+    return buffer;
+
+  }
+
+  private static byte[] remaining(ByteBuffer buffer) {
+
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+
+    return bytes;
+
+  }
+
+  /**
+   * <p>Signals that replay has reached a reorganisation</p>
+   */
+  private static class ReorganizeException extends Exception {
+  }
+
+}
@@ -19,11 +19,13 @@ import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.UnreadableWalletException;
 import org.bitcoinj.store.WalletProtobufSerializer;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.DeterministicSeed;
 import org.bitcoinj.wallet.Protos;
 import org.joda.time.DateTime;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.dto.FeeState;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.extensions.SendFeeDtoWalletExtension;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
@@ -34,6 +36,7 @@ import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.config.Yaml;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.crypto.SeedDerivationSession;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
@@ -49,7 +52,6 @@ import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.BitcoinNetworkService;
 import org.multibit.hd.core.services.CoreServices;
 import org.multibit.hd.core.utils.BitcoinNetwork;
-import org.multibit.hd.core.utils.Collators;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
@@ -61,6 +63,8 @@ import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -85,11 +89,15 @@ public enum WalletManager implements WalletEventListener {
       Coin value = tx.getValue(wallet);
       log.debug("Received transaction {} with value {}", tx, value);
 
+      recordBRITTransaction(wallet, tx);
+
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
     }
 
     @Override
     public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+      recordBRITTransaction(wallet, tx);
+
       // Emit an event so that GUI elements can update as required
       Coin value = tx.getValue(wallet);
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
@@ -97,13 +105,18 @@ public enum WalletManager implements WalletEventListener {
 
     @Override
     public void onReorganize(Wallet wallet) {
-
+      // Send counts may have changed so recalculate the BRIT fees on next use
+      FeeService.invalidateFeeLedger(wallet);
     }
 
     @Override
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
       // Emit an event so that GUI elements can update as required
       if (tx != null) {
+        if (tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+          // A double spent send no longer counts towards the BRIT fees
+          FeeService.invalidateFeeLedger(wallet);
+        }
         Coin value = tx.getValue(wallet);
         CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
       }
@@ -127,6 +140,11 @@ public enum WalletManager implements WalletEventListener {
 
   private static final int AUTO_SAVE_DELAY = 30000; // milliseconds
 
+  /**
+   * With a wallet journal the full save only compacts the journal so it can be infrequent
+   */
+  private static final int JOURNALED_AUTO_SAVE_DELAY = 600000; // milliseconds
+
   // TODO (GR) Refactor this to be injected
   private static final NetworkParameters networkParameters = BitcoinNetwork.current().get();
 
@@ -157,6 +175,11 @@ public enum WalletManager implements WalletEventListener {
 
   private static final Pattern walletDirectoryPattern = Pattern.compile(REGEX_FOR_WALLET_DIRECTORY);
 
+  /**
+   * The wallet summary indexes keyed by the directory containing the wallet roots
+   */
+  private static final ConcurrentMap<File, WalletSummaryIndex> walletSummaryIndexes = new ConcurrentHashMap<>();
+
   /**
    * The wallet version number for protobuf encrypted wallets - compatible with MultiBit Classic
    */
@@ -174,6 +197,13 @@ public enum WalletManager implements WalletEventListener {
 
   private Optional<WalletSummary> currentWalletSummary = Optional.absent();
 
+  private Optional<WalletJournal> currentWalletJournal = Optional.absent();
+
+  /**
+   * Ensures only one full save writes the wallet file at a time (shared with the auto-save listener)
+   */
+  private final Object saveLock = new Object();
+
   private static final SecureRandom random = new SecureRandom();
 
   /**
@@ -402,12 +432,41 @@ public enum WalletManager implements WalletEventListener {
      String name,
      String notes,
      boolean performSynch) throws WalletLoadException, WalletVersionException, IOException {
+
+     SeedDerivationSession session = SeedDerivationSession.open();
+     try {
+       return getOrCreateMBHDSoftWalletSummaryFromEntropy(applicationDataDirectory, entropy, seed, creationTimeInSeconds, password, name, notes, performSynch, session);
+     } finally {
+       session.close();
+     }
+
+   }
+
+  /**
+    * <p>Create a MBHD soft wallet from a seed as {@link #getOrCreateMBHDSoftWalletSummaryFromEntropy(File, byte[], byte[], long, String, String, String, boolean)}
+    * deriving the wallet ID through the caller's seed derivation session</p>
+    *
+    * @param session The seed derivation session of the caller (e.g. a wizard)
+    */
+   public WalletSummary getOrCreateMBHDSoftWalletSummaryFromEntropy(
+     File applicationDataDirectory,
+     byte[] entropy,
+     byte[] seed,
+     long creationTimeInSeconds,
+     String password,
+     String name,
+     String notes,
+     boolean performSynch,
+     SeedDerivationSession session) throws WalletLoadException, WalletVersionException, IOException {
+
+     Preconditions.checkNotNull(session, "'session' must be present");
+
      log.debug("getOrCreateMBHDSoftWalletSummaryFromEntropy called");
      final WalletSummary walletSummary;
 
      // Create a wallet id from the seed to work out the wallet root directory
      // The seed bytes are used for backwards compatibility
-     final WalletId walletId = new WalletId(seed);
+     final WalletId walletId = new WalletId(seed, session);
      String walletRoot = createWalletRoot(walletId);
 
      final File walletDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, walletRoot);
@@ -631,6 +690,33 @@ public enum WalletManager implements WalletEventListener {
     String notes,
     boolean performSync) throws UnreadableWalletException, WalletLoadException, WalletVersionException, IOException {
 
+    SeedDerivationSession session = SeedDerivationSession.open();
+    try {
+      return getOrCreateTrezorSoftWalletSummaryFromSeedPhrase(applicationDataDirectory, seedPhrase, creationTimeInSeconds, password, name, notes, performSync, session);
+    } finally {
+      session.close();
+    }
+
+  }
+
+  /**
+   * <p>Create a Trezor soft wallet from a seed phrase as {@link #getOrCreateTrezorSoftWalletSummaryFromSeedPhrase(File, String, long, String, String, String, boolean)}
+   * deriving the wallet ID through the caller's seed derivation session</p>
+   *
+   * @param session The seed derivation session of the caller (e.g. a wizard)
+   */
+  public WalletSummary getOrCreateTrezorSoftWalletSummaryFromSeedPhrase(
+    File applicationDataDirectory,
+    String seedPhrase,
+    long creationTimeInSeconds,
+    String password,
+    String name,
+    String notes,
+    boolean performSync,
+    SeedDerivationSession session) throws UnreadableWalletException, WalletLoadException, WalletVersionException, IOException {
+
+    Preconditions.checkNotNull(session, "'session' must be present");
+
     log.debug("getOrCreateTrezorSoftWalletSummaryFromSeedPhrase called");
 
     // Create a wallet id from the seed to work out the wallet root directory
@@ -638,7 +724,7 @@ public enum WalletManager implements WalletEventListener {
     List<String> seedPhraseList = Bip39SeedPhraseGenerator.split(seedPhrase);
     byte[] seed = seedGenerator.convertToSeed(seedPhraseList);
 
-    final WalletId walletId = new WalletId(seed, getWalletIdSaltUsedInScryptForTrezorSoftWallets());
+    final WalletId walletId = new WalletId(seed, getWalletIdSaltUsedInScryptForTrezorSoftWallets(), session);
     String walletRoot = createWalletRoot(walletId);
 
     final File walletDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, walletRoot);
@@ -769,7 +855,7 @@ public enum WalletManager implements WalletEventListener {
     InstallationManager.copyCheckpointsTo(checkpointsFile);
 
     // Set up auto-save on the wallet.
-    addAutoSaveListener(walletSummary.getWallet(), walletSummary.getWalletFile());
+    addAutoSaveListener(walletSummary.getWallet(), walletSummary.getWalletFile(), walletSummary.getWalletPassword().getPassword());
 
     // Remember the info required for the next backups
     BackupService backupService = CoreServices.getOrCreateBackupService();
@@ -806,6 +892,8 @@ public enum WalletManager implements WalletEventListener {
 
         boolean performRegularSync = false;
         BlockStore blockStore = null;
+        StoredBlock chainHead = null;
+        File blockStoreFile = null;
         try {
           // Get the bitcoin network service
           BitcoinNetworkService bitcoinNetworkService = CoreServices.getOrCreateBitcoinNetworkService();
@@ -823,19 +911,38 @@ public enum WalletManager implements WalletEventListener {
           // See if the bitcoinNetworkService already has an open blockstore
           blockStore = bitcoinNetworkService.getBlockStore();
 
-          if (blockStore == null) {
-            // Open the blockstore with no checkpointing (this is to get the chain height)
-            blockStore = bitcoinNetworkService.openBlockStore(InstallationManager.getOrCreateApplicationDataDirectory(), Optional.<Date>absent());
+          int blockStoreBlockHeight = -2;  // -2 is just a dummy value
+
+          // A closed blockstore may have recorded its chain head so it need not be opened
+          // (the blockstore is alongside the current wallet, see BitcoinNetworkService#openBlockStore)
+          Optional<ChainHeadSidecar> chainHeadSidecar = Optional.absent();
+          Optional<File> currentWalletFile = getCurrentWalletFile(InstallationManager.getOrCreateApplicationDataDirectory());
+          if (currentWalletFile.isPresent()) {
+            blockStoreFile = new File(currentWalletFile.get().getParentFile(), InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+            if (blockStore == null) {
+              chainHeadSidecar = ChainHeadSidecar.read(blockStoreFile);
+            }
           }
-          log.debug("blockStore = {}", blockStore);
 
-          int blockStoreBlockHeight = -2;  // -2 is just a dummy value
-          if (blockStore != null) {
-            StoredBlock chainHead = blockStore.getChainHead();
-            blockStoreBlockHeight = chainHead == null ? -2 : chainHead.getHeight();
+          if (chainHeadSidecar.isPresent() && chainHeadSidecar.get().getHeight() == walletBlockHeight) {
+            blockStoreBlockHeight = chainHeadSidecar.get().getHeight();
+            log.debug("The blockStore chain head was recorded at height {}", blockStoreBlockHeight);
+          } else {
+
+            // Any mismatch is checked against the blockstore itself
+            if (blockStore == null) {
+              // Open the blockstore with no checkpointing (this is to get the chain height)
+              blockStore = bitcoinNetworkService.openBlockStore(InstallationManager.getOrCreateApplicationDataDirectory(), Optional.<Date>absent());
+            }
+            log.debug("blockStore = {}", blockStore);
 
+            if (blockStore != null) {
+              chainHead = blockStore.getChainHead();
+              blockStoreBlockHeight = chainHead == null ? -2 : chainHead.getHeight();
+
+            }
+            log.debug("The blockStore is at height {}", blockStoreBlockHeight);
           }
-          log.debug("The blockStore is at height {}", blockStoreBlockHeight);
 
           // If wallet and block store match or wallet is brand new use regular sync
           if ((walletBlockHeight > 0 && walletBlockHeight == blockStoreBlockHeight) ||
@@ -852,6 +959,9 @@ public enum WalletManager implements WalletEventListener {
           if (blockStore != null) {
             try {
               blockStore.close();
+              if (chainHead != null && blockStoreFile != null) {
+                ChainHeadSidecar.write(blockStoreFile, chainHead);
+              }
             } catch (BlockStoreException bse) {
               log.warn("Failed to close block store", bse);
             }
@@ -925,7 +1035,7 @@ public enum WalletManager implements WalletEventListener {
 
     Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(inputStream);
 
-    WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new MatcherResponseWalletExtension(), new WalletTypeExtension()};
+    WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new FeeLedgerWalletExtension(), new MatcherResponseWalletExtension(), new WalletTypeExtension()};
     Wallet wallet = new WalletProtobufSerializer().readWallet(BitcoinNetwork.current().get(), walletExtensions, walletProto);
     wallet.setKeychainLookaheadSize(LOOK_AHEAD_SIZE);
 
@@ -1045,10 +1155,22 @@ public enum WalletManager implements WalletEventListener {
         backupFileLoaded = true;
       }
 
+      File walletFileNoAESSuffix = new File(walletFilenameNoAESSuffix);
+      if (backupFileLoaded) {
+        // The journal follows on from the unreadable wallet so cannot be replayed onto an older backup
+        WalletJournal.retire(walletFileNoAESSuffix);
+      } else {
+        try {
+          WalletJournal.replay(walletFileNoAESSuffix, wallet, password);
+        } catch (IOException e) {
+          log.error("Could not replay wallet journal. Synchronisation will catch up. Error was '{}'", e.getMessage());
+        }
+      }
+
       // Create the wallet summary with its wallet
       WalletSummary walletSummary = getOrCreateWalletSummary(walletDirectory, walletId);
       walletSummary.setWallet(wallet);
-      walletSummary.setWalletFile(new File(walletFilenameNoAESSuffix));
+      walletSummary.setWalletFile(walletFileNoAESSuffix);
       walletSummary.setWalletPassword(new WalletPassword(password, walletId));
 
       log.debug("Loaded the wallet successfully from \n{}", walletDirectory);
@@ -1069,17 +1191,28 @@ public enum WalletManager implements WalletEventListener {
   }
 
   /**
-   * Set up auto-save on the wallet.
-   * This ensures the wallet is saved on modification
+   * Set up the wallet journal and auto-save on the wallet.
+   * The journal records each change as it happens and the auto-save periodically writes the full wallet and compacts the journal
    * The listener has a 'after save' callback which ensures rolling backups and local/ cloud backups are also saved where necessary
    *
-   * @param wallet The wallet to add the autosave listener to
-   * @param file   The file to add the autoSaveListener to - this should be WITHOUT the AES suffix
+   * @param wallet   The wallet to add the autosave listener to
+   * @param file     The file to add the autoSaveListener to - this should be WITHOUT the AES suffix
+   * @param password The wallet password to encrypt the journal
    */
-  private void addAutoSaveListener(Wallet wallet, File file) {
+  private void addAutoSaveListener(Wallet wallet, File file, CharSequence password) {
     if (file != null) {
-      WalletAutoSaveListener walletAutoSaveListener = new WalletAutoSaveListener();
-      wallet.autosaveToFile(file, AUTO_SAVE_DELAY, TimeUnit.MILLISECONDS, walletAutoSaveListener);
+      closeWalletJournal();
+      try {
+        WalletJournal walletJournal = WalletJournal.open(file, wallet, password);
+        wallet.addEventListener(walletJournal, Threading.SAME_THREAD);
+        currentWalletJournal = Optional.of(walletJournal);
+      } catch (IOException e) {
+        log.warn("Could not open wallet journal. Falling back to frequent full saves. Error was '{}'", e.getMessage());
+      }
+
+      WalletAutoSaveListener walletAutoSaveListener = new WalletAutoSaveListener(currentWalletJournal, saveLock);
+      long autoSaveDelay = currentWalletJournal.isPresent() ? JOURNALED_AUTO_SAVE_DELAY : AUTO_SAVE_DELAY;
+      wallet.autosaveToFile(file, autoSaveDelay, TimeUnit.MILLISECONDS, walletAutoSaveListener);
       log.debug("WalletAutoSaveListener {} on file\n'{}'\njust added to wallet {}", System.identityHashCode(this), file.getAbsolutePath(), System.identityHashCode(wallet));
     } else {
       log.debug("Not adding autoSaveListener to wallet {} as no wallet file is specified", System.identityHashCode(wallet));
@@ -1211,36 +1344,8 @@ public enum WalletManager implements WalletEventListener {
    */
   public static List<WalletSummary> getSoftWalletSummaries(final Optional<Locale> localeOptional) {
 
-    List<File> walletDirectories = findWalletDirectories(InstallationManager.getOrCreateApplicationDataDirectory());
-    Optional<String> walletRoot = INSTANCE.getCurrentWalletRoot();
-    List<WalletSummary> allWalletSummaries = findWalletSummaries(walletDirectories, walletRoot);
-    List<WalletSummary> softWalletSummaries = Lists.newArrayList();
-
-    for (WalletSummary walletSummary : allWalletSummaries) {
-      if (WalletType.MBHD_SOFT_WALLET == walletSummary.getWalletType()
-              || WalletType.MBHD_SOFT_WALLET_BIP32 == walletSummary.getWalletType()
-        || WalletType.TREZOR_SOFT_WALLET == walletSummary.getWalletType()) {
-        softWalletSummaries.add(walletSummary);
-      }
-    }
-
-    // Sort by name of wallet
-    Collections.sort(softWalletSummaries, new Comparator<WalletSummary>() {
-      @Override
-      public int compare(WalletSummary me, WalletSummary other) {
-        String myName = me.getName();
-        if (myName == null) {
-          myName = "";
-        }
-        String otherName = other.getName();
-        if (otherName == null) {
-          otherName = "";
-        }
-        return Collators.newCollator(localeOptional).compare(myName, otherName);
-      }
-    });
-
-    return softWalletSummaries;
+    // The index knows the wallet types and names so only soft wallets are read and the sort uses collation keys
+    return getWalletSummaryIndex(InstallationManager.getOrCreateApplicationDataDirectory()).findSoftWalletSummaries(localeOptional);
   }
 
   /**
@@ -1255,23 +1360,8 @@ public enum WalletManager implements WalletEventListener {
 
     Preconditions.checkNotNull(directoryToSearch);
 
-    File[] files = directoryToSearch.listFiles();
-    List<File> walletDirectories = Lists.newArrayList();
-
-    // Look for file names with format "mbhd"-"walletId" and are not empty
-    if (files != null) {
-      for (File file : files) {
-        if (file.isDirectory()) {
-          String filename = file.getName();
-          if (filename.matches(REGEX_FOR_WALLET_DIRECTORY)) {
-            // The name matches so add it
-            walletDirectories.add(file);
-          }
-        }
-      }
-    }
-
-    return walletDirectories;
+    // The listing is only repeated when the directory has been modified
+    return getWalletSummaryIndex(directoryToSearch).findWalletDirectories();
   }
 
   /**
@@ -1286,22 +1376,33 @@ public enum WalletManager implements WalletEventListener {
 
     Preconditions.checkNotNull(walletDirectories, "'walletDirectories' must be present");
 
-    List<WalletSummary> walletList = Lists.newArrayList();
+    // Group the wallet roots by the directory containing them so each index is consulted once
+    Map<File, List<File>> walletDirectoriesByParent = new LinkedHashMap<>();
     for (File walletDirectory : walletDirectories) {
-      if (walletDirectory.isDirectory()) {
-        String directoryName = walletDirectory.getName();
-        if (directoryName.matches(REGEX_FOR_WALLET_DIRECTORY)) {
+      if (walletDirectory.isDirectory() && walletDirectory.getName().matches(REGEX_FOR_WALLET_DIRECTORY)) {
+        File absoluteWalletDirectory = walletDirectory.getAbsoluteFile();
+        File parent = absoluteWalletDirectory.getParentFile();
+        if (!walletDirectoriesByParent.containsKey(parent)) {
+          walletDirectoriesByParent.put(parent, Lists.<File>newArrayList());
+        }
+        walletDirectoriesByParent.get(parent).add(absoluteWalletDirectory);
+      }
+    }
 
-          // The name matches so process it
-          WalletId walletId = new WalletId(directoryName.substring(MBHD_WALLET_PREFIX.length() + 1));
-          WalletSummary walletSummary = getOrCreateWalletSummary(walletDirectory, walletId);
+    List<WalletSummary> walletList = Lists.newArrayList();
+    for (Map.Entry<File, List<File>> entry : walletDirectoriesByParent.entrySet()) {
 
-          // Check if the wallet root is present and matches the file name
-          if (walletRoot.isPresent() && directoryName.equals(walletRoot.get())) {
-            walletList.add(0, walletSummary);
-          } else {
-            walletList.add(walletSummary);
-          }
+      // Only the YAML of wallet roots that have changed is read
+      List<WalletSummary> walletSummaries = getWalletSummaryIndex(entry.getKey()).findWalletSummaries(entry.getValue());
+
+      for (int i = 0; i < walletSummaries.size(); i++) {
+        String directoryName = entry.getValue().get(i).getName();
+
+        // Check if the wallet root is present and matches the file name
+        if (walletRoot.isPresent() && directoryName.equals(walletRoot.get())) {
+          walletList.add(0, walletSummaries.get(i));
+        } else {
+          walletList.add(walletSummaries.get(i));
         }
       }
     }
@@ -1341,8 +1442,7 @@ public enum WalletManager implements WalletEventListener {
       Wallet wallet = getCurrentWalletSummary().get().getWallet();
 
       // Set the transaction sent by self provider to use TransactionInfos
-      TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(getCurrentWalletSummary().get().getWalletId());
-      feeService.setTransactionSentBySelfProvider(transactionSentBySelfProvider);
+      useTransactionInfos(getCurrentWalletSummary().get().getWalletId());
 
       FeeState feeState = feeService.calculateFeeState(wallet, false);
       if (includeOneExtraFee) {
@@ -1355,6 +1455,37 @@ public enum WalletManager implements WalletEventListener {
     }
   }
 
+  /**
+   * <p>Keep the BRIT fee ledger up to date so that fee state requests do not scan the wallet</p>
+   *
+   * @param wallet The wallet that has changed
+   * @param tx     The new transaction
+   */
+  void recordBRITTransaction(Wallet wallet, Transaction tx) {
+
+    // The fee service is created (and the ledger built) on the first fee state request
+    if (feeService == null || getCurrentWalletSummary() == null || !getCurrentWalletSummary().isPresent()) {
+      return;
+    }
+
+    if (getCurrentWalletSummary().get().getWallet() == wallet) {
+      // The previous wallet's provider would look up the wrong TransactionInfos after a switch
+      useTransactionInfos(getCurrentWalletSummary().get().getWalletId());
+      feeService.recordTransaction(wallet, tx);
+    }
+
+  }
+
+  /**
+   * @param walletId The wallet ID whose TransactionInfos decide whether a transaction was sent by self
+   */
+  private void useTransactionInfos(WalletId walletId) {
+
+    TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(walletId);
+    feeService.setTransactionSentBySelfProvider(transactionSentBySelfProvider);
+
+  }
+
   /**
    * @return The current wallet summary (present only if a wallet has been unlocked)
    */
@@ -1362,6 +1493,13 @@ public enum WalletManager implements WalletEventListener {
     return currentWalletSummary;
   }
 
+  /**
+   * @return The journal of the current wallet (present only if a wallet has been unlocked and its journal opened)
+   */
+  public Optional<WalletJournal> getCurrentWalletJournal() {
+    return currentWalletJournal;
+  }
+
   /**
    * @param walletSummary The current wallet summary (null if a reset is required)
    */
@@ -1460,6 +1598,30 @@ public enum WalletManager implements WalletEventListener {
     } catch (IOException e) {
       ExceptionHandler.handleThrowable(e);
     }
+
+    // Do not rely on the modification time alone for a rapid second update
+    File walletDirectory = walletSummaryFile.getAbsoluteFile().getParentFile();
+    if (walletDirectory != null && walletDirectory.getParentFile() != null) {
+      getWalletSummaryIndex(walletDirectory.getParentFile()).invalidate(walletDirectory);
+    }
+  }
+
+  /**
+   * @param directory The directory containing wallet roots (typically the application data directory)
+   *
+   * @return The wallet summary index for the directory
+   */
+  private static WalletSummaryIndex getWalletSummaryIndex(File directory) {
+
+    File key = directory.getAbsoluteFile();
+
+    WalletSummaryIndex walletSummaryIndex = walletSummaryIndexes.get(key);
+    if (walletSummaryIndex == null) {
+      walletSummaryIndexes.putIfAbsent(key, new WalletSummaryIndex(key, walletDirectoryPattern, WalletSummaryIndex.DEFAULT_RACY_MILLIS));
+      walletSummaryIndex = walletSummaryIndexes.get(key);
+    }
+
+    return walletSummaryIndex;
   }
 
   /**
@@ -1780,6 +1942,7 @@ public enum WalletManager implements WalletEventListener {
   public void shutdownNow(ShutdownEvent.ShutdownType shutdownType) {
 
     log.debug("Received shutdown: {}", shutdownType.name());
+    closeWalletJournal();
     currentWalletSummary = Optional.absent();
 
   }
@@ -1789,11 +1952,32 @@ public enum WalletManager implements WalletEventListener {
    */
   public void saveWallet() {
 
-    // Save the current wallet immediately
-    if (getCurrentWalletSummary().isPresent()) {
+    Optional<WalletSummary> walletSummary = getCurrentWalletSummary();
+    if (walletSummary.isPresent()) {
+      saveWallet(walletSummary.get().getWalletId());
+    }
+
+  }
+
+  /**
+   * <p>Save the wallet if it is still the current wallet, waiting for any save already in progress</p>
+   * <p>Shutdown uses this so that a save finishing late cannot write over a wallet opened since</p>
+   *
+   * @param walletId The wallet ID of the wallet to save
+   */
+  public void saveWallet(WalletId walletId) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+
+    synchronized (saveLock) {
+
+      Optional<WalletSummary> current = getCurrentWalletSummary();
+      if (!current.isPresent() || !walletId.equals(current.get().getWalletId())) {
+        log.info("Wallet with id : {} is no longer current so is not saved", walletId);
+        return;
+      }
 
-      WalletSummary walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary().get();
-      WalletId walletId = walletSummary.getWalletId();
+      WalletSummary walletSummary = current.get();
       log.debug("Saving wallet with id : {}, height : {}", walletId, walletSummary.getWallet().getLastBlockSeenHeight());
 
       // Check that the password is the correct password for this wallet
@@ -1805,15 +1989,34 @@ public enum WalletManager implements WalletEventListener {
         File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
         File currentWalletFile = WalletManager.INSTANCE.getCurrentWalletFile(applicationDataDirectory).get();
 
-        walletSummary.getWallet().saveToFile(currentWalletFile);
+        long compactionMark = currentWalletJournal.isPresent() ? currentWalletJournal.get().markCompaction() : -1;
 
-        File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(currentWalletFile, walletSummary.getWalletPassword().getPassword());
+        // Save to a file of our own so an auto-save finishing meanwhile cannot replace what is encrypted
+        File tempWalletFile = SecureFiles.createTemporaryFilename("wallet", ".tmp", currentWalletFile.getAbsoluteFile().getParentFile());
+        walletSummary.getWallet().saveToFile(tempWalletFile);
+        long walletDigest = BackupService.digest(tempWalletFile);
+
+        File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(
+          tempWalletFile,
+          new File(currentWalletFile.getAbsolutePath() + MBHD_AES_SUFFIX),
+          walletSummary.getWalletPassword().getPassword()
+        );
         log.debug("Created AES encrypted wallet as file:\n'{}'\nSize: {} bytes", encryptedAESCopy.getAbsolutePath(), encryptedAESCopy.length());
 
-        BackupService backupService = CoreServices.getOrCreateBackupService();
-        backupService.rememberWalletSummaryAndPasswordForRollingBackup(walletSummary, walletSummary.getWalletPassword().getPassword());
-        backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
-        backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
+        if (currentWalletJournal.isPresent()) {
+          currentWalletJournal.get().compact(compactionMark);
+        }
+
+        // A save finishing after shutdown must not bring the backup service back
+        Optional<BackupService> backupService = CoreServices.getCurrentBackupService();
+        if (backupService.isPresent()) {
+          backupService.get().rememberWalletSummaryAndPasswordForRollingBackup(walletSummary, walletSummary.getWalletPassword().getPassword());
+          backupService.get().rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
+          backupService.get().rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
+          backupService.get().markChanged(BackupService.ChangeSource.WALLET, walletDigest);
+        } else {
+          log.debug("No backup service so backups are left to the next session");
+        }
 
       } catch (IOException ioe) {
         log.error("Could not write wallet and backups for wallet with id '" + walletId + "' successfully. The error was '" + ioe.getMessage() + "'");
@@ -1822,14 +2025,57 @@ public enum WalletManager implements WalletEventListener {
 
   }
 
+  /**
+   * <p>Re-encrypt the journal of the current wallet after a change of password</p>
+   * <p>Call this after the wallet has been saved with the new password so the journal holds few records</p>
+   *
+   * @param newPassword The new wallet password
+   */
+  public void changeWalletJournalPassword(CharSequence newPassword) {
+
+    if (currentWalletJournal.isPresent()) {
+      try {
+        currentWalletJournal.get().changePassword(newPassword);
+      } catch (IOException e) {
+        log.error("Could not re-encrypt the wallet journal. Changes since the last save will not be replayed.", e);
+      }
+    }
+
+  }
+
   /**
    * Closes the wallet
    */
   public void closeWallet() {
 
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+    Optional<WalletSummary> walletSummary = getCurrentWalletSummary();
+    if (walletSummary.isPresent()) {
+      closeWallet(walletSummary.get().getWalletId());
+    } else {
+      log.info("No current wallet summary to provide wallet");
+    }
+
+  }
+
+  /**
+   * <p>Close the wallet if it is still the current wallet</p>
+   *
+   * @param walletId The wallet ID of the wallet to close
+   */
+  public void closeWallet(WalletId walletId) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+
+    synchronized (saveLock) {
+
+      Optional<WalletSummary> current = getCurrentWalletSummary();
+      if (!current.isPresent() || !walletId.equals(current.get().getWalletId())) {
+        log.info("Wallet with id : {} is no longer current so is not closed", walletId);
+        return;
+      }
+
       try {
-        Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+        Wallet wallet = current.get().getWallet();
         log.debug("Shutdown wallet autosave at height: {} ", wallet.getLastBlockSeenHeight());
         wallet.shutdownAutosaveAndWait();
       } catch (IllegalStateException ise) {
@@ -1837,12 +2083,27 @@ public enum WalletManager implements WalletEventListener {
         if (!ise.getMessage().contains("Auto saving not enabled.")) {
           throw ise;
         }
+      } finally {
+        closeWalletJournal();
       }
-    } else {
-      log.info("No current wallet summary to provide wallet");
     }
 
   }
 
 
+  /**
+   * <p>Stop journaling the current wallet (the journal remains on disk for replay)</p>
+   */
+  private void closeWalletJournal() {
+
+    if (currentWalletJournal.isPresent()) {
+      if (currentWalletSummary.isPresent() && currentWalletSummary.get().getWallet() != null) {
+        currentWalletSummary.get().getWallet().removeEventListener(currentWalletJournal.get());
+      }
+      currentWalletJournal.get().close();
+      currentWalletJournal = Optional.absent();
+    }
+
+  }
+
 }
@@ -0,0 +1,425 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.dto.WalletType;
+import org.multibit.hd.core.utils.Collators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Index to provide the following to WalletManager:</p>
+ * <ul>
+ * <li>Discovery of wallet roots in a directory without listing it when it has not changed</li>
+ * <li>Wallet summaries that only re-read the YAML of wallet roots that have changed</li>
+ * <li>Soft wallet summaries ordered by pre-computed collation keys</li>
+ * </ul>
+ * <p>The ID, name, type and file stamps of each wallet root are persisted alongside the
+ * wallet roots so that a fresh start can filter and order wallets before reading any YAML. Encrypted
+ * credentials are never written to the index.</p>
+ * <p>A stamp taken within {@link #racyMillis} of its modification time is not trusted since a second
+ * change in the same clock tick would not alter it.</p>
+ *
+ * @since 0.3.6
+ */
+class WalletSummaryIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletSummaryIndex.class);
+
+  /**
+   * The name of the index file in the searched directory (never matches a wallet root)
+   */
+  static final String INDEX_FILE_NAME = WalletManager.MBHD_WALLET_PREFIX + "-summaries.idx";
+
+  /**
+   * Version 2 dropped the unused notes hash (older index files are rebuilt)
+   */
+  private static final int INDEX_VERSION = 2;
+
+  /**
+   * Coarse file systems only record modification times to the second (or two for FAT)
+   */
+  static final long DEFAULT_RACY_MILLIS = 2_000;
+
+  private static final Set<WalletType> SOFT_WALLET_TYPES = EnumSet.of(
+    WalletType.MBHD_SOFT_WALLET,
+    WalletType.MBHD_SOFT_WALLET_BIP32,
+    WalletType.TREZOR_SOFT_WALLET
+  );
+
+  private final File directory;
+
+  private final File indexFile;
+
+  private final Pattern walletDirectoryPattern;
+
+  private final long racyMillis;
+
+  /**
+   * Entries keyed by wallet root name
+   */
+  private final Map<String, Entry> entries = Maps.newHashMap();
+
+  /**
+   * The wallet root names from the last listing of the directory
+   */
+  private List<String> walletRoots = null;
+
+  private long directoryLastModified;
+
+  private long directoryListedAt;
+
+  private boolean dirty = false;
+
+  private int parseCount = 0;
+
+  /**
+   * @param directory              The directory containing wallet roots
+   * @param walletDirectoryPattern The pattern a wallet root name must match
+   * @param racyMillis             The period after a modification during which a stamp is not trusted
+   */
+  WalletSummaryIndex(File directory, Pattern walletDirectoryPattern, long racyMillis) {
+
+    Preconditions.checkNotNull(directory, "'directory' must be present");
+    Preconditions.checkNotNull(walletDirectoryPattern, "'walletDirectoryPattern' must be present");
+
+    this.directory = directory;
+    this.indexFile = new File(directory, INDEX_FILE_NAME);
+    this.walletDirectoryPattern = walletDirectoryPattern;
+    this.racyMillis = racyMillis;
+
+    read();
+  }
+
+  /**
+   * @return The wallet roots in the directory (never null)
+   */
+  synchronized List<File> findWalletDirectories() {
+
+    List<File> walletDirectories = Lists.newArrayList();
+    for (String walletRoot : listWalletRoots()) {
+      walletDirectories.add(new File(directory, walletRoot));
+    }
+
+    return walletDirectories;
+  }
+
+  /**
+   * @param walletDirectories The wallet roots to summarise (each must be in the indexed directory)
+   *
+   * @return The wallet summaries in the same order (never null)
+   */
+  synchronized List<WalletSummary> findWalletSummaries(List<File> walletDirectories) {
+
+    List<WalletSummary> walletSummaries = Lists.newArrayList();
+    for (File walletDirectory : walletDirectories) {
+      walletSummaries.add(new WalletSummary(getSummary(getEntry(walletDirectory))));
+    }
+    persistIfDirty();
+
+    return walletSummaries;
+  }
+
+  /**
+   * @param localeOptional The locale to sort by
+   *
+   * @return The soft wallet summaries in the directory ordered by wallet name (never null)
+   */
+  synchronized List<WalletSummary> findSoftWalletSummaries(Optional<Locale> localeOptional) {
+
+    // The index holds the type so hard wallets are never read
+    List<Entry> softEntries = Lists.newArrayList();
+    for (String walletRoot : listWalletRoots()) {
+      Entry entry = getEntry(new File(directory, walletRoot));
+      if (SOFT_WALLET_TYPES.contains(entry.walletType)) {
+        softEntries.add(entry);
+      }
+    }
+
+    // One collator for all the keys rather than one per comparison
+    Locale locale = localeOptional.isPresent() ? localeOptional.get() : Locale.getDefault();
+    Collator collator = Collators.newCollator(localeOptional);
+    for (Entry entry : softEntries) {
+      if (entry.collationKey == null || !locale.equals(entry.collationLocale)) {
+        entry.collationKey = collator.getCollationKey(Strings.nullToEmpty(entry.name));
+        entry.collationLocale = locale;
+      }
+    }
+    Collections.sort(softEntries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry me, Entry other) {
+        return me.collationKey.compareTo(other.collationKey);
+      }
+    });
+
+    List<WalletSummary> walletSummaries = Lists.newArrayList();
+    for (Entry entry : softEntries) {
+      walletSummaries.add(new WalletSummary(getSummary(entry)));
+    }
+    persistIfDirty();
+
+    return walletSummaries;
+  }
+
+  /**
+   * <p>Forget the stamp of a wallet root so that it is read again (e.g. after its YAML is written)</p>
+   *
+   * @param walletDirectory The wallet root
+   */
+  synchronized void invalidate(File walletDirectory) {
+
+    Entry entry = entries.get(walletDirectory.getName());
+    if (entry != null) {
+      entry.summary = null;
+      entry.yamlLastModified = -1;
+    }
+    walletRoots = null;
+  }
+
+  /**
+   * @return The number of wallet summary YAML files read so far
+   */
+  synchronized int getParseCount() {
+    return parseCount;
+  }
+
+  private List<String> listWalletRoots() {
+
+    long lastModified = directory.lastModified();
+    if (walletRoots != null && lastModified == directoryLastModified && !isRacy(lastModified, directoryListedAt)) {
+      return walletRoots;
+    }
+
+    long listedAt = System.currentTimeMillis();
+    List<String> listed = Lists.newArrayList();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (walletDirectoryPattern.matcher(file.getName()).matches() && file.isDirectory()) {
+          listed.add(file.getName());
+        }
+      }
+    }
+
+    // Drop the entries of wallet roots that have gone
+    if (entries.keySet().retainAll(listed)) {
+      dirty = true;
+    }
+
+    walletRoots = listed;
+    directoryLastModified = lastModified;
+    directoryListedAt = listedAt;
+
+    return walletRoots;
+  }
+
+  /**
+   * @param walletDirectory The wallet root
+   *
+   * @return An entry whose stamp matches the wallet root on disk
+   */
+  private Entry getEntry(File walletDirectory) {
+
+    Preconditions.checkArgument(directory.equals(walletDirectory.getParentFile()), "'walletDirectory' must be in '" + directory + "'");
+
+    String walletRoot = walletDirectory.getName();
+    File yamlFile = new File(walletDirectory, WalletManager.MBHD_SUMMARY_NAME);
+    long yamlLastModified = yamlFile.lastModified();
+    long yamlLength = yamlFile.length();
+
+    Entry entry = entries.get(walletRoot);
+    if (entry != null
+      && entry.yamlLastModified == yamlLastModified
+      && entry.yamlLength == yamlLength
+      && !isRacy(yamlLastModified, entry.stampedAt)) {
+      return entry;
+    }
+
+    long stampedAt = System.currentTimeMillis();
+    WalletSummary walletSummary = parse(walletDirectory);
+
+    Entry updated = new Entry(walletRoot, walletSummary.getWalletId().toFormattedString(), walletSummary.getName(), walletSummary.getWalletType());
+    updated.yamlLastModified = yamlLastModified;
+    updated.yamlLength = yamlLength;
+    updated.stampedAt = stampedAt;
+    updated.summary = walletSummary;
+
+    if (entry != null && entry.hasSameNameAs(updated)) {
+      // Keep the collation key
+      updated.collationKey = entry.collationKey;
+      updated.collationLocale = entry.collationLocale;
+    }
+
+    entries.put(walletRoot, updated);
+    dirty = true;
+
+    return updated;
+  }
+
+  /**
+   * @param entry An entry with a valid stamp
+   *
+   * @return The full wallet summary, reading the YAML if the entry came from the index file
+   */
+  private WalletSummary getSummary(Entry entry) {
+
+    if (entry.summary == null) {
+      entry.summary = parse(new File(directory, entry.walletRoot));
+    }
+
+    return entry.summary;
+  }
+
+  private WalletSummary parse(File walletDirectory) {
+
+    parseCount++;
+
+    WalletId walletId = new WalletId(walletDirectory.getName().substring(WalletManager.MBHD_WALLET_PREFIX.length() + 1));
+
+    return WalletManager.getOrCreateWalletSummary(walletDirectory, walletId);
+  }
+
+  /**
+   * @return True if the stamp was taken too soon after the modification to rule out a later one in the same tick
+   */
+  private boolean isRacy(long lastModified, long stampedAt) {
+    return stampedAt - lastModified < racyMillis;
+  }
+
+  private void read() {
+
+    if (!indexFile.exists()) {
+      return;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+
+      if (in.readInt() != INDEX_VERSION) {
+        log.debug("Ignoring wallet summary index with an unknown version");
+        return;
+      }
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readBoolean() ? in.readUTF() : null, readWalletType(in.readUTF()));
+        entry.yamlLastModified = in.readLong();
+        entry.yamlLength = in.readLong();
+        entry.stampedAt = in.readLong();
+        entries.put(entry.walletRoot, entry);
+      }
+
+    } catch (EOFException | IllegalArgumentException e) {
+      log.warn("Wallet summary index is truncated or malformed. Rebuilding.");
+      entries.clear();
+    } catch (IOException e) {
+      log.warn("Could not read wallet summary index: {}", e.getMessage());
+      entries.clear();
+    }
+  }
+
+  private void persistIfDirty() {
+
+    if (!dirty) {
+      return;
+    }
+
+    File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+      out.writeInt(INDEX_VERSION);
+      out.writeInt(entries.size());
+      for (Entry entry : entries.values()) {
+        out.writeUTF(entry.walletRoot);
+        out.writeUTF(entry.walletId);
+        out.writeBoolean(entry.name != null);
+        if (entry.name != null) {
+          out.writeUTF(entry.name);
+        }
+        out.writeUTF(entry.walletType.name());
+        out.writeLong(entry.yamlLastModified);
+        out.writeLong(entry.yamlLength);
+        out.writeLong(entry.stampedAt);
+      }
+
+    } catch (IOException e) {
+      log.warn("Could not write wallet summary index: {}", e.getMessage());
+      return;
+    }
+
+    if ((indexFile.exists() && !indexFile.delete()) || !tempFile.renameTo(indexFile)) {
+      log.warn("Could not replace wallet summary index '{}'", indexFile.getAbsolutePath());
+      return;
+    }
+
+    dirty = false;
+  }
+
+  private static WalletType readWalletType(String name) {
+    return WalletType.valueOf(name);
+  }
+
+  /**
+   * <p>The indexed details of a single wallet root</p>
+   */
+  private static final class Entry {
+
+    private final String walletRoot;
+
+    private final String walletId;
+
+    private final String name;
+
+    private final WalletType walletType;
+
+    private long yamlLastModified;
+
+    private long yamlLength;
+
+    private long stampedAt;
+
+    /**
+     * The full summary (null until read in this session)
+     */
+    private WalletSummary summary;
+
+    private CollationKey collationKey;
+
+    private Locale collationLocale;
+
+    private Entry(String walletRoot, String walletId, String name, WalletType walletType) {
+      this.walletRoot = walletRoot;
+      this.walletId = walletId;
+      this.name = name;
+      this.walletType = walletType == null ? WalletType.UNKNOWN : walletType;
+    }
+
+    private boolean hasSameNameAs(Entry other) {
+      return name == null ? other.name == null : name.equals(other.name);
+    }
+  }
+}
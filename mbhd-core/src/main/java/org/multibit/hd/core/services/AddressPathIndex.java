@@ -0,0 +1,194 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.KeyChainEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Index to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Lookup of the deterministic path for a public key hash owned by a key chain</li>
+ * <li>Incremental updates as the key chain issues new keys (including lookahead)</li>
+ * <li>The input and change path maps required for hardware wallet signing</li>
+ * </ul>
+ * <p>The index is built once from the leaf keys of the key chain and thereafter kept up to date
+ * through a key chain listener so that building the path maps for a signing request scales
+ * with the size of the transaction rather than the number of keys in the wallet.</p>
+ *
+ * @since 0.3.6
+ */
+class AddressPathIndex implements KeyChainEventListener {
+
+  private static final Logger log = LoggerFactory.getLogger(AddressPathIndex.class);
+
+  private final DeterministicKeyChain keyChain;
+
+  /**
+   * The deterministic path keyed by the public key hash
+   */
+  private final Map<ByteBuffer, ImmutableList<ChildNumber>> paths = Maps.newHashMap();
+
+  /**
+   * @param keyChain The key chain to index (typically the active key chain of the wallet)
+   */
+  AddressPathIndex(DeterministicKeyChain keyChain) {
+
+    Preconditions.checkNotNull(keyChain, "'keyChain' must be present");
+
+    this.keyChain = keyChain;
+
+    // Register before reading the existing keys so none are missed (indexing a key twice is harmless)
+    keyChain.addEventListener(this, Threading.SAME_THREAD);
+
+    // Read the keys outside our lock since onKeysAdded is called holding the key chain lock
+    List<DeterministicKey> leafKeys = keyChain.getLeafKeys();
+
+    synchronized (this) {
+      for (DeterministicKey key : leafKeys) {
+        index(key);
+      }
+      log.debug("Indexed {} key paths", paths.size());
+    }
+
+  }
+
+  /**
+   * @return The indexed key chain
+   */
+  DeterministicKeyChain getKeyChain() {
+    return keyChain;
+  }
+
+  /**
+   * <p>Stop receiving updates from the key chain</p>
+   */
+  void close() {
+    keyChain.removeEventListener(this);
+  }
+
+  @Override
+  public synchronized void onKeysAdded(List<ECKey> keys) {
+
+    for (ECKey key : keys) {
+      if (key instanceof DeterministicKey) {
+        index((DeterministicKey) key);
+      }
+    }
+
+  }
+
+  /**
+   * @return The number of indexed paths
+   */
+  synchronized int size() {
+    return paths.size();
+  }
+
+  /**
+   * @param pubKeyHash The public key hash
+   *
+   * @return The deterministic path if the key chain owns the public key hash
+   */
+  synchronized Optional<ImmutableList<ChildNumber>> findPathFromPubHash(byte[] pubKeyHash) {
+
+    Preconditions.checkNotNull(pubKeyHash, "'pubKeyHash' must be present");
+
+    return Optional.fromNullable(paths.get(ByteBuffer.wrap(pubKeyHash)));
+
+  }
+
+  /**
+   * @param unsignedTx The unsigned transaction (expect OP_0 in place of signatures)
+   *
+   * @return The receiving address path map linking the tx input index to a deterministic path
+   */
+  Map<Integer, ImmutableList<ChildNumber>> buildReceivingAddressPathMap(Transaction unsignedTx) {
+
+    log.debug("Building Receiving address path map for transaction {}", unsignedTx);
+
+    Map<Integer, ImmutableList<ChildNumber>> receivingAddressPathMap = Maps.newHashMap();
+
+    // Examine the Tx inputs to determine receiving addresses in use
+    for (int i = 0; i < unsignedTx.getInputs().size(); i++) {
+      TransactionInput input = unsignedTx.getInput(i);
+
+      // Get input script from the connected transaction output script
+      TransactionOutput connectedTransactionOutput = input.getConnectedOutput();
+      log.debug("Connected transaction output {}", connectedTransactionOutput);
+      if (connectedTransactionOutput != null) {
+        byte[] pubKeyHash = connectedTransactionOutput.getScriptPubKey().getPubKeyHash();
+        log.debug("Connected transaction pubKeyHash {}", Utils.HEX.encode(pubKeyHash));
+        Optional<ImmutableList<ChildNumber>> path = findPathFromPubHash(pubKeyHash);
+        Preconditions.checkState(path.isPresent(), "Could not find deterministic key from given pubKeyHash. Input script index: " + i);
+
+        receivingAddressPathMap.put(i, path.get());
+      } else {
+        log.debug("Could not parse tx input script '{}'", input.getScriptSig());
+      }
+
+    }
+
+    return receivingAddressPathMap;
+  }
+
+  /**
+   * @param unsignedTx The unsigned transaction (expect OP_0 in place of signatures)
+   *
+   * @return The change address path map linking owned output addresses to a deterministic path
+   */
+  Map<Address, ImmutableList<ChildNumber>> buildChangeAddressPathMap(Transaction unsignedTx) {
+
+    Map<Address, ImmutableList<ChildNumber>> changeAddressPathMap = Maps.newHashMap();
+
+    for (int i = 0; i < unsignedTx.getOutputs().size(); i++) {
+
+      TransactionOutput output = unsignedTx.getOutput(i);
+
+      // Analyse the output script
+      Script script = output.getScriptPubKey();
+      byte[] pubKeyHash;
+      if (script.isSentToRawPubKey()) {
+        // Use the hash of the raw public key
+        pubKeyHash = Utils.sha256hash160(script.getPubKey());
+      } else {
+        // Use the public key hash (or script hash)
+        pubKeyHash = script.getPubKeyHash();
+      }
+
+      Optional<ImmutableList<ChildNumber>> path = findPathFromPubHash(pubKeyHash);
+      if (path.isPresent()) {
+
+        // Found an address we own
+        changeAddressPathMap.put(new Address(MainNetParams.get(), pubKeyHash), path.get());
+      }
+
+    }
+
+    return changeAddressPathMap;
+  }
+
+  private void index(DeterministicKey key) {
+    paths.put(ByteBuffer.wrap(key.getPubKeyHash()), key.getPath());
+  }
+
+}
@@ -0,0 +1,365 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.utils.Dates;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Scheduler to provide the following to BackupService:</p>
+ * <ul>
+ * <li>Tracking of changes to the wallet, payments, contacts and history by content digest</li>
+ * <li>The time at which each backup tier is next due (or none if its content is unchanged)</li>
+ * <li>Debouncing of bursts of changes within minimum and maximum intervals per tier</li>
+ * <li>Exponential back off of a tier whose backups are failing</li>
+ * </ul>
+ * <p>A tier is due once its content has been quiet for the debounce period, or once the maximum delay since the
+ * first unsaved change has passed if changes keep arriving, but never sooner than the minimum interval since its
+ * last backup or the initial delay after startup. The maximum delay matches the interval of the previous fixed
+ * schedule so a busy wallet is backed up as often as before while an idle one is not backed up at all. A change
+ * back to content that has already been backed up leaves the tier clean.</p>
+ * <p>Time is taken from {@link Dates#nowUtc()} so tests can control it.</p>
+ *
+ * @since 0.3.6
+ */
+class BackupScheduler {
+
+  /**
+   * The backups in order of increasing cost
+   */
+  enum Tier {
+
+    /**
+     * Rolling backups of the wallet alone
+     */
+    ROLLING(false, TimeUnit.MINUTES.toMillis(2), TimeUnit.SECONDS.toMillis(30), TimeUnit.MINUTES.toMillis(2)),
+
+    /**
+     * Local zip backups of the whole wallet directory
+     */
+    LOCAL_ZIP(true, TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(10)),
+
+    /**
+     * Cloud zip backups of the whole wallet directory
+     */
+    CLOUD_ZIP(true, TimeUnit.MINUTES.toMillis(30), TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(30)),
+
+    // End of enum
+    ;
+
+    private final boolean allSources;
+
+    private final long minIntervalMillis;
+
+    private final long debounceMillis;
+
+    private final long maxDelayMillis;
+
+    Tier(boolean allSources, long minIntervalMillis, long debounceMillis, long maxDelayMillis) {
+      this.allSources = allSources;
+      this.minIntervalMillis = minIntervalMillis;
+      this.debounceMillis = debounceMillis;
+      this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param source The source of a change
+     *
+     * @return True if the backup includes the source
+     */
+    boolean covers(BackupService.ChangeSource source) {
+      return allSources || source == BackupService.ChangeSource.WALLET;
+    }
+
+    long getMinIntervalMillis() {
+      return minIntervalMillis;
+    }
+
+    long getDebounceMillis() {
+      return debounceMillis;
+    }
+
+    long getMaxDelayMillis() {
+      return maxDelayMillis;
+    }
+  }
+
+  /**
+   * Digest recorded for a change whose content is unknown (never matches a backed up digest)
+   */
+  static final long UNKNOWN_DIGEST = 0;
+
+  /**
+   * The longest wait before retrying a failing tier
+   */
+  static final long MAXIMUM_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(4);
+
+  private final long earliestBackupMillis;
+
+  /**
+   * The latest digest of each source
+   */
+  private final Map<BackupService.ChangeSource, Long> digests = new EnumMap<>(BackupService.ChangeSource.class);
+
+  private final Map<Tier, TierState> tierStates = new EnumMap<>(Tier.class);
+
+  /**
+   * Incremented for every change so changes can be ordered against the start of a backup
+   */
+  private long changeSequence = 0;
+
+  /**
+   * @param initialDelayMillis The time after startup before the first backup (to allow the wallet to synchronize)
+   */
+  BackupScheduler(long initialDelayMillis) {
+
+    Preconditions.checkArgument(initialDelayMillis >= 0, "'initialDelayMillis' must not be negative");
+
+    this.earliestBackupMillis = now() + initialDelayMillis;
+    for (Tier tier : Tier.values()) {
+      tierStates.put(tier, new TierState());
+    }
+
+  }
+
+  /**
+   * <p>Record a change</p>
+   *
+   * @param source The source of the change
+   * @param digest The digest of the new content ({@link #UNKNOWN_DIGEST} if not known)
+   *
+   * @return True if the content changed (a repeated digest is ignored)
+   */
+  synchronized boolean markChanged(BackupService.ChangeSource source, long digest) {
+
+    Preconditions.checkNotNull(source, "'source' must be present");
+
+    Long previous = digests.get(source);
+    if (digest != UNKNOWN_DIGEST && previous != null && previous == digest) {
+      return false;
+    }
+
+    // A burst starts with the first change to clean content
+    EnumSet<Tier> cleanTiers = EnumSet.noneOf(Tier.class);
+    for (Tier tier : Tier.values()) {
+      if (!isDirty(tier, tierStates.get(tier))) {
+        cleanTiers.add(tier);
+      }
+    }
+
+    digests.put(source, digest);
+
+    long now = now();
+    changeSequence++;
+    for (Tier tier : Tier.values()) {
+      if (tier.covers(source)) {
+        TierState state = tierStates.get(tier);
+        if (cleanTiers.contains(tier)) {
+          state.firstChangeMillis = now;
+        }
+        state.lastChangeMillis = now;
+        if (digest == UNKNOWN_DIGEST) {
+          state.unknownChangeSequence = changeSequence;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * <p>Make the tier due at the next check regardless of its content and minimum interval</p>
+   *
+   * @param tier The tier
+   */
+  synchronized void requestNow(Tier tier) {
+    tierStates.get(tier).requested = true;
+  }
+
+  /**
+   * @param tier The tier
+   *
+   * @return True if a backup of the tier should be performed now
+   */
+  synchronized boolean isDue(Tier tier) {
+    long dueMillis = getDueMillis(tier);
+    return dueMillis != Long.MAX_VALUE && dueMillis <= now();
+  }
+
+  /**
+   * @return The earliest time a tier will be due ({@link Long#MAX_VALUE} if no content has changed)
+   */
+  synchronized long getNextDueMillis() {
+
+    long nextDueMillis = Long.MAX_VALUE;
+    for (Tier tier : Tier.values()) {
+      nextDueMillis = Math.min(nextDueMillis, getDueMillis(tier));
+    }
+
+    return nextDueMillis;
+  }
+
+  /**
+   * <p>Capture the content about to be backed up so that changes made during the backup remain pending</p>
+   *
+   * @param tier The tier
+   *
+   * @return The digests of the content being backed up
+   */
+  synchronized Map<BackupService.ChangeSource, Long> beginBackup(Tier tier) {
+
+    Map<BackupService.ChangeSource, Long> snapshot = Maps.newEnumMap(BackupService.ChangeSource.class);
+    snapshot.putAll(digests);
+
+    TierState state = tierStates.get(tier);
+    state.backupStartMillis = now();
+    state.backupStartSequence = changeSequence;
+
+    return snapshot;
+  }
+
+  /**
+   * <p>Record a successful backup of the captured content</p>
+   *
+   * @param tier     The tier
+   * @param snapshot The digests returned by {@link #beginBackup(Tier)}
+   */
+  synchronized void completeBackup(Tier tier, Map<BackupService.ChangeSource, Long> snapshot) {
+
+    TierState state = tierStates.get(tier);
+
+    state.backedUpDigests.putAll(snapshot);
+    state.coveredSequence = state.backupStartSequence;
+    state.lastBackupMillis = now();
+    state.requested = false;
+    state.backupCount++;
+    state.failureCount = 0;
+    state.retryMillis = 0;
+
+    if (!isDirty(tier, state)) {
+      // Nothing new arrived during the backup
+      state.firstChangeMillis = 0;
+      state.lastChangeMillis = 0;
+    } else {
+      // Changes during the backup start a new burst
+      state.firstChangeMillis = state.backupStartMillis;
+    }
+
+  }
+
+  /**
+   * <p>Record a failed backup so the tier is retried after a delay that doubles with each consecutive failure</p>
+   *
+   * <p>The first retry waits the minimum interval of the tier. Without the delay a failing tier would stay due
+   * (and a failure that changes the history would keep the zip tiers dirty) so it would be retried at every check.</p>
+   *
+   * @param tier The tier
+   */
+  synchronized void failBackup(Tier tier) {
+
+    TierState state = tierStates.get(tier);
+
+    // Cap the shift to avoid overflow after many failures
+    long delayMillis = tier.getMinIntervalMillis() << Math.min(state.failureCount, 16);
+    state.failureCount++;
+    state.retryMillis = now() + Math.min(delayMillis, MAXIMUM_RETRY_DELAY_MILLIS);
+
+  }
+
+  /**
+   * @param tier The tier
+   *
+   * @return The number of backups completed for the tier
+   */
+  synchronized int getBackupCount(Tier tier) {
+    return tierStates.get(tier).backupCount;
+  }
+
+  private long getDueMillis(Tier tier) {
+
+    TierState state = tierStates.get(tier);
+
+    if (state.requested) {
+      return Math.max(now(), state.retryMillis);
+    }
+
+    if (!isDirty(tier, state)) {
+      return Long.MAX_VALUE;
+    }
+
+    // Wait for the burst of changes to finish but not indefinitely
+    long dueMillis = Math.min(
+      state.lastChangeMillis + tier.getDebounceMillis(),
+      state.firstChangeMillis + tier.getMaxDelayMillis()
+    );
+
+    if (state.lastBackupMillis != 0) {
+      dueMillis = Math.max(dueMillis, state.lastBackupMillis + tier.getMinIntervalMillis());
+    }
+    dueMillis = Math.max(dueMillis, state.retryMillis);
+
+    return Math.max(dueMillis, earliestBackupMillis);
+  }
+
+  /**
+   * @return True if a change of unknown content arrived after the last backup started or if any source covered by
+   * the tier differs from the backed up content
+   */
+  private boolean isDirty(Tier tier, TierState state) {
+
+    if (state.unknownChangeSequence > state.coveredSequence) {
+      return true;
+    }
+
+    for (Map.Entry<BackupService.ChangeSource, Long> entry : digests.entrySet()) {
+      if (tier.covers(entry.getKey()) && entry.getValue() != UNKNOWN_DIGEST) {
+        Long backedUp = state.backedUpDigests.get(entry.getKey());
+        if (backedUp == null || backedUp != entry.getValue().longValue()) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private long now() {
+    return Dates.nowUtc().getMillis();
+  }
+
+  /**
+   * <p>The progress of a single tier</p>
+   */
+  private static class TierState {
+
+    private final Map<BackupService.ChangeSource, Long> backedUpDigests = new EnumMap<>(BackupService.ChangeSource.class);
+
+    private long firstChangeMillis;
+
+    private long lastChangeMillis;
+
+    private long lastBackupMillis;
+
+    private long backupStartMillis;
+
+    private long unknownChangeSequence;
+
+    private long backupStartSequence;
+
+    private long coveredSequence;
+
+    private boolean requested;
+
+    private int backupCount;
+
+    private int failureCount;
+
+    private long retryMillis;
+
+  }
+
+}
@@ -1,15 +1,20 @@
 package org.multibit.hd.core.services;
 
 import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -31,27 +36,28 @@ import java.util.concurrent.TimeUnit;
  * <p/>
  * Rolling backups
  * <p/>
- * make saves every 2 minutes
+ * make saves at most every 2 minutes
  * make first save 1 minutes after MBHD start (most likely after initial sync)
  * make a save at MBHD exit
  * <p/>
  * <p/>
  * Local zip backups
  * <p/>
- * make saves every 10 minutes
+ * make saves at most every 10 minutes
  * make first save 1 minutes after MBHD start
  * make a save at MBHD exit
  * <p/>
  * <p/>
  * Cloud backups
  * <p/>
- * make saves every 30 minutes
+ * make saves at most every 30 minutes
  * make first save 1 minutes after MBHD start
  * make a save at MBHD exit
  * <p/>
  * <p/>
- * Do not bother tracking if the wallet is dirty, this only really affects the rolling backups and
- * is not worth the bother of writing a wallet extension to track it.
+ * Backups are driven by changes rather than a fixed tick. Saves of the wallet, payments, contacts and history
+ * report a digest of their content and a backup tier is only taken once its content differs from the last
+ * backup of that tier (see BackupScheduler for the intervals).
  *
  * @since 0.0.1
  */
@@ -60,128 +66,109 @@ public class BackupService extends AbstractService {
   private static final Logger log = LoggerFactory.getLogger(BackupService.class);
 
   /**
-   * Initial delay in seconds after startup before making a backup
-   * This delay is so that the wallet can sync
+   * The sources of changes that require a backup
    */
-  private static final int INITIAL_DELAY = 60;
+  public enum ChangeSource {
 
-  /**
-   * This is the fastest tick in seconds used for the backup scheduler
-   * Everything else is done on a multiple of this
-   */
-  private static final int TICK_TIME_SECONDS = 12;
+    /**
+     * The wallet (included in every backup)
+     */
+    WALLET,
 
-  /**
-    * The slowdown rate for performing rolling backups
-    */
-   private static final int ROLLING_BACKUP_MODULO = 10;
+    /**
+     * The payments database
+     */
+    PAYMENTS,
+
+    /**
+     * The contacts database
+     */
+    CONTACTS,
 
+    /**
+     * The history database
+     */
+    HISTORY,
+
+    // End of enum
+    ;
+
+  }
+
+  /**
+   * Initial delay in seconds after startup before making a backup
+   * This delay is so that the wallet can sync
+   */
+  private static final int INITIAL_DELAY = 60;
 
   /**
-   * The slowdown rate for performing local zip backups
+   * Decides when each backup is due
    */
-  private static final int LOCAL_ZIP_BACKUP_MODULO = 50;
+  private final BackupScheduler backupScheduler = new BackupScheduler(TimeUnit.SECONDS.toMillis(INITIAL_DELAY));
 
   /**
-   * The slowdown rate for performing cloud zip backups
+   * The time of the next scheduled check (Long.MAX_VALUE if none)
    */
-  private static final int CLOUD_ZIP_BACKUP_MODULO = 150;
+  private long nextCheckMillis = Long.MAX_VALUE;
 
   /**
-   * The number of times the backup main loop has incremented
-   * We expect this service to be a singleton
+   * Whether checks can be scheduled
    */
-  private int tickCount;
+  private boolean started = false;
 
   /**
-   * The wallet summary to use for the next rolling backup
+   * The wallet summary to use for rolling backups
    */
   private Optional<WalletSummary> rememberedWalletSummaryForRollingBackup = Optional.absent();
 
   /**
-   * The credentials to use for the next rolling backup
+   * The credentials to use for rolling backups
    */
   private Optional<CharSequence> rememberedPasswordForRollingBackup = Optional.absent();
 
   /**
-   * The wallet id to use for the next local zip backup
+   * The wallet id to use for local zip backups
    */
   private Optional<WalletId> rememberedWalletIdForLocalBackup = Optional.absent();
 
   /**
-   * The credentials to use for the next local zip backup
+   * The credentials to use for local zip backups
    */
   private Optional<CharSequence> rememberedPasswordForLocalBackup = Optional.absent();
 
   /**
-   * The wallet id to use for the next cloud zip backup
+   * The wallet id to use for cloud zip backups
    */
   private Optional<WalletId> rememberedWalletIdForCloudBackup = Optional.absent();
 
   /**
-   * The credentials to use for the next cloud zip backup
+   * The credentials to use for cloud zip backups
    */
   private Optional<CharSequence> rememberedPasswordForCloudBackup = Optional.absent();
 
   /**
    * Whether backups are enabled or not
    */
-  private boolean backupsAreEnabled = true;
+  private volatile boolean backupsAreEnabled = true;
 
   /**
    * Whether backups are currently being performed
    */
-  private boolean backupsAreRunning = false;
-
-  /**
-   * Whether a cloud backup should be performed at the next tick
-   */
-  private boolean performCloudBackupAtNextTick = false;
+  private volatile boolean backupsAreRunning = false;
 
   @Override
   protected boolean startInternal() {
 
-    // The first tick (at time INITIAL_DELAY seconds) all of a rolling backup,
-    // local backup and a cloud backup
-    // The users copy of MBHD will most likely be fully synchronised by then
-    tickCount = 0;
-
     // Use the provided executor service management
     requireSingleThreadScheduledExecutor("backup");
 
-    // Use the provided executor service management
-    getScheduledExecutorService().scheduleAtFixedRate(
-      new Runnable() {
-        public void run() {
-          backupsAreRunning = true;
-          try {
-            // Main backup loop
-            //log.debug("The tickCount is {}", tickCount);
-
-            // A rolling backup is performed every ROLLING_BACKUP_MODULO tick
-            if (backupsAreEnabled  && tickCount % ROLLING_BACKUP_MODULO == 0) {
-              performRollingBackup();
-            }
-
-            // Local zip backups are done every LOCAL_ZIP_BACKUP_MODULO number of ticks
-            if (backupsAreEnabled && tickCount % LOCAL_ZIP_BACKUP_MODULO == 0) {
-              performLocalZipBackup();
-            }
-
-            // Check if a cloud zip backup is required
-            // Cloud backups are done every CLOUD_ZIP_BACKUP_MODULO number of ticks or if the performCloudBackupAtNextTick is set
-            if (backupsAreEnabled && (tickCount % CLOUD_ZIP_BACKUP_MODULO == 0 || performCloudBackupAtNextTick)) {
-              performCloudBackupAtNextTick = false;
-              performCloudZipBackup();
-            }
+    synchronized (this) {
+      started = true;
+    }
 
-          } finally {
-            tickCount++;
-            backupsAreRunning = false;
-          }
-        }
-      }
-      , INITIAL_DELAY, TICK_TIME_SECONDS, TimeUnit.SECONDS);
+    // The users copy of MBHD will most likely be fully synchronised by the end of the initial delay
+    // so a wallet remembered before now is backed up once it has passed
+    scheduleCheck();
 
     return true;
   }
@@ -189,6 +176,11 @@ public class BackupService extends AbstractService {
   @Override
   protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
 
+    synchronized (this) {
+      // The executor is about to stop so no further checks can be scheduled
+      started = false;
+    }
+
     switch (shutdownType) {
 
       case HARD:
@@ -230,39 +222,82 @@ public class BackupService extends AbstractService {
 
   }
 
+  /**
+   * <p>Record a change to content included in the backups</p>
+   * <p>Can be called on any thread. A change with the same digest as the previous change from the source is ignored.</p>
+   *
+   * @param source The source of the change
+   * @param digest The digest of the new content (see {@link #digest(byte[])})
+   */
+  public void markChanged(ChangeSource source, long digest) {
+
+    if (backupScheduler.markChanged(source, digest)) {
+      scheduleCheck();
+    }
+
+  }
+
+  /**
+   * @param content The unencrypted content (encrypted content differs on every save)
+   *
+   * @return A digest suitable for detecting a change in the content
+   */
+  public static long digest(byte[] content) {
+    // Detecting a change does not need a cryptographic hash
+    return Hashing.murmur3_128().hashBytes(content).asLong();
+  }
+
+  /**
+   * @param file The unencrypted file
+   *
+   * @return A digest suitable for detecting a change in the file content
+   *
+   * @throws IOException If the file cannot be read
+   */
+  public static long digest(File file) throws IOException {
+    return Files.hash(file, Hashing.murmur3_128()).asLong();
+  }
+
   /**
    * Remember a wallet summary and credentials.
-   * This will be used at the next rolling backup.
+   * This will be used for rolling backups (a different wallet is backed up once after the initial delay).
    */
   public void rememberWalletSummaryAndPasswordForRollingBackup(WalletSummary walletSummary, CharSequence password) {
+
+    boolean differentWallet = !rememberedWalletSummaryForRollingBackup.isPresent()
+      || !rememberedWalletSummaryForRollingBackup.get().getWalletId().equals(walletSummary.getWalletId());
+
     rememberedWalletSummaryForRollingBackup = Optional.of(walletSummary);
     rememberedPasswordForRollingBackup = Optional.of(password);
+
+    if (differentWallet) {
+      markChanged(ChangeSource.WALLET, BackupScheduler.UNKNOWN_DIGEST);
+    }
   }
 
   /**
    * Perform a rolling backup using the last remembered wallet summary and credentials
+   *
+   * @return True if the backup was created
    */
-  private void performRollingBackup() {
+  private boolean performRollingBackup() {
     if (rememberedWalletSummaryForRollingBackup.isPresent() && rememberedPasswordForRollingBackup.isPresent()) {
       log.debug("Performing a rolling backup");
 
       try {
         BackupManager.INSTANCE.createRollingBackup(rememberedWalletSummaryForRollingBackup.get(), rememberedPasswordForRollingBackup.get());
-
-        // Don't use anything remembered in the past at this point again
-        // (This will miss anything newly remembered whilst the backup is taking place
-        rememberedWalletSummaryForRollingBackup = Optional.absent();
-        rememberedPasswordForRollingBackup = Optional.absent();
+        return true;
       } catch (IOException ioe) {
         log.error("Failed to perform rolling backup", ioe);
         // TODO handle exception (which is thrown inside the main runnable)
       }
     }
+    return false;
   }
 
   /**
    * Remember a wallet id and credentials.
-   * This will be used at the next local zip backup.
+   * This will be used for local zip backups.
    */
   public void rememberWalletIdAndPasswordForLocalZipBackup(WalletId walletId, CharSequence password) {
     rememberedWalletIdForLocalBackup = Optional.of(walletId);
@@ -271,28 +306,27 @@ public class BackupService extends AbstractService {
 
   /**
    * Perform a local zip backup
+   *
+   * @return True if the backup was created
    */
-  private void performLocalZipBackup() {
+  private boolean performLocalZipBackup() {
     if (rememberedWalletIdForLocalBackup.isPresent() && rememberedPasswordForLocalBackup.isPresent()) {
       log.debug("Performing a local zip backup");
 
       try {
         BackupManager.INSTANCE.createLocalBackup(rememberedWalletIdForLocalBackup.get(), rememberedPasswordForLocalBackup.get());
-
-        // Don't use anything remembered in the past at this point again
-        // (This will miss anything newly remembered whilst the backup is taking place
-        rememberedWalletIdForLocalBackup = Optional.absent();
-        rememberedPasswordForLocalBackup = Optional.absent();
+        return true;
       } catch (IOException ioe) {
         log.error("Failed to perform local backup", ioe);
         // TODO handle exception (which is thrown inside the main runnable)
       }
     }
+    return false;
   }
 
   /**
    * Remember a wallet id and credentials.
-   * This will be used at the next cloud zip backup.
+   * This will be used for cloud zip backups.
    */
   public void rememberWalletIdAndPasswordForCloudZipBackup(WalletId walletId, CharSequence password) {
     rememberedWalletIdForCloudBackup = Optional.of(walletId);
@@ -301,18 +335,16 @@ public class BackupService extends AbstractService {
 
   /**
    * Perform a cloud zip backup
+   *
+   * @return True if the backup was created
    */
-  private void performCloudZipBackup() {
+  private boolean performCloudZipBackup() {
     if (rememberedWalletIdForCloudBackup.isPresent() && rememberedPasswordForCloudBackup.isPresent()) {
       log.debug("Performing a cloud zip backup");
 
       try {
         BackupManager.INSTANCE.createCloudBackup(rememberedWalletIdForCloudBackup.get(), rememberedPasswordForCloudBackup.get());
-
-        // Don't use anything remembered in the past at this point again
-        // (This will miss anything newly remembered whilst the backup is taking place
-        rememberedWalletIdForCloudBackup = Optional.absent();
-        rememberedPasswordForCloudBackup = Optional.absent();
+        return true;
       } catch (IOException ioe) {
         log.error("Failed to perform cloud backup", ioe);
         CoreServices.logHistory("Failed to perform cloud backup. Message: " + ioe.getMessage());
@@ -321,6 +353,86 @@ public class BackupService extends AbstractService {
     } else {
       log.debug("Cannot perform cloud backup as no remembered wallet id or password is available");
     }
+    return false;
+  }
+
+  /**
+   * <p>Perform each backup that is due then schedule the next check</p>
+   */
+  private void performDueBackups() {
+
+    synchronized (this) {
+      nextCheckMillis = Long.MAX_VALUE;
+    }
+
+    backupsAreRunning = true;
+    try {
+      if (backupsAreEnabled) {
+        for (BackupScheduler.Tier tier : BackupScheduler.Tier.values()) {
+          if (backupScheduler.isDue(tier)) {
+            Map<ChangeSource, Long> snapshot = backupScheduler.beginBackup(tier);
+            if (performBackup(tier)) {
+              backupScheduler.completeBackup(tier, snapshot);
+            } else {
+              backupScheduler.failBackup(tier);
+            }
+          }
+        }
+      }
+    } finally {
+      backupsAreRunning = false;
+    }
+
+    // A failed backup remains due but is held back by the scheduler
+    scheduleCheck();
+
+  }
+
+  /**
+   * @param tier The backup tier
+   *
+   * @return True if the backup was created
+   */
+  private boolean performBackup(BackupScheduler.Tier tier) {
+
+    switch (tier) {
+      case ROLLING:
+        return performRollingBackup();
+      case LOCAL_ZIP:
+        return performLocalZipBackup();
+      case CLOUD_ZIP:
+        return performCloudZipBackup();
+      default:
+        throw new IllegalStateException("Unknown backup tier: " + tier);
+    }
+
+  }
+
+  /**
+   * <p>Schedule a check for when the next backup is due</p>
+   */
+  private void scheduleCheck() {
+    scheduleCheck(backupScheduler.getNextDueMillis());
+  }
+
+  /**
+   * @param checkMillis The time to check for due backups (ignored if a check is already scheduled sooner)
+   */
+  private synchronized void scheduleCheck(long checkMillis) {
+
+    if (checkMillis == Long.MAX_VALUE || checkMillis >= nextCheckMillis || !started) {
+      return;
+    }
+
+    nextCheckMillis = checkMillis;
+
+    getScheduledExecutorService().schedule(
+      new Runnable() {
+        public void run() {
+          performDueBackups();
+        }
+      }, Math.max(0, checkMillis - Dates.nowUtc().getMillis()), TimeUnit.MILLISECONDS);
+
   }
 
   /**
@@ -343,7 +455,15 @@ public class BackupService extends AbstractService {
     return backupsAreRunning;
   }
 
+  /**
+   * <p>Perform a cloud backup at the next check regardless of changes (e.g. after the cloud backup location changes)</p>
+   *
+   * @param performCloudBackupAtNextTick True to perform a cloud backup as soon as possible
+   */
   public void setPerformCloudBackupAtNextTick(boolean performCloudBackupAtNextTick) {
-    this.performCloudBackupAtNextTick = performCloudBackupAtNextTick;
+    if (performCloudBackupAtNextTick) {
+      backupScheduler.requestNow(BackupScheduler.Tier.CLOUD_ZIP);
+      scheduleCheck();
+    }
   }
-}
\ No newline at end of file
+}
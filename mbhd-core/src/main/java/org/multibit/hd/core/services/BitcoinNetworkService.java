@@ -3,21 +3,18 @@ package org.multibit.hd.core.services;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.subgraph.orchid.TorClient;
 import org.bitcoinj.core.*;
 import org.bitcoinj.crypto.ChildNumber;
-import org.bitcoinj.crypto.DeterministicKey;
 import org.bitcoinj.crypto.KeyCrypterException;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.net.discovery.DnsDiscovery;
-import org.bitcoinj.params.MainNetParams;
-import org.bitcoinj.script.Script;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.bitcoinj.wallet.KeyChain;
 import org.multibit.hd.core.config.Configurations;
@@ -25,7 +22,9 @@ import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.BlockStoreManager;
+import org.multibit.hd.core.managers.ChainHeadSidecar;
 import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletJournal;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.network.MultiBitPeerEventListener;
 import org.multibit.hd.core.utils.Coins;
@@ -73,6 +72,11 @@ public class BitcoinNetworkService extends AbstractService {
   private static final int MINING_FEE_BOUNDARY = 1000;  // bytes
 
   private BlockStore blockStore;
+
+  /**
+   * The file of the most recently opened block store (to record its chain head on close)
+   */
+  private File blockStoreFile;
   private PeerGroup peerGroup;  // May need to add listener as in MultiBitPeerGroup
   private BlockChain blockChain;
   private MultiBitPeerEventListener peerEventListener;
@@ -84,6 +88,16 @@ public class BitcoinNetworkService extends AbstractService {
   private Optional<SendRequestSummary> lastSendRequestSummaryOptional = Optional.absent();
   private Optional<Wallet> lastWalletOptional = Optional.absent();
 
+  /**
+   * The deterministic paths of the keys in the wallet being signed by a hardware wallet
+   */
+  private Optional<AddressPathIndex> addressPathIndex = Optional.absent();
+
+  /**
+   * The spendable outputs of the wallet being spent from
+   */
+  private Optional<SpendableOutputIndex> spendableOutputIndex = Optional.absent();
+
   /**
    * @param networkParameters The Bitcoin network parameters
    */
@@ -118,6 +132,9 @@ public class BitcoinNetworkService extends AbstractService {
 
     log.info("Bitcoin network service shutting down...");
 
+    // Stopping the peer group can outlast the shutdown deadline so bind the save to the wallet being shut down
+    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+
     // Order is important here
     startedOk = false;
 
@@ -133,11 +150,13 @@ public class BitcoinNetworkService extends AbstractService {
       log.error("Unexpected exception - continuing to save wallet", e);
     }
 
-    // Save the current wallet
-    WalletManager.INSTANCE.saveWallet();
+    if (walletSummary.isPresent()) {
+      // Save the wallet (ignored if another wallet has been opened since)
+      WalletManager.INSTANCE.saveWallet(walletSummary.get().getWalletId());
 
-    // Close the wallet
-    WalletManager.INSTANCE.closeWallet();
+      // Close the wallet
+      WalletManager.INSTANCE.closeWallet(walletSummary.get().getWalletId());
+    }
 
     log.debug("Bitcoin network service specific code is shut down");
 
@@ -164,7 +183,7 @@ public class BitcoinNetworkService extends AbstractService {
       }
       File walletParentDirectory = WalletManager.INSTANCE.getCurrentWalletFile(applicationDataDirectory).get().getParentFile();
 
-      File blockStoreFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+      blockStoreFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
       File checkpointsFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
 
       if (replayDateOptional.isPresent()) {
@@ -700,7 +719,7 @@ public class BitcoinNetworkService extends AbstractService {
       }
 
       // Attempt to completeWithoutSigning it
-      if (!completeWithoutSigning(sendRequestSummary, wallet)) {
+      if (!completeWithoutSigning(sendRequestSummary, wallet, IndexedCoinSelector.Strategy.BRANCH_AND_BOUND)) {
         return false;
       }
 
@@ -716,7 +735,7 @@ public class BitcoinNetworkService extends AbstractService {
       }
 
       // Attempt to completeWithoutSigning it
-      if (!completeWithoutSigning(sendRequestSummary, wallet)) {
+      if (!completeWithoutSigning(sendRequestSummary, wallet, IndexedCoinSelector.Strategy.CONSOLIDATION)) {
         return false;
       }
 
@@ -752,7 +771,7 @@ public class BitcoinNetworkService extends AbstractService {
 
       // Attempt to completeWithoutSigning it - we need to remove the inputs first as the complete will put all possible inputs back on the tx
       sendRequestSummary.getSendRequest().get().tx.clearInputs();
-      if (!completeWithoutSigning(sendRequestSummary, wallet)) {
+      if (!completeWithoutSigning(sendRequestSummary, wallet, IndexedCoinSelector.Strategy.CONSOLIDATION)) {
         return false;
       }
 
@@ -828,10 +847,11 @@ public class BitcoinNetworkService extends AbstractService {
    *
    * @param sendRequestSummary The information required to send bitcoin
    * @param wallet             The wallet
+   * @param strategy           The coin selection strategy
    *
    * @return True if the completeWithoutSigning and signDirectly operations were successful
    */
-  private boolean completeWithoutSigning(SendRequestSummary sendRequestSummary, Wallet wallet) {
+  private boolean completeWithoutSigning(SendRequestSummary sendRequestSummary, Wallet wallet, IndexedCoinSelector.Strategy strategy) {
 
     log.debug("Completing send request...");
 
@@ -839,6 +859,9 @@ public class BitcoinNetworkService extends AbstractService {
 
     try {
 
+      // Select from the presorted spendable outputs rather than re-sorting the wallet on every fee iteration
+      sendRequest.coinSelector = new IndexedCoinSelector(getOrCreateSpendableOutputIndex(wallet), strategy, sendRequest.feePerKb);
+
       // Complete it (works out fee) but DO NOT sign it
       sendRequest.signInputs = false;
       wallet.completeTx(sendRequest);
@@ -895,16 +918,12 @@ public class BitcoinNetworkService extends AbstractService {
     if (hardwareWalletService.isPresent()) {
       try {
 
+        AddressPathIndex index = getOrCreateAddressPathIndex(wallet);
+
         // Provide a map between the input indices and the HD path of receiving addresses used
-        Map<Integer, ImmutableList<ChildNumber>> receivingAddressPathMap = buildReceivingAddressPathMap(
-          sendRequest.tx,
-          wallet
-        );
+        Map<Integer, ImmutableList<ChildNumber>> receivingAddressPathMap = index.buildReceivingAddressPathMap(sendRequest.tx);
 
-        Map<Address, ImmutableList<ChildNumber>> changeAddressPathMap = buildChangeAddressPathMap(
-          sendRequest.tx,
-          wallet
-        );
+        Map<Address, ImmutableList<ChildNumber>> changeAddressPathMap = index.buildChangeAddressPathMap(sendRequest.tx);
 
         // Shuffle the outputs to obfuscate change and payment addresses
         sendRequest.tx.shuffleOutputs();
@@ -1213,99 +1232,48 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * @param unsignedTx The unsigned transaction (expect OP_0 in place of signatures)
-   * @param wallet     The wallet
+   * @param wallet The wallet about to be spent from
    *
-   * @return The receiving address path map linking the tx input index to a deterministic path
+   * @return The spendable output index for the wallet (built on first use and then kept up to date)
    */
-  private Map<Integer, ImmutableList<ChildNumber>> buildReceivingAddressPathMap(Transaction unsignedTx, Wallet wallet) {
-
-    log.debug("Building Receiving address path map for transaction {}", unsignedTx);
-
-    Map<Integer, ImmutableList<ChildNumber>> receivingAddressPathMap = Maps.newHashMap();
+  private synchronized SpendableOutputIndex getOrCreateSpendableOutputIndex(Wallet wallet) {
 
-    // Examine the Tx inputs to determine receiving addresses in use
-    for (int i = 0; i < unsignedTx.getInputs().size(); i++) {
-      TransactionInput input = unsignedTx.getInput(i);
-
-      // Get input script from the connected transaction output script
-      Script script = input.getScriptSig();
-      TransactionOutput connectedTransactionOutput = input.getConnectedOutput();
-      log.debug("Connected transaction output {}", connectedTransactionOutput);
-      if (connectedTransactionOutput != null) {
-        byte[] pubKeyHash = connectedTransactionOutput.getScriptPubKey().getPubKeyHash();
-        log.debug("Connected transaction pubKeyHash {}", Utils.HEX.encode(pubKeyHash));
-        DeterministicKey keyFromPubKey = wallet.getActiveKeychain().findKeyFromPubHash(pubKeyHash);
-        Preconditions.checkNotNull(keyFromPubKey, "Could not find deterministic key from given pubKeyHash. Input script index: " + i);
-
-        receivingAddressPathMap.put(i, keyFromPubKey.getPath());
-      } else {
-        log.debug("Could not parse tx input script '{}'", script.toString());
-      }
+    if (spendableOutputIndex.isPresent() && spendableOutputIndex.get().getWallet() == wallet) {
+      return spendableOutputIndex.get();
+    }
 
+    // Different wallet so stop tracking the old one
+    if (spendableOutputIndex.isPresent()) {
+      spendableOutputIndex.get().close();
     }
 
-    return receivingAddressPathMap;
+    spendableOutputIndex = Optional.of(new SpendableOutputIndex(wallet));
+
+    return spendableOutputIndex.get();
   }
 
   /**
-   * @param unsignedTx The unsigned transaction (expect OP_0 in place of signatures)
-   * @param wallet     The wallet
+   * @param wallet The wallet about to be signed by a hardware wallet
    *
-   * @return The receiving address path map linking the tx input index to a deterministic path
+   * @return The address path index for the active key chain of the wallet (built once and then kept up to date)
    */
-  private Map<Address, ImmutableList<ChildNumber>> buildChangeAddressPathMap(Transaction unsignedTx, Wallet wallet) {
-
-    Map<Address, ImmutableList<ChildNumber>> changeAddressPathMap = Maps.newHashMap();
+  private synchronized AddressPathIndex getOrCreateAddressPathIndex(Wallet wallet) {
 
     DeterministicKeyChain activeKeyChain = wallet.getActiveKeychain();
 
-    for (int i = 0; i < unsignedTx.getOutputs().size(); i++) {
-
-      TransactionOutput output = unsignedTx.getOutput(i);
-
-      Optional<DeterministicKey> key = Optional.absent();
-      Optional<Address> address = Optional.absent();
-
-      // Analyse the output script
-      Script script = output.getScriptPubKey();
-      if (script.isSentToRawPubKey()) {
-
-        // Use the raw public key
-        byte[] pubkey = script.getPubKey();
-        if (wallet.isPubKeyMine(pubkey)) {
-          key = Optional.fromNullable(activeKeyChain.findKeyFromPubKey(pubkey));
-          ECKey ecKey = ECKey.fromPublicOnly(pubkey);
-          address = Optional.fromNullable(ecKey.toAddress(MainNetParams.get()));
-        }
-
-      } else if (script.isPayToScriptHash() && wallet.isPayToScriptHashMine(script.getPubKeyHash())) {
-
-        // Extract the public key hash from the script
-        byte[] pubkeyHash = script.getPubKeyHash();
-        key = Optional.fromNullable(activeKeyChain.findKeyFromPubHash(pubkeyHash));
-        address = Optional.fromNullable(new Address(MainNetParams.get(), pubkeyHash));
-      } else {
-
-        // Use the public key hash
-        byte[] pubkeyHash = script.getPubKeyHash();
-        if (wallet.isPubKeyHashMine(pubkeyHash)) {
-          key = Optional.fromNullable(activeKeyChain.findKeyFromPubHash(pubkeyHash));
-          address = Optional.fromNullable(new Address(MainNetParams.get(), pubkeyHash));
-        }
-      }
-
-      if (key.isPresent() && address.isPresent()) {
-
-        // Found an address we own
-        changeAddressPathMap.put(address.get(), key.get().getPath());
-      }
+    if (addressPathIndex.isPresent() && addressPathIndex.get().getKeyChain() == activeKeyChain) {
+      return addressPathIndex.get();
+    }
 
+    // Different wallet (or key chain) so stop tracking the old one
+    if (addressPathIndex.isPresent()) {
+      addressPathIndex.get().close();
     }
 
-    return changeAddressPathMap;
-  }
+    addressPathIndex = Optional.of(new AddressPathIndex(activeKeyChain));
 
+    return addressPathIndex.get();
+  }
 
   /**
    * <p>Create a new peer group</p>
@@ -1351,10 +1319,25 @@ public class BitcoinNetworkService extends AbstractService {
     }
   }
 
+  /**
+   * <p>Journal the block chain updates to the current wallet (the wallet must already be added so it sees them first)</p>
+   */
+  private void addWalletJournalToBlockChain() {
+
+    Optional<WalletJournal> walletJournal = WalletManager.INSTANCE.getCurrentWalletJournal();
+    if (blockChain != null && walletJournal.isPresent()) {
+      // Remove first to avoid journaling twice
+      blockChain.removeListener(walletJournal.get());
+      blockChain.addListener(walletJournal.get(), Threading.SAME_THREAD);
+    }
+
+  }
+
   public void addWalletToBlockChain(Wallet wallet) {
     if (blockChain != null && wallet != null) {
       log.trace("Adding wallet {} to blockChain {}", wallet, blockChain);
       blockChain.addWallet(wallet);
+      addWalletJournalToBlockChain();
     } else {
       log.debug("Could not add wallet to blockChain - one or more is missing");
     }
@@ -1413,6 +1396,9 @@ public class BitcoinNetworkService extends AbstractService {
     if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent() && blockChain != null) {
       log.debug("Removing wallet from blockChain...");
       blockChain.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+      if (WalletManager.INSTANCE.getCurrentWalletJournal().isPresent()) {
+        blockChain.removeListener(WalletManager.INSTANCE.getCurrentWalletJournal().get());
+      }
       blockChain = null; // need to recreate it when a new blockstore is created
     }
 
@@ -1420,8 +1406,14 @@ public class BitcoinNetworkService extends AbstractService {
     if (blockStore != null) {
       try {
         // The blockstore can throw an NPE internally
-        log.debug("When the blockstore was closed the height was {}", blockStore.getChainHead() == null ? "unknown" : blockStore.getChainHead().getHeight());
+        StoredBlock chainHead = blockStore.getChainHead();
+        log.debug("When the blockstore was closed the height was {}", chainHead == null ? "unknown" : chainHead.getHeight());
         blockStore.close();
+
+        // Allow the next sync check to avoid opening the blockstore
+        if (chainHead != null && blockStoreFile != null) {
+          ChainHeadSidecar.write(blockStoreFile, chainHead);
+        }
       } catch (BlockStoreException e) {
         log.error("Blockstore not closed cleanly", e);
       } catch (NullPointerException e) {
@@ -1487,6 +1479,7 @@ public class BitcoinNetworkService extends AbstractService {
     }
 
     blockChain.addWallet(wallet);
+    addWalletJournalToBlockChain();
     log.debug("Created block chain '{}' with height '{}'", blockChain, blockChain.getBestChainHeight());
 
     log.debug("Creating peer group ...");
@@ -36,6 +36,9 @@ public class ConfigurationService extends AbstractService {
 
     }
 
+    // Ensure the configuration is on disk before the application exits
+    Configurations.flushConfiguration();
+
     // Service can survive a switch
     return preventCleanupOnSwitch(shutdownType);
 
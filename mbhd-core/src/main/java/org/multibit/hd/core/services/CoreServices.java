@@ -39,6 +39,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Factory to provide the following to application API:</p>
@@ -63,6 +64,34 @@ public class CoreServices {
    */
   public static final String LIVE_MATCHER_PUBLIC_KEY_FILE = "multibit-org-matcher-key.asc";
 
+  /**
+   * The time allowed for most services to shut down before dependent services proceed without them
+   */
+  static final long SERVICE_SHUTDOWN_DEADLINE_MILLIS = 10_000;
+
+  /**
+   * The time allowed for the Bitcoin network service to stop the peer group and save the wallet
+   */
+  static final long BITCOIN_NETWORK_SHUTDOWN_DEADLINE_MILLIS = 30_000;
+
+  /**
+   * The time a hard shutdown waits for overdue stages (which may be writing files) before exiting
+   */
+  static final long OVERDUE_STAGE_EXIT_GRACE_MILLIS = 30_000;
+
+  // Shutdown stages
+  private static final String CONTACT_STAGE = "contact";
+  private static final String HISTORY_STAGE = "history";
+  private static final String BITCOIN_NETWORK_STAGE = "bitcoin-network";
+  private static final String WALLET_STAGE = "wallet";
+  private static final String WALLET_SAVE_STAGE = "wallet-save";
+  private static final String BACKUP_STAGE = "backup";
+  private static final String HARDWARE_WALLET_STAGE = "hardware-wallet";
+  private static final String CONFIGURATION_STAGE = "configuration";
+  private static final String SECURITY_CHECKING_STAGE = "security-checking";
+  private static final String APPLICATION_EVENT_STAGE = "application-event";
+  private static final String PAYMENT_PROTOCOL_STAGE = "payment-protocol";
+
   /**
    * Keep track of selected application events (e.g. exchange rate changes, security alerts etc)
    * Not an optional service
@@ -200,8 +229,16 @@ public class CoreServices {
       case HARD:
         log.info("Applying hard shutdown.");
 
-        shutdownWalletSupportServices(shutdownType);
-        shutdownApplicationSupportServices(shutdownType);
+        ShutdownCoordinator coordinator = shutdownServices(shutdownType, true);
+
+        // An overdue stage may be part way through writing the wallet or payments
+        try {
+          if (!coordinator.awaitOverdueStages(OVERDUE_STAGE_EXIT_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+            log.warn("Overdue shutdown stages did not finish within {} ms", OVERDUE_STAGE_EXIT_GRACE_MILLIS);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
 
         log.info("Issuing system exit");
         System.exit(0);
@@ -209,8 +246,7 @@ public class CoreServices {
       case SOFT:
         log.info("Applying soft shutdown.");
 
-        shutdownWalletSupportServices(shutdownType);
-        shutdownApplicationSupportServices(shutdownType);
+        shutdownServices(shutdownType, true);
 
         // Suggest a garbage collection to free resources under test
         System.gc();
@@ -218,7 +254,7 @@ public class CoreServices {
       case SWITCH:
         log.info("Applying wallet switch.");
 
-        shutdownWalletSupportServices(shutdownType);
+        shutdownServices(shutdownType, false);
 
         // Suggest a garbage collection
         System.gc();
@@ -228,27 +264,29 @@ public class CoreServices {
   }
 
   /**
-   * <p>Shutdown all application support services (non-optional)</p>
-   * <ul>
-   * <li>Contact service</li>
-   * <li>History service</li>
-   * <li>Bitcoin network service</li>
-   * <li>Wallet service</li>
-   * <li>Backup service</li>
-   * </ul>
+   * <p>Shutdown the wallet support services and optionally the application support services</p>
+   * <p>Independent services shut down concurrently so the time taken is that of the slowest chain of
+   * dependent services rather than the sum of them all.</p>
+   *
+   * @param shutdownType       The shutdown type providing context
+   * @param includeApplication True if the application support services should also be shut down
    *
-   * @param shutdownType The shutdown type providing context
+   * @return The coordinator after it has run (overdue stages may still be finishing)
    */
-  private static void shutdownWalletSupportServices(ShutdownEvent.ShutdownType shutdownType) {
+  private static ShutdownCoordinator shutdownServices(ShutdownEvent.ShutdownType shutdownType, boolean includeApplication) {
 
-    // Allow graceful shutdown of managed services in the correct order
-    shutdownService(contactService, shutdownType);
-    shutdownService(historyService, shutdownType);
+    ShutdownCoordinator coordinator = new ShutdownCoordinator(includeApplication ? "application" : "wallet-switch");
+
+    // Stages finishing late must only act on the wallet being shut down
+    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    Optional<WalletId> walletId = walletSummary.isPresent() ? Optional.of(walletSummary.get().getWalletId()) : Optional.<WalletId>absent();
+
+    addWalletSupportServices(coordinator, walletId);
+    if (includeApplication) {
+      addApplicationSupportServices(coordinator);
+    }
 
-    // Close the Bitcoin network service (peer group, save wallet etc)
-    shutdownService(bitcoinNetworkService, shutdownType);
-    shutdownService(walletService, shutdownType);
-    shutdownService(backupService, shutdownType);
+    coordinator.shutdownNow(shutdownType);
 
     // Clear the references
     bitcoinNetworkService = Optional.absent();
@@ -257,53 +295,87 @@ public class CoreServices {
     historyService = Optional.absent();
     backupService = Optional.absent();
 
+    if (includeApplication) {
+      // Need a fresh instance for correct restart
+      hardwareWalletService = Optional.absent();
+    }
+
+    // Be judicious when clearing other references since it leads to complex behaviour during shutdown
+
+    return coordinator;
   }
 
   /**
-   * <p>Shutdown all application support services (non-optional)</p>
+   * <p>Add the wallet support services to a shutdown</p>
+   * <ul>
+   * <li>Contact service</li>
+   * <li>History service</li>
+   * <li>Bitcoin network service (stops the peer group, saves and closes the wallet)</li>
+   * <li>Wallet service (writes the payments)</li>
+   * <li>Final wallet save and close if the Bitcoin network service did not finish</li>
+   * <li>Backup service once the wallet and payments have been written</li>
+   * </ul>
+   *
+   * @param coordinator The shutdown coordinator
+   * @param walletId    The wallet being shut down (absent if there is no current wallet)
+   */
+  private static void addWalletSupportServices(final ShutdownCoordinator coordinator, final Optional<WalletId> walletId) {
+
+    coordinator
+      .addService(CONTACT_STAGE, contactService, SERVICE_SHUTDOWN_DEADLINE_MILLIS)
+      .addService(HISTORY_STAGE, historyService, SERVICE_SHUTDOWN_DEADLINE_MILLIS)
+      .addService(BITCOIN_NETWORK_STAGE, bitcoinNetworkService, BITCOIN_NETWORK_SHUTDOWN_DEADLINE_MILLIS)
+      .addService(WALLET_STAGE, walletService, SERVICE_SHUTDOWN_DEADLINE_MILLIS)
+      .addTask(
+        WALLET_SAVE_STAGE, new Runnable() {
+          @Override
+          public void run() {
+            // Guarantee the wallet is saved even if the peer group could not be stopped in time
+            ShutdownCoordinator.Outcome outcome = coordinator.getOutcome(BITCOIN_NETWORK_STAGE);
+            if (walletId.isPresent() && (outcome == ShutdownCoordinator.Outcome.TIMED_OUT || outcome == ShutdownCoordinator.Outcome.FAILED)) {
+              log.warn("Bitcoin network service shutdown {}. Saving and closing wallet directly.", outcome);
+              // Waits for any save the overdue stage has in progress
+              WalletManager.INSTANCE.saveWallet(walletId.get());
+              WalletManager.INSTANCE.closeWallet(walletId.get());
+            }
+          }
+        }, SERVICE_SHUTDOWN_DEADLINE_MILLIS, BITCOIN_NETWORK_STAGE)
+      .addService(BACKUP_STAGE, backupService, SERVICE_SHUTDOWN_DEADLINE_MILLIS, WALLET_SAVE_STAGE, WALLET_STAGE);
+
+  }
+
+  /**
+   * <p>Add the application support services (non-optional) to a shutdown</p>
    * <ul>
    * <li>Hardware wallet service</li>
+   * <li>Configuration service</li>
+   * <li>Security checking service</li>
+   * <li>Application event service</li>
+   * <li>Payment protocol service</li>
    * </ul>
    *
-   * @param shutdownType The shutdown type providing context
+   * @param coordinator The shutdown coordinator
    */
-  private static void shutdownApplicationSupportServices(ShutdownEvent.ShutdownType shutdownType) {
+  private static void addApplicationSupportServices(ShutdownCoordinator coordinator) {
 
     // Shutdown non-managed services
     if (hardwareWalletService.isPresent()) {
-      hardwareWalletService.get().stopAndWait();
-      // Need a fresh instance for correct restart
-      hardwareWalletService = Optional.absent();
-    }
-
-    // Allow graceful shutdown in the correct order
-    if (configurationService != null) {
-      configurationService.shutdownNow(shutdownType);
-    }
-    if (securityCheckingService != null) {
-      securityCheckingService.shutdownNow(shutdownType);
-    }
-    if (applicationEventService != null) {
-      applicationEventService.shutdownNow(shutdownType);
-    }
-    if (paymentProtocolService != null) {
-      paymentProtocolService.shutdownNow(shutdownType);
+      final HardwareWalletService service = hardwareWalletService.get();
+      coordinator.addTask(
+        HARDWARE_WALLET_STAGE, new Runnable() {
+          @Override
+          public void run() {
+            service.stopAndWait();
+          }
+        }, SERVICE_SHUTDOWN_DEADLINE_MILLIS);
     }
 
-    // Be judicious when clearing references since it leads to complex behaviour during shutdown
-
-  }
+    coordinator
+      .addService(CONFIGURATION_STAGE, Optional.fromNullable(configurationService), SERVICE_SHUTDOWN_DEADLINE_MILLIS)
+      .addService(SECURITY_CHECKING_STAGE, Optional.fromNullable(securityCheckingService), SERVICE_SHUTDOWN_DEADLINE_MILLIS)
+      .addService(APPLICATION_EVENT_STAGE, Optional.fromNullable(applicationEventService), SERVICE_SHUTDOWN_DEADLINE_MILLIS)
+      .addService(PAYMENT_PROTOCOL_STAGE, Optional.fromNullable(paymentProtocolService), SERVICE_SHUTDOWN_DEADLINE_MILLIS);
 
-  /**
-   * <p>Shutdown a managed service</p>
-   *
-   * @param service      The service
-   * @param shutdownType The shutdown type providing context
-   */
-  private static void shutdownService(Optional<? extends ManagedService> service, ShutdownEvent.ShutdownType shutdownType) {
-    if (service.isPresent()) {
-      service.get().shutdownNow(shutdownType);
-    }
   }
 
   /**
@@ -385,6 +457,15 @@ public class CoreServices {
 
   }
 
+  /**
+   * @return The backup service for the current wallet (absent after a shutdown)
+   */
+  public static Optional<BackupService> getCurrentBackupService() {
+
+    return backupService;
+
+  }
+
   /**
    * @return Create a new backup service or return the extant one
    */
@@ -0,0 +1,260 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Coin selector to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Selection from a presorted spendable output index rather than sorting on every call</li>
+ * <li>A choice of strategies (largest first, branch and bound, consolidation)</li>
+ * </ul>
+ * <p>Bitcoinj calls the selector repeatedly with the same candidates while converging on a fee so
+ * the candidates are matched against the index once and then reused until the wallet changes.</p>
+ *
+ * @since 0.3.6
+ */
+class IndexedCoinSelector implements CoinSelector {
+
+  /**
+   * The number of search steps before branch and bound gives up on avoiding change
+   */
+  private static final int MAXIMUM_BRANCH_AND_BOUND_TRIES = 100_000;
+
+  /**
+   * The most inputs a change-free combination may use (beyond this the input fees outweigh avoiding change)
+   */
+  static final int MAXIMUM_BRANCH_AND_BOUND_INPUTS = 10;
+
+  /**
+   * The serialized size of a signed pay to address input (outpoint, sequence and a script with a signature and compressed key)
+   */
+  private static final int INPUT_SIZE_BYTES = 148;
+
+  enum Strategy {
+
+    /**
+     * Spend the largest outputs first (fewest inputs, lowest fee)
+     */
+    LARGEST_FIRST,
+
+    /**
+     * Search for a combination that needs no change output, falling back to largest first
+     */
+    BRANCH_AND_BOUND,
+
+    /**
+     * Spend the smallest outputs first (fewest outputs left behind, used when emptying the wallet)
+     */
+    CONSOLIDATION
+
+  }
+
+  private final SpendableOutputIndex index;
+
+  private final Strategy strategy;
+
+  /**
+   * The fee to spend one input at the current fee rate
+   */
+  private final long inputFee;
+
+  /**
+   * The index contents and candidate count last matched, with the resulting outputs (largest first)
+   */
+  private List<TransactionOutput> lastIndexedOutputs;
+  private int lastCandidateCount = -1;
+  private List<TransactionOutput> lastOutputs;
+
+  /**
+   * @param index    The spendable output index
+   * @param strategy The selection strategy
+   * @param feePerKb The fee rate of the transaction being completed
+   */
+  IndexedCoinSelector(SpendableOutputIndex index, Strategy strategy, Coin feePerKb) {
+
+    Preconditions.checkNotNull(index, "'index' must be present");
+    Preconditions.checkNotNull(strategy, "'strategy' must be present");
+    Preconditions.checkNotNull(feePerKb, "'feePerKb' must be present");
+
+    this.index = index;
+    this.strategy = strategy;
+    this.inputFee = feePerKb.value * INPUT_SIZE_BYTES / 1000;
+
+  }
+
+  @Override
+  public synchronized CoinSelection select(Coin target, List<TransactionOutput> candidates) {
+
+    List<TransactionOutput> outputs = sortedCandidates(candidates);
+
+    switch (strategy) {
+      case BRANCH_AND_BOUND:
+        CoinSelection changeless = selectWithoutChange(target, outputs, inputFee);
+        return changeless != null ? changeless : selectInOrder(target, outputs, false);
+      case CONSOLIDATION:
+        return selectInOrder(target, outputs, true);
+      default:
+        return selectInOrder(target, outputs, false);
+    }
+
+  }
+
+  /**
+   * @param candidates The candidates offered by the wallet
+   *
+   * @return The indexed outputs that are also candidates, largest first
+   */
+  private List<TransactionOutput> sortedCandidates(List<TransactionOutput> candidates) {
+
+    List<TransactionOutput> indexedOutputs = index.getSortedOutputs();
+
+    // The wallet offers a fresh copy of the same candidates on each call so while the wallet
+    // is unchanged (same index contents) the count is enough to detect a different set
+    if (indexedOutputs == lastIndexedOutputs && candidates.size() == lastCandidateCount) {
+      return lastOutputs;
+    }
+
+    // Only offer outputs the wallet still considers candidates
+    Set<TransactionOutput> candidateSet = Sets.newIdentityHashSet();
+    candidateSet.addAll(candidates);
+
+    List<TransactionOutput> outputs = Lists.newArrayList();
+    for (TransactionOutput output : indexedOutputs) {
+      if (candidateSet.contains(output)) {
+        outputs.add(output);
+      }
+    }
+
+    lastIndexedOutputs = indexedOutputs;
+    lastCandidateCount = candidates.size();
+    lastOutputs = outputs;
+
+    return outputs;
+  }
+
+  /**
+   * @param target       The value required
+   * @param outputs      The outputs largest first
+   * @param smallestFirst True if the outputs should be gathered smallest first
+   *
+   * @return The outputs gathered in order until the target is reached (or all outputs if it cannot be reached)
+   */
+  private static CoinSelection selectInOrder(Coin target, List<TransactionOutput> outputs, boolean smallestFirst) {
+
+    List<TransactionOutput> gathered = Lists.newArrayList();
+    long total = 0;
+    for (int i = 0; i < outputs.size() && total < target.value; i++) {
+      TransactionOutput output = outputs.get(smallestFirst ? outputs.size() - 1 - i : i);
+      gathered.add(output);
+      total += output.getValue().value;
+    }
+
+    return new CoinSelection(Coin.valueOf(total), gathered);
+  }
+
+  /**
+   * <p>Depth first search over include/exclude decisions with pruning on the reachable value</p>
+   *
+   * <p>Each input is valued at its effective value (its value less the fee to spend it) so outputs that
+   * cost more to spend than they are worth are never considered, and among the combinations that avoid
+   * change the one wasting least (excess plus input fees) wins. At most {@link #MAXIMUM_BRANCH_AND_BOUND_INPUTS}
+   * inputs are used so a wallet full of small outputs falls back to largest first instead of sweeping them.</p>
+   *
+   * @param target   The value required
+   * @param outputs  The outputs largest first
+   * @param inputFee The fee to spend one input
+   *
+   * @return The least wasteful combination whose excess would be dust (absorbed as fee rather than
+   * creating a change output), or null if none was found within the search limit
+   */
+  private static CoinSelection selectWithoutChange(Coin target, List<TransactionOutput> outputs, long inputFee) {
+
+    // Outputs are largest first so the economic ones are a prefix
+    int size = 0;
+    while (size < outputs.size() && outputs.get(size).getValue().value > inputFee) {
+      size++;
+    }
+    long upperBound = target.value + Transaction.MIN_NONDUST_OUTPUT.value;
+
+    long[] values = new long[size];
+    long[] prefix = new long[size + 1];
+    for (int i = 0; i < size; i++) {
+      values[i] = outputs.get(i).getValue().value;
+      prefix[i + 1] = prefix[i] + values[i];
+    }
+
+    boolean[] selected = new boolean[size];
+    boolean[] best = null;
+    long bestTotal = 0;
+    long bestWaste = Long.MAX_VALUE;
+
+    int depth = 0;
+    int count = 0;
+    long total = 0;
+    for (int tries = 0; tries < MAXIMUM_BRANCH_AND_BOUND_TRIES; tries++) {
+
+      // The most that can still be added is the next largest outputs up to the input limit
+      int reachableEnd = Math.min(size, depth + MAXIMUM_BRANCH_AND_BOUND_INPUTS - count);
+      long reachable = total + prefix[reachableEnd] - prefix[depth];
+
+      boolean backtrack;
+      if (total >= upperBound || reachable < target.value || count * inputFee >= bestWaste) {
+        // Overshot, cannot reach the target from here or already costlier than the best
+        backtrack = true;
+      } else if (total >= target.value) {
+        long waste = total - target.value + count * inputFee;
+        if (waste < bestWaste) {
+          best = selected.clone();
+          bestTotal = total;
+          bestWaste = waste;
+        }
+        backtrack = true;
+      } else {
+        backtrack = false;
+      }
+
+      if (backtrack) {
+        // Exclude the most recently included output and continue after it
+        depth--;
+        while (depth >= 0 && !selected[depth]) {
+          depth--;
+        }
+        if (depth < 0) {
+          break;
+        }
+        selected[depth] = false;
+        count--;
+        total -= values[depth];
+      } else {
+        selected[depth] = true;
+        count++;
+        total += values[depth];
+      }
+      depth++;
+    }
+
+    if (best == null) {
+      return null;
+    }
+
+    List<TransactionOutput> gathered = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      if (best[i]) {
+        gathered.add(outputs.get(i));
+      }
+    }
+
+    return new CoinSelection(Coin.valueOf(bestTotal), gathered);
+  }
+
+}
@@ -0,0 +1,340 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentPage;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.dto.PaymentSortKey;
+import org.multibit.hd.core.dto.TransactionData;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Index to provide the following to WalletService:</p>
+ * <ul>
+ * <li>Payments held in sorted order per sort key, maintained on insert and removal</li>
+ * <li>Paged, filtered queries without re-sorting the full list on every call</li>
+ * </ul>
+ * <p>Sorted views are built lazily the first time a sort key is requested and then kept
+ * up to date by binary insertion. The most recent filtered result is cached so that a view
+ * scrolling through the same query does not re-filter on every page.</p>
+ * <p>Payments are held by identity rather than by <code>equals()</code> since the DTOs are
+ * mutable and several payment requests can compare equal.</p>
+ *
+ * @since 0.3.6
+ */
+class PaymentIndex {
+
+  /**
+   * Above this many changes in one update the sorted views are re-sorted rather than patched
+   */
+  static final int BULK_CHANGE_THRESHOLD = 64;
+
+  /**
+   * The payments in no particular order
+   */
+  private final Set<PaymentData> payments = Sets.newIdentityHashSet();
+
+  /**
+   * The sorted views that have been requested so far
+   */
+  private final Map<PaymentSortKey, List<PaymentData>> sortedPayments = Maps.newEnumMap(PaymentSortKey.class);
+
+  /**
+   * The last filtered query result (invalidated on any change)
+   */
+  private PaymentSortKey lastSortKey;
+  private String lastQuery;
+  private List<PaymentData> lastFilteredPayments;
+
+  /**
+   * Replace the entire contents of the index (typically after the wallet has been re-read)
+   *
+   * @param paymentDataCollection The payments to index
+   */
+  synchronized void rebuild(Collection<? extends PaymentData> paymentDataCollection) {
+
+    payments.clear();
+    payments.addAll(paymentDataCollection);
+
+    resortAll();
+
+    invalidateFilter();
+  }
+
+  /**
+   * <p>Apply the changes seen since the last refresh without re-sorting the whole index</p>
+   *
+   * @param removed The payments to remove (matched by identity)
+   * @param added   The payments to add
+   */
+  synchronized void update(Collection<? extends PaymentData> removed, Collection<? extends PaymentData> added) {
+
+    if (removed.isEmpty() && added.isEmpty()) {
+      return;
+    }
+
+    if (removed.size() + added.size() > BULK_CHANGE_THRESHOLD) {
+
+      // Cheaper to sort once than to patch each view many times (e.g. the first refresh)
+      payments.removeAll(removed);
+      payments.addAll(added);
+      resortAll();
+
+    } else {
+
+      for (PaymentData paymentData : removed) {
+        removeFromViews(paymentData);
+      }
+      for (PaymentData paymentData : added) {
+        addToViews(paymentData);
+      }
+
+    }
+
+    invalidateFilter();
+  }
+
+  /**
+   * @param paymentData The payment to add to all sorted views
+   */
+  synchronized void add(PaymentData paymentData) {
+
+    Preconditions.checkNotNull(paymentData, "'paymentData' must be present");
+
+    addToViews(paymentData);
+
+    invalidateFilter();
+  }
+
+  /**
+   * @param paymentData The payment to remove from all sorted views (matched by identity)
+   *
+   * @return True if the payment was present
+   */
+  synchronized boolean remove(PaymentData paymentData) {
+
+    if (!removeFromViews(paymentData)) {
+      return false;
+    }
+
+    invalidateFilter();
+
+    return true;
+  }
+
+  /**
+   * @param paymentData The payment
+   *
+   * @return True if this instance is in the index
+   */
+  synchronized boolean contains(PaymentData paymentData) {
+    return payments.contains(paymentData);
+  }
+
+  /**
+   * @return The number of payments in the index
+   */
+  synchronized int size() {
+    return payments.size();
+  }
+
+  /**
+   * @param sortKey The sort key
+   * @param query   The text fragment to match (case-insensitive), empty for all payments
+   *
+   * @return A copy of all the matching payments in sort order
+   */
+  synchronized List<PaymentData> filter(PaymentSortKey sortKey, String query) {
+    return Lists.newArrayList(filtered(sortKey, query));
+  }
+
+  /**
+   * @param sortKey The sort key
+   * @param query   The text fragment to match (case-insensitive), empty for all payments
+   * @param offset  The offset of the first payment to return
+   * @param limit   The maximum number of payments to return
+   *
+   * @return The requested window of matching payments
+   */
+  synchronized PaymentPage page(PaymentSortKey sortKey, String query, int offset, int limit) {
+
+    Preconditions.checkArgument(offset >= 0, "'offset' must be non-negative");
+    Preconditions.checkArgument(limit >= 0, "'limit' must be non-negative");
+
+    List<PaymentData> matches = filtered(sortKey, query);
+
+    int fromIndex = Math.min(offset, matches.size());
+    int toIndex = Math.min(fromIndex + limit, matches.size());
+
+    return new PaymentPage(fromIndex, matches.size(), matches.subList(fromIndex, toIndex));
+  }
+
+  /**
+   * @param paymentData The payment
+   * @param query       The text fragment to match (case-insensitive, anywhere in the descriptive fields)
+   *
+   * @return True if the payment matches the query
+   */
+  static boolean matches(PaymentData paymentData, String query) {
+
+    String lowerQuery = query.toLowerCase();
+
+    if (paymentData.getDescription().toLowerCase().contains(lowerQuery)
+      || paymentData.getNote().toLowerCase().contains(lowerQuery)) {
+      return true;
+    }
+
+    if (paymentData instanceof PaymentRequestData) {
+
+      PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
+
+      // Exact match only for the address
+      return paymentRequestData.getLabel().toLowerCase().contains(lowerQuery)
+        || paymentRequestData.getAddress().toString().equals(query);
+
+    } else if (paymentData instanceof TransactionData) {
+
+      TransactionData transactionData = (TransactionData) paymentData;
+
+      return Joiner.on(" ").join(transactionData.getOutputAddresses()).toLowerCase().contains(lowerQuery)
+        || transactionData.getRawTransaction().toLowerCase().contains(lowerQuery);
+    }
+
+    return false;
+  }
+
+  /**
+   * @return The (shared) sorted view for the sort key, building it if necessary
+   */
+  private List<PaymentData> sorted(PaymentSortKey sortKey) {
+
+    Preconditions.checkNotNull(sortKey, "'sortKey' must be present");
+
+    List<PaymentData> sorted = sortedPayments.get(sortKey);
+    if (sorted == null) {
+      sorted = Lists.newArrayList(payments);
+      Collections.sort(sorted, sortKey);
+      sortedPayments.put(sortKey, sorted);
+    }
+
+    return sorted;
+  }
+
+  /**
+   * @return The (shared) filtered view for the sort key and query, using the cache if possible
+   */
+  private List<PaymentData> filtered(PaymentSortKey sortKey, String query) {
+
+    List<PaymentData> sorted = sorted(sortKey);
+
+    if (query == null || query.isEmpty()) {
+      return sorted;
+    }
+
+    if (sortKey == lastSortKey && query.equals(lastQuery) && lastFilteredPayments != null) {
+      return lastFilteredPayments;
+    }
+
+    List<PaymentData> matches = Lists.newArrayList();
+    for (PaymentData paymentData : sorted) {
+      if (matches(paymentData, query)) {
+        matches.add(paymentData);
+      }
+    }
+
+    lastSortKey = sortKey;
+    lastQuery = query;
+    lastFilteredPayments = matches;
+
+    return matches;
+  }
+
+  private void addToViews(PaymentData paymentData) {
+
+    if (!payments.add(paymentData)) {
+      // Already present
+      return;
+    }
+
+    for (Map.Entry<PaymentSortKey, List<PaymentData>> entry : sortedPayments.entrySet()) {
+      List<PaymentData> sorted = entry.getValue();
+      int index = Collections.binarySearch(sorted, paymentData, entry.getKey());
+      sorted.add(index < 0 ? -(index + 1) : index, paymentData);
+    }
+  }
+
+  private boolean removeFromViews(PaymentData paymentData) {
+
+    if (!payments.remove(paymentData)) {
+      return false;
+    }
+
+    for (Map.Entry<PaymentSortKey, List<PaymentData>> entry : sortedPayments.entrySet()) {
+      List<PaymentData> sorted = entry.getValue();
+      int index = indexOf(sorted, paymentData, entry.getKey());
+      if (index >= 0) {
+        sorted.remove(index);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @return The position of the instance in the sorted view, or -1 if not present
+   */
+  private static int indexOf(List<PaymentData> sorted, PaymentData paymentData, PaymentSortKey sortKey) {
+
+    int index = Collections.binarySearch(sorted, paymentData, sortKey);
+    if (index >= 0) {
+
+      // Scan the run of entries that compare equal for this instance
+      for (int i = index; i >= 0 && sortKey.compare(sorted.get(i), paymentData) == 0; i--) {
+        if (sorted.get(i) == paymentData) {
+          return i;
+        }
+      }
+      for (int i = index + 1; i < sorted.size() && sortKey.compare(sorted.get(i), paymentData) == 0; i++) {
+        if (sorted.get(i) == paymentData) {
+          return i;
+        }
+      }
+    }
+
+    // The sort fields have been changed in place so fall back to a linear scan
+    for (int i = 0; i < sorted.size(); i++) {
+      if (sorted.get(i) == paymentData) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private void resortAll() {
+
+    // Only re-sort the views that are actually in use
+    for (Map.Entry<PaymentSortKey, List<PaymentData>> entry : sortedPayments.entrySet()) {
+      List<PaymentData> sorted = Lists.newArrayList(payments);
+      Collections.sort(sorted, entry.getKey());
+      entry.setValue(sorted);
+    }
+  }
+
+  private void invalidateFilter() {
+
+    lastSortKey = null;
+    lastQuery = null;
+    lastFilteredPayments = null;
+  }
+
+}
@@ -17,11 +17,13 @@ import org.multibit.hd.core.events.ShutdownEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.security.*;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -42,6 +44,25 @@ public class PaymentProtocolService extends AbstractService {
    */
   private static final int PAYMENT_REQUEST_TIMEOUT_SECONDS = 30;
 
+  /**
+   * The time to wait for a payment request URL before racing the next fallback
+   */
+  private static final int PAYMENT_REQUEST_STAGGER_MILLIS = 2_000;
+
+  /**
+   * Shared across instances since consumers often create a service per payment request
+   */
+  private static final PaymentRequestFetcher paymentRequestFetcher = new PaymentRequestFetcher(
+    TimeUnit.SECONDS.toMillis(PAYMENT_REQUEST_TIMEOUT_SECONDS),
+    PAYMENT_REQUEST_STAGGER_MILLIS,
+    Optional.<SSLSocketFactory>absent()
+  );
+
+  /**
+   * Shared across instances so trust stores and certificate chain verdicts are reused
+   */
+  private static final PkiVerificationCache pkiVerificationCache = new PkiVerificationCache();
+
   /**
    * The Bitcoin network parameters
    */
@@ -100,14 +121,12 @@ public class PaymentProtocolService extends AbstractService {
 
       // Determine how to obtain the payment request based on the scheme
 
-      PaymentSession paymentSession = null;
-
       if (scheme.startsWith("bitcoin")) {
-        // Remote resource serving payment requests indirectly via BIP72 is supported in Bitcoinj
+        // Remote resource serving payment requests indirectly via BIP72
         final BitcoinURI bitcoinUri = new BitcoinURI(networkParameters, paymentRequestUri.toString());
         if (bitcoinUri.getPaymentRequestUrls().isEmpty()) {
           // BIP 21 Bitcoin URI
-          paymentSession = PaymentSession
+          PaymentSession paymentSession = PaymentSession
             .createFromBitcoinUri(bitcoinUri, false, null)
             .get();
           return new PaymentSessionSummary(
@@ -117,60 +136,44 @@ public class PaymentProtocolService extends AbstractService {
             Optional.of(CoreMessageKey.PAYMENT_SESSION_PKI_INVALID),
             Optional.<Object[]>fromNullable(new String[]{paymentSession.getMemo()})
           );
-        } else if (bitcoinUri.getPaymentRequestUrls().size() == 1) {
-          // Single attempt only
-          paymentSession = PaymentSession
-            .createFromBitcoinUri(bitcoinUri, checkPKI, trustStoreLoader)
-            .get(PAYMENT_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } else {
-          // Multiple fallback URLs
-          for (String r : bitcoinUri.getPaymentRequestUrls()) {
-            try {
-              paymentSession = PaymentSession
-                .createFromUrl(r, checkPKI, trustStoreLoader)
-                .get(PAYMENT_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-              break;
-            } catch (Exception e) {
-              // In multiple mode any exception is considered a reason to move on to the next
-              log.warn("Payment request from '{}' produced an exception: {}", r, e.getMessage());
-            }
-          }
+          // Race the fallback URLs (if any) within a single time budget
+          paymentRequest = paymentRequestFetcher.fetch(bitcoinUri.getPaymentRequestUrls());
         }
 
       } else if (scheme.startsWith("http")) {
-        // Remote resource serving payment requests directly over HTTP/S is supported in Bitcoinj
-        paymentSession = PaymentSession
-          .createFromUrl(paymentRequestUri.toString(), checkPKI, trustStoreLoader)
-          .get(PAYMENT_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // Remote resource serving payment requests directly over HTTP/S
+        paymentRequest = paymentRequestFetcher.fetch(Collections.singletonList(paymentRequestUri.toString()));
 
       } else if (scheme.startsWith("file")) {
         // File based resource
         byte[] paymentRequestBytes = Resources.toByteArray(paymentRequestUri.toURL());
         paymentRequest = Protos.PaymentRequest.parseFrom(paymentRequestBytes);
-        paymentSession = new PaymentSession(paymentRequest, checkPKI, trustStoreLoader);
 
       } else {
         // Assume classpath resource
         InputStream inputStream = PaymentProtocolService.class.getResourceAsStream(paymentRequestUri.toString());
         paymentRequest = Protos.PaymentRequest.parseFrom(inputStream);
-        paymentSession = new PaymentSession(paymentRequest, checkPKI, trustStoreLoader);
 
       }
 
-      // Determine confidence in the payment request
-      if (!checkPKI && paymentSession != null) {
-        final TrustStoreLoader loader = trustStoreLoader != null ? trustStoreLoader : new TrustStoreLoader.DefaultTrustStoreLoader();
-        try {
-          PaymentProtocol.verifyPaymentRequestPki(
-            paymentSession.getPaymentRequest(),
-            loader.getKeyStore()
-          );
+      // Parse the payment details leaving PKI to the cache
+      PaymentSession paymentSession = new PaymentSession(paymentRequest, false, trustStoreLoader);
 
-        } catch (PaymentProtocolException e) {
-          return PaymentSessionSummary.newPaymentSessionAlmostOK(paymentSession, e);
-        } catch (KeyStoreException e) {
-          return PaymentSessionSummary.newPaymentSessionAlmostOK(paymentSession, e);
+      // Determine confidence in the payment request
+      PaymentProtocol.PkiVerificationData pkiVerificationData;
+      try {
+        pkiVerificationData = pkiVerificationCache.verify(paymentRequest, trustStoreLoader);
+      } catch (PaymentProtocolException e) {
+        if (checkPKI) {
+          throw e;
+        }
+        return PaymentSessionSummary.newPaymentSessionAlmostOK(paymentSession, e);
+      } catch (KeyStoreException e) {
+        if (checkPKI) {
+          throw new PaymentProtocolException(e);
         }
+        return PaymentSessionSummary.newPaymentSessionAlmostOK(paymentSession, e);
       }
 
       // Handy code to copy a payment request to local file system
@@ -178,7 +181,7 @@ public class PaymentProtocolService extends AbstractService {
 //      paymentSession.getPaymentRequest().writeTo(os);
 
       // Must be OK to be here
-      return PaymentSessionSummary.newPaymentSessionOK(paymentSession);
+      return PaymentSessionSummary.newPaymentSessionOK(paymentSession, pkiVerificationData);
 
     } catch (PaymentProtocolException e) {
       // We can be more specific about handling the error
@@ -201,6 +204,20 @@ public class PaymentProtocolService extends AbstractService {
 
   }
 
+  /**
+   * @return The shared payment request fetcher (for timing metrics)
+   */
+  public static PaymentRequestFetcher getPaymentRequestFetcher() {
+    return paymentRequestFetcher;
+  }
+
+  /**
+   * @return The shared PKI verification cache (for timing metrics and invalidation after a trust store update)
+   */
+  public static PkiVerificationCache getPkiVerificationCache() {
+    return pkiVerificationCache;
+  }
+
   /**
    *
    * @return A new signed BIP70 PaymentRequest or absent
@@ -0,0 +1,282 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.protocols.payments.PaymentProtocol;
+import org.bitcoinj.protocols.payments.PaymentProtocolException;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Fetcher to provide the following to the payment protocol service:</p>
+ * <ul>
+ * <li>Retrieval of BIP70 payment requests from a list of fallback URLs (BIP72)</li>
+ * <li>Racing of fallback URLs so a slow merchant endpoint does not hold up the others</li>
+ * <li>A single time budget covering all attempts</li>
+ * <li>Timing metrics for payment request retrieval</li>
+ * </ul>
+ * <p>The preferred URL is tried first and each fallback joins the race when the previous attempt fails
+ * or has not answered within the stagger period. The first well-formed payment request wins and
+ * the remaining attempts are cancelled.</p>
+ *
+ * @since 0.3.6
+ */
+public class PaymentRequestFetcher {
+
+  private static final Logger log = LoggerFactory.getLogger(PaymentRequestFetcher.class);
+
+  /**
+   * BIP70 recommends that payment requests are no larger than 50,000 bytes
+   */
+  static final int MAX_PAYMENT_REQUEST_BYTES = 50_000;
+
+  /**
+   * The most fallback URLs that can be in flight at once
+   */
+  private static final int MAX_CONCURRENT_ATTEMPTS = 4;
+
+  private static final ListeningExecutorService executorService = SafeExecutors.newFixedThreadPool(MAX_CONCURRENT_ATTEMPTS, "bip70-fetch");
+
+  private final long budgetMillis;
+
+  private final long staggerMillis;
+
+  private final Optional<SSLSocketFactory> sslSocketFactory;
+
+  private final AtomicLong fetchCount = new AtomicLong();
+  private final AtomicLong failedFetchCount = new AtomicLong();
+  private final AtomicLong attemptCount = new AtomicLong();
+  private final AtomicLong failedAttemptCount = new AtomicLong();
+  private final AtomicLong totalFetchMillis = new AtomicLong();
+  private final AtomicLong lastFetchMillis = new AtomicLong();
+
+  /**
+   * @param budgetMillis     The time allowed for all attempts to complete
+   * @param staggerMillis    The time to wait for an attempt before starting the next fallback
+   * @param sslSocketFactory The SSL socket factory for HTTPS (absent for the JVM default)
+   */
+  public PaymentRequestFetcher(long budgetMillis, long staggerMillis, Optional<SSLSocketFactory> sslSocketFactory) {
+
+    Preconditions.checkArgument(budgetMillis > 0, "'budgetMillis' must be positive");
+    Preconditions.checkArgument(staggerMillis >= 0, "'staggerMillis' must not be negative");
+    Preconditions.checkNotNull(sslSocketFactory, "'sslSocketFactory' must be present");
+
+    this.budgetMillis = budgetMillis;
+    this.staggerMillis = staggerMillis;
+    this.sslSocketFactory = sslSocketFactory;
+
+  }
+
+  /**
+   * <p>Fetch a payment request from the first of the URLs to respond with one</p>
+   *
+   * @param paymentRequestUrls The payment request URLs in order of preference
+   *
+   * @return The payment request
+   *
+   * @throws PaymentProtocolException If a URL is not valid
+   * @throws ExecutionException       If every attempt failed (the cause is the failure of the last attempt)
+   * @throws TimeoutException         If no attempt succeeded within the budget
+   * @throws InterruptedException     If the caller was interrupted
+   */
+  public Protos.PaymentRequest fetch(List<String> paymentRequestUrls) throws PaymentProtocolException, ExecutionException, TimeoutException, InterruptedException {
+
+    Preconditions.checkNotNull(paymentRequestUrls, "'paymentRequestUrls' must be present");
+    Preconditions.checkArgument(!paymentRequestUrls.isEmpty(), "'paymentRequestUrls' must not be empty");
+
+    // Fail fast on malformed URLs
+    List<URL> urls = Lists.newArrayList();
+    for (String paymentRequestUrl : paymentRequestUrls) {
+      try {
+        urls.add(new URL(paymentRequestUrl));
+      } catch (MalformedURLException e) {
+        throw new PaymentProtocolException.InvalidPaymentRequestURL(e);
+      }
+    }
+
+    fetchCount.incrementAndGet();
+
+    long start = System.currentTimeMillis();
+    long deadline = start + budgetMillis;
+
+    CompletionService<Protos.PaymentRequest> completionService = new ExecutorCompletionService<>(executorService);
+    List<Future<Protos.PaymentRequest>> attempts = Lists.newArrayList();
+
+    ExecutionException lastFailure = null;
+    int pending = 0;
+    int next = 0;
+    long nextStart = start;
+
+    try {
+      while (true) {
+
+        long now = System.currentTimeMillis();
+
+        // Start the next fallback if it is due
+        if (next < urls.size() && (pending == 0 || now >= nextStart)) {
+          attempts.add(completionService.submit(newAttempt(urls.get(next), deadline)));
+          attemptCount.incrementAndGet();
+          pending++;
+          next++;
+          nextStart = now + staggerMillis;
+        }
+
+        if (pending == 0) {
+          // Every attempt failed
+          failedFetchCount.incrementAndGet();
+          throw lastFailure;
+        }
+
+        long remaining = deadline - now;
+        if (remaining <= 0) {
+          failedFetchCount.incrementAndGet();
+          throw new TimeoutException("No payment request within " + budgetMillis + " ms from " + urls);
+        }
+
+        long wait = next < urls.size() ? Math.min(remaining, Math.max(0, nextStart - now)) : remaining;
+        Future<Protos.PaymentRequest> completed = completionService.poll(wait, TimeUnit.MILLISECONDS);
+        if (completed == null) {
+          continue;
+        }
+
+        pending--;
+        try {
+          Protos.PaymentRequest paymentRequest = completed.get();
+          recordFetchMillis(System.currentTimeMillis() - start);
+          return paymentRequest;
+        } catch (ExecutionException e) {
+          failedAttemptCount.incrementAndGet();
+          log.warn("Payment request attempt failed: {}", e.getCause().getMessage());
+          lastFailure = e;
+          // Bring the next fallback forward
+          nextStart = System.currentTimeMillis();
+        }
+      }
+    } finally {
+      for (Future<Protos.PaymentRequest> attempt : attempts) {
+        attempt.cancel(true);
+      }
+    }
+
+  }
+
+  /**
+   * @return The number of payment requests fetched (or attempted)
+   */
+  public long getFetchCount() {
+    return fetchCount.get();
+  }
+
+  /**
+   * @return The number of fetches that did not produce a payment request
+   */
+  public long getFailedFetchCount() {
+    return failedFetchCount.get();
+  }
+
+  /**
+   * @return The number of individual URLs attempted
+   */
+  public long getAttemptCount() {
+    return attemptCount.get();
+  }
+
+  /**
+   * @return The number of individual URLs that failed
+   */
+  public long getFailedAttemptCount() {
+    return failedAttemptCount.get();
+  }
+
+  /**
+   * @return The time taken by the most recent successful fetch in milliseconds
+   */
+  public long getLastFetchMillis() {
+    return lastFetchMillis.get();
+  }
+
+  /**
+   * @return The mean time taken by successful fetches in milliseconds
+   */
+  public long getMeanFetchMillis() {
+
+    long successful = fetchCount.get() - failedFetchCount.get();
+    return successful <= 0 ? 0 : totalFetchMillis.get() / successful;
+
+  }
+
+  private void recordFetchMillis(long fetchMillis) {
+
+    log.debug("Payment request fetched in {} ms", fetchMillis);
+
+    lastFetchMillis.set(fetchMillis);
+    totalFetchMillis.addAndGet(fetchMillis);
+
+  }
+
+  /**
+   * @param url      The payment request URL
+   * @param deadline The time by which the attempt must complete
+   *
+   * @return A callable fetching and parsing the payment request
+   */
+  private Callable<Protos.PaymentRequest> newAttempt(final URL url, final long deadline) {
+
+    return new Callable<Protos.PaymentRequest>() {
+      @Override
+      public Protos.PaymentRequest call() throws Exception {
+
+        int timeout = (int) Math.max(1, deadline - System.currentTimeMillis());
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection instanceof HttpsURLConnection && sslSocketFactory.isPresent()) {
+          ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory.get());
+        }
+        connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+
+        try {
+          if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response " + connection.getResponseCode() + " from '" + url + "'");
+          }
+
+          try (InputStream is = connection.getInputStream()) {
+            byte[] paymentRequestBytes = ByteStreams.toByteArray(ByteStreams.limit(is, MAX_PAYMENT_REQUEST_BYTES + 1));
+            if (paymentRequestBytes.length > MAX_PAYMENT_REQUEST_BYTES) {
+              throw new IOException("Payment request from '" + url + "' exceeds " + MAX_PAYMENT_REQUEST_BYTES + " bytes");
+            }
+            return Protos.PaymentRequest.parseFrom(paymentRequestBytes);
+          }
+        } finally {
+          connection.disconnect();
+        }
+      }
+    };
+
+  }
+
+}
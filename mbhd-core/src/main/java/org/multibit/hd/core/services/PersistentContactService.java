@@ -331,7 +331,14 @@ public class PersistentContactService extends AbstractService implements Contact
       ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
 
       protobufSerializer.writeContacts(contacts, byteArrayOutputStream);
-      EncryptedFileReaderWriter.encryptAndWrite(byteArrayOutputStream.toByteArray(), WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(), backingStoreFile);
+      byte[] contactsBytes = byteArrayOutputStream.toByteArray();
+      EncryptedFileReaderWriter.encryptAndWrite(contactsBytes, WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(), backingStoreFile);
+
+      // A save finishing after shutdown must not bring the backup service back
+      Optional<BackupService> backupService = CoreServices.getCurrentBackupService();
+      if (backupService.isPresent()) {
+        backupService.get().markChanged(BackupService.ChangeSource.CONTACTS, BackupService.digest(contactsBytes));
+      }
 
     } catch (Exception e) {
       throw new ContactsSaveException("Could not save contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
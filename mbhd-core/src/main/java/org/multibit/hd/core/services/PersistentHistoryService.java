@@ -1,5 +1,6 @@
 package org.multibit.hd.core.services;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -232,12 +233,19 @@ public class PersistentHistoryService extends AbstractService implements History
     try {
       ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
       protobufSerializer.writeHistoryEntries(history, byteArrayOutputStream);
+      byte[] historyBytes = byteArrayOutputStream.toByteArray();
       EncryptedFileReaderWriter.encryptAndWrite(
-        byteArrayOutputStream.toByteArray(),
+        historyBytes,
         WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(),
         backingStoreFile
       );
 
+      // A save finishing after shutdown must not bring the backup service back
+      Optional<BackupService> backupService = CoreServices.getCurrentBackupService();
+      if (backupService.isPresent()) {
+        backupService.get().markChanged(BackupService.ChangeSource.HISTORY, BackupService.digest(historyBytes));
+      }
+
     } catch (Exception e) {
       throw new HistorySaveException("Could not save history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
     }
@@ -0,0 +1,325 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.TrustStoreLoader;
+import org.bitcoinj.protocols.payments.PaymentProtocol;
+import org.bitcoinj.protocols.payments.PaymentProtocolException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Cache to provide the following to the payment protocol service:</p>
+ * <ul>
+ * <li>Trust stores loaded once per trust store loader rather than once per payment request</li>
+ * <li>Successful certificate chain verdicts keyed by chain fingerprint and trust store</li>
+ * <li>Timing metrics for PKI verification</li>
+ * </ul>
+ * <p>A cached verdict only covers the certificate chain. The signature over each payment request
+ * is always checked against the merchant signing key so a known chain cannot vouch for a forged request.
+ * Verdicts expire at the earliest of their time to live and the end of validity of any certificate in the chain.</p>
+ *
+ * @since 0.3.6
+ */
+public class PkiVerificationCache {
+
+  private static final Logger log = LoggerFactory.getLogger(PkiVerificationCache.class);
+
+  /**
+   * Trust stores are reloaded periodically to pick up newly installed certificates
+   */
+  private static final long TRUST_STORE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  /**
+   * Certificate chain verdicts are revisited periodically even if the chain remains valid
+   */
+  private static final long VERDICT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * Keeps the cache bounded in the presence of many merchants
+   */
+  private static final int MAX_VERDICTS = 256;
+
+  /**
+   * The trust store loader to use when none is provided (shared so its trust store is cached)
+   */
+  private final TrustStoreLoader defaultTrustStoreLoader = new TrustStoreLoader.DefaultTrustStoreLoader();
+
+  private final Cache<TrustStoreLoader, KeyStore> trustStores;
+
+  private final ConcurrentMap<String, Verdict> verdicts = Maps.newConcurrentMap();
+
+  private final long verdictTtlMillis;
+
+  private final AtomicLong trustStoreLoads = new AtomicLong();
+  private final AtomicLong verdictHits = new AtomicLong();
+  private final AtomicLong verdictMisses = new AtomicLong();
+  private final AtomicLong verificationNanos = new AtomicLong();
+
+  public PkiVerificationCache() {
+    this(TRUST_STORE_TTL_MILLIS, VERDICT_TTL_MILLIS);
+  }
+
+  /**
+   * @param trustStoreTtlMillis The time before a trust store is reloaded
+   * @param verdictTtlMillis    The longest time a certificate chain verdict is trusted
+   */
+  PkiVerificationCache(long trustStoreTtlMillis, long verdictTtlMillis) {
+
+    Preconditions.checkArgument(trustStoreTtlMillis > 0, "'trustStoreTtlMillis' must be positive");
+    Preconditions.checkArgument(verdictTtlMillis > 0, "'verdictTtlMillis' must be positive");
+
+    this.trustStores = CacheBuilder
+      .newBuilder()
+      .weakKeys()
+      .expireAfterWrite(trustStoreTtlMillis, TimeUnit.MILLISECONDS)
+      .build();
+    this.verdictTtlMillis = verdictTtlMillis;
+
+  }
+
+  /**
+   * <p>Verify the PKI details of a payment request, reusing an earlier verdict on the same certificate chain if possible</p>
+   *
+   * @param paymentRequest   The payment request
+   * @param trustStoreLoader The trust store loader (absent for the default trust store)
+   *
+   * @return The PKI verification data, or null if the payment request has no PKI (as for Bitcoinj)
+   *
+   * @throws PaymentProtocolException If the certificate chain or signature is not valid
+   * @throws KeyStoreException        If the trust store cannot be loaded
+   */
+  @Nullable
+  public PaymentProtocol.PkiVerificationData verify(Protos.PaymentRequest paymentRequest, @Nullable TrustStoreLoader trustStoreLoader) throws PaymentProtocolException, KeyStoreException {
+
+    Preconditions.checkNotNull(paymentRequest, "'paymentRequest' must be present");
+
+    if ("none".equals(paymentRequest.getPkiType())) {
+      return null;
+    }
+
+    long start = System.nanoTime();
+    try {
+
+      KeyStore trustStore = getTrustStore(trustStoreLoader == null ? defaultTrustStoreLoader : trustStoreLoader);
+      String fingerprint = fingerprint(paymentRequest);
+
+      Verdict verdict = verdicts.get(fingerprint);
+      if (verdict != null && verdict.trustStore == trustStore && System.currentTimeMillis() < verdict.expiresAt) {
+        verdictHits.incrementAndGet();
+        verifySignature(paymentRequest, verdict.pkiVerificationData);
+        return verdict.pkiVerificationData;
+      }
+
+      verdictMisses.incrementAndGet();
+
+      // Full verification of chain and signature
+      PaymentProtocol.PkiVerificationData pkiVerificationData = PaymentProtocol.verifyPaymentRequestPki(paymentRequest, trustStore);
+      if (pkiVerificationData != null) {
+        if (verdicts.size() >= MAX_VERDICTS) {
+          evictExpired();
+        }
+        if (verdicts.size() < MAX_VERDICTS) {
+          verdicts.put(fingerprint, new Verdict(pkiVerificationData, trustStore, expiresAt(paymentRequest)));
+        }
+      }
+
+      return pkiVerificationData;
+
+    } finally {
+      verificationNanos.addAndGet(System.nanoTime() - start);
+    }
+
+  }
+
+  /**
+   * <p>Discard all trust stores and verdicts (e.g. after the trust store has been updated)</p>
+   */
+  public void invalidateAll() {
+
+    trustStores.invalidateAll();
+    verdicts.clear();
+
+  }
+
+  /**
+   * @return The number of times a trust store has been loaded
+   */
+  public long getTrustStoreLoads() {
+    return trustStoreLoads.get();
+  }
+
+  /**
+   * @return The number of verifications satisfied by a cached certificate chain verdict
+   */
+  public long getVerdictHits() {
+    return verdictHits.get();
+  }
+
+  /**
+   * @return The number of verifications that required a full certificate chain verification
+   */
+  public long getVerdictMisses() {
+    return verdictMisses.get();
+  }
+
+  /**
+   * @return The total time spent verifying payment requests in milliseconds
+   */
+  public long getVerificationMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(verificationNanos.get());
+  }
+
+  /**
+   * @param trustStoreLoader The trust store loader
+   *
+   * @return The cached trust store, loading it if required
+   *
+   * @throws KeyStoreException If the trust store cannot be loaded
+   */
+  private KeyStore getTrustStore(final TrustStoreLoader trustStoreLoader) throws KeyStoreException {
+
+    try {
+      return trustStores.get(trustStoreLoader, new Callable<KeyStore>() {
+        @Override
+        public KeyStore call() throws Exception {
+          trustStoreLoads.incrementAndGet();
+          log.debug("Loading trust store");
+          return trustStoreLoader.getKeyStore();
+        }
+      });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof KeyStoreException) {
+        throw (KeyStoreException) e.getCause();
+      }
+      throw new KeyStoreException(e.getCause());
+    }
+
+  }
+
+  /**
+   * @param paymentRequest      The payment request
+   * @param pkiVerificationData The verification data from an earlier verification of the same certificate chain
+   *
+   * @throws PaymentProtocolException If the signature does not match the merchant signing key
+   */
+  private void verifySignature(Protos.PaymentRequest paymentRequest, PaymentProtocol.PkiVerificationData pkiVerificationData) throws PaymentProtocolException {
+
+    final String algorithm;
+    if ("x509+sha256".equals(paymentRequest.getPkiType())) {
+      algorithm = "SHA256withRSA";
+    } else if ("x509+sha1".equals(paymentRequest.getPkiType())) {
+      algorithm = "SHA1withRSA";
+    } else {
+      throw new PaymentProtocolException.InvalidPkiType("Unsupported PKI type: " + paymentRequest.getPkiType());
+    }
+
+    try {
+      Signature signature = Signature.getInstance(algorithm);
+      signature.initVerify(pkiVerificationData.merchantSigningKey);
+
+      // The signature covers the request with an empty signature field
+      signature.update(paymentRequest.toBuilder().setSignature(ByteString.EMPTY).build().toByteArray());
+
+      if (!signature.verify(paymentRequest.getSignature().toByteArray())) {
+        throw new PaymentProtocolException.PkiVerificationException("Invalid signature, but secure transport has been established");
+      }
+    } catch (GeneralSecurityException e) {
+      throw new PaymentProtocolException.PkiVerificationException(e);
+    }
+
+  }
+
+  /**
+   * @param paymentRequest The payment request
+   *
+   * @return The fingerprint of the PKI type and certificate chain
+   */
+  private static String fingerprint(Protos.PaymentRequest paymentRequest) {
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(paymentRequest.getPkiTypeBytes().toByteArray());
+      digest.update(paymentRequest.getPkiData().toByteArray());
+      return Utils.HEX.encode(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+  }
+
+  /**
+   * @param paymentRequest The verified payment request
+   *
+   * @return The time at which a verdict on its certificate chain must be revisited
+   */
+  private long expiresAt(Protos.PaymentRequest paymentRequest) {
+
+    long expiresAt = System.currentTimeMillis() + verdictTtlMillis;
+
+    try {
+      CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+      Protos.X509Certificates certificates = Protos.X509Certificates.parseFrom(paymentRequest.getPkiData());
+      for (ByteString certificate : certificates.getCertificateList()) {
+        X509Certificate x509Certificate = (X509Certificate) certificateFactory.generateCertificate(certificate.newInput());
+        expiresAt = Math.min(expiresAt, x509Certificate.getNotAfter().getTime());
+      }
+    } catch (InvalidProtocolBufferException | GeneralSecurityException e) {
+      // Already verified so this is unexpected - do not trust the verdict again
+      log.warn("Could not read certificate chain expiry: {}", e.getMessage());
+      return 0;
+    }
+
+    return expiresAt;
+
+  }
+
+  private void evictExpired() {
+
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, Verdict> entry : verdicts.entrySet()) {
+      if (entry.getValue().expiresAt <= now) {
+        verdicts.remove(entry.getKey(), entry.getValue());
+      }
+    }
+
+  }
+
+  /**
+   * <p>A successful certificate chain verification against a particular trust store</p>
+   */
+  private static class Verdict {
+
+    private final PaymentProtocol.PkiVerificationData pkiVerificationData;
+    private final KeyStore trustStore;
+    private final long expiresAt;
+
+    private Verdict(PaymentProtocol.PkiVerificationData pkiVerificationData, KeyStore trustStore, long expiresAt) {
+      this.pkiVerificationData = pkiVerificationData;
+      this.trustStore = trustStore;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import org.multibit.hd.core.dto.SecuritySummary;
+
+/**
+ * <p>Interface to provide the following to the security monitor:</p>
+ * <ul>
+ * <li>A single check of the environment for a security issue</li>
+ * <li>The cadence at which the check should run</li>
+ * </ul>
+ *
+ * @since 0.3.6
+ */
+public interface SecurityCheck {
+
+  /**
+   * @return The name of the check (unique within a monitor)
+   */
+  String getName();
+
+  /**
+   * @return The interval between checks after the result changes
+   */
+  long getIntervalMillis();
+
+  /**
+   * @return The longest interval between checks once the result has stopped changing
+   */
+  long getMaxIntervalMillis();
+
+  /**
+   * <p>Check the environment (called on the monitor thread so should not block for long)</p>
+   *
+   * @return The security alert if the issue is present, absent if the environment is clear
+   */
+  Optional<SecuritySummary> check();
+
+}
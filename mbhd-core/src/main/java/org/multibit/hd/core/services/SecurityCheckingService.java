@@ -1,6 +1,6 @@
 package org.multibit.hd.core.services;
 
-import org.joda.time.DateTime;
+import com.google.common.base.Optional;
 import org.multibit.hd.core.dto.SecuritySummary;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
@@ -9,6 +9,12 @@ import org.multibit.hd.core.utils.OSUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,6 +22,8 @@ import java.util.concurrent.TimeUnit;
  * <ul>
  * <li>Periodic environment checking for security issues</li>
  * </ul>
+ * <p>Checks are run by a {@link SecurityMonitor} which backs off while nothing changes. A change to the
+ * registered management beans (e.g. a management agent being started) runs every check at once.</p>
  *
  * @since 0.0.1
  */
@@ -26,9 +34,41 @@ public class SecurityCheckingService extends AbstractService {
   public static final int ENVIRONMENT_REFRESH_SECONDS = 2;
 
   /**
-   * Initialise to allow single security alert for debugger attachment
+   * Prevent lots of repeat alerts while an issue persists
    */
-  private DateTime nextDebuggerAlert = Dates.nowUtc().minusSeconds(1);
+  private static final long ALERT_REPEAT_MINUTES = 5;
+
+  private final SecurityMonitor securityMonitor = new SecurityMonitor(
+    TimeUnit.MINUTES.toMillis(ALERT_REPEAT_MINUTES),
+    new SecurityMonitor.AlertListener() {
+      @Override
+      public void onAlert(SecuritySummary securitySummary) {
+        // Issue the alert
+        CoreEvents.fireSecurityEvent(securitySummary);
+      }
+    });
+
+  /**
+   * Runs the checks again when management beans are registered or unregistered
+   */
+  private final NotificationListener managementListener = new NotificationListener() {
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+      log.debug("Management notification '{}' - checking environment", notification.getType());
+      securityMonitor.trigger();
+      scheduleChecks(0);
+    }
+  };
+
+  private ScheduledFuture<?> nextChecks;
+
+  private boolean listeningForManagementChanges = false;
+
+  public SecurityCheckingService() {
+
+    securityMonitor.register(new DebuggerSecurityCheck());
+
+  }
 
   @Override
   public boolean startInternal() {
@@ -38,45 +78,126 @@ public class SecurityCheckingService extends AbstractService {
     // Use the provided executor service management
     requireSingleThreadScheduledExecutor("security");
 
-    // Use the provided executor service management
-    getScheduledExecutorService().scheduleAtFixedRate(
-      new Runnable() {
+    listenForManagementChanges();
 
-        public void run() {
+    scheduleChecks(0);
 
-          // Check frequently for a Java debugger being attached
-          // to get immediate detection
-          if (OSUtils.isDebuggerAttached()) {
-            handleDebuggerAttached();
-          }
+    return true;
 
-        }
+  }
 
-        private void handleDebuggerAttached() {
+  @Override
+  protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
 
-          if (Dates.nowUtc().isAfter(nextDebuggerAlert)) {
+    // Service can survive a switch
+    boolean cleanup = preventCleanupOnSwitch(shutdownType);
 
-            // Prevent lots of repeat alerts
-            nextDebuggerAlert = Dates.nowUtc().plusMinutes(5);
+    if (cleanup) {
+      stopListeningForManagementChanges();
+    }
 
-            // Issue the alert
-            CoreEvents.fireSecurityEvent(SecuritySummary.newDebuggerAttached());
+    return cleanup;
+  }
 
+  /**
+   * @return The security monitor to allow further checks to be registered and the latest results read
+   */
+  public SecurityMonitor getSecurityMonitor() {
+    return securityMonitor;
+  }
+
+  /**
+   * @param delayMillis The delay before running the due checks (replaces any check already scheduled)
+   */
+  private synchronized void scheduleChecks(long delayMillis) {
+
+    if (getScheduledExecutorService().isShutdown()) {
+      // A notification arrived during shutdown
+      return;
+    }
+
+    if (nextChecks != null) {
+      nextChecks.cancel(false);
+    }
+
+    nextChecks = getScheduledExecutorService().schedule(
+      new Runnable() {
+        @Override
+        public void run() {
+
+          long nextDueMillis = securityMonitor.runDueChecks();
+          if (nextDueMillis != Long.MAX_VALUE) {
+            scheduleChecks(Math.max(0, nextDueMillis - Dates.nowUtc().getMillis()));
           }
 
         }
+      }, delayMillis, TimeUnit.MILLISECONDS);
 
+  }
 
-      }, 0, ENVIRONMENT_REFRESH_SECONDS, TimeUnit.SECONDS);
+  private synchronized void listenForManagementChanges() {
 
-    return true;
+    if (listeningForManagementChanges) {
+      return;
+    }
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      mBeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, managementListener, null, null);
+      listeningForManagementChanges = true;
+    } catch (Exception e) {
+      // Fall back to the check intervals alone
+      log.warn("Management notifications are not available: {}", e.getMessage());
+    }
 
   }
 
-  @Override
-  protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
-    // Service can survive a switch
-    return preventCleanupOnSwitch(shutdownType);
+  private synchronized void stopListeningForManagementChanges() {
+
+    if (!listeningForManagementChanges) {
+      return;
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, managementListener);
+    } catch (Exception e) {
+      log.debug("Could not remove management listener: {}", e.getMessage());
+    }
+    listeningForManagementChanges = false;
+
+  }
+
+  /**
+   * <p>Check for a Java debugger being attached</p>
+   * <p>The JVM arguments do not change once running so the check backs off to the alert repeat interval,
+   * which keeps the previous rate of repeated alerts.</p>
+   */
+  private static class DebuggerSecurityCheck implements SecurityCheck {
+
+    @Override
+    public String getName() {
+      return "debugger";
+    }
+
+    @Override
+    public long getIntervalMillis() {
+      return TimeUnit.SECONDS.toMillis(ENVIRONMENT_REFRESH_SECONDS);
+    }
+
+    @Override
+    public long getMaxIntervalMillis() {
+      return TimeUnit.MINUTES.toMillis(ALERT_REPEAT_MINUTES);
+    }
+
+    @Override
+    public Optional<SecuritySummary> check() {
+
+      if (OSUtils.isDebuggerAttached()) {
+        return Optional.of(SecuritySummary.newDebuggerAttached());
+      }
+
+      return Optional.absent();
+    }
   }
 
-}
\ No newline at end of file
+}
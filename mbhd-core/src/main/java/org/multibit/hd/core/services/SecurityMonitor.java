@@ -0,0 +1,231 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.dto.SecuritySummary;
+import org.multibit.hd.core.utils.Dates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Monitor to provide the following to SecurityCheckingService:</p>
+ * <ul>
+ * <li>Security checks run at their own cadence, backing off while their result does not change</li>
+ * <li>Immediate checks when something in the environment changes (e.g. a management notification)</li>
+ * <li>The latest result of each check for any thread to read</li>
+ * <li>Alerts when an issue appears, repeated at a limited rate while it persists</li>
+ * </ul>
+ * <p>The monitor does not own a thread. The caller runs {@link #runDueChecks()} and sleeps until the returned
+ * time. Time is taken from {@link Dates#nowUtc()} so tests can control it.</p>
+ *
+ * @since 0.3.6
+ */
+public class SecurityMonitor {
+
+  private static final Logger log = LoggerFactory.getLogger(SecurityMonitor.class);
+
+  /**
+   * <p>Receives alerts raised by the checks</p>
+   */
+  public interface AlertListener {
+
+    /**
+     * @param securitySummary The alert
+     */
+    void onAlert(SecuritySummary securitySummary);
+
+  }
+
+  private final long alertRepeatMillis;
+
+  private final AlertListener alertListener;
+
+  private final Map<String, CheckState> checkStates = Maps.newLinkedHashMap();
+
+  /**
+   * The latest result of each check that has run (absent if the environment was clear)
+   */
+  private final ConcurrentMap<String, Optional<SecuritySummary>> latestResults = Maps.newConcurrentMap();
+
+  /**
+   * @param alertRepeatMillis The minimum time between repeated alerts for an issue that persists
+   * @param alertListener     The listener for alerts
+   */
+  public SecurityMonitor(long alertRepeatMillis, AlertListener alertListener) {
+
+    Preconditions.checkArgument(alertRepeatMillis >= 0, "'alertRepeatMillis' must not be negative");
+    Preconditions.checkNotNull(alertListener, "'alertListener' must be present");
+
+    this.alertRepeatMillis = alertRepeatMillis;
+    this.alertListener = alertListener;
+
+  }
+
+  /**
+   * <p>Register a check to run at the next call to {@link #runDueChecks()}</p>
+   *
+   * @param check The check
+   */
+  public synchronized void register(SecurityCheck check) {
+
+    Preconditions.checkNotNull(check, "'check' must be present");
+    Preconditions.checkArgument(!checkStates.containsKey(check.getName()), "'check' name must be unique: %s", check.getName());
+    Preconditions.checkArgument(check.getIntervalMillis() > 0, "'intervalMillis' must be positive");
+    Preconditions.checkArgument(check.getMaxIntervalMillis() >= check.getIntervalMillis(), "'maxIntervalMillis' must not be less than 'intervalMillis'");
+
+    checkStates.put(check.getName(), new CheckState(check, now()));
+
+  }
+
+  /**
+   * <p>Make every check due now with its backoff reset (called when the environment may have changed)</p>
+   */
+  public synchronized void trigger() {
+
+    long now = now();
+    for (CheckState state : checkStates.values()) {
+      state.intervalMillis = state.check.getIntervalMillis();
+      state.nextDueMillis = now;
+    }
+
+  }
+
+  /**
+   * <p>Run every check that is due</p>
+   *
+   * @return The time the next check is due ({@link Long#MAX_VALUE} if no checks are registered)
+   */
+  public synchronized long runDueChecks() {
+
+    long now = now();
+    long nextDueMillis = Long.MAX_VALUE;
+
+    for (CheckState state : checkStates.values()) {
+      if (state.nextDueMillis <= now) {
+        run(state, now);
+      }
+      nextDueMillis = Math.min(nextDueMillis, state.nextDueMillis);
+    }
+
+    return nextDueMillis;
+  }
+
+  /**
+   * @param name The check name
+   *
+   * @return The latest result (absent if the check has not run or the environment was clear)
+   */
+  public Optional<SecuritySummary> getLatestResult(String name) {
+
+    Optional<SecuritySummary> result = latestResults.get(name);
+
+    return result == null ? Optional.<SecuritySummary>absent() : result;
+  }
+
+  /**
+   * @return The latest alerts of all checks where an issue is present
+   */
+  public Map<String, SecuritySummary> getLatestAlerts() {
+
+    ImmutableMap.Builder<String, SecuritySummary> alerts = ImmutableMap.builder();
+    for (Map.Entry<String, Optional<SecuritySummary>> entry : latestResults.entrySet()) {
+      if (entry.getValue().isPresent()) {
+        alerts.put(entry.getKey(), entry.getValue().get());
+      }
+    }
+
+    return alerts.build();
+  }
+
+  /**
+   * @param name The check name
+   *
+   * @return The number of times the check has run
+   */
+  synchronized int getRunCount(String name) {
+    return checkStates.get(name).runCount;
+  }
+
+  /**
+   * @param name The check name
+   *
+   * @return The current interval of the check after any backoff
+   */
+  synchronized long getIntervalMillis(String name) {
+    return checkStates.get(name).intervalMillis;
+  }
+
+  private void run(CheckState state, long now) {
+
+    state.runCount++;
+
+    Optional<SecuritySummary> result;
+    try {
+      result = state.check.check();
+    } catch (RuntimeException e) {
+      // A broken check must not stop the others so try again at the base interval
+      log.warn("Security check '{}' failed: {}", state.check.getName(), e.getMessage());
+      state.intervalMillis = state.check.getIntervalMillis();
+      state.nextDueMillis = now + state.intervalMillis;
+      return;
+    }
+
+    Optional<SecuritySummary.AlertType> alertType = result.isPresent()
+      ? Optional.of(result.get().getAlertType())
+      : Optional.<SecuritySummary.AlertType>absent();
+
+    if (state.runCount > 1 && alertType.equals(state.alertType)) {
+      // Nothing has changed so check less often
+      state.intervalMillis = Math.min(state.intervalMillis * 2, state.check.getMaxIntervalMillis());
+    } else {
+      state.intervalMillis = state.check.getIntervalMillis();
+    }
+    state.nextDueMillis = now + state.intervalMillis;
+
+    boolean newIssue = alertType.isPresent() && !alertType.equals(state.alertType);
+    state.alertType = alertType;
+
+    latestResults.put(state.check.getName(), result);
+
+    if (result.isPresent() && (newIssue || now >= state.lastAlertMillis + alertRepeatMillis)) {
+      state.lastAlertMillis = now;
+      log.debug("Security check '{}' raised {}", state.check.getName(), alertType.get());
+      alertListener.onAlert(result.get());
+    }
+
+  }
+
+  private long now() {
+    return Dates.nowUtc().getMillis();
+  }
+
+  /**
+   * <p>The cadence and latest result of a single check</p>
+   */
+  private static class CheckState {
+
+    private final SecurityCheck check;
+
+    private long intervalMillis;
+
+    private long nextDueMillis;
+
+    private Optional<SecuritySummary.AlertType> alertType = Optional.absent();
+
+    private long lastAlertMillis;
+
+    private int runCount;
+
+    private CheckState(SecurityCheck check, long now) {
+      this.check = check;
+      this.intervalMillis = check.getIntervalMillis();
+      this.nextDueMillis = now;
+    }
+  }
+
+}
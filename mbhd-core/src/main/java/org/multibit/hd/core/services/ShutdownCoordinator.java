@@ -0,0 +1,440 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.events.ShutdownEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Coordinator to provide the following to Core services:</p>
+ * <ul>
+ * <li>Shutdown of services and tasks in stages that declare the stages they depend on</li>
+ * <li>Concurrent shutdown of independent stages so the total time approaches the slowest chain rather than the sum</li>
+ * <li>A deadline per stage after which its dependents proceed regardless</li>
+ * <li>A timing breakdown of each stage</li>
+ * </ul>
+ * <p>A stage starts once every stage it depends on has completed, failed or passed its deadline. Stages can only
+ * depend on stages added before them so the order of addition is always a valid order of execution. A stage that
+ * passes its deadline is left to finish in the background rather than interrupted, since it may be part way through
+ * writing a file.</p>
+ *
+ * @since 0.3.6
+ */
+public class ShutdownCoordinator {
+
+  private static final Logger log = LoggerFactory.getLogger(ShutdownCoordinator.class);
+
+  /**
+   * The outcome of a shutdown stage
+   */
+  public enum Outcome {
+
+    /**
+     * The stage has not finished (or was never started)
+     */
+    PENDING,
+
+    /**
+     * The stage finished within its deadline
+     */
+    COMPLETED,
+
+    /**
+     * The stage threw an exception within its deadline
+     */
+    FAILED,
+
+    /**
+     * The stage did not finish within its deadline and is continuing in the background
+     */
+    TIMED_OUT,
+
+    /**
+     * The stage had no service to shut down
+     */
+    SKIPPED
+
+  }
+
+  private final String name;
+
+  private final Map<String, Stage> stages = Maps.newLinkedHashMap();
+
+  /**
+   * The executor running the stages (present once the shutdown has started)
+   */
+  private volatile Optional<ExecutorService> executorService = Optional.absent();
+
+  /**
+   * @param name The name of the coordinator for logging and thread names (use lowercase hyphenated)
+   */
+  public ShutdownCoordinator(String name) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+
+    this.name = name;
+
+  }
+
+  /**
+   * <p>Add a stage that shuts down a managed service</p>
+   *
+   * @param stageName      The stage name
+   * @param service        The service (an absent service is skipped)
+   * @param deadlineMillis The time allowed for the service to shut down before its dependents proceed
+   * @param dependencies   The names of the stages that must finish first
+   *
+   * @return The coordinator for chaining
+   */
+  public ShutdownCoordinator addService(String stageName, final Optional<? extends ManagedService> service, long deadlineMillis, String... dependencies) {
+
+    Preconditions.checkNotNull(service, "'service' must be present");
+
+    return add(stageName, service.isPresent(), new StageTask() {
+      @Override
+      public void run(ShutdownEvent.ShutdownType shutdownType) {
+        service.get().shutdownNow(shutdownType);
+      }
+    }, deadlineMillis, dependencies);
+  }
+
+  /**
+   * <p>Add a stage that runs a task</p>
+   *
+   * @param stageName      The stage name
+   * @param task           The task
+   * @param deadlineMillis The time allowed for the task before its dependents proceed
+   * @param dependencies   The names of the stages that must finish first
+   *
+   * @return The coordinator for chaining
+   */
+  public ShutdownCoordinator addTask(String stageName, final Runnable task, long deadlineMillis, String... dependencies) {
+
+    Preconditions.checkNotNull(task, "'task' must be present");
+
+    return add(stageName, true, new StageTask() {
+      @Override
+      public void run(ShutdownEvent.ShutdownType shutdownType) {
+        task.run();
+      }
+    }, deadlineMillis, dependencies);
+  }
+
+  /**
+   * <p>Tasks can use this to react to an earlier stage (e.g. repeat a save that did not complete)</p>
+   *
+   * @param stageName The stage name
+   *
+   * @return The outcome of the stage so far
+   */
+  public Outcome getOutcome(String stageName) {
+
+    Stage stage = stages.get(stageName);
+    Preconditions.checkArgument(stage != null, "'stageName' is not known: %s", stageName);
+
+    return stage.outcome;
+  }
+
+  /**
+   * <p>Run all stages, blocking until each has finished or passed its deadline</p>
+   * <p>The coordinator can only be run once.</p>
+   *
+   * @param shutdownType The shutdown type passed to each service
+   *
+   * @return The timing breakdown
+   */
+  public Report shutdownNow(ShutdownEvent.ShutdownType shutdownType) {
+
+    Preconditions.checkNotNull(shutdownType, "'shutdownType' must be present");
+
+    long startNanos = System.nanoTime();
+
+    List<Stage> pending = Lists.newArrayList(stages.values());
+    List<Stage> running = Lists.newArrayList();
+    BlockingQueue<Stage> finished = new LinkedBlockingQueue<>();
+
+    Preconditions.checkState(!this.executorService.isPresent(), "'shutdownNow' can only be called once");
+
+    ExecutorService executorService = SafeExecutors.newFixedThreadPool(Math.max(1, stages.size()), "shutdown-" + name);
+    this.executorService = Optional.of(executorService);
+
+    try {
+      while (!pending.isEmpty() || !running.isEmpty()) {
+
+        // Start every stage whose dependencies have settled
+        for (Stage stage : Lists.newArrayList(pending)) {
+          if (stage.isReady()) {
+            pending.remove(stage);
+            if (stage.present) {
+              start(stage, shutdownType, executorService, finished);
+              running.add(stage);
+            } else {
+              stage.settle(Outcome.SKIPPED, System.nanoTime());
+            }
+          }
+        }
+
+        if (running.isEmpty()) {
+          continue;
+        }
+
+        // Wait for a stage to finish or for the earliest deadline
+        long deadlineNanos = Long.MAX_VALUE;
+        for (Stage stage : running) {
+          deadlineNanos = Math.min(deadlineNanos, stage.deadlineNanos);
+        }
+
+        Stage stage = finished.poll(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (stage != null) {
+          if (running.remove(stage)) {
+            stage.settle(stage.failure == null ? Outcome.COMPLETED : Outcome.FAILED, System.nanoTime());
+          }
+        } else {
+          long nowNanos = System.nanoTime();
+          for (Stage overdue : Lists.newArrayList(running)) {
+            if (nowNanos >= overdue.deadlineNanos) {
+              log.warn("Shutdown stage '{}' did not finish within {} ms. Continuing without it.", overdue.name, overdue.deadlineMillis);
+              running.remove(overdue);
+              overdue.settle(Outcome.TIMED_OUT, nowNanos);
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      log.warn("Shutdown '{}' interrupted. Remaining stages are abandoned.", name);
+      Thread.currentThread().interrupt();
+    } finally {
+      // Allow any overdue stages to finish in the background
+      executorService.shutdown();
+    }
+
+    Report report = new Report(name, stages.values(), System.nanoTime() - startNanos);
+    log.info("{}", report);
+
+    return report;
+  }
+
+  /**
+   * <p>Wait for stages that passed their deadline to finish in the background</p>
+   * <p>Call this before the process exits so that an overdue stage is not stopped part way through writing a file.</p>
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The time unit of the timeout
+   *
+   * @return True if every stage has finished (or the shutdown never ran)
+   *
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public boolean awaitOverdueStages(long timeout, TimeUnit unit) throws InterruptedException {
+
+    return !executorService.isPresent() || executorService.get().awaitTermination(timeout, unit);
+
+  }
+
+  private ShutdownCoordinator add(String stageName, boolean present, StageTask task, long deadlineMillis, String... dependencies) {
+
+    Preconditions.checkNotNull(stageName, "'stageName' must be present");
+    Preconditions.checkArgument(!stages.containsKey(stageName), "'stageName' must be unique: %s", stageName);
+    Preconditions.checkArgument(deadlineMillis > 0, "'deadlineMillis' must be positive");
+
+    List<Stage> dependsOn = Lists.newArrayList();
+    for (String dependency : dependencies) {
+      Stage stage = stages.get(dependency);
+      // Only allowing earlier stages prevents cycles
+      Preconditions.checkArgument(stage != null, "'dependencies' must refer to earlier stages: %s", dependency);
+      dependsOn.add(stage);
+    }
+
+    stages.put(stageName, new Stage(stageName, present, task, deadlineMillis, dependsOn));
+
+    return this;
+  }
+
+  private void start(final Stage stage, final ShutdownEvent.ShutdownType shutdownType, ExecutorService executorService, final BlockingQueue<Stage> finished) {
+
+    log.debug("Shutdown stage '{}' starting", stage.name);
+
+    stage.startNanos = System.nanoTime();
+    stage.deadlineNanos = stage.startNanos + TimeUnit.MILLISECONDS.toNanos(stage.deadlineMillis);
+
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          stage.task.run(shutdownType);
+        } catch (RuntimeException e) {
+          // Later stages must still run so record rather than propagate
+          log.error("Shutdown stage '" + stage.name + "' failed", e);
+          stage.failure = e;
+        } finally {
+          finished.offer(stage);
+        }
+      }
+    });
+
+  }
+
+  /**
+   * <p>The work of a stage</p>
+   */
+  private interface StageTask {
+
+    void run(ShutdownEvent.ShutdownType shutdownType);
+
+  }
+
+  /**
+   * <p>A stage and its progress (updated only by the coordinating thread apart from the failure)</p>
+   */
+  private static class Stage {
+
+    private final String name;
+
+    private final boolean present;
+
+    private final StageTask task;
+
+    private final long deadlineMillis;
+
+    private final List<Stage> dependsOn;
+
+    private volatile Outcome outcome = Outcome.PENDING;
+
+    private volatile RuntimeException failure;
+
+    private long startNanos;
+
+    private long deadlineNanos;
+
+    private long durationNanos;
+
+    private Stage(String name, boolean present, StageTask task, long deadlineMillis, List<Stage> dependsOn) {
+      this.name = name;
+      this.present = present;
+      this.task = task;
+      this.deadlineMillis = deadlineMillis;
+      this.dependsOn = dependsOn;
+    }
+
+    private boolean isReady() {
+
+      for (Stage stage : dependsOn) {
+        if (stage.outcome == Outcome.PENDING) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private void settle(Outcome outcome, long nowNanos) {
+
+      this.durationNanos = startNanos == 0 ? 0 : nowNanos - startNanos;
+      this.outcome = outcome;
+
+    }
+  }
+
+  /**
+   * <p>Value object to provide the following to the caller:</p>
+   * <ul>
+   * <li>The outcome and duration of each stage in order of addition</li>
+   * <li>The total time taken</li>
+   * </ul>
+   */
+  public static class Report {
+
+    private final String name;
+
+    private final List<String> stageNames;
+
+    private final Map<String, Outcome> outcomes;
+
+    private final Map<String, Long> durationMillis;
+
+    private final long elapsedMillis;
+
+    private Report(String name, Iterable<Stage> stages, long elapsedNanos) {
+
+      this.name = name;
+
+      ImmutableList.Builder<String> stageNames = ImmutableList.builder();
+      Map<String, Outcome> outcomes = Maps.newHashMap();
+      Map<String, Long> durationMillis = Maps.newHashMap();
+      for (Stage stage : stages) {
+        stageNames.add(stage.name);
+        outcomes.put(stage.name, stage.outcome);
+        durationMillis.put(stage.name, TimeUnit.NANOSECONDS.toMillis(stage.durationNanos));
+      }
+
+      this.stageNames = stageNames.build();
+      this.outcomes = Collections.unmodifiableMap(outcomes);
+      this.durationMillis = Collections.unmodifiableMap(durationMillis);
+      this.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+
+    }
+
+    /**
+     * @return The stage names in order of addition
+     */
+    public List<String> getStageNames() {
+      return stageNames;
+    }
+
+    /**
+     * @param stageName The stage name
+     *
+     * @return The outcome of the stage
+     */
+    public Outcome getOutcome(String stageName) {
+      return outcomes.get(stageName);
+    }
+
+    /**
+     * @param stageName The stage name
+     *
+     * @return The time from the start of the stage until it finished or passed its deadline
+     */
+    public long getDurationMillis(String stageName) {
+      return durationMillis.get(stageName);
+    }
+
+    /**
+     * @return The total time taken by the shutdown
+     */
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+
+      StringBuilder sb = new StringBuilder("Shutdown '").append(name).append("' took ").append(elapsedMillis).append(" ms:");
+      for (String stageName : stageNames) {
+        sb.append(' ')
+          .append(stageName)
+          .append('=')
+          .append(outcomes.get(stageName))
+          .append('(')
+          .append(durationMillis.get(stageName))
+          .append(" ms)");
+      }
+
+      return sb.toString();
+    }
+  }
+
+}
@@ -0,0 +1,159 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.AbstractWalletEventListener;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Index to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>The spendable outputs of a wallet held largest first (most confirmed first among equal values)</li>
+ * <li>Invalidation on any wallet change so repeated fee calculations between changes reuse the same list</li>
+ * </ul>
+ * <p>Without the index every fee iteration of every transaction preparation sorts all the outputs
+ * in the wallet, which dominates the time taken by the send and empty wallet wizards when the
+ * wallet holds thousands of small outputs.</p>
+ *
+ * @since 0.3.6
+ */
+class SpendableOutputIndex extends AbstractWalletEventListener {
+
+  private static final Logger log = LoggerFactory.getLogger(SpendableOutputIndex.class);
+
+  private final Wallet wallet;
+
+  /**
+   * Incremented on every wallet change (written under the wallet lock so never take the index lock here)
+   */
+  private final AtomicLong changeCount = new AtomicLong();
+
+  private List<TransactionOutput> sortedOutputs = Collections.emptyList();
+
+  private long builtChangeCount = -1;
+
+  private long rebuildCount = 0;
+
+  /**
+   * @param wallet The wallet to index
+   */
+  SpendableOutputIndex(Wallet wallet) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    this.wallet = wallet;
+
+    wallet.addEventListener(this, Threading.SAME_THREAD);
+
+  }
+
+  /**
+   * @return The indexed wallet
+   */
+  Wallet getWallet() {
+    return wallet;
+  }
+
+  /**
+   * <p>Stop receiving updates from the wallet</p>
+   */
+  void close() {
+    wallet.removeEventListener(this);
+  }
+
+  @Override
+  public void onWalletChanged(Wallet wallet) {
+    changeCount.incrementAndGet();
+  }
+
+  /**
+   * @return The spendable outputs, largest first (rebuilt only if the wallet has changed)
+   */
+  List<TransactionOutput> getSortedOutputs() {
+
+    long currentChangeCount = changeCount.get();
+    synchronized (this) {
+      if (builtChangeCount == currentChangeCount) {
+        return sortedOutputs;
+      }
+    }
+
+    // Build without the index lock since the wallet lock may be held by a caller completing a transaction
+    List<TransactionOutput> outputs = Lists.newArrayList();
+    for (TransactionOutput output : wallet.calculateAllSpendCandidates(true)) {
+      if (DefaultCoinSelector.isSelectable(output.getParentTransaction())) {
+        outputs.add(output);
+      }
+    }
+    sortLargestFirst(outputs);
+
+    synchronized (this) {
+      // A change during the build leaves the index stale so the next call rebuilds
+      if (currentChangeCount > builtChangeCount) {
+        sortedOutputs = ImmutableList.copyOf(outputs);
+        builtChangeCount = currentChangeCount;
+        rebuildCount++;
+        log.debug("Indexed {} spendable outputs", sortedOutputs.size());
+      }
+    }
+
+    return Collections.unmodifiableList(outputs);
+  }
+
+  /**
+   * <p>Sort largest value first, then (as DefaultCoinSelector) the most confirmed first so that among
+   * equal values the oldest coins are spent, with the outpoint as a final tie break for a stable order</p>
+   *
+   * @param outputs The outputs to sort in place
+   */
+  static void sortLargestFirst(List<TransactionOutput> outputs) {
+
+    // Take the depths once since a new block arriving during the sort would break the ordering contract
+    final Map<TransactionOutput, Integer> depths = Maps.newIdentityHashMap();
+    for (TransactionOutput output : outputs) {
+      TransactionConfidence confidence = output.getParentTransaction().getConfidence();
+      int depth = confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0;
+      depths.put(output, depth);
+    }
+
+    Collections.sort(outputs, new Comparator<TransactionOutput>() {
+      @Override
+      public int compare(TransactionOutput o1, TransactionOutput o2) {
+        int result = o2.getValue().compareTo(o1.getValue());
+        if (result == 0) {
+          result = Integer.compare(depths.get(o2), depths.get(o1));
+        }
+        if (result == 0) {
+          result = o1.getParentTransaction().getHash().compareTo(o2.getParentTransaction().getHash());
+        }
+        if (result == 0) {
+          result = Integer.compare(o1.getIndex(), o2.getIndex());
+        }
+        return result;
+      }
+    });
+
+  }
+
+  /**
+   * @return The number of times the index has been rebuilt
+   */
+  synchronized long getRebuildCount() {
+    return rebuildCount;
+  }
+
+}
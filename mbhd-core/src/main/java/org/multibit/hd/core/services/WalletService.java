@@ -1,12 +1,12 @@
 package org.multibit.hd.core.services;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.googlecode.jcsv.writer.CSVEntryConverter;
 import org.bitcoinj.core.*;
 import org.joda.time.DateMidnight;
@@ -106,6 +106,16 @@ public class WalletService extends AbstractService {
    */
   private List<PaymentData> lastSeenPaymentDataList = Lists.newArrayList();
 
+  /**
+   * The last seen payments data held in sorted order for paged and filtered queries
+   */
+  private final PaymentIndex paymentIndex = new PaymentIndex();
+
+  /**
+   * The transactions adapted by the last refresh, indexed by the transaction hash
+   */
+  private final ConcurrentHashMap<String, AdaptedTransaction> adaptedTransactionMap = new ConcurrentHashMap<>();
+
   /**
    * Handles wallet operations
    */
@@ -177,9 +187,11 @@ public class WalletService extends AbstractService {
 
   /**
    * <p>Get all the payments (payments and payment requests) in the current wallet.</p>
+   * <p>Only transactions whose confidence has changed since the last call are adapted again
+   * and the sorted index is patched with just those changes.</p>
    * <h3>WARNING: This is moderately expensive so don't call it indiscriminately</h3>
    */
-  public List<PaymentData> getPaymentDataList() {
+  public synchronized List<PaymentData> getPaymentDataList() {
 
     // See if there is a current wallet
     WalletManager walletManager = WalletManager.INSTANCE;
@@ -201,29 +213,130 @@ public class WalletService extends AbstractService {
     Set<Transaction> transactions = wallet.getTransactions(true);
 
     // Adapted transaction data to return
-    Set<TransactionData> transactionDataSet = Sets.newHashSet();
+    List<PaymentData> paymentDataList = Lists.newArrayList();
+
+    // Changes to apply to the sorted index
+    List<PaymentData> removed = Lists.newArrayList();
+    List<PaymentData> added = Lists.newArrayList();
+
+    Set<String> seenTransactionHashes = Sets.newHashSet();
 
     if (transactions != null) {
       for (Transaction transaction : transactions) {
-        TransactionData transactionData = adaptTransaction(wallet, transaction);
-        transactionDataSet.add(transactionData);
+
+        String transactionHashAsString = transaction.getHashAsString();
+        seenTransactionHashes.add(transactionHashAsString);
+
+        AdaptedTransaction previous = adaptedTransactionMap.get(transactionHashAsString);
+        AdaptedTransaction current = refreshAdaptedTransaction(wallet, transaction, previous);
+
+        if (current != previous) {
+          adaptedTransactionMap.put(transactionHashAsString, current);
+          if (previous != null) {
+            removed.add(previous.transactionData);
+          }
+          added.add(current.transactionData);
+        }
+
+        paymentDataList.add(current.transactionData);
+      }
+    }
+
+    // Drop any transactions that have left the wallet
+    Iterator<Map.Entry<String, AdaptedTransaction>> iterator = adaptedTransactionMap.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, AdaptedTransaction> entry = iterator.next();
+      if (!seenTransactionHashes.contains(entry.getKey())) {
+        removed.add(entry.getValue().transactionData);
+        iterator.remove();
       }
     }
 
     // Determine which paymentRequests have not been fully funded (these will appear as independent entities in the UI)
-    Set<PaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
-    for (PaymentRequestData basePaymentRequestData : paymentRequestMap.values()) {
-      if (basePaymentRequestData.getPaidAmountCoin().compareTo(basePaymentRequestData.getAmountCoin()) < 0) {
-        paymentRequestsNotFullyFunded.add(basePaymentRequestData);
+    for (PaymentRequestData basePaymentRequestData : getPaymentRequests()) {
+      if (isNotFullyFunded(basePaymentRequestData)) {
+        paymentDataList.add(basePaymentRequestData);
+        if (!paymentIndex.contains(basePaymentRequestData)) {
+          added.add(basePaymentRequestData);
+        }
+      } else if (paymentIndex.contains(basePaymentRequestData)) {
+        // Funded since the last refresh
+        removed.add(basePaymentRequestData);
       }
     }
-    // Union the transactionData set and paymentData set
-    lastSeenPaymentDataList = Lists.newArrayList(Sets.union(transactionDataSet, paymentRequestsNotFullyFunded));
+
+    paymentIndex.update(removed, added);
+    lastSeenPaymentDataList = paymentDataList;
 
     //log.debug("lastSeenPaymentDataList:\n" + lastSeenPaymentDataList.toString());
     return lastSeenPaymentDataList;
   }
 
+  /**
+   * @param paymentRequestData The payment request
+   *
+   * @return True if the payment request is complete and has not yet been paid in full (so appears as a payment in its own right)
+   */
+  private static boolean isNotFullyFunded(PaymentRequestData paymentRequestData) {
+
+    return paymentRequestData.getAmountCoin() != null
+      && paymentRequestData.getDate() != null
+      && paymentRequestData.getPaidAmountCoin().compareTo(paymentRequestData.getAmountCoin()) < 0;
+  }
+
+  /**
+   * @param wallet      The current wallet
+   * @param transaction The transaction
+   * @param previous    The result of the previous refresh (null if not seen before)
+   *
+   * @return The previous adapted transaction if the displayed data is unchanged, otherwise a newly adapted one
+   */
+  private AdaptedTransaction refreshAdaptedTransaction(Wallet wallet, Transaction transaction, AdaptedTransaction previous) {
+
+    TransactionConfidence transactionConfidence = transaction.getConfidence();
+    TransactionConfidence.ConfidenceType confidenceType = transactionConfidence.getConfidenceType();
+    int depth = TransactionConfidence.ConfidenceType.BUILDING.equals(confidenceType) ? transactionConfidence.getDepthInBlocks() : 0;
+    int numberOfPeers = transactionConfidence.numBroadcastPeers();
+    long updateTime = transaction.getUpdateTime() == null ? 0 : transaction.getUpdateTime().getTime();
+
+    if (previous != null
+      && previous.confidenceType == confidenceType
+      && previous.updateTime == updateTime
+      && (previous.numberOfPeers == numberOfPeers || !TransactionConfidence.ConfidenceType.PENDING.equals(confidenceType))) {
+
+      if (previous.depth == depth) {
+        // Nothing displayed has changed
+        return previous;
+      }
+
+      if (previous.depth > 1 && depth > 1) {
+        // Only the confirmation count has moved on so update the status rather than adapting it all again
+        PaymentStatus paymentStatus = previous.transactionData.getStatus();
+        paymentStatus.setDepth(depth);
+        paymentStatus.setStatusData(new Object[]{depth});
+        previous.depth = depth;
+        return previous;
+      }
+    }
+
+    return new AdaptedTransaction(adaptTransaction(wallet, transaction), confidenceType, depth, numberOfPeers, updateTime);
+  }
+
+  /**
+   * Forget the adapted transactions so that they are adapted again on the next refresh
+   *
+   * @param transactionHashes The hashes of the transactions to forget
+   */
+  private synchronized void invalidateAdaptedTransactions(Collection<String> transactionHashes) {
+
+    for (String transactionHash : transactionHashes) {
+      AdaptedTransaction adaptedTransaction = adaptedTransactionMap.remove(transactionHash);
+      if (adaptedTransaction != null) {
+        paymentIndex.remove(adaptedTransaction.transactionData);
+      }
+    }
+  }
+
   /**
    * Subset the supplied payments and sort by date, descending
    * (Sorting by amount coin is also done to make the order unique, within same date. This is to stop the order 'flicking' on sync)
@@ -261,7 +374,7 @@ public class WalletService extends AbstractService {
       }
     }
 
-    Collections.sort(subsetPaymentDataList, new PaymentComparator());
+    Collections.sort(subsetPaymentDataList, PaymentSortKey.DATE_DESCENDING);
 
     return subsetPaymentDataList;
   }
@@ -273,49 +386,24 @@ public class WalletService extends AbstractService {
    */
   public List<PaymentData> filterPaymentsByContent(String query) {
 
-    String lowerQuery = query.toLowerCase();
-
-    List<PaymentData> filteredPayments = Lists.newArrayList();
-
-    for (PaymentData paymentData : lastSeenPaymentDataList) {
-
-      boolean isDescriptionMatched = paymentData.getDescription().toLowerCase().contains(lowerQuery);
-      boolean isNoteMatched = paymentData.getNote().toLowerCase().contains(lowerQuery);
-
-      boolean isQrCodeLabelMatched = false;
-      boolean isPaymentAddressMatched = false;
-      boolean isOutputAddressMatched = false;
-      boolean isRawTransactionMatched = false;
-
-      if (paymentData instanceof PaymentRequestData) {
-
-        PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
-        isQrCodeLabelMatched = paymentRequestData.getLabel().toLowerCase().contains(lowerQuery);
-
-        // Exact match only
-        isPaymentAddressMatched = paymentRequestData.getAddress().toString().equals(query);
-
-      } else if (paymentData instanceof TransactionData) {
-
-        TransactionData transactionData = (TransactionData) paymentData;
-        isOutputAddressMatched = Joiner.on(" ").join(transactionData.getOutputAddresses()).toLowerCase().contains(lowerQuery);
-        isRawTransactionMatched = transactionData.getRawTransaction().toLowerCase().contains(lowerQuery);
-
-      }
-      if (isDescriptionMatched
-        || isNoteMatched
-        || isQrCodeLabelMatched
-        || isPaymentAddressMatched
-        || isOutputAddressMatched
-        || isRawTransactionMatched
-        ) {
-        filteredPayments.add(paymentData);
-      }
-    }
+    // The index is already sorted so no need to sort again
+    return paymentIndex.filter(PaymentSortKey.DATE_DESCENDING, query);
+  }
 
-    Collections.sort(filteredPayments, new PaymentComparator());
+  /**
+   * <p>Get a window of the last seen payments without materialising or sorting the full list.</p>
+   * <p>Call <code>getPaymentDataList()</code> first to refresh the underlying index from the wallet.</p>
+   *
+   * @param sortKey The required ordering
+   * @param query   The text fragment to match (case-insensitive), empty for all payments
+   * @param offset  The offset of the first payment to return
+   * @param limit   The maximum number of payments to return
+   *
+   * @return The page of matching payments, including the total match count
+   */
+  public PaymentPage getPaymentDataPage(PaymentSortKey sortKey, String query, int offset, int limit) {
 
-    return filteredPayments;
+    return paymentIndex.page(sortKey, query, offset, limit);
   }
 
   /**
@@ -708,6 +796,10 @@ public class WalletService extends AbstractService {
         }
       }
 
+      // Everything is adapted again on the next refresh
+      adaptedTransactionMap.clear();
+      paymentIndex.rebuild(Collections.<PaymentData>emptyList());
+
     } catch (EncryptedFileReaderWriterException e) {
       ExceptionHandler.handleThrowable(new PaymentsLoadException("Could not load payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
     }
@@ -732,12 +824,19 @@ public class WalletService extends AbstractService {
       payments.setTransactionInfos(transactionInfoMap.values());
       payments.setPaymentRequestDatas(paymentRequestMap.values());
       protobufSerializer.writePayments(payments, byteArrayOutputStream);
+      byte[] paymentsBytes = byteArrayOutputStream.toByteArray();
       EncryptedFileReaderWriter.encryptAndWrite(
-        byteArrayOutputStream.toByteArray(),
+        paymentsBytes,
         WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(),
         backingStoreFile
       );
 
+      // A save finishing after shutdown must not bring the backup service back
+      Optional<BackupService> backupService = CoreServices.getCurrentBackupService();
+      if (backupService.isPresent()) {
+        backupService.get().markChanged(BackupService.ChangeSource.PAYMENTS, BackupService.digest(paymentsBytes));
+      }
+
       log.debug("Writing payments completed");
 
     } catch (Exception e) {
@@ -752,12 +851,27 @@ public class WalletService extends AbstractService {
 
   public void addPaymentRequest(PaymentRequestData paymentRequestData) {
 
-    paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+    PaymentRequestData previousPaymentRequestData = paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+
+    // Keep the sorted index current without a full refresh
+    if (previousPaymentRequestData != null) {
+      paymentIndex.remove(previousPaymentRequestData);
+      invalidateAdaptedTransactions(previousPaymentRequestData.getPayingTransactionHashes());
+    }
+    if (isNotFullyFunded(paymentRequestData)) {
+      paymentIndex.add(paymentRequestData);
+    }
+
+    // The descriptions of the paying transactions include the label and note
+    invalidateAdaptedTransactions(paymentRequestData.getPayingTransactionHashes());
 
   }
 
   public void addTransactionInfo(TransactionInfo transactionInfo) {
     transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+
+    // The note, fiat amount and fees come from the transaction info
+    invalidateAdaptedTransactions(Collections.singleton(transactionInfo.getHash()));
   }
 
   public TransactionInfo getTransactionInfoByHash(String transactionHashAsString) {
@@ -829,7 +943,11 @@ public class WalletService extends AbstractService {
   public void deletePaymentRequest(PaymentRequestData paymentRequestData) {
 
     undoDeletePaymentRequestStack.push(paymentRequestData);
-    paymentRequestMap.remove(paymentRequestData.getAddress());
+    PaymentRequestData removedPaymentRequestData = paymentRequestMap.remove(paymentRequestData.getAddress());
+    if (removedPaymentRequestData != null) {
+      paymentIndex.remove(removedPaymentRequestData);
+      invalidateAdaptedTransactions(removedPaymentRequestData.getPayingTransactionHashes());
+    }
     writePayments();
   }
 
@@ -847,13 +965,17 @@ public class WalletService extends AbstractService {
 
   /**
    * Export the payments to two CSV files - one for transactions, one for payment requests.
-   * Sends a ExportPerformedEvent with the results.
+   * Sends ExportProgressEvents as rows are written and an ExportPerformedEvent with the results.
+   *
+   * <p>Transactions are adapted a chunk at a time in date descending order rather than all at once</p>
    *
    * @param exportDirectory        The directory to export to
    * @param transactionFileStem    The stem of the export file for the transactions (will be suffixed with a file suffix and possibly a bracketed number for uniqueness)
    * @param paymentRequestFileStem The stem of the export file for the payment requests (will be suffixed with a file suffix and possibly a bracketed number for uniqueness)
+   *
+   * @return The future of the export (cancel to abandon it)
    */
-  public void exportPayments(
+  public ListenableFuture<?> exportPayments(
     File exportDirectory,
     String transactionFileStem,
     String paymentRequestFileStem,
@@ -862,11 +984,80 @@ public class WalletService extends AbstractService {
     CSVEntryConverter<TransactionData> transactionHeaderConverter,
     CSVEntryConverter<TransactionData> transactionConverter
   ) {
-    // Refresh all payments
-    List<PaymentData> paymentDataList = getPaymentDataList();
-    ExportManager.export(
-      paymentDataList,
-      getPaymentRequests(),
+
+    final Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+
+    final List<Transaction> transactions = Lists.newArrayList();
+    if (currentWalletSummary.isPresent() && currentWalletSummary.get().getWallet() != null) {
+      // Only the references are sorted (newest first with missing dates last, as with the adapted payments)
+      transactions.addAll(currentWalletSummary.get().getWallet().getTransactions(true));
+      Collections.sort(transactions, new Comparator<Transaction>() {
+        @Override
+        public int compare(Transaction o1, Transaction o2) {
+          long n1 = o1.getUpdateTime() == null ? 0 : o1.getUpdateTime().getTime();
+          long n2 = o2.getUpdateTime() == null ? 0 : o2.getUpdateTime().getTime();
+          if (n1 == 0 || n2 == 0) {
+            return n1 == n2 ? 0 : (n1 == 0 ? 1 : -1);
+          }
+          return Long.compare(n2, n1);
+        }
+      });
+    }
+
+    ExportManager.ExportSource<TransactionData> transactionSource = new ExportManager.ExportSource<TransactionData>() {
+
+      private int next = 0;
+
+      @Override
+      public int size() {
+        return transactions.size();
+      }
+
+      @Override
+      public List<TransactionData> nextChunk(int maxEntries) {
+
+        List<TransactionData> chunk = Lists.newArrayList();
+        Wallet wallet = currentWalletSummary.isPresent() ? currentWalletSummary.get().getWallet() : null;
+
+        // Adapting updates the payment requests and transaction infos so must not overlap a refresh
+        synchronized (WalletService.this) {
+          while (next < transactions.size() && chunk.size() < maxEntries) {
+            chunk.add(adaptTransaction(wallet, transactions.get(next)));
+            next++;
+          }
+        }
+        return chunk;
+      }
+    };
+
+    // Payment requests are read after the transactions have been adapted so their paid amounts are up to date
+    ExportManager.ExportSource<PaymentRequestData> paymentRequestSource = new ExportManager.ExportSource<PaymentRequestData>() {
+
+      private ExportManager.ExportSource<PaymentRequestData> delegate;
+
+      @Override
+      public int size() {
+        return getDelegate().size();
+      }
+
+      @Override
+      public List<PaymentRequestData> nextChunk(int maxEntries) {
+        return getDelegate().nextChunk(maxEntries);
+      }
+
+      private ExportManager.ExportSource<PaymentRequestData> getDelegate() {
+        if (delegate == null) {
+          List<PaymentRequestData> paymentRequests = getPaymentRequests();
+          Collections.sort(paymentRequests, ExportManager.newestFirstComparator());
+          delegate = ExportManager.newListSource(paymentRequests);
+        }
+        return delegate;
+      }
+    };
+
+    return ExportManager.export(
+      transactionSource,
+      paymentRequestSource,
       exportDirectory,
       transactionFileStem,
       paymentRequestFileStem,
@@ -978,6 +1169,10 @@ public class WalletService extends AbstractService {
 
         wallet.encrypt(newPassword);
 
+        // Write the wallet with the new credentials then re-encrypt the few journal records that follow it
+        WalletManager.INSTANCE.saveWallet();
+        WalletManager.INSTANCE.changeWalletJournalPassword(newPassword);
+
         CoreEvents.fireChangePasswordResultEvent(new ChangePasswordResultEvent(true, CoreMessageKey.CHANGE_PASSWORD_SUCCESS, null));
       } catch (RuntimeException | NoSuchAlgorithmException e) {
         log.error("Failed to change password", e);
@@ -1043,15 +1238,23 @@ public class WalletService extends AbstractService {
     }
   }
 
-  static class PaymentComparator implements Comparator<PaymentData>, Serializable {
-    @Override
-    public int compare(PaymentData o1, PaymentData o2) {
-      int dateSort = o2.getDate().compareTo(o1.getDate()); // note inverse sort
-      if (dateSort != 0) {
-        return dateSort;
-      } else {
-        return o1.getAmountCoin().compareTo(o2.getAmountCoin());
-      }
+  /**
+   * <p>An adapted transaction along with the confidence it was adapted from</p>
+   */
+  private static class AdaptedTransaction {
+
+    private final TransactionData transactionData;
+    private final TransactionConfidence.ConfidenceType confidenceType;
+    private final int numberOfPeers;
+    private final long updateTime;
+    private int depth;
+
+    private AdaptedTransaction(TransactionData transactionData, TransactionConfidence.ConfidenceType confidenceType, int depth, int numberOfPeers, long updateTime) {
+      this.transactionData = transactionData;
+      this.confidenceType = confidenceType;
+      this.depth = depth;
+      this.numberOfPeers = numberOfPeers;
+      this.updateTime = updateTime;
     }
   }
 }
@@ -0,0 +1,142 @@
+package org.multibit.hd.core.config;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ConfigurationStoreTest {
+
+  private static final Logger log = LoggerFactory.getLogger(ConfigurationStoreTest.class);
+
+  private File configurationFile;
+
+  private ConfigurationStore testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    configurationFile = new File(SecureFiles.createTemporaryDirectory(), "mbhd.yaml");
+
+    testObject = new ConfigurationStore(50);
+
+  }
+
+  @Test
+  public void testPersistLater_ConcurrentChangesCoalesce() throws Exception {
+
+    final int threads = 8;
+    final int changesPerThread = 500;
+
+    final Object sequenceLock = new Object();
+    final int[] sequence = {0};
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(threads);
+
+    for (int t = 0; t < threads; t++) {
+      new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              startLatch.await();
+              for (int i = 0; i < changesPerThread; i++) {
+                // Mirror Configurations: copy under a lock, persist the copy
+                synchronized (sequenceLock) {
+                  Configuration configuration = new Configuration();
+                  configuration.getAppearance().setCurrentScreen("seq-" + (++sequence[0]));
+                  testObject.persistLater(configuration, configurationFile);
+                }
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } finally {
+              doneLatch.countDown();
+            }
+          }
+        }, "configuration-" + t).start();
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    doneLatch.await();
+    long requestNanos = System.nanoTime() - start;
+
+    testObject.flush();
+
+    log.info(
+      "{} requests completed in {} ms resulting in {} writes",
+      testObject.getRequestCount(),
+      requestNanos / 1_000_000,
+      testObject.getWriteCount()
+    );
+
+    assertThat(testObject.getRequestCount()).isEqualTo(threads * changesPerThread);
+    assertThat(testObject.getWriteCount()).isGreaterThan(0);
+    assertThat(testObject.getWriteCount() * 10).isLessThan(testObject.getRequestCount());
+
+    // The last change wins and the file is intact
+    assertThat(read(configurationFile).getAppearance().getCurrentScreen()).isEqualTo("seq-" + threads * changesPerThread);
+    assertThat(new File(configurationFile.getAbsolutePath() + ".tmp").exists()).isFalse();
+
+  }
+
+  @Test
+  public void testFlush_UnchangedConfigurationIsSkipped() throws Exception {
+
+    Configuration configuration = new Configuration();
+    configuration.getAppearance().setCurrentScreen("TOOLS");
+
+    testObject.persistLater(configuration, configurationFile);
+    testObject.flush();
+    long lastModified = configurationFile.lastModified();
+
+    testObject.persistLater(configuration.deepCopy(), configurationFile);
+    testObject.flush();
+
+    // Nothing pending so this is a no-op
+    testObject.flush();
+
+    assertThat(testObject.getWriteCount()).isEqualTo(1);
+    assertThat(testObject.getUnchangedCount()).isEqualTo(1);
+    assertThat(configurationFile.lastModified()).isEqualTo(lastModified);
+    assertThat(read(configurationFile).getAppearance().getCurrentScreen()).isEqualTo("TOOLS");
+
+  }
+
+  private static Configuration read(File file) throws Exception {
+
+    try (InputStream is = new FileInputStream(file)) {
+      Optional<Configuration> configuration = Yaml.readYaml(is, Configuration.class);
+      assertThat(configuration.isPresent()).isTrue();
+      return configuration.get();
+    }
+
+  }
+
+}
@@ -0,0 +1,182 @@
+package org.multibit.hd.core.crypto;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.managers.WalletManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SeedDerivationSessionTest {
+
+  private static final Logger log = LoggerFactory.getLogger(SeedDerivationSessionTest.class);
+
+  private byte[] seed;
+
+  @Before
+  public void setUp() throws Exception {
+
+    seed = new byte[64];
+    for (int i = 0; i < seed.length; i++) {
+      seed[i] = (byte) i;
+    }
+
+  }
+
+  @Test
+  public void testRestore_DerivationCounts() throws Exception {
+
+    long start = System.nanoTime();
+    List<Object> unmemoised = restoreWallet(Optional.<SeedDerivationSession>absent());
+    long unmemoisedNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    SeedDerivationSession testObject = SeedDerivationSession.open();
+    List<Object> memoised;
+    try {
+      memoised = restoreWallet(Optional.of(testObject));
+    } finally {
+      testObject.close();
+    }
+    long memoisedNanos = System.nanoTime() - start;
+
+    log.info(
+      "Restore derivations: 7 in {} ms without a session, {} in {} ms with a session",
+      unmemoisedNanos / 1_000_000,
+      testObject.getDerivationCount(),
+      memoisedNanos / 1_000_000
+    );
+
+    // Same artefacts either way
+    assertThat(memoised).isEqualTo(unmemoised);
+
+    // Wallet ID, Trezor soft wallet ID and backup key each derived once
+    assertThat(testObject.getDerivationCount()).isEqualTo(3);
+    assertThat(testObject.getMemoHitCount()).isEqualTo(4);
+
+    // Nothing is retained once the wizard closes
+    assertThat(testObject.size()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testClose_ZeroesMemo() throws Exception {
+
+    SeedDerivationSession testObject = SeedDerivationSession.open();
+
+    byte[] entropy = testObject.generate160BitsOfEntropy(seed, WalletId.getWalletIdSaltUsedInScryptForMbhdWallets());
+    assertThat(testObject.size()).isEqualTo(1);
+
+    // Callers receive copies so they cannot alter or observe the memo
+    Arrays.fill(entropy, (byte) 0);
+    assertThat(new WalletId(seed, testObject)).isEqualTo(new WalletId(seed));
+
+    testObject.close();
+    // Closing twice is harmless
+    testObject.close();
+    assertThat(testObject.isClosed()).isTrue();
+    assertThat(testObject.size()).isEqualTo(0);
+
+    // A closed session still derives in full but memoises nothing
+    assertThat(new WalletId(seed, testObject)).isEqualTo(new WalletId(seed));
+    assertThat(testObject.size()).isEqualTo(0);
+    assertThat(testObject.getDerivationCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testSessions_AreIndependent() throws Exception {
+
+    SeedDerivationSession first = SeedDerivationSession.open();
+    SeedDerivationSession second = SeedDerivationSession.open();
+
+    try {
+      new WalletId(seed, first);
+
+      // Neither another session nor the static derivation sees the memo
+      assertThat(second.size()).isEqualTo(0);
+      new WalletId(seed, second);
+      assertThat(second.getMemoHitCount()).isEqualTo(0);
+      assertThat(second.getDerivationCount()).isEqualTo(1);
+
+      first.close();
+      assertThat(second.size()).isEqualTo(1);
+    } finally {
+      first.close();
+      second.close();
+    }
+
+  }
+
+  /**
+   * <p>The derivations made as the user moves through the restore wizard and the wallet is created</p>
+   *
+   * @param session The wizard seed derivation session (absent to derive in full each time)
+   *
+   * @return The derived artefacts
+   */
+  private List<Object> restoreWallet(Optional<SeedDerivationSession> session) throws Exception {
+
+    // Seed phrase panel and going back and forth
+    WalletId walletId = newWalletId(session, WalletId.getWalletIdSaltUsedInScryptForMbhdWallets());
+    newWalletId(session, WalletId.getWalletIdSaltUsedInScryptForMbhdWallets());
+
+    // Checking for a Trezor soft wallet with the same seed
+    WalletId trezorSoftWalletId = newWalletId(session, WalletId.getWalletIdSaltUsedInScryptForTrezorSoftWallets());
+
+    // Decrypting the backups in the selected location
+    byte[] backupKey = newBackupKey(session).getKey();
+    newBackupKey(session);
+
+    // Report panel restoring the selected backup
+    newBackupKey(session);
+
+    // Creating the wallet summary
+    newWalletId(session, WalletId.getWalletIdSaltUsedInScryptForMbhdWallets());
+
+    return Arrays.<Object>asList(walletId, trezorSoftWalletId, Arrays.toString(backupKey));
+
+  }
+
+  private WalletId newWalletId(Optional<SeedDerivationSession> session, byte[] salt) {
+
+    if (session.isPresent()) {
+      return new WalletId(seed, salt, session.get());
+    }
+    return new WalletId(seed, salt);
+
+  }
+
+  private KeyParameter newBackupKey(Optional<SeedDerivationSession> session) throws Exception {
+
+    if (session.isPresent()) {
+      return session.get().createAESKey(seed, WalletManager.scryptSalt());
+    }
+    return AESUtils.createAESKey(seed, WalletManager.scryptSalt());
+
+  }
+
+}
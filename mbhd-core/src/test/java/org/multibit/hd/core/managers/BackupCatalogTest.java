@@ -0,0 +1,245 @@
+package org.multibit.hd.core.managers;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BackupCatalogTest {
+
+  private static final Logger log = LoggerFactory.getLogger(BackupCatalogTest.class);
+
+  private static final WalletId WALLET_ID = new WalletId("11111111-22222222-33333333-44444444-55555555");
+
+  private static final String PASSWORD = "throwaway";
+
+  private static final byte[] SALT = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+
+  private static final byte[] INITIALISATION_VECTOR = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+  private static final int BACKUP_COUNT = 6;
+
+  private static final int WALLET_BYTES = 64 * 1_024;
+
+  private final Random random = new Random(42);
+
+  private File backupDirectory;
+
+  /**
+   * The backups oldest first
+   */
+  private List<File> backups;
+
+  @Before
+  public void setUp() throws Exception {
+
+    backupDirectory = SecureFiles.createTemporaryDirectory();
+    backups = Lists.newArrayList();
+
+    KeyParameter key = new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(SALT)).deriveKey(PASSWORD);
+
+    BackupCatalog testObject = new BackupCatalog(backupDirectory);
+    for (int i = 0; i < BACKUP_COUNT; i++) {
+      File backup = new File(backupDirectory, "mbhd-2015010100000" + i + ".wallet.aes");
+      Files.write(AESUtils.encrypt(newWalletBytes(), key, INITIALISATION_VECTOR), backup);
+      testObject.record(backup, WALLET_ID, i * 1_000L, 300_000 + i, Optional.of("tx-" + i));
+      backups.add(backup);
+    }
+
+    // Damage the three newest backups in different ways
+    truncate(backups.get(5));
+    flipByte(backups.get(4));
+    Files.write(new byte[(int) backups.get(3).length()], backups.get(3));
+
+  }
+
+  @Test
+  public void testCheck_CorruptDetectedWithoutDecrypting() throws Exception {
+
+    BackupCatalog testObject = new BackupCatalog(backupDirectory);
+
+    assertThat(testObject.check(backups.get(5))).isEqualTo(BackupCatalog.Status.CORRUPT);
+    assertThat(testObject.check(backups.get(4))).isEqualTo(BackupCatalog.Status.CORRUPT);
+    assertThat(testObject.check(backups.get(3))).isEqualTo(BackupCatalog.Status.CORRUPT);
+    assertThat(testObject.check(backups.get(2))).isEqualTo(BackupCatalog.Status.VALID);
+
+    File legacy = new File(backupDirectory, "mbhd-20140101000000.wallet.aes");
+    Files.write(new byte[]{1}, legacy);
+    assertThat(testObject.check(legacy)).isEqualTo(BackupCatalog.Status.UNCATALOGUED);
+
+  }
+
+  @Test
+  public void testCheckQuickly_SizeAndModifiedTime() throws Exception {
+
+    BackupCatalog testObject = new BackupCatalog(backupDirectory);
+
+    // Untouched backups are not hashed
+    assertThat(testObject.checkQuickly(backups.get(0))).isEqualTo(BackupCatalog.Status.VALID);
+    assertThat(testObject.checkQuickly(backups.get(1))).isEqualTo(BackupCatalog.Status.VALID);
+    assertThat(testObject.getDigestCount()).isEqualTo(0);
+
+    // A truncated backup is caught on its size
+    assertThat(testObject.checkQuickly(backups.get(5))).isEqualTo(BackupCatalog.Status.CORRUPT);
+    assertThat(testObject.getDigestCount()).isEqualTo(0);
+
+    // A backup touched since it was catalogued is hashed
+    assertThat(backups.get(4).setLastModified(backups.get(4).lastModified() + 60_000)).isTrue();
+    assertThat(testObject.checkQuickly(backups.get(4))).isEqualTo(BackupCatalog.Status.CORRUPT);
+    assertThat(testObject.getDigestCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testOrderForRestore_BestValidFirst() throws Exception {
+
+    BackupCatalog testObject = new BackupCatalog(backupDirectory);
+
+    assertThat(testObject.orderForRestore(backups)).isEqualTo(Arrays.asList(
+      backups.get(2),
+      backups.get(1),
+      backups.get(0),
+      // Corrupt backups are a last resort
+      backups.get(5),
+      backups.get(4),
+      backups.get(3)
+    ));
+
+  }
+
+  @Test
+  public void testCatalog_DamagedEntryIgnored() throws Exception {
+
+    File catalogFile = new File(backupDirectory, BackupCatalog.CATALOG_FILE_NAME);
+    String catalog = Files.toString(catalogFile, Charsets.UTF_8);
+
+    // Claim a greater height for the oldest backup without updating its MAC
+    Files.write(catalog.replace("\t300000\t", "\t400000\t"), catalogFile, Charsets.UTF_8);
+
+    BackupCatalog testObject = new BackupCatalog(backupDirectory);
+    assertThat(testObject.check(backups.get(0))).isEqualTo(BackupCatalog.Status.UNCATALOGUED);
+    assertThat(testObject.check(backups.get(1))).isEqualTo(BackupCatalog.Status.VALID);
+
+    testObject.remove(backups.get(1));
+    assertThat(new BackupCatalog(backupDirectory).check(backups.get(1))).isEqualTo(BackupCatalog.Status.UNCATALOGUED);
+
+  }
+
+  @Test
+  public void testRestoreLatency() throws Exception {
+
+    // Previously every candidate was decrypted newest first until one parsed
+    long start = System.nanoTime();
+    int uncataloguedDecrypts = 0;
+    for (File backup : Lists.reverse(backups)) {
+      uncataloguedDecrypts++;
+      if (decryptAndParse(backup)) {
+        break;
+      }
+    }
+    long uncataloguedNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    int cataloguedDecrypts = 0;
+    for (File backup : new BackupCatalog(backupDirectory).orderForRestore(backups)) {
+      cataloguedDecrypts++;
+      if (decryptAndParse(backup)) {
+        break;
+      }
+    }
+    long cataloguedNanos = System.nanoTime() - start;
+
+    log.info(
+      "Restore with {} of {} backups damaged: {} ms ({} decrypts) without the catalog, {} ms ({} decrypts) with the catalog",
+      3, BACKUP_COUNT, uncataloguedNanos / 1_000_000, uncataloguedDecrypts, cataloguedNanos / 1_000_000, cataloguedDecrypts
+    );
+
+    assertThat(uncataloguedDecrypts).isEqualTo(4);
+    assertThat(cataloguedDecrypts).isEqualTo(1);
+    assertThat(cataloguedNanos).isLessThan(uncataloguedNanos);
+
+  }
+
+  /**
+   * @return Random wallet bytes followed by their SHA-256 to stand in for a protobuf parse
+   */
+  private byte[] newWalletBytes() {
+
+    byte[] walletBytes = new byte[WALLET_BYTES + 32];
+    byte[] content = new byte[WALLET_BYTES];
+    random.nextBytes(content);
+    System.arraycopy(content, 0, walletBytes, 0, WALLET_BYTES);
+    System.arraycopy(Hashing.sha256().hashBytes(content).asBytes(), 0, walletBytes, WALLET_BYTES, 32);
+
+    return walletBytes;
+  }
+
+  /**
+   * @return True if the backup decrypts (including the key derivation) and its content is intact
+   */
+  private boolean decryptAndParse(File backup) {
+
+    try {
+      byte[] walletBytes = ByteStreams.toByteArray(EncryptedFileReaderWriter.readAndDecrypt(backup, PASSWORD, SALT, INITIALISATION_VECTOR));
+      byte[] content = Arrays.copyOf(walletBytes, WALLET_BYTES);
+      return walletBytes.length == WALLET_BYTES + 32
+        && Arrays.equals(Hashing.sha256().hashBytes(content).asBytes(), Arrays.copyOfRange(walletBytes, WALLET_BYTES, WALLET_BYTES + 32));
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static void truncate(File file) throws Exception {
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(randomAccessFile.length() / 2);
+    }
+  }
+
+  private static void flipByte(File file) throws Exception {
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      long position = randomAccessFile.length() / 2;
+      randomAccessFile.seek(position);
+      int value = randomAccessFile.read();
+      randomAccessFile.seek(position);
+      randomAccessFile.write(value ^ 0xff);
+    }
+  }
+}
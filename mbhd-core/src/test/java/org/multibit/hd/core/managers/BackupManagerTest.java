@@ -115,6 +115,12 @@ public class BackupManagerTest {
     assertThat(cloudBackups).isNotNull();
     assertThat(cloudBackups.size()).isEqualTo(1);
 
+    // The plaintext catalog of the cloud backups stays in the application directory
+    assertThat(new File(temporaryCloudBackupDirectory, BackupCatalog.CATALOG_FILE_NAME).exists()).isFalse();
+    File[] cloudCatalogs = new File(applicationDirectory, BackupManager.BACKUP_CATALOG_DIRECTORY_NAME).listFiles();
+    assertThat(cloudCatalogs).isNotNull();
+    assertThat(cloudCatalogs.length).isGreaterThanOrEqualTo(1);
+
     Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
 
     // Backup the wallet.
@@ -0,0 +1,132 @@
+package org.multibit.hd.core.managers;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ChainHeadSidecarTest {
+
+  private static final Logger log = LoggerFactory.getLogger(ChainHeadSidecarTest.class);
+
+  private final NetworkParameters networkParameters = UnitTestParams.get();
+
+  private File blockStoreFile;
+
+  private File checkpointsFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File directory = SecureFiles.createTemporaryDirectory();
+    blockStoreFile = new File(directory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+    checkpointsFile = new File(directory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
+
+  }
+
+  @Test
+  public void testRead_AvoidsOpeningBlockStore() throws Exception {
+
+    StoredBlock chainHead = syncAndClose(5);
+
+    // Reading the chain head of a closed block store
+    long start = System.nanoTime();
+    Optional<ChainHeadSidecar> sidecar = ChainHeadSidecar.read(blockStoreFile);
+    long sidecarNanos = System.nanoTime() - start;
+
+    assertThat(sidecar.isPresent()).isTrue();
+    assertThat(sidecar.get().getHeight()).isEqualTo(5);
+    assertThat(sidecar.get().getHash()).isEqualTo(chainHead.getHeader().getHash());
+    assertThat(sidecar.get().getTimeSeconds()).isEqualTo(chainHead.getHeader().getTimeSeconds());
+
+    // The block store was not touched so the sidecar is still valid
+    assertThat(ChainHeadSidecar.read(blockStoreFile).isPresent()).isTrue();
+
+    // Previously the block store was opened and closed to find the height
+    start = System.nanoTime();
+    BlockStore blockStore = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, null, false);
+    int height = blockStore.getChainHead().getHeight();
+    blockStore.close();
+    long blockStoreNanos = System.nanoTime() - start;
+
+    log.info("Chain head height {} read in {} us from the sidecar, {} us from the block store", height, sidecarNanos / 1_000, blockStoreNanos / 1_000);
+
+    assertThat(height).isEqualTo(5);
+
+  }
+
+  @Test
+  public void testRead_InvalidWhenBlockStoreChanges() throws Exception {
+
+    syncAndClose(3);
+    assertThat(ChainHeadSidecar.read(blockStoreFile).isPresent()).isTrue();
+
+    // Opening the block store invalidates the sidecar (a crash now must not leave a stale head)
+    BlockStore blockStore = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, null, false);
+    assertThat(ChainHeadSidecar.read(blockStoreFile).isPresent()).isFalse();
+
+    // A clean close records it again
+    StoredBlock chainHead = blockStore.getChainHead();
+    blockStore.close();
+    ChainHeadSidecar.write(blockStoreFile, chainHead);
+    assertThat(ChainHeadSidecar.read(blockStoreFile).get().getHeight()).isEqualTo(3);
+
+    // A block store changed behind the sidecar is detected
+    assertThat(blockStoreFile.setLastModified(blockStoreFile.lastModified() - 10_000)).isTrue();
+    assertThat(ChainHeadSidecar.read(blockStoreFile).isPresent()).isFalse();
+
+  }
+
+  /**
+   * @param blocks The number of blocks to add
+   *
+   * @return The chain head when the block store was closed (and the sidecar written)
+   */
+  private StoredBlock syncAndClose(int blocks) throws Exception {
+
+    BlockStore blockStore = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, null, false);
+    BlockChain blockChain = new BlockChain(networkParameters, blockStore);
+
+    for (int i = 0; i < blocks; i++) {
+      Block block = FakeTxBuilder.makeSolvedTestBlock(blockStore.getChainHead().getHeader());
+      assertThat(blockChain.add(block)).isTrue();
+    }
+
+    // As BitcoinNetworkService closes the block store
+    StoredBlock chainHead = blockStore.getChainHead();
+    blockStore.close();
+    ChainHeadSidecar.write(blockStoreFile, chainHead);
+
+    return chainHead;
+  }
+
+}
@@ -0,0 +1,173 @@
+package org.multibit.hd.core.managers;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.googlecode.jcsv.writer.CSVEntryConverter;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.TransactionData;
+import org.multibit.hd.core.files.SecureFiles;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class ExportManagerTest {
+
+  private static final int PAYMENT_COUNT = 100_000;
+
+  /**
+   * The most entries the pipeline may hold at once (the chunk being written and the next one)
+   */
+  private static final int IN_FLIGHT_CEILING = 2 * ExportManager.CHUNK_SIZE;
+
+  private static final long START_MILLIS = new DateTime(2014, 1, 1, 0, 0).getMillis();
+
+  private File exportFile;
+
+  private final CSVEntryConverter<TransactionData> headerConverter = new CSVEntryConverter<TransactionData>() {
+    @Override
+    public String[] convertEntry(TransactionData transactionData) {
+      return new String[]{"Transaction ID", "Date"};
+    }
+  };
+
+  private final CSVEntryConverter<TransactionData> converter = new CSVEntryConverter<TransactionData>() {
+    @Override
+    public String[] convertEntry(TransactionData transactionData) {
+      return new String[]{transactionData.getTransactionId(), String.valueOf(transactionData.getDate().getMillis())};
+    }
+  };
+
+  @Before
+  public void setUp() throws Exception {
+
+    exportFile = new File(SecureFiles.createTemporaryDirectory(), "transactions.csv");
+  }
+
+  @Test
+  public void testExportRows_StreamsInOrderWithinHeapCeiling() throws Exception {
+
+    final SyntheticSource source = new SyntheticSource(PAYMENT_COUNT);
+    final List<Integer> progress = Lists.newArrayList();
+
+    int rows = ExportManager.exportRows(exportFile, newTransactionData(-1), headerConverter, converter, source, new ExportManager.ExportProgressListener() {
+      @Override
+      public void onRowsExported(int rowsExported, int totalRows) {
+        assertThat(totalRows).isEqualTo(PAYMENT_COUNT);
+        progress.add(rowsExported);
+        source.exported = rowsExported;
+      }
+    });
+
+    assertThat(rows).isEqualTo(PAYMENT_COUNT);
+    assertThat(source.maxInFlight).isLessThanOrEqualTo(IN_FLIGHT_CEILING);
+
+    // One progress report per chunk
+    assertThat(progress.size()).isEqualTo(PAYMENT_COUNT / ExportManager.CHUNK_SIZE);
+    assertThat(progress.get(progress.size() - 1)).isEqualTo(PAYMENT_COUNT);
+
+    // Header then every payment newest first
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(exportFile), Charsets.UTF_8))) {
+      assertThat(reader.readLine()).isEqualTo("Transaction ID,Date");
+      int expected = PAYMENT_COUNT - 1;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        assertThat(line).startsWith("tx-" + expected + ",");
+        expected--;
+      }
+      assertThat(expected).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testExportRows_Cancelled() throws Exception {
+
+    SyntheticSource source = new SyntheticSource(PAYMENT_COUNT);
+
+    try {
+      ExportManager.exportRows(exportFile, newTransactionData(-1), headerConverter, converter, source, new ExportManager.ExportProgressListener() {
+        @Override
+        public void onRowsExported(int rowsExported, int totalRows) {
+          // Simulate cancelling the export future
+          Thread.currentThread().interrupt();
+        }
+      });
+      fail("Expected the export to be cancelled");
+    } catch (InterruptedException e) {
+      // Expected
+    }
+
+    // Only the first chunk and its successor were pulled
+    assertThat(source.produced).isLessThanOrEqualTo(IN_FLIGHT_CEILING);
+  }
+
+  /**
+   * @return A synthetic transaction that is newer for larger indexes
+   */
+  private static TransactionData newTransactionData(int index) {
+    return new TransactionData("tx-" + index, new DateTime(START_MILLIS + index * 60_000L), null, null, null, null, null, null, null, null, false, null, null, 0, true);
+  }
+
+  /**
+   * <p>Creates payments on demand, newest first, recording how many are held by the pipeline</p>
+   */
+  private static class SyntheticSource implements ExportManager.ExportSource<TransactionData> {
+
+    private final int count;
+
+    private int produced = 0;
+
+    /**
+     * The rows reported as written
+     */
+    private int exported = 0;
+
+    private int maxInFlight = 0;
+
+    private SyntheticSource(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+
+    @Override
+    public List<TransactionData> nextChunk(int maxEntries) {
+
+      List<TransactionData> chunk = Lists.newArrayList();
+      while (produced < count && chunk.size() < maxEntries) {
+        chunk.add(newTransactionData(count - 1 - produced));
+        produced++;
+      }
+
+      maxInFlight = Math.max(maxInFlight, produced - exported);
+
+      return chunk;
+    }
+  }
+}
@@ -0,0 +1,428 @@
+package org.multibit.hd.core.managers;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.store.WalletProtobufSerializer;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.utils.Threading;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class WalletJournalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletJournalTest.class);
+
+  private static final String PASSWORD = "throwaway";
+
+  private static final String NEW_PASSWORD = "changed";
+
+  private final NetworkParameters networkParameters = UnitTestParams.get();
+
+  private Wallet wallet;
+
+  private Address address;
+
+  private MemoryBlockStore blockStore;
+
+  private BlockChain blockChain;
+
+  private File walletFile;
+
+  private WalletJournal testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(networkParameters);
+    address = wallet.currentReceiveAddress();
+
+    blockStore = new MemoryBlockStore(networkParameters);
+    blockChain = new BlockChain(networkParameters, wallet, blockStore);
+
+    walletFile = new File(SecureFiles.createTemporaryDirectory(), WalletManager.MBHD_WALLET_PREFIX + ".wallet");
+
+    // Wired as WalletManager and BitcoinNetworkService do
+    testObject = WalletJournal.open(walletFile, wallet, PASSWORD);
+    wallet.addEventListener(testObject, Threading.SAME_THREAD);
+    blockChain.addListener(testObject, Threading.SAME_THREAD);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.close();
+
+  }
+
+  @Test
+  public void testReplay_RecoversChangesSinceLastSave() throws Exception {
+
+    byte[] lastSave = save(wallet);
+
+    for (int i = 1; i <= 5; i++) {
+      receiveInBlock(Coin.valueOf(i, 0));
+    }
+    receivePending(Coin.CENT);
+    receivePending(Coin.COIN);
+
+    // Simulate a crash before the next full save
+    testObject.close();
+
+    Wallet recovered = load(lastSave);
+    assertThat(recovered.getTransactions(true)).isEmpty();
+
+    // 5 transactions in blocks, 5 best blocks and 2 pending transactions
+    assertThat(WalletJournal.replay(walletFile, recovered, PASSWORD)).isEqualTo(12);
+
+    assertSameState(recovered, wallet);
+
+  }
+
+  @Test
+  public void testReplay_RecoversDeadTransaction() throws Exception {
+
+    byte[] lastSave = save(wallet);
+
+    Transaction dead = receiveDoubleSpent();
+    assertThat(wallet.getTransaction(dead.getHash()).getConfidence().getConfidenceType()).isEqualTo(TransactionConfidence.ConfidenceType.DEAD);
+
+    testObject.close();
+
+    Wallet recovered = load(lastSave);
+    WalletJournal.replay(walletFile, recovered, PASSWORD);
+
+    assertThat(recovered.getTransaction(dead.getHash()).getConfidence().getConfidenceType()).isEqualTo(TransactionConfidence.ConfidenceType.DEAD);
+    assertSameState(recovered, wallet);
+
+  }
+
+  @Test
+  public void testChangePassword_ReopensWithNewPassword() throws Exception {
+
+    byte[] lastSave = save(wallet);
+
+    receiveInBlock(Coin.COIN);
+    receivePending(Coin.CENT);
+    testObject.changePassword(NEW_PASSWORD);
+
+    // Appended after the change so encrypted with the new password
+    receivePending(Coin.COIN);
+    testObject.close();
+
+    // A transaction in a block, its best block and 2 pending transactions
+    Wallet recovered = load(lastSave);
+    assertThat(WalletJournal.replay(walletFile, recovered, NEW_PASSWORD)).isEqualTo(4);
+    assertSameState(recovered, wallet);
+
+    // Reopening keeps the records for further appends
+    long journalLength = WalletJournal.getJournalFile(walletFile).length();
+    testObject = WalletJournal.open(walletFile, recovered, NEW_PASSWORD);
+    assertThat(WalletJournal.getJournalFile(walletFile).length()).isEqualTo(journalLength);
+
+  }
+
+  @Test
+  public void testReplay_FailsWithOtherPasswordWithoutTruncating() throws Exception {
+
+    byte[] lastSave = save(wallet);
+
+    receiveInBlock(Coin.COIN);
+    testObject.changePassword(NEW_PASSWORD);
+    testObject.close();
+
+    File journalFile = WalletJournal.getJournalFile(walletFile);
+    long journalLength = journalFile.length();
+
+    try {
+      WalletJournal.replay(walletFile, load(lastSave), PASSWORD);
+      fail("Expected replay with the old password to fail");
+    } catch (IOException e) {
+      // Expected
+    }
+    assertThat(journalFile.length()).isEqualTo(journalLength);
+
+    // Opening with the old password moves the records aside rather than discarding them
+    testObject = WalletJournal.open(walletFile, wallet, PASSWORD);
+    File retiredFile = new File(journalFile.getAbsolutePath() + ".old");
+    assertThat(retiredFile.length()).isEqualTo(journalLength);
+
+    Wallet recovered = load(lastSave);
+    Files.copy(retiredFile, journalFile);
+    assertThat(WalletJournal.replay(walletFile, recovered, NEW_PASSWORD)).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testCompact_KeepsChangesDuringSave() throws Exception {
+
+    for (int i = 0; i < 3; i++) {
+      receiveInBlock(Coin.COIN);
+    }
+    long journalLength = WalletJournal.getJournalFile(walletFile).length();
+
+    // A block arrives after the save begins but before the wallet is serialized
+    long mark = testObject.markCompaction();
+    receiveInBlock(Coin.CENT);
+    byte[] lastSave = save(wallet);
+
+    // A block arrives after the wallet is serialized
+    receiveInBlock(Coin.FIFTY_COINS);
+    testObject.compact(mark);
+    testObject.close();
+
+    assertThat(WalletJournal.getJournalFile(walletFile).length()).isLessThan(journalLength);
+
+    // Records in both the save and the journal are skipped
+    Wallet recovered = load(lastSave);
+    assertThat(WalletJournal.replay(walletFile, recovered, PASSWORD)).isEqualTo(2);
+
+    assertSameState(recovered, wallet);
+
+  }
+
+  @Test
+  public void testCompact_InterleavedSaves() throws Exception {
+
+    receiveInBlock(Coin.COIN);
+
+    // An auto-save begins and serializes the wallet
+    WalletAutoSaveListener autoSaveListener = new WalletAutoSaveListener(Optional.of(testObject), new Object());
+    File autoSaveFile = new File(walletFile.getParentFile(), "auto-save.wallet");
+    autoSaveListener.onBeforeAutoSave(autoSaveFile);
+    Files.write(save(wallet), autoSaveFile);
+
+    // A block arrives and a full save begins, is encrypted and compacts the journal before the auto-save finishes
+    receiveInBlock(Coin.CENT);
+    long mark = testObject.markCompaction();
+    byte[] lastSave = save(wallet);
+    testObject.compact(mark);
+    long journalLength = WalletJournal.getJournalFile(walletFile).length();
+
+    // The auto-save is now out of date so is discarded rather than encrypted over the full save
+    autoSaveListener.onAfterAutoSave(autoSaveFile);
+    assertThat(autoSaveFile.exists()).isFalse();
+    assertThat(new File(autoSaveFile.getAbsolutePath() + WalletManager.MBHD_AES_SUFFIX).exists()).isFalse();
+    assertThat(WalletJournal.getJournalFile(walletFile).length()).isEqualTo(journalLength);
+
+    // A later compaction with the earlier mark leaves the journal alone
+    receiveInBlock(Coin.FIFTY_COINS);
+    long lengthBefore = WalletJournal.getJournalFile(walletFile).length();
+    testObject.compact(mark - 1);
+    assertThat(WalletJournal.getJournalFile(walletFile).length()).isEqualTo(lengthBefore);
+    testObject.close();
+
+    // Nothing missing from the full save has been lost
+    Wallet recovered = load(lastSave);
+    assertThat(WalletJournal.replay(walletFile, recovered, PASSWORD)).isEqualTo(2);
+
+    assertSameState(recovered, wallet);
+
+  }
+
+  @Test
+  public void testOpen_DiscardsTornRecord() throws Exception {
+
+    byte[] lastSave = save(wallet);
+
+    receiveInBlock(Coin.COIN);
+    receiveInBlock(Coin.CENT);
+    testObject.close();
+
+    // Simulate a crash part way through appending a record
+    File journalFile = WalletJournal.getJournalFile(walletFile);
+    long journalLength = journalFile.length();
+    try (RandomAccessFile journal = new RandomAccessFile(journalFile, "rw")) {
+      journal.seek(journalLength);
+      journal.writeInt(500);
+      journal.write(new byte[100]);
+    }
+
+    Wallet recovered = load(lastSave);
+    assertThat(WalletJournal.replay(walletFile, recovered, PASSWORD)).isEqualTo(4);
+    assertSameState(recovered, wallet);
+
+    testObject = WalletJournal.open(walletFile, recovered, PASSWORD);
+    assertThat(journalFile.length()).isEqualTo(journalLength);
+
+  }
+
+  @Test
+  public void testIoVolume_JournalVersusFullSave() throws Exception {
+
+    File directory = walletFile.getParentFile();
+    int changes = 30;
+
+    long journalNanos = 0;
+    long autoSaveNanos = 0;
+    long autoSaveBytes = 0;
+
+    for (int i = 0; i < changes; i++) {
+
+      // Heavy receive traffic arrives as pending transactions, confirmations and the occasional double spend
+      long start = System.nanoTime();
+      switch (i % 3) {
+        case 0:
+          receivePending(Coin.CENT);
+          break;
+        case 1:
+          receiveInBlock(Coin.CENT);
+          break;
+        default:
+          receiveDoubleSpent();
+      }
+      journalNanos += System.nanoTime() - start;
+
+      // The previous autosave path for the same change: save, encrypt a copy and shred the plaintext
+      start = System.nanoTime();
+      File plainFile = new File(directory, "autosave.wallet");
+      File encryptedFile = new File(directory, "autosave.wallet" + WalletManager.MBHD_AES_SUFFIX);
+      wallet.saveToFile(plainFile);
+      long plainLength = plainFile.length();
+      EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(plainFile, encryptedFile, PASSWORD);
+      autoSaveNanos += System.nanoTime() - start;
+
+      autoSaveBytes += plainLength + encryptedFile.length() + plainLength;
+    }
+
+    // Transaction processing is included in the journal timing
+    log.info(
+      "{} changes: journal wrote {} records ({} bytes, {} forced writes) in {} ms, full saves wrote {} bytes in {} ms",
+      changes,
+      testObject.getAppendedRecords(),
+      testObject.getAppendedBytes(),
+      testObject.getForcedWrites(),
+      journalNanos / 1_000_000,
+      autoSaveBytes,
+      autoSaveNanos / 1_000_000
+    );
+
+    // A double spend journals its pending and overriding transactions
+    assertThat(testObject.getForcedWrites()).isEqualTo(changes / 3 * 4);
+    assertThat(testObject.getAppendedBytes() * 10).isLessThan(autoSaveBytes);
+
+    assertThat(wallet.getTransactions(true).size()).isEqualTo(changes / 3 * 4);
+
+  }
+
+  @Test
+  public void testNotifyNewBestBlock_WritesLatestWithNextTransaction() throws Exception {
+
+    byte[] lastSave = save(wallet);
+
+    // Blocks without wallet transactions, as during catch up
+    for (int i = 0; i < 10; i++) {
+      Block block = FakeTxBuilder.makeSolvedTestBlock(blockStore.getChainHead().getHeader());
+      assertThat(blockChain.add(block)).isTrue();
+    }
+    assertThat(testObject.getAppendedRecords()).isEqualTo(0);
+
+    receivePending(Coin.CENT);
+
+    // Only the latest best block precedes the transaction in a single forced write
+    assertThat(testObject.getAppendedRecords()).isEqualTo(2);
+    assertThat(testObject.getForcedWrites()).isEqualTo(1);
+
+    testObject.close();
+
+    Wallet recovered = load(lastSave);
+    WalletJournal.replay(walletFile, recovered, PASSWORD);
+    assertThat(recovered.getLastBlockSeenHeight()).isEqualTo(10);
+
+  }
+
+  private void receiveInBlock(Coin value) throws Exception {
+
+    Transaction tx = FakeTxBuilder.createFakeTx(networkParameters, value, address);
+    Block block = FakeTxBuilder.makeSolvedTestBlock(blockStore.getChainHead().getHeader(), tx);
+    assertThat(blockChain.add(block)).isTrue();
+
+  }
+
+  private void receivePending(Coin value) throws Exception {
+
+    wallet.receivePending(FakeTxBuilder.createFakeTx(networkParameters, value, address), null);
+
+  }
+
+  /**
+   * @return The pending transaction made dead by a double spend in a block
+   */
+  private Transaction receiveDoubleSpent() throws Exception {
+
+    FakeTxBuilder.DoubleSpends doubleSpends = FakeTxBuilder.createFakeDoubleSpendTxns(networkParameters, address);
+    wallet.receivePending(doubleSpends.t1, null);
+
+    Block block = FakeTxBuilder.makeSolvedTestBlock(blockStore.getChainHead().getHeader(), doubleSpends.t2);
+    assertThat(blockChain.add(block)).isTrue();
+
+    return doubleSpends.t1;
+
+  }
+
+  private static byte[] save(Wallet wallet) throws Exception {
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    wallet.saveToFileStream(baos);
+
+    return baos.toByteArray();
+
+  }
+
+  private static Wallet load(byte[] walletBytes) throws Exception {
+
+    return new WalletProtobufSerializer().readWallet(new ByteArrayInputStream(walletBytes));
+
+  }
+
+  private static void assertSameState(Wallet actual, Wallet expected) {
+
+    assertThat(actual.getLastBlockSeenHeight()).isEqualTo(expected.getLastBlockSeenHeight());
+    assertThat(actual.getLastBlockSeenHash()).isEqualTo(expected.getLastBlockSeenHash());
+    assertThat(actual.getTransactions(true).size()).isEqualTo(expected.getTransactions(true).size());
+    assertThat(actual.getBalance()).isEqualTo(expected.getBalance());
+    assertThat(actual.getBalance(Wallet.BalanceType.ESTIMATED)).isEqualTo(expected.getBalance(Wallet.BalanceType.ESTIMATED));
+
+  }
+
+}
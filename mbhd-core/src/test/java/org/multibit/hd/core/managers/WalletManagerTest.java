@@ -40,6 +40,7 @@ import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.extensions.WalletTypeExtension;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.ShutdownCoordinator;
 import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +52,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -199,6 +202,55 @@ public class WalletManagerTest {
     assertThat(WalletType.MBHD_SOFT_WALLET_BIP32.equals(walletSummary2.getWalletType()));
   }
 
+  @Test
+  public void testShutdownStage_TimedOutThenSwitch() throws Exception {
+
+    File applicationDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
+    BackupManager.INSTANCE.initialise(applicationDirectory, Optional.<File>absent());
+
+    WalletSummary walletSummary1 = createWallet(applicationDirectory, WalletIdTest.SEED_PHRASE_1);
+    final WalletId walletId1 = walletSummary1.getWalletId();
+
+    // A network stage that is stuck stopping the peer group
+    final CountDownLatch peerGroupStopped = new CountDownLatch(1);
+    ShutdownCoordinator coordinator = new ShutdownCoordinator("test")
+      .addTask("bitcoin-network", new Runnable() {
+        @Override
+        public void run() {
+          try {
+            peerGroupStopped.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          WalletManager.INSTANCE.saveWallet(walletId1);
+          WalletManager.INSTANCE.closeWallet(walletId1);
+        }
+      }, 100);
+
+    ShutdownCoordinator.Report report = coordinator.shutdownNow(ShutdownEvent.ShutdownType.SWITCH);
+    assertThat(report.getOutcome("bitcoin-network")).isEqualTo(ShutdownCoordinator.Outcome.TIMED_OUT);
+
+    // Switch to another wallet before the overdue stage finishes
+    File applicationDirectory2 = SecureFiles.createTemporaryDirectory();
+    BackupManager.INSTANCE.initialise(applicationDirectory2, Optional.<File>absent());
+    WalletSummary walletSummary2 = createWallet(applicationDirectory2, WalletIdTest.SEED_PHRASE_2);
+    assertThat(walletSummary2.getWalletId()).isNotEqualTo(walletId1);
+
+    File walletFile2 = new File(walletSummary2.getWalletFile().getAbsolutePath() + WalletManager.MBHD_AES_SUFFIX);
+    long walletFile2Length = walletFile2.length();
+    long walletFile2Modified = walletFile2.lastModified();
+
+    peerGroupStopped.countDown();
+    assertThat(coordinator.awaitOverdueStages(5, TimeUnit.SECONDS)).isTrue();
+
+    // The new wallet is still journaled and its file untouched
+    assertThat(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletId()).isEqualTo(walletSummary2.getWalletId());
+    assertThat(WalletManager.INSTANCE.getCurrentWalletJournal().isPresent()).isTrue();
+    assertThat(walletFile2.length()).isEqualTo(walletFile2Length);
+    assertThat(walletFile2.lastModified()).isEqualTo(walletFile2Modified);
+
+  }
+
   @Test
   /**
    * Test creation of a Trezor (soft) wallet.
@@ -712,6 +764,25 @@ public class WalletManagerTest {
     }
   }
 
+  private WalletSummary createWallet(File applicationDirectory, String seedPhrase) throws Exception {
+
+    byte[] entropy = MnemonicCode.INSTANCE.toEntropy(Bip39SeedPhraseGenerator.split(seedPhrase));
+    byte[] seed = new Bip39SeedPhraseGenerator().convertToSeed(Bip39SeedPhraseGenerator.split(seedPhrase));
+
+    return WalletManager
+      .INSTANCE
+      .getOrCreateMBHDSoftWalletSummaryFromEntropy(
+        applicationDirectory,
+        entropy,
+        seed,
+        Dates.nowInSeconds(),
+        "credentials",
+        "Example",
+        "Example",
+        false); // No need to sync
+
+  }
+
   /**
    * Copy the named test wallet to the (temporary) installation directory
    * @param testWalletPath
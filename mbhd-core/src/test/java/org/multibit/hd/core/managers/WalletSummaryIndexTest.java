@@ -0,0 +1,199 @@
+package org.multibit.hd.core.managers;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Yaml;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.dto.WalletType;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.Collator;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class WalletSummaryIndexTest {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletSummaryIndexTest.class);
+
+  private static final Pattern WALLET_DIRECTORY_PATTERN = Pattern.compile("^mbhd-[0-9a-f]{8}-[0-9a-f]{8}-[0-9a-f]{8}-[0-9a-f]{8}-[0-9a-f]{8}$");
+
+  private static final int WALLET_COUNT = 400;
+
+  /**
+   * Every fourth wallet is a hard wallet
+   */
+  private static final int SOFT_WALLET_COUNT = WALLET_COUNT - WALLET_COUNT / 4;
+
+  /**
+   * Stamp all files well before the index is built so no stamp is racy
+   */
+  private final long lastModified = System.currentTimeMillis() - 60_000;
+
+  private final Random random = new Random(42);
+
+  private File applicationDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+
+    applicationDirectory = SecureFiles.createTemporaryDirectory();
+
+    for (int i = 0; i < WALLET_COUNT; i++) {
+      WalletType walletType = i % 4 == 0 ? WalletType.TREZOR_HARD_WALLET : WalletType.MBHD_SOFT_WALLET_BIP32;
+      writeWalletSummary(newWalletDirectory(), "Wallet " + random.nextInt(100_000), walletType);
+    }
+    assertThat(applicationDirectory.setLastModified(lastModified)).isTrue();
+  }
+
+  @Test
+  public void testFindSoftWalletSummaries_Sorted() throws Exception {
+
+    WalletSummaryIndex testObject = new WalletSummaryIndex(applicationDirectory, WALLET_DIRECTORY_PATTERN, 0);
+
+    List<WalletSummary> walletSummaries = testObject.findSoftWalletSummaries(Optional.of(Locale.UK));
+    assertThat(walletSummaries.size()).isEqualTo(SOFT_WALLET_COUNT);
+
+    List<String> names = Lists.newArrayList();
+    for (WalletSummary walletSummary : walletSummaries) {
+      assertThat(walletSummary.getWalletType()).isEqualTo(WalletType.MBHD_SOFT_WALLET_BIP32);
+      names.add(walletSummary.getName());
+    }
+
+    List<String> expectedNames = Lists.newArrayList(names);
+    Collections.sort(expectedNames, Collator.getInstance(Locale.UK));
+    assertThat(names).isEqualTo(expectedNames);
+  }
+
+  @Test
+  public void testFindWalletSummaries_OnlyChangedRootsRead() throws Exception {
+
+    WalletSummaryIndex testObject = new WalletSummaryIndex(applicationDirectory, WALLET_DIRECTORY_PATTERN, 0);
+
+    List<File> walletDirectories = testObject.findWalletDirectories();
+    assertThat(walletDirectories.size()).isEqualTo(WALLET_COUNT);
+
+    testObject.findWalletSummaries(walletDirectories);
+    assertThat(testObject.getParseCount()).isEqualTo(WALLET_COUNT);
+
+    // Unchanged
+    testObject.findWalletSummaries(testObject.findWalletDirectories());
+    assertThat(testObject.getParseCount()).isEqualTo(WALLET_COUNT);
+
+    // Rename a wallet
+    File renamedWalletDirectory = walletDirectories.get(0);
+    writeWalletSummary(renamedWalletDirectory, "Renamed wallet", WalletType.MBHD_SOFT_WALLET_BIP32);
+    new File(renamedWalletDirectory, WalletManager.MBHD_SUMMARY_NAME).setLastModified(lastModified + 1_000);
+
+    // Add a wallet
+    File addedWalletDirectory = newWalletDirectory();
+    writeWalletSummary(addedWalletDirectory, "Added wallet", WalletType.MBHD_SOFT_WALLET_BIP32);
+    assertThat(applicationDirectory.setLastModified(lastModified + 1_000)).isTrue();
+
+    List<File> updatedWalletDirectories = testObject.findWalletDirectories();
+    assertThat(updatedWalletDirectories.size()).isEqualTo(WALLET_COUNT + 1);
+
+    List<WalletSummary> walletSummaries = testObject.findWalletSummaries(updatedWalletDirectories);
+    assertThat(testObject.getParseCount()).isEqualTo(WALLET_COUNT + 2);
+    assertThat(walletSummaries.get(updatedWalletDirectories.indexOf(renamedWalletDirectory)).getName()).isEqualTo("Renamed wallet");
+    assertThat(walletSummaries.get(updatedWalletDirectories.indexOf(addedWalletDirectory)).getName()).isEqualTo("Added wallet");
+
+    // Summaries are copies
+    walletSummaries.get(0).setName("Changed by caller");
+    assertThat(testObject.findWalletSummaries(updatedWalletDirectories).get(0).getName()).isNotEqualTo("Changed by caller");
+  }
+
+  @Test
+  public void testIndexFile_HardWalletsNotRead() throws Exception {
+
+    new WalletSummaryIndex(applicationDirectory, WALLET_DIRECTORY_PATTERN, 0).findSoftWalletSummaries(Optional.<Locale>absent());
+    assertThat(new File(applicationDirectory, WalletSummaryIndex.INDEX_FILE_NAME).exists()).isTrue();
+
+    // A fresh start uses the persisted types to skip hard wallets
+    WalletSummaryIndex testObject = new WalletSummaryIndex(applicationDirectory, WALLET_DIRECTORY_PATTERN, 0);
+    assertThat(testObject.findSoftWalletSummaries(Optional.<Locale>absent()).size()).isEqualTo(SOFT_WALLET_COUNT);
+    assertThat(testObject.getParseCount()).isEqualTo(SOFT_WALLET_COUNT);
+  }
+
+  @Test
+  public void testBenchmark() throws Exception {
+
+    final int iterations = 20;
+    Optional<Locale> localeOptional = Optional.of(Locale.UK);
+
+    // Every call reads every YAML file as before
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      new WalletSummaryIndex(applicationDirectory, WALLET_DIRECTORY_PATTERN, 0).findSoftWalletSummaries(localeOptional);
+      new File(applicationDirectory, WalletSummaryIndex.INDEX_FILE_NAME).delete();
+    }
+    long uncachedNanos = (System.nanoTime() - start) / iterations;
+
+    WalletSummaryIndex testObject = new WalletSummaryIndex(applicationDirectory, WALLET_DIRECTORY_PATTERN, 0);
+    testObject.findSoftWalletSummaries(localeOptional);
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      testObject.findSoftWalletSummaries(localeOptional);
+    }
+    long indexedNanos = (System.nanoTime() - start) / iterations;
+
+    log.info("{} wallets: {} us per listing without the index, {} us with the index", WALLET_COUNT, uncachedNanos / 1_000, indexedNanos / 1_000);
+
+    // Without an index file the hard wallets have to be read once to learn their type
+    assertThat(testObject.getParseCount()).isEqualTo(WALLET_COUNT);
+    assertThat(indexedNanos).isLessThan(uncachedNanos);
+  }
+
+  private File newWalletDirectory() throws Exception {
+
+    StringBuilder walletRoot = new StringBuilder(WalletManager.MBHD_WALLET_PREFIX);
+    for (int i = 0; i < 5; i++) {
+      walletRoot.append('-').append(String.format("%08x", random.nextInt()));
+    }
+
+    return SecureFiles.verifyOrCreateDirectory(applicationDirectory, walletRoot.toString());
+  }
+
+  private void writeWalletSummary(File walletDirectory, String name, WalletType walletType) throws Exception {
+
+    WalletSummary walletSummary = new WalletSummary();
+    walletSummary.setName(name);
+    walletSummary.setNotes("Notes for " + name);
+    walletSummary.setWalletType(walletType);
+    walletSummary.setEncryptedPassword(new byte[32]);
+    walletSummary.setEncryptedBackupKey(new byte[32]);
+
+    File walletSummaryFile = new File(walletDirectory, WalletManager.MBHD_SUMMARY_NAME);
+    try (FileOutputStream fos = new FileOutputStream(walletSummaryFile)) {
+      Yaml.writeYaml(fos, walletSummary);
+    }
+    assertThat(walletSummaryFile.setLastModified(lastModified)).isTrue();
+  }
+}
@@ -0,0 +1,182 @@
+package org.multibit.hd.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.KeyChain;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AddressPathIndexTest {
+
+  private static final Logger log = LoggerFactory.getLogger(AddressPathIndexTest.class);
+
+  private static final int ISSUED_KEYS = 3000;
+
+  private final NetworkParameters networkParameters = UnitTestParams.get();
+
+  private DeterministicKeyChain keyChain;
+
+  private List<DeterministicKey> receivingKeys;
+
+  private AddressPathIndex testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // A deep HD wallet
+    keyChain = new DeterministicKeyChain(new SecureRandom());
+    receivingKeys = keyChain.getKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, ISSUED_KEYS);
+
+    long start = System.nanoTime();
+    testObject = new AddressPathIndex(keyChain);
+    log.info("Indexed {} paths in {} ms", testObject.size(), (System.nanoTime() - start) / 1_000_000);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.close();
+
+  }
+
+  @Test
+  public void testBuildPathMaps_DeepWallet() throws Exception {
+
+    DeterministicKey changeKey = keyChain.getKey(KeyChain.KeyPurpose.CHANGE);
+
+    Transaction unsignedTx = newUnsignedTx(
+      changeKey,
+      receivingKeys.get(0),
+      receivingKeys.get(ISSUED_KEYS / 2),
+      receivingKeys.get(ISSUED_KEYS - 1)
+    );
+
+    long start = System.nanoTime();
+    Map<Integer, ImmutableList<ChildNumber>> receivingAddressPathMap = testObject.buildReceivingAddressPathMap(unsignedTx);
+    Map<Address, ImmutableList<ChildNumber>> changeAddressPathMap = testObject.buildChangeAddressPathMap(unsignedTx);
+    log.info("Built path maps for {} inputs in {} us", unsignedTx.getInputs().size(), (System.nanoTime() - start) / 1_000);
+
+    assertThat(receivingAddressPathMap.size()).isEqualTo(3);
+    assertThat(receivingAddressPathMap.get(2)).isEqualTo(receivingKeys.get(ISSUED_KEYS - 1).getPath());
+
+    assertThat(changeAddressPathMap.size()).isEqualTo(1);
+    assertThat(changeAddressPathMap.get(new Address(MainNetParams.get(), changeKey.getPubKeyHash()))).isEqualTo(changeKey.getPath());
+
+    // The device must be able to derive every key it is asked to sign with
+    assertThat(new FakeTrezorClient(keyChain).signTx(unsignedTx, receivingAddressPathMap, changeAddressPathMap)).isTrue();
+
+  }
+
+  @Test
+  public void testOnKeysAdded_NewKeysAreIndexed() throws Exception {
+
+    int size = testObject.size();
+
+    // Issuing beyond the lookahead adds keys to the chain
+    List<DeterministicKey> newKeys = keyChain.getKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, 200);
+
+    assertThat(testObject.size()).isGreaterThan(size);
+    for (DeterministicKey key : newKeys) {
+      assertThat(testObject.findPathFromPubHash(key.getPubKeyHash()).get()).isEqualTo(key.getPath());
+    }
+
+    // Keys outside the chain are not found
+    assertThat(testObject.findPathFromPubHash(new ECKey().getPubKeyHash()).isPresent()).isFalse();
+
+  }
+
+  /**
+   * @param changeKey       The key to receive the change
+   * @param receivingKeys   The keys that received the outputs being spent
+   *
+   * @return An unsigned transaction spending one output to each receiving key with change and a payment
+   */
+  private Transaction newUnsignedTx(DeterministicKey changeKey, DeterministicKey... receivingKeys) {
+
+    Transaction unsignedTx = new Transaction(networkParameters);
+    for (DeterministicKey receivingKey : receivingKeys) {
+      Transaction fundingTx = FakeTxBuilder.createFakeTx(networkParameters, Coin.COIN, receivingKey.toAddress(networkParameters));
+      unsignedTx.addInput(fundingTx.getOutput(0));
+    }
+    unsignedTx.addOutput(Coin.COIN, new ECKey().toAddress(networkParameters));
+    unsignedTx.addOutput(Coin.CENT, changeKey.toAddress(networkParameters));
+
+    return unsignedTx;
+  }
+
+  /**
+   * <p>Stands in for a Trezor by deriving each requested path from the same seed</p>
+   */
+  private static class FakeTrezorClient {
+
+    private final DeterministicKeyChain deviceKeyChain;
+
+    private FakeTrezorClient(DeterministicKeyChain deviceKeyChain) {
+      this.deviceKeyChain = deviceKeyChain;
+    }
+
+    private boolean signTx(
+      Transaction unsignedTx,
+      Map<Integer, ImmutableList<ChildNumber>> receivingAddressPathMap,
+      Map<Address, ImmutableList<ChildNumber>> changeAddressPathMap
+    ) {
+
+      for (int i = 0; i < unsignedTx.getInputs().size(); i++) {
+        TransactionInput input = unsignedTx.getInput(i);
+        DeterministicKey key = deviceKeyChain.getKeyByPath(receivingAddressPathMap.get(i), false);
+        if (!Arrays.equals(key.getPubKeyHash(), input.getConnectedOutput().getScriptPubKey().getPubKeyHash())) {
+          return false;
+        }
+      }
+
+      for (Map.Entry<Address, ImmutableList<ChildNumber>> entry : changeAddressPathMap.entrySet()) {
+        DeterministicKey key = deviceKeyChain.getKeyByPath(entry.getValue(), false);
+        if (!entry.getKey().equals(key.toAddress(MainNetParams.get()))) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+  }
+
+}
@@ -0,0 +1,214 @@
+package org.multibit.hd.core.services;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BackupSchedulerTest {
+
+  private static final long INITIAL_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  private long nowMillis;
+
+  private BackupScheduler testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    nowMillis = new DateTime(2014, 1, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis();
+    DateTimeUtils.setCurrentMillisFixed(nowMillis);
+
+    testObject = new BackupScheduler(INITIAL_DELAY_MILLIS);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    DateTimeUtils.setCurrentMillisSystem();
+
+  }
+
+  @Test
+  public void testIdle_SavesWithoutChanges() throws Exception {
+
+    // Opening a wallet requires one backup of each tier
+    testObject.markChanged(BackupService.ChangeSource.WALLET, BackupScheduler.UNKNOWN_DIGEST);
+    testObject.markChanged(BackupService.ChangeSource.WALLET, 1L);
+
+    // Wallet saved every 30 seconds for 2 hours without changing (a 12 second tick made 60 rolling backups)
+    for (int second = 0; second < 2 * 60 * 60; second++) {
+      if (second % 30 == 0) {
+        assertThat(testObject.markChanged(BackupService.ChangeSource.WALLET, 1L)).isFalse();
+      }
+      advanceOneSecond();
+    }
+
+    assertThat(testObject.getBackupCount(BackupScheduler.Tier.ROLLING)).isEqualTo(1);
+    assertThat(testObject.getBackupCount(BackupScheduler.Tier.LOCAL_ZIP)).isEqualTo(1);
+    assertThat(testObject.getBackupCount(BackupScheduler.Tier.CLOUD_ZIP)).isEqualTo(1);
+    assertThat(testObject.getNextDueMillis()).isEqualTo(Long.MAX_VALUE);
+
+  }
+
+  @Test
+  public void testBusy_ContinuousChanges() throws Exception {
+
+    // Wallet changes every 10 seconds for an hour with occasional contact edits
+    for (int second = 0; second < 60 * 60; second++) {
+      if (second % 10 == 0) {
+        testObject.markChanged(BackupService.ChangeSource.WALLET, second + 1);
+      }
+      if (second % 600 == 0) {
+        testObject.markChanged(BackupService.ChangeSource.CONTACTS, second + 1);
+      }
+      advanceOneSecond();
+    }
+
+    // Never quiet so each tier waits the maximum delay after the first change following its last backup
+    assertThat(testObject.getBackupCount(BackupScheduler.Tier.ROLLING)).isEqualTo(27);
+    assertThat(testObject.getBackupCount(BackupScheduler.Tier.LOCAL_ZIP)).isEqualTo(5);
+    assertThat(testObject.getBackupCount(BackupScheduler.Tier.CLOUD_ZIP)).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testBurst_Debounced() throws Exception {
+
+    // Pass the initial delay without changes
+    advance(INITIAL_DELAY_MILLIS);
+
+    // A burst of changes within a few seconds
+    for (int i = 1; i <= 5; i++) {
+      testObject.markChanged(BackupService.ChangeSource.HISTORY, i);
+      advanceOneSecond();
+    }
+
+    // Only wallet changes make a rolling backup
+    assertThat(testObject.isDue(BackupScheduler.Tier.ROLLING)).isFalse();
+    assertThat(testObject.isDue(BackupScheduler.Tier.LOCAL_ZIP)).isFalse();
+
+    // Due once quiet for the debounce period
+    advance(BackupScheduler.Tier.LOCAL_ZIP.getDebounceMillis());
+    assertThat(testObject.isDue(BackupScheduler.Tier.LOCAL_ZIP)).isTrue();
+    assertThat(testObject.isDue(BackupScheduler.Tier.ROLLING)).isFalse();
+
+  }
+
+  @Test
+  public void testRedundant_ContentRestored() throws Exception {
+
+    advance(INITIAL_DELAY_MILLIS);
+    testObject.markChanged(BackupService.ChangeSource.CONTACTS, 1L);
+    backup(BackupScheduler.Tier.LOCAL_ZIP);
+
+    // Changing and reverting the contacts leaves nothing to back up
+    testObject.markChanged(BackupService.ChangeSource.CONTACTS, 2L);
+    testObject.markChanged(BackupService.ChangeSource.CONTACTS, 1L);
+    advance(TimeUnit.HOURS.toMillis(1));
+
+    assertThat(testObject.isDue(BackupScheduler.Tier.LOCAL_ZIP)).isFalse();
+
+    // A request for a cloud backup ignores the content
+    testObject.requestNow(BackupScheduler.Tier.CLOUD_ZIP);
+    assertThat(testObject.isDue(BackupScheduler.Tier.CLOUD_ZIP)).isTrue();
+
+  }
+
+  @Test
+  public void testChange_DuringBackup() throws Exception {
+
+    advance(INITIAL_DELAY_MILLIS);
+    testObject.markChanged(BackupService.ChangeSource.WALLET, 1L);
+    advance(BackupScheduler.Tier.ROLLING.getDebounceMillis());
+
+    assertThat(testObject.isDue(BackupScheduler.Tier.ROLLING)).isTrue();
+    Map<BackupService.ChangeSource, Long> snapshot = testObject.beginBackup(BackupScheduler.Tier.ROLLING);
+    advance(1_000);
+
+    // The wallet changes while the backup is being written
+    testObject.markChanged(BackupService.ChangeSource.WALLET, 2L);
+    testObject.completeBackup(BackupScheduler.Tier.ROLLING, snapshot);
+
+    // Still pending but no sooner than the minimum interval
+    advance(BackupScheduler.Tier.ROLLING.getMinIntervalMillis() - 1);
+    assertThat(testObject.isDue(BackupScheduler.Tier.ROLLING)).isFalse();
+    advance(1);
+    assertThat(testObject.isDue(BackupScheduler.Tier.ROLLING)).isTrue();
+
+  }
+
+  @Test
+  public void testFailure_BacksOff() throws Exception {
+
+    advance(INITIAL_DELAY_MILLIS);
+    testObject.markChanged(BackupService.ChangeSource.WALLET, 1L);
+    advance(BackupScheduler.Tier.LOCAL_ZIP.getDebounceMillis());
+
+    // Each failure logs to the history which keeps the zip tiers dirty
+    long expectedDelayMillis = BackupScheduler.Tier.LOCAL_ZIP.getMinIntervalMillis();
+    for (int failure = 1; failure <= 10; failure++) {
+
+      assertThat(testObject.isDue(BackupScheduler.Tier.LOCAL_ZIP)).isTrue();
+      testObject.beginBackup(BackupScheduler.Tier.LOCAL_ZIP);
+      testObject.failBackup(BackupScheduler.Tier.LOCAL_ZIP);
+      testObject.markChanged(BackupService.ChangeSource.HISTORY, failure);
+
+      // Not retried until the delay (doubling with each failure) has passed
+      advance(expectedDelayMillis - 1);
+      assertThat(testObject.isDue(BackupScheduler.Tier.LOCAL_ZIP)).isFalse();
+      advance(1);
+
+      expectedDelayMillis = Math.min(expectedDelayMillis * 2, BackupScheduler.MAXIMUM_RETRY_DELAY_MILLIS);
+    }
+
+    // A request is also held back while failing
+    testObject.requestNow(BackupScheduler.Tier.CLOUD_ZIP);
+    testObject.failBackup(BackupScheduler.Tier.CLOUD_ZIP);
+    assertThat(testObject.isDue(BackupScheduler.Tier.CLOUD_ZIP)).isFalse();
+    advance(BackupScheduler.Tier.CLOUD_ZIP.getMinIntervalMillis());
+    assertThat(testObject.isDue(BackupScheduler.Tier.CLOUD_ZIP)).isTrue();
+
+    // Success (even straight after a failure) resets the back off
+    testObject.failBackup(BackupScheduler.Tier.LOCAL_ZIP);
+    backup(BackupScheduler.Tier.LOCAL_ZIP);
+    testObject.markChanged(BackupService.ChangeSource.HISTORY, 100L);
+    advance(BackupScheduler.Tier.LOCAL_ZIP.getMinIntervalMillis());
+    assertThat(testObject.isDue(BackupScheduler.Tier.LOCAL_ZIP)).isTrue();
+
+  }
+
+  /**
+   * <p>Perform every backup that is due then move the clock on one second</p>
+   */
+  private void advanceOneSecond() {
+
+    for (BackupScheduler.Tier tier : BackupScheduler.Tier.values()) {
+      if (testObject.isDue(tier)) {
+        backup(tier);
+      }
+    }
+
+    advance(1_000);
+  }
+
+  private void advance(long millis) {
+
+    nowMillis += millis;
+    DateTimeUtils.setCurrentMillisFixed(nowMillis);
+
+  }
+
+  private void backup(BackupScheduler.Tier tier) {
+    testObject.completeBackup(tier, testObject.beginBackup(tier));
+  }
+
+}
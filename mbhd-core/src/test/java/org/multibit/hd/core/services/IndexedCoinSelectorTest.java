@@ -0,0 +1,261 @@
+package org.multibit.hd.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexedCoinSelectorTest {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedCoinSelectorTest.class);
+
+  private static final Coin FEE_PER_KB = Transaction.REFERENCE_DEFAULT_MIN_TX_FEE;
+
+  private final NetworkParameters networkParameters = UnitTestParams.get();
+
+  private Wallet wallet;
+
+  private SpendableOutputIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(networkParameters);
+    index = new SpendableOutputIndex(wallet);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    index.close();
+
+  }
+
+  @Test
+  public void testSelect_Strategies() throws Exception {
+
+    receive(Coin.COIN.multiply(5), Coin.COIN.multiply(3), Coin.COIN.multiply(2), Coin.COIN);
+    List<TransactionOutput> candidates = wallet.calculateAllSpendCandidates(true);
+    Coin target = Coin.COIN.multiply(4);
+
+    // Largest first needs one input but creates change
+    CoinSelection largestFirst = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.LARGEST_FIRST, FEE_PER_KB).select(target, candidates);
+    assertThat(largestFirst.valueGathered).isEqualTo(Coin.COIN.multiply(5));
+    assertThat(largestFirst.gathered.size()).isEqualTo(1);
+
+    // Branch and bound finds the exact match (3 + 1) so no change is required
+    CoinSelection branchAndBound = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.BRANCH_AND_BOUND, FEE_PER_KB).select(target, candidates);
+    assertThat(branchAndBound.valueGathered).isEqualTo(target);
+    assertThat(branchAndBound.gathered.size()).isEqualTo(2);
+
+    // Consolidation sweeps the smallest outputs first
+    CoinSelection consolidation = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.CONSOLIDATION, FEE_PER_KB).select(target, candidates);
+    assertThat(consolidation.valueGathered).isEqualTo(Coin.COIN.multiply(6));
+    assertThat(consolidation.gathered.size()).isEqualTo(3);
+
+    // Emptying the wallet gathers everything
+    CoinSelection emptyWallet = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.CONSOLIDATION, FEE_PER_KB).select(NetworkParameters.MAX_MONEY, candidates);
+    assertThat(emptyWallet.valueGathered).isEqualTo(Coin.COIN.multiply(11));
+
+    // Only one build of the index for all the selections
+    assertThat(index.getRebuildCount()).isEqualTo(1);
+
+    // A wallet change invalidates the index
+    receive(Coin.CENT);
+    assertThat(index.getSortedOutputs().size()).isEqualTo(5);
+    assertThat(index.getRebuildCount()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testSelect_MixedWallet() throws Exception {
+
+    // Many outputs that cost more in fees to spend than they are worth
+    for (int i = 0; i < 200; i++) {
+      addUnspent(newTransaction(Coin.valueOf(1_000)), 1);
+    }
+    // Many small outputs that are worth spending individually
+    for (int i = 0; i < 100; i++) {
+      addUnspent(newTransaction(Coin.valueOf(10_000)), 1);
+    }
+    // One large output
+    addUnspent(newTransaction(Coin.COIN), 1);
+
+    List<TransactionOutput> candidates = wallet.calculateAllSpendCandidates(true);
+    IndexedCoinSelector selector = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.BRANCH_AND_BOUND, FEE_PER_KB);
+
+    // Exact matches exist among the uneconomic outputs but the large output is spent instead
+    CoinSelection dustTarget = selector.select(Coin.valueOf(50_000 + 1_000), candidates);
+    assertThat(dustTarget.gathered.size()).isEqualTo(1);
+    assertThat(dustTarget.valueGathered).isEqualTo(Coin.COIN);
+
+    // An exact match among the small outputs would need more inputs than allowed
+    CoinSelection manyInputs = selector.select(Coin.valueOf(10_000 * (IndexedCoinSelector.MAXIMUM_BRANCH_AND_BOUND_INPUTS + 1)), candidates);
+    assertThat(manyInputs.gathered.size()).isEqualTo(1);
+    assertThat(manyInputs.valueGathered).isEqualTo(Coin.COIN);
+
+    // A few small outputs still avoid change
+    CoinSelection fewInputs = selector.select(Coin.valueOf(30_000), candidates);
+    assertThat(fewInputs.gathered.size()).isEqualTo(3);
+    assertThat(fewInputs.valueGathered).isEqualTo(Coin.valueOf(30_000));
+
+    // Completing a transaction (the fee brings the target to the dust case above) spends the large output alone
+    Wallet.SendRequest sendRequest = Wallet.SendRequest.to(new ECKey().toAddress(networkParameters), Coin.valueOf(41_000));
+    sendRequest.feePerKb = FEE_PER_KB;
+    sendRequest.signInputs = false;
+    sendRequest.coinSelector = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.BRANCH_AND_BOUND, sendRequest.feePerKb);
+    wallet.completeTx(sendRequest);
+    assertThat(sendRequest.tx.getInputs().size()).isEqualTo(1);
+    assertThat(sendRequest.tx.getValueSentFromMe(wallet)).isEqualTo(Coin.COIN);
+
+  }
+
+  @Test
+  public void testSelect_DepthBreaksTies() throws Exception {
+
+    Transaction shallow = newTransaction(Coin.COIN);
+    Transaction deep = newTransaction(Coin.COIN);
+    addUnspent(shallow, 1);
+    addUnspent(deep, 6);
+
+    // Equal values so the most confirmed output is spent first
+    CoinSelection largestFirst = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.LARGEST_FIRST, FEE_PER_KB)
+      .select(Coin.COIN, wallet.calculateAllSpendCandidates(true));
+    assertThat(largestFirst.gathered.size()).isEqualTo(1);
+    assertThat(largestFirst.gathered.iterator().next().getParentTransaction()).isSameAs(deep);
+
+  }
+
+  @Test
+  public void testCompleteTx_DustWallet() throws Exception {
+
+    // Many small outputs (each just above the dust limit) spread over many transactions
+    int outputCount = 10_000;
+    int outputsPerTransaction = 5;
+    for (int i = 0; i < outputCount; i += outputsPerTransaction) {
+      Coin[] values = new Coin[outputsPerTransaction];
+      for (int j = 0; j < outputsPerTransaction; j++) {
+        values[j] = Transaction.MIN_NONDUST_OUTPUT.add(Coin.valueOf(i + j));
+      }
+      addUnspent(newTransaction(values), 1);
+    }
+
+    Address destination = new ECKey().toAddress(networkParameters);
+    int recalculations = 20;
+
+    // Each visit to the send confirmation panel prepares the transaction again
+    long start = System.nanoTime();
+    for (int i = 0; i < recalculations; i++) {
+      Wallet.SendRequest sendRequest = Wallet.SendRequest.to(destination, Coin.CENT.add(Coin.valueOf(i)));
+      sendRequest.signInputs = false;
+      wallet.completeTx(sendRequest);
+    }
+    long defaultNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    Wallet.SendRequest sendRequest = null;
+    for (int i = 0; i < recalculations; i++) {
+      sendRequest = Wallet.SendRequest.to(destination, Coin.CENT.add(Coin.valueOf(i)));
+      sendRequest.signInputs = false;
+      sendRequest.coinSelector = new IndexedCoinSelector(index, IndexedCoinSelector.Strategy.BRANCH_AND_BOUND, sendRequest.feePerKb);
+      wallet.completeTx(sendRequest);
+    }
+    long indexedNanos = System.nanoTime() - start;
+
+    log.info(
+      "{} recalculations over {} outputs: {} ms with the default selector, {} ms with the indexed selector",
+      recalculations,
+      outputCount,
+      defaultNanos / 1_000_000,
+      indexedNanos / 1_000_000
+    );
+
+    // The wallet did not change so the index was built once
+    assertThat(index.getRebuildCount()).isEqualTo(1);
+
+    // The transaction balances (inputs cover outputs and fee)
+    Coin outputValue = Coin.ZERO;
+    for (TransactionOutput output : sendRequest.tx.getOutputs()) {
+      outputValue = outputValue.add(output.getValue());
+    }
+    assertThat(sendRequest.tx.getValueSentFromMe(wallet)).isEqualTo(outputValue.add(sendRequest.fee));
+
+  }
+
+  /**
+   * @param values The values of the outputs to receive in a single pending transaction
+   */
+  private void receive(Coin... values) throws Exception {
+
+    Transaction tx = newTransaction(values);
+
+    wallet.receivePending(tx, null);
+
+    // Treat as confirmed so the outputs are selectable
+    tx.getConfidence().setAppearedAtChainHeight(1);
+
+  }
+
+  /**
+   * @param tx    The confirmed transaction to add directly to the wallet (far quicker than receiving it)
+   * @param depth The depth in blocks of the transaction
+   */
+  private void addUnspent(Transaction tx, int depth) {
+
+    tx.getConfidence().setAppearedAtChainHeight(1);
+    tx.getConfidence().setDepthInBlocks(depth);
+    wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+
+  }
+
+  /**
+   * @param values The values of the outputs paying to the wallet
+   *
+   * @return A transaction with the outputs
+   */
+  private Transaction newTransaction(Coin... values) {
+
+    Address address = wallet.currentReceiveAddress();
+
+    Transaction tx = FakeTxBuilder.createFakeTx(networkParameters, values[0], address);
+    for (int i = 1; i < values.length; i++) {
+      tx.addOutput(values[i], address);
+    }
+
+    return tx;
+  }
+
+}
@@ -0,0 +1,210 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentPage;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.dto.PaymentSortKey;
+import org.multibit.hd.core.utils.Addresses;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentIndexTest {
+
+  private static final int PAYMENT_COUNT = 10_000;
+
+  private PaymentIndex testObject;
+
+  private List<PaymentData> payments;
+
+  private Address address;
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+    address = Addresses.parse("1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty").get();
+
+    DateTime start = new DateTime(2014, 1, 1, 0, 0);
+
+    // Shuffle so the index has to do the sorting
+    payments = Lists.newArrayList();
+    for (int i = 0; i < PAYMENT_COUNT; i++) {
+      payments.add(newPaymentRequestData(start.plusMinutes(i), i));
+    }
+    Collections.shuffle(payments);
+
+    testObject = new PaymentIndex();
+    testObject.rebuild(payments);
+
+  }
+
+  @Test
+  public void testPage_DateDescending() throws Exception {
+
+    PaymentPage page = testObject.page(PaymentSortKey.DATE_DESCENDING, "", 0, 50);
+
+    assertThat(page.getTotalCount()).isEqualTo(PAYMENT_COUNT);
+    assertThat(page.getPayments().size()).isEqualTo(50);
+    assertThat(page.getPayments().get(0).getAmountCoin()).isEqualTo(Coin.valueOf(PAYMENT_COUNT - 1));
+    assertSorted(page.getPayments(), PaymentSortKey.DATE_DESCENDING);
+
+  }
+
+  @Test
+  public void testPage_Window() throws Exception {
+
+    PaymentPage page = testObject.page(PaymentSortKey.AMOUNT_ASCENDING, "", 9_990, 50);
+
+    // Clipped to the end of the index
+    assertThat(page.getOffset()).isEqualTo(9_990);
+    assertThat(page.getPayments().size()).isEqualTo(10);
+    assertThat(page.contains(9_999)).isTrue();
+    assertThat(page.contains(10_000)).isFalse();
+    assertThat(page.getPayments().get(0).getAmountCoin()).isEqualTo(Coin.valueOf(9_990));
+
+  }
+
+  @Test
+  public void testPage_Filtered() throws Exception {
+
+    // Matches label-1, label-10..19, label-100..199, label-1000..1999
+    PaymentPage page = testObject.page(PaymentSortKey.DATE_ASCENDING, "label-1", 0, 5);
+
+    assertThat(page.getTotalCount()).isEqualTo(1 + 10 + 100 + 1_000);
+    assertThat(((PaymentRequestData) page.getPayments().get(0)).getLabel()).isEqualTo("label-1");
+
+    // Subsequent pages of the same query come from the cache
+    PaymentPage nextPage = testObject.page(PaymentSortKey.DATE_ASCENDING, "label-1", 5, 5);
+    assertThat(((PaymentRequestData) nextPage.getPayments().get(0)).getLabel()).isEqualTo("label-14");
+
+  }
+
+  @Test
+  public void testAddAndRemove_MaintainsOrder() throws Exception {
+
+    // Build two sorted views before changing the index
+    testObject.page(PaymentSortKey.DATE_DESCENDING, "", 0, 1);
+    testObject.page(PaymentSortKey.AMOUNT_DESCENDING, "", 0, 1);
+
+    PaymentRequestData newest = newPaymentRequestData(new DateTime(2015, 1, 1, 0, 0), 5);
+    testObject.add(newest);
+
+    assertThat(testObject.size()).isEqualTo(PAYMENT_COUNT + 1);
+    assertThat(testObject.page(PaymentSortKey.DATE_DESCENDING, "", 0, 1).getPayments().get(0)).isSameAs(newest);
+
+    List<PaymentData> byAmount = testObject.filter(PaymentSortKey.AMOUNT_DESCENDING, "");
+    assertSorted(byAmount, PaymentSortKey.AMOUNT_DESCENDING);
+    assertThat(byAmount).contains(newest);
+
+    assertThat(testObject.remove(newest)).isTrue();
+    assertThat(testObject.remove(newest)).isFalse();
+    assertThat(testObject.filter(PaymentSortKey.AMOUNT_DESCENDING, "").size()).isEqualTo(PAYMENT_COUNT);
+
+  }
+
+  @Test
+  public void testAdd_InvalidatesFilterCache() throws Exception {
+
+    assertThat(testObject.page(PaymentSortKey.DATE_DESCENDING, "needle", 0, 10).getTotalCount()).isEqualTo(0);
+
+    PaymentRequestData needle = newPaymentRequestData(new DateTime(2015, 1, 1, 0, 0), 1);
+    needle.setLabel("needle");
+    testObject.add(needle);
+
+    assertThat(testObject.page(PaymentSortKey.DATE_DESCENDING, "needle", 0, 10).getTotalCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testUpdate_PatchesSortedViews() throws Exception {
+
+    List<PaymentData> byDate = testObject.filter(PaymentSortKey.DATE_DESCENDING, "");
+
+    // Replace the oldest payment with an equal copy and add a newer one
+    PaymentData oldest = byDate.get(byDate.size() - 1);
+    PaymentRequestData replacement = newPaymentRequestData(oldest.getDate(), 0);
+    PaymentRequestData newest = newPaymentRequestData(new DateTime(2015, 1, 1, 0, 0), 1);
+
+    testObject.update(Lists.newArrayList(oldest), Lists.<PaymentData>newArrayList(replacement, newest));
+
+    byDate = testObject.filter(PaymentSortKey.DATE_DESCENDING, "");
+    assertThat(byDate.size()).isEqualTo(PAYMENT_COUNT + 1);
+    assertSorted(byDate, PaymentSortKey.DATE_DESCENDING);
+    assertThat(byDate.get(0)).isSameAs(newest);
+    assertThat(byDate.get(byDate.size() - 1)).isSameAs(replacement);
+    assertThat(testObject.contains(oldest)).isFalse();
+
+  }
+
+  @Test
+  public void testUpdate_Bulk() throws Exception {
+
+    testObject.page(PaymentSortKey.AMOUNT_ASCENDING, "", 0, 1);
+
+    // Enough changes to re-sort rather than patch
+    List<PaymentData> removed = Lists.newArrayList(payments.subList(0, PaymentIndex.BULK_CHANGE_THRESHOLD));
+    List<PaymentData> added = Lists.newArrayList();
+    for (int i = 0; i < PaymentIndex.BULK_CHANGE_THRESHOLD; i++) {
+      added.add(newPaymentRequestData(new DateTime(2015, 1, 1, 0, 0).plusMinutes(i), PAYMENT_COUNT + i));
+    }
+
+    testObject.update(removed, added);
+
+    List<PaymentData> byAmount = testObject.filter(PaymentSortKey.AMOUNT_ASCENDING, "");
+    assertThat(byAmount.size()).isEqualTo(PAYMENT_COUNT);
+    assertSorted(byAmount, PaymentSortKey.AMOUNT_ASCENDING);
+    assertThat(byAmount.get(byAmount.size() - 1)).isSameAs(added.get(added.size() - 1));
+
+  }
+
+  @Test
+  public void testRemove_ByIdentity() throws Exception {
+
+    testObject.page(PaymentSortKey.DATE_DESCENDING, "", 0, 1);
+
+    // Equal but not the same instance
+    PaymentRequestData copy = newPaymentRequestData(payments.get(0).getDate(), (int) payments.get(0).getAmountCoin().value);
+    assertThat(copy).isEqualTo(payments.get(0));
+    assertThat(testObject.remove(copy)).isFalse();
+
+    // Sort fields changed in place are still found
+    PaymentRequestData changed = (PaymentRequestData) payments.get(1);
+    changed.setDate(new DateTime(2016, 1, 1, 0, 0));
+    assertThat(testObject.remove(changed)).isTrue();
+    assertThat(testObject.contains(changed)).isFalse();
+    assertThat(testObject.filter(PaymentSortKey.DATE_DESCENDING, "").size()).isEqualTo(PAYMENT_COUNT - 1);
+
+  }
+
+  private PaymentRequestData newPaymentRequestData(DateTime date, int index) {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress(address);
+    paymentRequestData.setDate(date);
+    paymentRequestData.setAmountCoin(Coin.valueOf(index));
+    paymentRequestData.setLabel("label-" + index);
+    paymentRequestData.setNote("");
+
+    return paymentRequestData;
+  }
+
+  private void assertSorted(List<PaymentData> paymentDataList, PaymentSortKey sortKey) {
+
+    for (int i = 1; i < paymentDataList.size(); i++) {
+      assertThat(sortKey.compare(paymentDataList.get(i - 1), paymentDataList.get(i)) <= 0).isTrue();
+    }
+
+  }
+
+}
@@ -0,0 +1,211 @@
+package org.multibit.hd.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.protobuf.ByteString;
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.crypto.TrustStoreLoader;
+import org.bitcoinj.protocols.payments.PaymentProtocol;
+import org.bitcoinj.protocols.payments.PaymentProtocolException;
+import org.bitcoinj.protocols.payments.PaymentSession;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.multibit.hd.core.testing.payments.LocalPaymentRequestServer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class PaymentRequestFetcherTest {
+
+  private static LocalPaymentRequestServer server;
+
+  private Protos.PaymentRequest paymentRequest;
+
+  private PaymentRequestFetcher testObject;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+
+    // Generating keys is slow so share the server across tests
+    server = new LocalPaymentRequestServer();
+
+  }
+
+  @AfterClass
+  public static void afterClass() {
+
+    server.stop();
+
+  }
+
+  @Before
+  public void setUp() throws Exception {
+
+    paymentRequest = server.newSignedPaymentRequest("Please donate to MultiBit");
+
+    testObject = new PaymentRequestFetcher(5_000, 200, Optional.of(server.getClientSocketFactory()));
+
+  }
+
+  @Test
+  public void testFetch_SlowPrimaryRacedByFallback() throws Exception {
+
+    // The primary never answers until released so a sequential fetch could not succeed
+    CountDownLatch slowGate = new CountDownLatch(1);
+    String slow = server.addGatedEndpoint("/race/slow", slowGate, 200, paymentRequest.toByteArray());
+    String broken = server.addEndpoint("/race/broken", 0, 500, new byte[0]);
+    String fast = server.addEndpoint("/race/fast", 0, 200, paymentRequest.toByteArray());
+
+    try {
+      long start = System.currentTimeMillis();
+      Protos.PaymentRequest fetched = testObject.fetch(Arrays.asList(slow, broken, fast));
+      long elapsed = System.currentTimeMillis() - start;
+
+      assertThat(fetched).isEqualTo(paymentRequest);
+
+      // The fallback answered while the primary was still held
+      assertThat(slowGate.getCount()).isEqualTo(1);
+      assertThat(server.getRequestCount("/race/fast")).isEqualTo(1);
+
+      assertThat(testObject.getAttemptCount()).isEqualTo(3);
+      assertThat(testObject.getFailedAttemptCount()).isEqualTo(1);
+      assertThat(testObject.getLastFetchMillis()).isLessThanOrEqualTo(elapsed);
+    } finally {
+      slowGate.countDown();
+    }
+
+  }
+
+  @Test
+  public void testFetch_AllFailed() throws Exception {
+
+    String missing = server.addEndpoint("/failed/missing", 0, 404, new byte[0]);
+    String garbage = server.addEndpoint("/failed/garbage", 0, 200, new byte[]{1, 2, 3});
+
+    try {
+      testObject.fetch(Arrays.asList(missing, garbage));
+      fail("Expected every attempt to fail");
+    } catch (ExecutionException e) {
+      // Expected
+    }
+
+    assertThat(testObject.getFailedFetchCount()).isEqualTo(1);
+    assertThat(testObject.getFailedAttemptCount()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testFetch_BudgetExceeded() throws Exception {
+
+    // The endpoint never answers until released so only the budget can end the fetch
+    CountDownLatch slowGate = new CountDownLatch(1);
+    String slow = server.addGatedEndpoint("/budget/slow", slowGate, 200, paymentRequest.toByteArray());
+
+    PaymentRequestFetcher impatientFetcher = new PaymentRequestFetcher(500, 200, Optional.of(server.getClientSocketFactory()));
+
+    try {
+      impatientFetcher.fetch(Arrays.asList(slow));
+      fail("Expected the budget to be exceeded");
+    } catch (TimeoutException e) {
+      // Expected
+    } finally {
+      slowGate.countDown();
+    }
+
+    assertThat(impatientFetcher.getFailedFetchCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testPkiVerificationCache_VerdictReused() throws Exception {
+
+    PkiVerificationCache pkiVerificationCache = new PkiVerificationCache();
+    TrustStoreLoader trustStoreLoader = server.newTrustStoreLoader();
+
+    PaymentProtocol.PkiVerificationData first = pkiVerificationCache.verify(paymentRequest, trustStoreLoader);
+    assertThat(first).isNotNull();
+    assertThat(first.displayName).contains(LocalPaymentRequestServer.MERCHANT_NAME);
+
+    // A different request signed by the same chain reuses the verdict
+    PaymentProtocol.PkiVerificationData second = pkiVerificationCache.verify(server.newSignedPaymentRequest("Another donation"), trustStoreLoader);
+    assertThat(second.displayName).isEqualTo(first.displayName);
+
+    assertThat(pkiVerificationCache.getTrustStoreLoads()).isEqualTo(1);
+    assertThat(pkiVerificationCache.getVerdictMisses()).isEqualTo(1);
+    assertThat(pkiVerificationCache.getVerdictHits()).isEqualTo(1);
+
+    // The request parses as a payment session without further PKI work
+    assertThat(new PaymentSession(paymentRequest, false, trustStoreLoader).getMemo()).isEqualTo("Please donate to MultiBit");
+
+  }
+
+  @Test
+  public void testPkiVerificationCache_ForgedRequestRejected() throws Exception {
+
+    PkiVerificationCache pkiVerificationCache = new PkiVerificationCache();
+    TrustStoreLoader trustStoreLoader = server.newTrustStoreLoader();
+
+    pkiVerificationCache.verify(paymentRequest, trustStoreLoader);
+
+    // Tamper with the payment details but keep the trusted chain and signature
+    Protos.PaymentRequest forged = paymentRequest
+      .toBuilder()
+      .setSerializedPaymentDetails(ByteString.copyFrom(
+        Protos.PaymentDetails.parseFrom(paymentRequest.getSerializedPaymentDetails()).toBuilder().setMemo("Pay the attacker").build().toByteArray()
+      ))
+      .build();
+
+    try {
+      pkiVerificationCache.verify(forged, trustStoreLoader);
+      fail("Expected the forged request to be rejected");
+    } catch (PaymentProtocolException.PkiVerificationException e) {
+      // Expected
+    }
+    assertThat(pkiVerificationCache.getVerdictHits()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testPkiVerificationCache_UntrustedChain() throws Exception {
+
+    PkiVerificationCache pkiVerificationCache = new PkiVerificationCache();
+    TrustStoreLoader unrelatedTrustStoreLoader = server.newUnrelatedTrustStoreLoader();
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        pkiVerificationCache.verify(paymentRequest, unrelatedTrustStoreLoader);
+        fail("Expected the chain to be untrusted");
+      } catch (PaymentProtocolException e) {
+        // Expected
+      }
+    }
+
+    // Failures are never cached
+    assertThat(pkiVerificationCache.getVerdictHits()).isEqualTo(0);
+    assertThat(pkiVerificationCache.getVerdictMisses()).isEqualTo(2);
+
+  }
+
+}
@@ -0,0 +1,207 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.SecuritySummary;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SecurityMonitorTest {
+
+  private static final long ALERT_REPEAT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private final List<SecuritySummary> alerts = Lists.newArrayList();
+
+  private long nowMillis;
+
+  private SecurityMonitor testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    nowMillis = new DateTime(2014, 1, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis();
+    DateTimeUtils.setCurrentMillisFixed(nowMillis);
+
+    testObject = new SecurityMonitor(
+      ALERT_REPEAT_MILLIS, new SecurityMonitor.AlertListener() {
+      @Override
+      public void onAlert(SecuritySummary securitySummary) {
+        alerts.add(securitySummary);
+      }
+    });
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    DateTimeUtils.setCurrentMillisSystem();
+
+  }
+
+  @Test
+  public void testCadence_IndividualIntervals() throws Exception {
+
+    // No backoff so each check keeps its own interval
+    testObject.register(new FakeSecurityCheck("fast", 1_000, 1_000));
+    testObject.register(new FakeSecurityCheck("slow", 5_000, 5_000));
+
+    runForSeconds(60);
+
+    assertThat(testObject.getRunCount("fast")).isEqualTo(60);
+    assertThat(testObject.getRunCount("slow")).isEqualTo(12);
+
+    // The next check is the sooner of the two
+    assertThat(testObject.runDueChecks()).isEqualTo(nowMillis + 1_000);
+
+  }
+
+  @Test
+  public void testBackoff_Unchanged() throws Exception {
+
+    FakeSecurityCheck check = new FakeSecurityCheck("debugger", 2_000, 64_000);
+    testObject.register(check);
+
+    // A fixed 2 second poll would run 300 times in 10 minutes
+    runForSeconds(600);
+
+    assertThat(testObject.getRunCount("debugger")).isLessThan(20);
+    assertThat(testObject.getIntervalMillis("debugger")).isEqualTo(64_000);
+
+    // A change in the result returns to the base interval
+    check.result = Optional.of(SecuritySummary.newDebuggerAttached());
+    int runCount = testObject.getRunCount("debugger");
+    while (testObject.getRunCount("debugger") == runCount) {
+      runForSeconds(1);
+    }
+
+    assertThat(testObject.getIntervalMillis("debugger")).isEqualTo(2_000);
+
+    // A management notification also resets the backoff
+    runForSeconds(600);
+    assertThat(testObject.getIntervalMillis("debugger")).isEqualTo(64_000);
+
+    runCount = testObject.getRunCount("debugger");
+    testObject.trigger();
+
+    // Runs at once then backs off again from the base interval
+    assertThat(testObject.runDueChecks()).isEqualTo(nowMillis + 4_000);
+    assertThat(testObject.getRunCount("debugger")).isEqualTo(runCount + 1);
+
+  }
+
+  @Test
+  public void testAlert_Propagation() throws Exception {
+
+    FakeSecurityCheck check = new FakeSecurityCheck("debugger", 2_000, 64_000);
+    check.result = Optional.of(SecuritySummary.newDebuggerAttached());
+    testObject.register(check);
+
+    FakeSecurityCheck failingCheck = new FakeSecurityCheck("failing", 1_000, 1_000);
+    failingCheck.failure = true;
+    testObject.register(failingCheck);
+
+    // Immediate alert and the latest value is available to any reader
+    testObject.runDueChecks();
+    assertThat(alerts).hasSize(1);
+    assertThat(alerts.get(0).getAlertType()).isEqualTo(SecuritySummary.AlertType.DEBUGGER_ATTACHED);
+    assertThat(testObject.getLatestResult("debugger").isPresent()).isTrue();
+    assertThat(testObject.getLatestAlerts().size()).isEqualTo(1);
+    assertThat(testObject.getLatestAlerts().containsKey("debugger")).isTrue();
+
+    // No repeat alert until the repeat interval has passed
+    runForSeconds(299);
+    assertThat(alerts).hasSize(1);
+    runForSeconds(64);
+    assertThat(alerts).hasSize(2);
+
+    // The issue clears
+    check.result = Optional.absent();
+    runForSeconds(64);
+    assertThat(testObject.getLatestResult("debugger").isPresent()).isFalse();
+    assertThat(testObject.getLatestAlerts()).isEmpty();
+
+    // A new issue alerts at once regardless of the repeat interval
+    check.result = Optional.of(SecuritySummary.newDebuggerAttached());
+    testObject.trigger();
+    testObject.runDueChecks();
+    assertThat(alerts).hasSize(3);
+
+    // The failing check kept running without affecting the others
+    assertThat(testObject.getRunCount("failing")).isGreaterThan(400);
+    assertThat(testObject.getLatestResult("failing").isPresent()).isFalse();
+
+  }
+
+  /**
+   * <p>Run the due checks every second</p>
+   *
+   * @param seconds The number of seconds to run for
+   */
+  private void runForSeconds(int seconds) {
+
+    for (int i = 0; i < seconds; i++) {
+      testObject.runDueChecks();
+      nowMillis += 1_000;
+      DateTimeUtils.setCurrentMillisFixed(nowMillis);
+    }
+
+  }
+
+  /**
+   * <p>Security check with a result controlled by the test</p>
+   */
+  private static class FakeSecurityCheck implements SecurityCheck {
+
+    private final String name;
+
+    private final long intervalMillis;
+
+    private final long maxIntervalMillis;
+
+    private Optional<SecuritySummary> result = Optional.absent();
+
+    private boolean failure = false;
+
+    private FakeSecurityCheck(String name, long intervalMillis, long maxIntervalMillis) {
+      this.name = name;
+      this.intervalMillis = intervalMillis;
+      this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public long getIntervalMillis() {
+      return intervalMillis;
+    }
+
+    @Override
+    public long getMaxIntervalMillis() {
+      return maxIntervalMillis;
+    }
+
+    @Override
+    public Optional<SecuritySummary> check() {
+
+      if (failure) {
+        throw new IllegalStateException("Deliberate failure");
+      }
+
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,169 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+import org.multibit.hd.core.events.ShutdownEvent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ShutdownCoordinatorTest {
+
+  private final List<String> events = Collections.synchronizedList(Lists.<String>newArrayList());
+
+  @Test
+  public void testShutdown_IndependentConcurrently() throws Exception {
+
+    // No stage can stop until every independent stage has started
+    CountDownLatch allStarted = new CountDownLatch(3);
+
+    ShutdownCoordinator testObject = new ShutdownCoordinator("test")
+      .addService("contact", Optional.of(new StubService("contact", allStarted, allStarted, none())), 5_000)
+      .addService("history", Optional.of(new StubService("history", allStarted, allStarted, none())), 5_000)
+      .addService("wallet", Optional.of(new StubService("wallet", allStarted, allStarted, none())), 5_000)
+      .addService("absent", Optional.<ManagedService>absent(), 5_000);
+
+    ShutdownCoordinator.Report report = testObject.shutdownNow(ShutdownEvent.ShutdownType.SOFT);
+
+    assertThat(report.getOutcome("contact")).isEqualTo(ShutdownCoordinator.Outcome.COMPLETED);
+    assertThat(report.getOutcome("history")).isEqualTo(ShutdownCoordinator.Outcome.COMPLETED);
+    assertThat(report.getOutcome("wallet")).isEqualTo(ShutdownCoordinator.Outcome.COMPLETED);
+    assertThat(report.getOutcome("absent")).isEqualTo(ShutdownCoordinator.Outcome.SKIPPED);
+    assertThat(report.getStageNames()).isEqualTo(Arrays.asList("contact", "history", "wallet", "absent"));
+
+    // The stages overlapped: every stage started before any stopped
+    assertThat(events).hasSize(6);
+    assertThat(events.subList(0, 3)).contains("start contact", "start history", "start wallet");
+    assertThat(events.subList(3, 6)).contains("stop contact", "stop history", "stop wallet");
+
+  }
+
+  @Test
+  public void testShutdown_DependencyOrder() throws Exception {
+
+    // The network stage is the slowest dependency since it only stops after the wallet has stopped
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    CountDownLatch walletStopped = new CountDownLatch(1);
+
+    ShutdownCoordinator testObject = new ShutdownCoordinator("test")
+      .addService("bitcoin-network", Optional.of(new StubService("bitcoin-network", bothStarted, walletStopped, none())), 5_000)
+      .addService("wallet", Optional.of(new StubService("wallet", bothStarted, bothStarted, walletStopped)), 5_000)
+      .addTask("failing", new Runnable() {
+        @Override
+        public void run() {
+          throw new IllegalStateException("Deliberate failure");
+        }
+      }, 5_000)
+      .addService("backup", Optional.of(new StubService("backup", none(), none(), none())), 5_000, "bitcoin-network", "wallet", "failing");
+
+    ShutdownCoordinator.Report report = testObject.shutdownNow(ShutdownEvent.ShutdownType.SWITCH);
+
+    // The independent stages overlapped and the backup started after its slowest dependency finished
+    // A failure does not block it
+    assertThat(events).hasSize(6);
+    assertThat(events.subList(0, 2)).contains("start bitcoin-network", "start wallet");
+    assertThat(events.subList(2, 6)).isEqualTo(Arrays.asList("stop wallet", "stop bitcoin-network", "start backup", "stop backup"));
+    assertThat(report.getOutcome("bitcoin-network")).isEqualTo(ShutdownCoordinator.Outcome.COMPLETED);
+    assertThat(report.getOutcome("failing")).isEqualTo(ShutdownCoordinator.Outcome.FAILED);
+    assertThat(report.getOutcome("backup")).isEqualTo(ShutdownCoordinator.Outcome.COMPLETED);
+
+  }
+
+  @Test
+  public void testShutdown_Deadline() throws Exception {
+
+    // The network stage is held until the test releases it so it must pass its deadline
+    CountDownLatch releaseNetwork = new CountDownLatch(1);
+
+    final ShutdownCoordinator testObject = new ShutdownCoordinator("test");
+    testObject
+      .addService("bitcoin-network", Optional.of(new StubService("bitcoin-network", none(), releaseNetwork, none())), 200)
+      .addTask("wallet-save", new Runnable() {
+        @Override
+        public void run() {
+          // The final save sees that the network stage did not finish
+          events.add("save after " + testObject.getOutcome("bitcoin-network"));
+        }
+      }, 1_000, "bitcoin-network")
+      .addService("backup", Optional.of(new StubService("backup", none(), none(), none())), 1_000, "wallet-save");
+
+    ShutdownCoordinator.Report report;
+    List<String> eventsAtShutdown;
+    try {
+      report = testObject.shutdownNow(ShutdownEvent.ShutdownType.HARD);
+      eventsAtShutdown = Lists.newArrayList(events);
+    } finally {
+      releaseNetwork.countDown();
+    }
+
+    assertThat(report.getOutcome("bitcoin-network")).isEqualTo(ShutdownCoordinator.Outcome.TIMED_OUT);
+    assertThat(report.getOutcome("backup")).isEqualTo(ShutdownCoordinator.Outcome.COMPLETED);
+
+    // The dependants ran while the network stage was still held
+    assertThat(eventsAtShutdown).isEqualTo(Arrays.asList(
+      "start bitcoin-network",
+      "save after TIMED_OUT",
+      "start backup", "stop backup"
+    ));
+
+    // The overdue stage finishes in the background once released
+    assertThat(testObject.awaitOverdueStages(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(events).contains("stop bitcoin-network");
+
+  }
+
+  /**
+   * @return A latch that is already open
+   */
+  private static CountDownLatch none() {
+    return new CountDownLatch(0);
+  }
+
+  /**
+   * <p>Stub service recording the start and end of its shutdown, coordinated through latches rather than sleeps</p>
+   */
+  private class StubService implements ManagedService {
+
+    private final String name;
+
+    private final CountDownLatch onStart;
+    private final CountDownLatch beforeStop;
+    private final CountDownLatch onStop;
+
+    /**
+     * @param name       The stage name used in the events
+     * @param onStart    Counted down when the shutdown starts
+     * @param beforeStop Awaited before the shutdown stops
+     * @param onStop     Counted down when the shutdown stops
+     */
+    private StubService(String name, CountDownLatch onStart, CountDownLatch beforeStop, CountDownLatch onStop) {
+      this.name = name;
+      this.onStart = onStart;
+      this.beforeStop = beforeStop;
+      this.onStop = onStop;
+    }
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public void shutdownNow(ShutdownEvent.ShutdownType shutdownType) {
+      events.add("start " + name);
+      onStart.countDown();
+      // Bounded so a broken coordinator fails the assertions rather than hanging the build
+      Uninterruptibles.awaitUninterruptibly(beforeStop, 10, TimeUnit.SECONDS);
+      events.add("stop " + name);
+      onStop.countDown();
+    }
+  }
+
+}
@@ -0,0 +1,289 @@
+package org.multibit.hd.core.testing.payments;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.crypto.TrustStoreLoader;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.protocols.payments.PaymentProtocol;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>An embedded HTTPS server to provide the following to payment protocol tests:</p>
+ * <ul>
+ * <li>A freshly generated self-signed test CA and a localhost merchant certificate issued by it</li>
+ * <li>Payment requests signed by the merchant certificate</li>
+ * <li>Endpoints on an ephemeral port with configurable delay or release gate and response code</li>
+ * <li>Request counts for each endpoint so tests can assert concurrency without timing</li>
+ * </ul>
+ * <p>Unlike {@link PaymentProtocolHttpsServer} nothing depends on fixed ports or JVM-wide trust store properties.</p>
+ *
+ * @since 0.3.6
+ */
+public class LocalPaymentRequestServer {
+
+  public static final String MERCHANT_NAME = "MultiBit Test Merchant";
+
+  private static final char[] PASSWORD = "changeit".toCharArray();
+
+  private final AtomicLong serial = new AtomicLong(1);
+
+  private final KeyPair caKeyPair;
+  private final X509Certificate caCertificate;
+
+  private final KeyPair merchantKeyPair;
+  private final X509Certificate merchantCertificate;
+
+  private final KeyStore trustStore;
+  private final SSLContext clientSslContext;
+
+  private final HttpsServer server;
+  private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+  private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+  public LocalPaymentRequestServer() throws Exception {
+
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(2048);
+
+    caKeyPair = keyPairGenerator.generateKeyPair();
+    X500Principal caPrincipal = new X500Principal("CN=MultiBit Test CA, O=MultiBit Test CA, C=GB");
+    caCertificate = newCertificate(caPrincipal, caPrincipal, caKeyPair, caKeyPair, true);
+
+    merchantKeyPair = keyPairGenerator.generateKeyPair();
+    merchantCertificate = newCertificate(
+      new X500Principal("CN=localhost, O=" + MERCHANT_NAME + ", C=GB"),
+      caPrincipal,
+      merchantKeyPair,
+      caKeyPair,
+      false
+    );
+
+    // Clients trust only the test CA
+    trustStore = KeyStore.getInstance("JKS");
+    trustStore.load(null, PASSWORD);
+    trustStore.setCertificateEntry("test-ca", caCertificate);
+
+    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(trustStore);
+    clientSslContext = SSLContext.getInstance("TLS");
+    clientSslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+    // The server presents the merchant certificate
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    keyStore.load(null, PASSWORD);
+    keyStore.setKeyEntry("merchant", merchantKeyPair.getPrivate(), PASSWORD, new Certificate[]{merchantCertificate, caCertificate});
+
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, PASSWORD);
+    SSLContext serverSslContext = SSLContext.getInstance("TLS");
+    serverSslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setHttpsConfigurator(new HttpsConfigurator(serverSslContext));
+    server.setExecutor(executorService);
+    server.start();
+
+  }
+
+  /**
+   * @param path         The path (e.g. "/slow")
+   * @param delayMillis  The delay before responding
+   * @param responseCode The HTTP response code
+   * @param body         The response body
+   *
+   * @return The URL of the endpoint
+   */
+  public String addEndpoint(String path, long delayMillis, int responseCode, byte[] body) {
+
+    return addEndpoint(path, delayMillis, new CountDownLatch(0), responseCode, body);
+
+  }
+
+  /**
+   * @param path         The path (e.g. "/slow")
+   * @param gate         The latch the endpoint waits on before responding (released by the test)
+   * @param responseCode The HTTP response code
+   * @param body         The response body
+   *
+   * @return The URL of the endpoint
+   */
+  public String addGatedEndpoint(String path, CountDownLatch gate, int responseCode, byte[] body) {
+
+    return addEndpoint(path, 0, gate, responseCode, body);
+
+  }
+
+  /**
+   * @param path The endpoint path
+   *
+   * @return The number of requests the endpoint has received
+   */
+  public int getRequestCount(String path) {
+
+    AtomicInteger count = requestCounts.get(path);
+    return count == null ? 0 : count.get();
+
+  }
+
+  private String addEndpoint(String path, final long delayMillis, final CountDownLatch gate, final int responseCode, final byte[] body) {
+
+    final AtomicInteger requestCount = new AtomicInteger();
+    requestCounts.put(path, requestCount);
+
+    server.createContext(path, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+          Thread.sleep(delayMillis);
+          gate.await();
+          exchange.getResponseHeaders().set("Content-Type", PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
+          exchange.sendResponseHeaders(responseCode, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+
+    return "https://localhost:" + server.getAddress().getPort() + path;
+
+  }
+
+  /**
+   * @param memo The memo to distinguish the payment request
+   *
+   * @return A payment request signed by the merchant certificate
+   */
+  public Protos.PaymentRequest newSignedPaymentRequest(String memo) throws Exception {
+
+    Protos.PaymentRequest.Builder paymentRequest = PaymentProtocol.createPaymentRequest(
+      MainNetParams.get(),
+      Coin.CENT,
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      memo,
+      "https://localhost:" + server.getAddress().getPort() + "/payment",
+      null
+    );
+
+    PaymentProtocol.signPaymentRequest(paymentRequest, new X509Certificate[]{merchantCertificate}, merchantKeyPair.getPrivate());
+
+    return paymentRequest.build();
+
+  }
+
+  /**
+   * @return An SSL socket factory trusting only the test CA
+   */
+  public SSLSocketFactory getClientSocketFactory() {
+    return clientSslContext.getSocketFactory();
+  }
+
+  /**
+   * @return A trust store loader providing a trust store containing only the test CA
+   */
+  public TrustStoreLoader newTrustStoreLoader() {
+
+    return new TrustStoreLoader() {
+      @Override
+      public KeyStore getKeyStore() {
+        return trustStore;
+      }
+    };
+
+  }
+
+  /**
+   * @return A trust store loader providing a trust store containing only an unrelated CA
+   */
+  public TrustStoreLoader newUnrelatedTrustStoreLoader() throws Exception {
+
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(2048);
+    KeyPair unrelatedKeyPair = keyPairGenerator.generateKeyPair();
+    X500Principal unrelatedPrincipal = new X500Principal("CN=Unrelated Test CA, O=Unrelated Test CA, C=GB");
+
+    final KeyStore unrelatedTrustStore = KeyStore.getInstance("JKS");
+    unrelatedTrustStore.load(null, PASSWORD);
+    unrelatedTrustStore.setCertificateEntry("unrelated-ca", newCertificate(unrelatedPrincipal, unrelatedPrincipal, unrelatedKeyPair, unrelatedKeyPair, true));
+
+    return new TrustStoreLoader() {
+      @Override
+      public KeyStore getKeyStore() {
+        return unrelatedTrustStore;
+      }
+    };
+
+  }
+
+  public void stop() {
+
+    server.stop(0);
+    executorService.shutdownNow();
+
+  }
+
+  private X509Certificate newCertificate(X500Principal subject, X500Principal issuer, KeyPair subjectKeyPair, KeyPair issuerKeyPair, boolean isCA) throws Exception {
+
+    long now = System.currentTimeMillis();
+
+    X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+      issuer,
+      BigInteger.valueOf(serial.getAndIncrement()),
+      new Date(now - TimeUnit.DAYS.toMillis(1)),
+      new Date(now + TimeUnit.DAYS.toMillis(30)),
+      subject,
+      subjectKeyPair.getPublic()
+    );
+    builder.addExtension(X509Extension.basicConstraints, true, new BasicConstraints(isCA));
+    if (!isCA) {
+      builder.addExtension(X509Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName(GeneralName.dNSName, "localhost")));
+    }
+
+    return new JcaX509CertificateConverter().getCertificate(
+      builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKeyPair.getPrivate()))
+    );
+
+  }
+}
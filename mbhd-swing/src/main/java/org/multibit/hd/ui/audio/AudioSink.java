@@ -0,0 +1,25 @@
+package org.multibit.hd.ui.audio;
+
+/**
+ * <p>Interface to provide the following to SoundEngine:</p>
+ * <ul>
+ * <li>A destination for decoded sounds (an audio line or nothing when headless)</li>
+ * </ul>
+ *
+ * @since 0.3.6
+ */
+interface AudioSink {
+
+  /**
+   * <p>Play the sound, blocking until it has finished</p>
+   *
+   * @param sound The decoded sound
+   */
+  void play(PcmSound sound);
+
+  /**
+   * <p>Release any audio resources</p>
+   */
+  void close();
+
+}
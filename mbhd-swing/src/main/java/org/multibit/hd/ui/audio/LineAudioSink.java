@@ -0,0 +1,92 @@
+package org.multibit.hd.ui.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Audio sink to provide the following to SoundEngine:</p>
+ * <ul>
+ * <li>Playback through a single source data line that stays open between sounds</li>
+ * </ul>
+ * <p>The line is reopened only if a sound arrives in a different format. Systems without
+ * audio (headless servers, missing mixers, a device held by another application) play nothing
+ * and try the line again after a delay that grows with each failure.</p>
+ *
+ * @since 0.3.6
+ */
+class LineAudioSink implements AudioSink {
+
+  private static final Logger log = LoggerFactory.getLogger(LineAudioSink.class);
+
+  /**
+   * The delay before trying the line again after the first failure
+   */
+  private static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * The longest delay between attempts to open the line
+   */
+  private static final long MAXIMUM_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private SourceDataLine line;
+
+  /**
+   * The current delay between attempts (zero while the line is available)
+   */
+  private long retryDelayMillis = 0;
+
+  private long retryAfterMillis = 0;
+
+  @Override
+  public synchronized void play(PcmSound sound) {
+
+    if (System.currentTimeMillis() < retryAfterMillis) {
+      return;
+    }
+
+    try {
+
+      if (line == null || !line.getFormat().matches(sound.getFormat())) {
+        close();
+        line = AudioSystem.getSourceDataLine(sound.getFormat());
+        line.open(sound.getFormat());
+      }
+
+      line.start();
+      byte[] samples = sound.getSamples();
+      line.write(samples, 0, samples.length);
+      line.drain();
+      line.stop();
+
+      retryDelayMillis = 0;
+
+    } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+      if (retryDelayMillis == 0) {
+        log.warn("No audio line available. Sounds will not be played for now: {}", e.getMessage());
+        retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+      } else {
+        log.debug("Audio line still unavailable: {}", e.getMessage());
+        retryDelayMillis = Math.min(retryDelayMillis * 2, MAXIMUM_RETRY_DELAY_MILLIS);
+      }
+      retryAfterMillis = System.currentTimeMillis() + retryDelayMillis;
+      close();
+    }
+
+  }
+
+  @Override
+  public synchronized void close() {
+
+    if (line != null) {
+      line.close();
+      line = null;
+    }
+
+  }
+
+}
@@ -0,0 +1,56 @@
+package org.multibit.hd.ui.audio;
+
+import com.google.common.base.Preconditions;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>Value object to provide the following to SoundEngine:</p>
+ * <ul>
+ * <li>A sound decoded to signed 16 bit little endian PCM ready to write to an audio line</li>
+ * </ul>
+ *
+ * @since 0.3.6
+ */
+class PcmSound {
+
+  private final AudioFormat format;
+
+  private final byte[] samples;
+
+  /**
+   * @param format  The audio format describing the samples
+   * @param samples The PCM samples
+   */
+  PcmSound(AudioFormat format, byte[] samples) {
+
+    Preconditions.checkNotNull(format, "'format' must be present");
+    Preconditions.checkNotNull(samples, "'samples' must be present");
+
+    this.format = format;
+    this.samples = samples;
+
+  }
+
+  /**
+   * @return The audio format describing the samples
+   */
+  AudioFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * @return The PCM samples
+   */
+  byte[] getSamples() {
+    return samples;
+  }
+
+  /**
+   * @return The duration of the sound in milliseconds
+   */
+  long getDurationMillis() {
+    return (long) (samples.length * 1000L / (format.getFrameSize() * format.getFrameRate()));
+  }
+
+}
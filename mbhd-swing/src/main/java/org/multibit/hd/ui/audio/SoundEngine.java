@@ -0,0 +1,241 @@
+package org.multibit.hd.ui.audio;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Engine to provide the following to Sounds:</p>
+ * <ul>
+ * <li>Decoding of each MP3 clip to PCM once when it is loaded</li>
+ * <li>Playback of decoded clips in order on a single background thread</li>
+ * <li>Merging of rapid repeats so a burst of notifications plays a clip at most once per interval</li>
+ * </ul>
+ * <p>A clip has at most one play waiting behind the one in progress. Requests that arrive while
+ * a play is waiting are merged into it.</p>
+ *
+ * @since 0.3.6
+ */
+class SoundEngine {
+
+  private static final Logger log = LoggerFactory.getLogger(SoundEngine.class);
+
+  private final AudioSink sink;
+
+  private final long minimumIntervalMillis;
+
+  private final ExecutorService executorService = SafeExecutors.newSingleThreadExecutor("play-sounds");
+
+  private final Map<String, PcmSound> sounds = Maps.newConcurrentMap();
+
+  /**
+   * The clips with a play waiting to start
+   */
+  private final Set<String> waitingNames = Sets.newHashSet();
+
+  /**
+   * The time each clip last started playing
+   */
+  private final Map<String, Long> lastStartedMillis = Maps.newHashMap();
+
+  private long decodeCount = 0;
+
+  private long playCount = 0;
+
+  private long mergedCount = 0;
+
+  /**
+   * @param sink                  The audio sink to receive the decoded sounds
+   * @param minimumIntervalMillis The minimum time between starts of the same clip
+   */
+  SoundEngine(AudioSink sink, long minimumIntervalMillis) {
+
+    Preconditions.checkNotNull(sink, "'sink' must be present");
+    Preconditions.checkArgument(minimumIntervalMillis >= 0, "'minimumIntervalMillis' must not be negative");
+
+    this.sink = sink;
+    this.minimumIntervalMillis = minimumIntervalMillis;
+
+  }
+
+  /**
+   * <p>Decode and hold a clip ready for playing</p>
+   *
+   * @param name The name of the clip
+   * @param mp3  The MP3 encoded clip
+   */
+  void load(String name, byte[] mp3) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(mp3, "'mp3' must be present");
+
+    PcmSound sound = decode(mp3);
+    synchronized (this) {
+      decodeCount++;
+    }
+    sounds.put(name, sound);
+
+    log.debug("Decoded '{}' to {} bytes of PCM ({} ms)", name, sound.getSamples().length, sound.getDurationMillis());
+
+  }
+
+  /**
+   * @param name The name of the clip
+   *
+   * @return True if the clip has been loaded
+   */
+  boolean isLoaded(String name) {
+    return sounds.containsKey(name);
+  }
+
+  /**
+   * <p>Play a loaded clip in the background (merged with any play of the same clip that is still waiting)</p>
+   *
+   * @param name The name of the clip
+   */
+  void play(final String name) {
+
+    final PcmSound sound = sounds.get(name);
+    Preconditions.checkState(sound != null, "'" + name + "' must be present (did you initialise?)");
+
+    synchronized (this) {
+      if (!waitingNames.add(name)) {
+        mergedCount++;
+        return;
+      }
+    }
+
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+
+        long delayMillis;
+        synchronized (SoundEngine.this) {
+          Long lastStarted = lastStartedMillis.get(name);
+          delayMillis = lastStarted == null ? 0 : lastStarted + minimumIntervalMillis - System.currentTimeMillis();
+        }
+
+        if (delayMillis > 0) {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+
+        synchronized (SoundEngine.this) {
+          // Later requests queue a new play rather than merging into this one
+          waitingNames.remove(name);
+          lastStartedMillis.put(name, System.currentTimeMillis());
+          playCount++;
+        }
+
+        sink.play(sound);
+
+      }
+    });
+
+  }
+
+  /**
+   * <p>Finish any plays in progress and release the audio sink</p>
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The unit of the timeout
+   */
+  void shutdown(long timeout, TimeUnit unit) {
+
+    executorService.shutdown();
+    try {
+      if (!executorService.awaitTermination(timeout, unit)) {
+        executorService.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executorService.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+
+    sink.close();
+
+  }
+
+  /**
+   * @return The number of clips decoded
+   */
+  synchronized long getDecodeCount() {
+    return decodeCount;
+  }
+
+  /**
+   * @return The number of plays delivered to the audio sink
+   */
+  synchronized long getPlayCount() {
+    return playCount;
+  }
+
+  /**
+   * @return The number of play requests merged into a waiting play
+   */
+  synchronized long getMergedCount() {
+    return mergedCount;
+  }
+
+  /**
+   * @param mp3 The MP3 encoded clip
+   *
+   * @return The clip as signed 16 bit little endian PCM
+   */
+  static PcmSound decode(byte[] mp3) {
+
+    ByteArrayOutputStream pcm = new ByteArrayOutputStream(mp3.length * 10);
+    Bitstream bitstream = new Bitstream(new ByteArrayInputStream(mp3));
+    Decoder decoder = new Decoder();
+
+    try {
+      Header header;
+      while ((header = bitstream.readFrame()) != null) {
+
+        SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+        short[] samples = output.getBuffer();
+        for (int i = 0; i < output.getBufferLength(); i++) {
+          pcm.write(samples[i] & 0xff);
+          pcm.write((samples[i] >> 8) & 0xff);
+        }
+
+        bitstream.closeFrame();
+      }
+    } catch (JavaLayerException e) {
+      throw new IllegalStateException(e.getMessage());
+    } finally {
+      try {
+        bitstream.close();
+      } catch (JavaLayerException e) {
+        log.warn("Could not close MP3 bitstream: {}", e.getMessage());
+      }
+    }
+
+    Preconditions.checkState(pcm.size() > 0, "'mp3' must contain at least one frame");
+
+    AudioFormat format = new AudioFormat(decoder.getOutputFrequency(), 16, decoder.getOutputChannels(), true, false);
+
+    return new PcmSound(format, pcm.toByteArray());
+  }
+
+}
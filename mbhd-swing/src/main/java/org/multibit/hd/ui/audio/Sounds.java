@@ -1,40 +1,43 @@
 package org.multibit.hd.ui.audio;
 
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
-import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.Player;
-import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.Configurations;
 import org.spongycastle.util.io.Streams;
 
 import java.awt.*;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Factory to provide the following to UI:</p>
  * <ul>
  * <li>Provision of standard sounds</li>
  * </ul>
+ * <p>Sounds are decoded once during initialisation and a burst of notifications (such as many
+ * payments arriving together) plays the sound at most once per interval.</p>
  *
  * @since 0.0.1
  *
  */
 public class Sounds {
 
-  private static final Map<String, byte[]> allSounds = Maps.newHashMap();
-
   /**
    * The name and key of the MP3 file containing the "payment received" sound
    */
   private static final String PAYMENT_RECEIVED = "receive-bitcoin";
 
-  private static final ExecutorService executorService = SafeExecutors.newSingleThreadExecutor("play-received");
+  /**
+   * The minimum time between starts of the same sound
+   */
+  private static final long MINIMUM_INTERVAL_MILLIS = 1_000;
+
+  /**
+   * The time allowed for a sound in progress to finish during shutdown
+   */
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 1_000;
+
+  private static volatile SoundEngine soundEngine = new SoundEngine(new LineAudioSink(), MINIMUM_INTERVAL_MILLIS);
 
   /**
    * Utilities have no public constructor
@@ -42,9 +45,25 @@ public class Sounds {
   private Sounds() {
   }
 
-  public static void initialise() {
+  public static synchronized void initialise() {
 
-    allSounds.put(PAYMENT_RECEIVED, load(PAYMENT_RECEIVED));
+    if (!soundEngine.isLoaded(PAYMENT_RECEIVED)) {
+      soundEngine.load(PAYMENT_RECEIVED, load(PAYMENT_RECEIVED));
+    }
+
+  }
+
+  /**
+   * <p>Finish any sound in progress and release the audio line</p>
+   *
+   * <p>A fresh engine is left in place so a soft restart can initialise again</p>
+   */
+  public static synchronized void shutdownNow() {
+
+    SoundEngine previous = soundEngine;
+    soundEngine = new SoundEngine(new LineAudioSink(), MINIMUM_INTERVAL_MILLIS);
+
+    previous.shutdown(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 
   }
 
@@ -59,44 +78,16 @@ public class Sounds {
   }
 
   /**
-   * Plays the "payment received" sound in a new thread
+   * Plays the "payment received" sound in the background
    */
   public static void playPaymentReceived() {
 
     if (Configurations.currentConfiguration.getSound().isReceiveSound()) {
-
-      executorService.submit(new Runnable() {
-        @Override
-        public void run() {
-          play(PAYMENT_RECEIVED);
-        }
-      });
+      soundEngine.play(PAYMENT_RECEIVED);
     }
 
   }
 
-  /**
-   * @param name The name of the sound file (no extension)
-   */
-  private static void play(String name) {
-
-    Preconditions.checkState(allSounds.containsKey(name), "'" + name + "' must be present (did you initialise?)");
-
-    byte[] sound = allSounds.get(name);
-
-    Player player = null;
-    try {
-      player = new Player(new ByteArrayInputStream(sound));
-      player.play();
-    } catch (JavaLayerException e) {
-      throw new IllegalStateException(e.getMessage());
-    } finally {
-      if (player != null) {
-        player.close();
-      }
-    }
-  }
-
   /**
    * @param name The name of the sound file (no extension)
    *
@@ -28,6 +28,7 @@ import org.multibit.hd.hardware.core.events.HardwareWalletEvent;
 import org.multibit.hd.hardware.core.events.HardwareWalletEventType;
 import org.multibit.hd.hardware.core.events.HardwareWalletEvents;
 import org.multibit.hd.hardware.core.messages.Features;
+import org.multibit.hd.ui.audio.Sounds;
 import org.multibit.hd.ui.events.controller.ControllerEvents;
 import org.multibit.hd.ui.events.view.ComponentChangedEvent;
 import org.multibit.hd.ui.events.view.SwitchWalletEvent;
@@ -281,6 +282,9 @@ public class MainController extends AbstractController implements
 
     Preconditions.checkNotNull(event, "'event' must be present");
 
+    // Rebuild the localised text before any views are rebuilt
+    Languages.refreshMessageTable();
+
     if (mainView.isShowExitingWelcomeWizard()) {
 
       // Restarting the main view from a language change
@@ -633,6 +637,9 @@ public class MainController extends AbstractController implements
     if (!shutdownType.equals(ShutdownEvent.ShutdownType.SWITCH)) {
       // Hide the UI if not switching
       shutdownMainView();
+
+      // Let any sound in progress finish and release the audio line
+      Sounds.shutdownNow();
     }
 
     // Provide a graceful shutdown of the relevant core services in the correct order
@@ -0,0 +1,147 @@
+package org.multibit.hd.ui.events.view;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.EventBus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Dispatcher to provide the following to ViewEvents:</p>
+ * <ul>
+ * <li>Delivery of events fired away from the EDT in a single EDT pass rather than one task per event</li>
+ * <li>Collapsing of "latest value" events (progress, balance etc) so only the most recent is delivered</li>
+ * <li>Delivery of all other events in the order they were fired</li>
+ * </ul>
+ * <p>A burst of network progress or verification events would otherwise queue thousands of tiny
+ * runnables on the EDT, each of them updating the UI with a value that is already out of date.</p>
+ *
+ * @since 0.3.6
+ */
+class ViewEventDispatcher {
+
+  private static final Logger log = LoggerFactory.getLogger(ViewEventDispatcher.class);
+
+  private final EventBus eventBus;
+
+  private final Executor edtExecutor;
+
+  /**
+   * The pending events in the order they were fired (collapsed events leave a null behind)
+   */
+  private List<Object> pendingEvents = Lists.newArrayList();
+
+  /**
+   * The position of the pending event for each collapse key
+   */
+  private Map<Object, Integer> pendingPositions = Maps.newHashMap();
+
+  private boolean drainScheduled = false;
+
+  private final Runnable drainTask = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * @param eventBus    The event bus to receive the events
+   * @param edtExecutor The executor running tasks on the EDT (normally SwingUtilities.invokeLater)
+   */
+  ViewEventDispatcher(EventBus eventBus, Executor edtExecutor) {
+
+    Preconditions.checkNotNull(eventBus, "'eventBus' must be present");
+    Preconditions.checkNotNull(edtExecutor, "'edtExecutor' must be present");
+
+    this.eventBus = eventBus;
+    this.edtExecutor = edtExecutor;
+
+  }
+
+  /**
+   * <p>Queue an event that must be delivered in order</p>
+   *
+   * @param event The event
+   */
+  void post(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    enqueue(event, null);
+
+  }
+
+  /**
+   * <p>Queue an event that replaces any pending event with the same key</p>
+   *
+   * @param event       The event
+   * @param collapseKey The key identifying the value carried by the event (e.g. the event class)
+   */
+  void postLatest(Object event, Object collapseKey) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+    Preconditions.checkNotNull(collapseKey, "'collapseKey' must be present");
+
+    enqueue(event, collapseKey);
+
+  }
+
+  /**
+   * @param event       The event
+   * @param collapseKey The collapse key or null if the event must always be delivered
+   */
+  private void enqueue(Object event, Object collapseKey) {
+
+    boolean schedule;
+    synchronized (this) {
+
+      if (collapseKey != null) {
+        // The superseded event is removed and the latest takes its place after any events fired in between
+        Integer previous = pendingPositions.put(collapseKey, pendingEvents.size());
+        if (previous != null) {
+          pendingEvents.set(previous, null);
+        }
+      }
+      pendingEvents.add(event);
+
+      schedule = !drainScheduled;
+      drainScheduled = true;
+    }
+
+    if (schedule) {
+      edtExecutor.execute(drainTask);
+    }
+
+  }
+
+  /**
+   * <p>Deliver all pending events (must be called on the EDT)</p>
+   */
+  void drain() {
+
+    List<Object> events;
+    synchronized (this) {
+      events = pendingEvents;
+      pendingEvents = Lists.newArrayList();
+      pendingPositions = Maps.newHashMap();
+      drainScheduled = false;
+    }
+
+    log.trace("Delivering {} queued events", events.size());
+
+    // Events fired by subscribers during delivery are queued for the next pass
+    for (Object event : events) {
+      if (event != null) {
+        eventBus.post(event);
+      }
+    }
+
+  }
+
+}
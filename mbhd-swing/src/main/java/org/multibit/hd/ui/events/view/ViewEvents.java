@@ -19,7 +19,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * <p>Factory to provide the following to application API:</p>
@@ -35,6 +37,10 @@ import java.util.Set;
  * across many subscribers. One example is if the UI is required to "freeze" in order to
  * prevent the user from interacting with it during an atomic operation.</p>
  *
+ * <p>Events fired away from the EDT are queued and delivered together on the EDT. Only the
+ * latest of a burst of "value" events (balance, progress, system status, wizard button and
+ * verification status) is delivered.</p>
+ *
  * @since 0.0.1
  */
 public class ViewEvents {
@@ -52,6 +58,18 @@ public class ViewEvents {
    */
   private static final Set<Object> viewEventBusSubscribers = Sets.newHashSet();
 
+  /**
+   * Deliver events fired away from the EDT in batches
+   */
+  private static final ViewEventDispatcher viewEventDispatcher = new ViewEventDispatcher(
+    viewEventBus,
+    new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        SwingUtilities.invokeLater(command);
+      }
+    });
+
 
   /**
    * Utilities have a private constructor
@@ -123,6 +141,37 @@ public class ViewEvents {
 
   }
 
+  /**
+   * <p>Post an event directly on the EDT, otherwise queue it for delivery in order on the EDT</p>
+   *
+   * @param event The event
+   */
+  private static void post(Object event) {
+
+    if (SwingUtilities.isEventDispatchThread()) {
+      viewEventBus.post(event);
+    } else {
+      viewEventDispatcher.post(event);
+    }
+
+  }
+
+  /**
+   * <p>Post an event directly on the EDT, otherwise queue it replacing any queued event with the same key</p>
+   *
+   * @param event       The event
+   * @param collapseKey The key identifying the value carried by the event
+   */
+  private static void postLatest(Object event, Object collapseKey) {
+
+    if (SwingUtilities.isEventDispatchThread()) {
+      viewEventBus.post(event);
+    } else {
+      viewEventDispatcher.postLatest(event, collapseKey);
+    }
+
+  }
+
   /**
    * <p>Broadcast a new "balance changed" event</p>
    *
@@ -137,27 +186,7 @@ public class ViewEvents {
   ) {
 
     log.trace("Firing 'balance changed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(
-        new BalanceChangedEvent(
-          coinBalance,
-          localBalance,
-          rateProvider
-        ));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(
-            new BalanceChangedEvent(
-              coinBalance,
-              localBalance,
-              rateProvider
-            ));
-        }
-      });
-    }
+    postLatest(new BalanceChangedEvent(coinBalance, localBalance, rateProvider), BalanceChangedEvent.class);
 
   }
 
@@ -170,17 +199,7 @@ public class ViewEvents {
   public static void fireSystemStatusChangedEvent(final String localisedMessage, final RAGStatus severity) {
 
     log.trace("Firing 'system status changed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new SystemStatusChangedEvent(localisedMessage, severity));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new SystemStatusChangedEvent(localisedMessage, severity));
-        }
-      });
-    }
+    postLatest(new SystemStatusChangedEvent(localisedMessage, severity), SystemStatusChangedEvent.class);
 
   }
 
@@ -193,17 +212,7 @@ public class ViewEvents {
   public static void fireProgressChangedEvent(final String localisedMessage, final int percent) {
 
     log.trace("Firing 'progress changed' event: '{}'", percent);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ProgressChangedEvent(localisedMessage, percent));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ProgressChangedEvent(localisedMessage, percent));
-        }
-      });
-    }
+    postLatest(new ProgressChangedEvent(localisedMessage, percent), ProgressChangedEvent.class);
 
   }
 
@@ -215,17 +224,7 @@ public class ViewEvents {
   public static void fireAlertAddedEvent(final AlertModel alertModel) {
 
     log.trace("Firing 'alert added' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new AlertAddedEvent(alertModel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new AlertAddedEvent(alertModel));
-        }
-      });
-    }
+    post(new AlertAddedEvent(alertModel));
 
   }
 
@@ -235,17 +234,7 @@ public class ViewEvents {
   public static void fireSwitchWalletEvent() {
 
     log.debug("Firing 'switch wallet' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new SwitchWalletEvent());
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new SwitchWalletEvent());
-        }
-      });
-    }
+    post(new SwitchWalletEvent());
 
   }
 
@@ -255,17 +244,7 @@ public class ViewEvents {
   public static void fireAlertRemovedEvent() {
 
     log.trace("Firing 'alert removed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new AlertRemovedEvent());
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new AlertRemovedEvent());
-        }
-      });
-    }
+    post(new AlertRemovedEvent());
 
   }
 
@@ -275,17 +254,7 @@ public class ViewEvents {
   public static void fireWalletDetailChangedEvent(final WalletDetail walletDetail) {
 
     log.trace("Firing 'walletDetailChanged' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WalletDetailChangedEvent(walletDetail));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WalletDetailChangedEvent(walletDetail));
-        }
-      });
-    }
+    post(new WalletDetailChangedEvent(walletDetail));
 
   }
 
@@ -303,17 +272,7 @@ public class ViewEvents {
   ) {
 
     log.trace("Firing 'wizard button enabled {}' event: {}", panelName, enabled);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardButtonEnabledEvent(panelName, wizardButton, enabled));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardButtonEnabledEvent(panelName, wizardButton, enabled));
-        }
-      });
-    }
+    postLatest(new WizardButtonEnabledEvent(panelName, wizardButton, enabled), Arrays.asList(WizardButtonEnabledEvent.class, panelName, wizardButton));
   }
 
   /**
@@ -330,17 +289,7 @@ public class ViewEvents {
   ) {
 
     log.trace("Firing 'wizard hide' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardHideEvent(panelName, wizardModel, isExitCancel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardHideEvent(panelName, wizardModel, isExitCancel));
-        }
-      });
-    }
+    post(new WizardHideEvent(panelName, wizardModel, isExitCancel));
 
   }
 
@@ -353,17 +302,7 @@ public class ViewEvents {
   public static void fireWizardPopoverHideEvent(final String panelName, final boolean isExitCancel) {
 
     log.trace("Firing 'wizard popover hide' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardPopoverHideEvent(panelName, isExitCancel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardPopoverHideEvent(panelName, isExitCancel));
-        }
-      });
-    }
+    post(new WizardPopoverHideEvent(panelName, isExitCancel));
 
   }
 
@@ -376,17 +315,7 @@ public class ViewEvents {
   public static void fireWizardDeferredHideEvent(final String panelName, final boolean isExitCancel) {
 
     log.trace("Firing 'wizard deferred hide' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardDeferredHideEvent(panelName, isExitCancel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardDeferredHideEvent(panelName, isExitCancel));
-        }
-      });
-    }
+    post(new WizardDeferredHideEvent(panelName, isExitCancel));
 
   }
 
@@ -399,17 +328,7 @@ public class ViewEvents {
   public static void fireComponentChangedEvent(final String panelName, final Optional componentModel) {
 
     log.trace("Firing 'component changed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ComponentChangedEvent(panelName, componentModel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ComponentChangedEvent(panelName, componentModel));
-        }
-      });
-    }
+    post(new ComponentChangedEvent(panelName, componentModel));
 
   }
 
@@ -422,17 +341,7 @@ public class ViewEvents {
   public static void fireVerificationStatusChangedEvent(final String panelName, final boolean status) {
 
     log.trace("Firing 'verification status changed' event: {}", status);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new VerificationStatusChangedEvent(panelName, status));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new VerificationStatusChangedEvent(panelName, status));
-        }
-      });
-    }
+    postLatest(new VerificationStatusChangedEvent(panelName, status), Arrays.asList(VerificationStatusChangedEvent.class, panelName));
 
   }
 
@@ -445,17 +354,7 @@ public class ViewEvents {
   public static void fireViewChangedEvent(final ViewKey viewKey, final boolean visible) {
 
     log.trace("Firing 'view changed' event: {}", visible);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ViewChangedEvent(viewKey, visible));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ViewChangedEvent(viewKey, visible));
-        }
-      });
-    }
+    post(new ViewChangedEvent(viewKey, visible));
 
   }
 
@@ -467,17 +366,7 @@ public class ViewEvents {
   public static void fireShowDetailScreenEvent(final Screen detailScreen) {
 
     log.trace("Firing 'show detail screen' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ShowScreenEvent(detailScreen));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ShowScreenEvent(detailScreen));
-        }
-      });
-    }
+    post(new ShowScreenEvent(detailScreen));
   }
 
 }
\ No newline at end of file
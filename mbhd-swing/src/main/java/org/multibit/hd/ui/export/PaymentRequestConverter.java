@@ -7,6 +7,7 @@ import org.multibit.hd.core.dto.PaymentRequestData;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 
 
 /**
@@ -14,7 +15,15 @@ import java.text.SimpleDateFormat;
  */
 public class PaymentRequestConverter implements CSVEntryConverter<PaymentRequestData> {
 
-  DateFormat dateFormatter = new SimpleDateFormat("dd MMM yyyy HH:mm", Configurations.currentConfiguration.getLocale());
+  // SimpleDateFormat is not thread safe and rows are converted in parallel
+  private final Locale locale = Configurations.currentConfiguration.getLocale();
+
+  private final ThreadLocal<DateFormat> dateFormatter = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat("dd MMM yyyy HH:mm", locale);
+    }
+  };
 
 
   @Override
@@ -22,7 +31,7 @@ public class PaymentRequestConverter implements CSVEntryConverter<PaymentRequest
     String[] columns = new String[12];
 
     // Date
-    columns[0] = paymentRequestData.getDate() == null ? "" : dateFormatter.format(paymentRequestData.getDate().toDate());
+    columns[0] = paymentRequestData.getDate() == null ? "" : dateFormatter.get().format(paymentRequestData.getDate().toDate());
 
     // Type
     columns[1] = paymentRequestData.getType() == null ? "" : paymentRequestData.getType().toString();
@@ -6,6 +6,7 @@ import org.multibit.hd.core.dto.TransactionData;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 
 
 /**
@@ -13,14 +14,22 @@ import java.text.SimpleDateFormat;
  */
 public class TransactionConverter implements CSVEntryConverter<TransactionData> {
 
-  DateFormat dateFormatter = new SimpleDateFormat("dd MMM yyyy HH:mm", Configurations.currentConfiguration.getLocale());
+  // SimpleDateFormat is not thread safe and rows are converted in parallel
+  private final Locale locale = Configurations.currentConfiguration.getLocale();
+
+  private final ThreadLocal<DateFormat> dateFormatter = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat("dd MMM yyyy HH:mm", locale);
+    }
+  };
 
   @Override
   public String[] convertEntry(TransactionData transactionData) {
     String[] columns = new String[14];
 
     // Date
-    columns[0] = transactionData.getDate() == null ? "" : dateFormatter.format(transactionData.getDate().toDate());
+    columns[0] = transactionData.getDate() == null ? "" : dateFormatter.get().format(transactionData.getDate().toDate());
 
     // Status
     columns[1] = transactionData.getStatus() == null ? "" : transactionData.getStatus().getStatus().toString();
@@ -29,6 +29,11 @@ public class Languages {
    */
   public static final URI MBHD_TRANSLATION_WEBSITE_URI = URI.create("https://crowdin.com/project/multibit-hd");
 
+  /**
+   * The localised messages for the current locale (replaced on a locale switch)
+   */
+  private static volatile MessageTable messageTable;
+
   /**
    * Utilities have private constructors
    */
@@ -116,19 +121,7 @@ public class Languages {
       return "";
     }
 
-    ResourceBundle rb = currentResourceBundle();
-
-    final String message;
-
-    if (!rb.containsKey(key.getKey())) {
-      // If no key is present then use it direct
-      message = key.getKey();
-    } else {
-      // Must have the key to be here
-      message = rb.getString(key.getKey());
-    }
-
-    return MessageFormat.format(message, values);
+    return currentMessageTable().format(key, values);
   }
 
   /**
@@ -139,19 +132,7 @@ public class Languages {
    */
   public static String safeText(CoreMessageKey key, Object... values) {
 
-    ResourceBundle rb = currentResourceBundle();
-
-    final String message;
-
-    if (!rb.containsKey(key.getKey())) {
-      // If no key is present then use it direct
-      message = key.getKey();
-    } else {
-      // Must have the key to be here
-      message = rb.getString(key.getKey());
-    }
-
-    return MessageFormat.format(message, values);
+    return currentMessageTable().format(key, values);
   }
 
   /**
@@ -162,19 +143,7 @@ public class Languages {
    */
   public static String safeText(String key, Object... values) {
 
-    ResourceBundle rb = currentResourceBundle();
-
-    final String message;
-
-    if (!rb.containsKey(key)) {
-      // If no key is present then use it direct
-      message = "Key '" + key + "' is not localised!";
-    } else {
-      // Must have the key to be here
-      message = rb.getString(key);
-    }
-
-    return MessageFormat.format(message, values);
+    return currentMessageTable().format(key, values);
   }
 
   /**
@@ -214,7 +183,35 @@ public class Languages {
    */
   static ResourceBundle currentResourceBundle() {
 
-    return ResourceBundle.getBundle(BASE_NAME, currentLocale());
+    return currentMessageTable().getResourceBundle();
+  }
+
+  /**
+   * <p>Rebuild the message table for the current locale so the first view built after
+   * a locale switch does not pay for it. Called on a configuration change.</p>
+   */
+  public static void refreshMessageTable() {
+
+    messageTable = new MessageTable(currentLocale());
+  }
+
+  /**
+   * <p>Package access only - external consumers should use safeText()</p>
+   *
+   * @return The message table for the current locale, building it if the locale has changed
+   */
+  static MessageTable currentMessageTable() {
+
+    Locale locale = currentLocale();
+
+    MessageTable table = messageTable;
+    if (table == null || !table.getLocale().equals(locale)) {
+      // Configuration may have been replaced without an event (e.g. during tests)
+      table = new MessageTable(locale);
+      messageTable = table;
+    }
+
+    return table;
   }
 
   /**
@@ -697,6 +697,7 @@ public enum MessageKey {
   SELECT_BACKUP_NOTE_1("select_backup_note_1"),
   SELECT_BACKUP_NOTE_1_TOOLTIP("select_backup_note_1_tooltip"),
   SELECT_BACKUP_NOTE_2("select_backup_note_2"),
+  SELECT_BACKUP_DAMAGED("select_backup_damaged"),
 
   PREPARATION_NOTE_1("preparation_note_1"),
   PREPARATION_NOTE_2("preparation_note_2"),
@@ -864,6 +865,7 @@ public enum MessageKey {
   EXPORT_WAS_SUCCESSFUL("export_was_successful"),
   TRANSACTIONS_WERE_EXPORTED_TO_THE_FILE("transactions_were_exported_to_the_file"),
   PAYMENT_REQUESTS_WERE_EXPORTED_TO_THE_FILE("payment_requests_were_exported_to_the_file"),
+  EXPORT_PROGRESS("export_progress"),
   COULD_NOT_WRITE_TO_THE_DIRECTORY("could_not_write_to_the_directory"),
 
   // Repair wallet
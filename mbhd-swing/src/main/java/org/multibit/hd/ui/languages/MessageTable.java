@@ -0,0 +1,187 @@
+package org.multibit.hd.ui.languages;
+
+import com.google.common.base.Preconditions;
+import org.multibit.hd.core.dto.CoreMessageKey;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Lookup table to provide the following to Languages:</p>
+ * <ul>
+ * <li>Localised messages for a single locale indexed by message key ordinal</li>
+ * <li>Pre-parsed message formats so that patterns are not parsed on every lookup</li>
+ * </ul>
+ * <p>A table is immutable once built so a locale switch replaces it rather than modifying it.</p>
+ *
+ * @since 0.3.6
+ */
+final class MessageTable {
+
+  private final Locale locale;
+
+  private final ResourceBundle resourceBundle;
+
+  private final Entry[] messageKeyEntries;
+
+  private final Entry[] coreMessageKeyEntries;
+
+  /**
+   * Ad-hoc string keys are uncommon so are cached on demand
+   */
+  private final ConcurrentHashMap<String, Entry> stringKeyEntries = new ConcurrentHashMap<>();
+
+  /**
+   * The number of entries built (each parses its pattern once)
+   */
+  private final AtomicInteger entryCount = new AtomicInteger();
+
+  /**
+   * @param locale The locale for all messages in this table
+   */
+  MessageTable(Locale locale) {
+
+    Preconditions.checkNotNull(locale, "'locale' must be present");
+
+    this.locale = locale;
+    this.resourceBundle = ResourceBundle.getBundle(Languages.BASE_NAME, locale);
+
+    MessageKey[] messageKeys = MessageKey.values();
+    messageKeyEntries = new Entry[messageKeys.length];
+    for (MessageKey messageKey : messageKeys) {
+      messageKeyEntries[messageKey.ordinal()] = newEntry(messageKey.getKey(), messageKey.getKey());
+    }
+
+    CoreMessageKey[] coreMessageKeys = CoreMessageKey.values();
+    coreMessageKeyEntries = new Entry[coreMessageKeys.length];
+    for (CoreMessageKey coreMessageKey : coreMessageKeys) {
+      coreMessageKeyEntries[coreMessageKey.ordinal()] = newEntry(coreMessageKey.getKey(), coreMessageKey.getKey());
+    }
+
+  }
+
+  /**
+   * @return The locale of this table
+   */
+  Locale getLocale() {
+    return locale;
+  }
+
+  /**
+   * @return The underlying resource bundle
+   */
+  ResourceBundle getResourceBundle() {
+    return resourceBundle;
+  }
+
+  /**
+   * @return The number of entries built, which only grows after construction for new ad-hoc string keys
+   */
+  int getEntryCount() {
+    return entryCount.get();
+  }
+
+  /**
+   * @param key    The message key
+   * @param values The value substitutions
+   *
+   * @return The localised text
+   */
+  String format(MessageKey key, Object... values) {
+    return messageKeyEntries[key.ordinal()].format(values);
+  }
+
+  /**
+   * @param key    The core message key
+   * @param values The value substitutions
+   *
+   * @return The localised text
+   */
+  String format(CoreMessageKey key, Object... values) {
+    return coreMessageKeyEntries[key.ordinal()].format(values);
+  }
+
+  /**
+   * @param key    The resource key (must be present in the bundle)
+   * @param values The value substitutions
+   *
+   * @return The localised text
+   */
+  String format(String key, Object... values) {
+
+    Entry entry = stringKeyEntries.get(key);
+    if (entry == null) {
+      entry = newEntry(key, "Key '" + key + "' is not localised!");
+      stringKeyEntries.putIfAbsent(key, entry);
+    }
+
+    return entry.format(values);
+  }
+
+  /**
+   * @param key      The resource key
+   * @param fallback The pattern to use if the key is not in the bundle
+   *
+   * @return A new entry with the pattern parsed
+   */
+  private Entry newEntry(String key, String fallback) {
+
+    entryCount.incrementAndGet();
+
+    if (resourceBundle.containsKey(key)) {
+      return new Entry(resourceBundle.getString(key));
+    }
+
+    return new Entry(fallback);
+  }
+
+  /**
+   * <p>A single message with its parsed format and the result of formatting without values</p>
+   */
+  private static final class Entry {
+
+    private final String pattern;
+
+    /**
+     * Null if the pattern is malformed (reported on use rather than on table build)
+     */
+    private final MessageFormat messageFormat;
+
+    private final String text;
+
+    private Entry(String pattern) {
+
+      this.pattern = pattern;
+
+      MessageFormat parsed;
+      try {
+        parsed = new MessageFormat(pattern);
+      } catch (IllegalArgumentException e) {
+        parsed = null;
+      }
+      this.messageFormat = parsed;
+      this.text = parsed == null ? null : parsed.format(new Object[0]);
+
+    }
+
+    private String format(Object... values) {
+
+      if (messageFormat == null) {
+        // Report the malformed pattern to the caller as before
+        return MessageFormat.format(pattern, values);
+      }
+
+      if (values == null || values.length == 0) {
+        return text;
+      }
+
+      // MessageFormat is not thread safe
+      synchronized (messageFormat) {
+        return messageFormat.format(values);
+      }
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package org.multibit.hd.ui.services;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>Listener to provide the following to ExternalDataListeningService:</p>
+ * <ul>
+ * <li>Non-blocking handling of any number of loopback connections on a single thread</li>
+ * <li>Framing of messages between the start and end tokens (several messages per connection are allowed)</li>
+ * <li>Backpressure: reading from a connection stops while the handler has no capacity</li>
+ * </ul>
+ * <p>Earlier versions send one message per connection and close it, which is handled as a
+ * connection with a single frame. A message without an end token is accepted at end of stream.</p>
+ *
+ * @since 0.3.6
+ */
+class ExternalDataListener implements Runnable {
+
+  private static final Logger log = LoggerFactory.getLogger(ExternalDataListener.class);
+
+  /**
+   * The largest message accepted (a Bitcoin URI with several payment request URLs is well below this)
+   */
+  static final int MAXIMUM_MESSAGE_BYTES = 16 * 1024;
+
+  private static final byte[] START = ExternalDataListeningService.MESSAGE_START.getBytes(Charsets.UTF_8);
+
+  private static final byte[] END = ExternalDataListeningService.MESSAGE_END.getBytes(Charsets.UTF_8);
+
+  /**
+   * <p>Interface to provide the following to the listener:</p>
+   * <ul>
+   * <li>A destination for received messages with the ability to refuse when full</li>
+   * </ul>
+   */
+  interface MessageHandler {
+
+    /**
+     * @param rawData The message without the start and end tokens
+     *
+     * @return True if the message was accepted, false if it should be offered again after a resume
+     */
+    boolean offer(String rawData);
+
+  }
+
+  private final ServerSocketChannel serverChannel;
+
+  private final MessageHandler handler;
+
+  private final Selector selector;
+
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+  /**
+   * Connections that stopped reading because the handler refused a message
+   */
+  private final List<SelectionKey> pausedKeys = Lists.newArrayList();
+
+  private volatile boolean running = true;
+
+  private volatile boolean resumeRequested = false;
+
+  private volatile long rejectedCount = 0;
+
+  /**
+   * @param serverChannel The bound server channel
+   * @param handler       The handler for received messages
+   *
+   * @throws IOException If the selector cannot be opened
+   */
+  ExternalDataListener(ServerSocketChannel serverChannel, MessageHandler handler) throws IOException {
+
+    Preconditions.checkNotNull(serverChannel, "'serverChannel' must be present");
+    Preconditions.checkNotNull(handler, "'handler' must be present");
+
+    this.serverChannel = serverChannel;
+    this.handler = handler;
+    this.selector = Selector.open();
+
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+  }
+
+  /**
+   * <p>Offer any held messages to the handler again (called when the handler has capacity)</p>
+   */
+  void resume() {
+
+    resumeRequested = true;
+    selector.wakeup();
+
+  }
+
+  /**
+   * <p>Stop listening and close all connections</p>
+   */
+  void close() {
+
+    running = false;
+    selector.wakeup();
+
+  }
+
+  /**
+   * @return The number of connections closed due to malformed or oversized messages
+   */
+  long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  @Override
+  public void run() {
+
+    try {
+      while (running && !Thread.currentThread().isInterrupted()) {
+
+        selector.select();
+
+        if (resumeRequested) {
+          resumeRequested = false;
+          resumePausedConnections();
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable()) {
+            read(key);
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      log.warn("External data listener stopped: {}", e.getMessage());
+    } finally {
+      closeAll();
+    }
+
+  }
+
+  private void accept() throws IOException {
+
+    SocketChannel client = serverChannel.accept();
+    if (client != null) {
+      client.configureBlocking(false);
+      client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+  }
+
+  /**
+   * @param key The key of a readable connection
+   */
+  private void read(SelectionKey key) {
+
+    SocketChannel client = (SocketChannel) key.channel();
+    Connection connection = (Connection) key.attachment();
+
+    int count;
+    try {
+      readBuffer.clear();
+      count = client.read(readBuffer);
+    } catch (IOException e) {
+      log.debug("External data connection failed: {}", e.getMessage());
+      close(key);
+      return;
+    }
+
+    if (count > 0) {
+      connection.bytes.write(readBuffer.array(), 0, count);
+      if (!connection.extractFrames()) {
+        rejectedCount++;
+        log.warn("Closing external data connection with a malformed or oversized message");
+        close(key);
+        return;
+      }
+    } else if (count < 0) {
+      connection.endOfStream = true;
+      connection.extractFinalFrame();
+    }
+
+    deliver(key);
+
+  }
+
+  /**
+   * <p>Offer the held messages of a connection to the handler, pausing reads if it is full</p>
+   *
+   * @param key The connection key
+   */
+  private void deliver(SelectionKey key) {
+
+    Connection connection = (Connection) key.attachment();
+
+    while (!connection.frames.isEmpty()) {
+      if (!handler.offer(connection.frames.peekFirst())) {
+        // No capacity so stop reading (the sender will block once the socket buffers fill)
+        key.interestOps(0);
+        pausedKeys.add(key);
+        return;
+      }
+      connection.frames.removeFirst();
+    }
+
+    if (connection.endOfStream) {
+      close(key);
+    } else {
+      key.interestOps(SelectionKey.OP_READ);
+    }
+
+  }
+
+  private void resumePausedConnections() {
+
+    List<SelectionKey> keys = Lists.newArrayList(pausedKeys);
+    pausedKeys.clear();
+
+    for (SelectionKey key : keys) {
+      if (key.isValid()) {
+        deliver(key);
+      }
+    }
+
+  }
+
+  private void close(SelectionKey key) {
+
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      log.debug("Could not close external data connection: {}", e.getMessage());
+    }
+
+  }
+
+  private void closeAll() {
+
+    try {
+      for (SelectionKey key : selector.keys()) {
+        key.channel().close();
+      }
+      selector.close();
+    } catch (IOException | ClosedSelectorException e) {
+      log.debug("Could not close external data listener: {}", e.getMessage());
+    }
+
+  }
+
+  /**
+   * <p>The state of a single client connection</p>
+   */
+  private static class Connection {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private final Deque<String> frames = Queues.newArrayDeque();
+
+    private boolean endOfStream = false;
+
+    /**
+     * @return False if the connection holds data that cannot form a valid message
+     */
+    private boolean extractFrames() {
+
+      byte[] data = bytes.toByteArray();
+      int offset = 0;
+
+      while (true) {
+        int end = indexOf(data, END, offset);
+        if (end < 0) {
+          break;
+        }
+        byte[] frame = Arrays.copyOfRange(data, offset, end);
+        if (!startsWith(frame, START) || frame.length - START.length > MAXIMUM_MESSAGE_BYTES) {
+          return false;
+        }
+        frames.add(new String(frame, START.length, frame.length - START.length, Charsets.UTF_8));
+        offset = end + END.length;
+      }
+
+      // Keep the incomplete remainder which must be the beginning of a message
+      byte[] remainder = Arrays.copyOfRange(data, offset, data.length);
+      bytes.reset();
+      bytes.write(remainder, 0, remainder.length);
+
+      int checked = Math.min(remainder.length, START.length);
+
+      return remainder.length < START.length + MAXIMUM_MESSAGE_BYTES + END.length
+        && Arrays.equals(Arrays.copyOf(remainder, checked), Arrays.copyOf(START, checked));
+    }
+
+    /**
+     * <p>Accept a message missing its end token when the sender has finished</p>
+     */
+    private void extractFinalFrame() {
+
+      byte[] data = bytes.toByteArray();
+      if (data.length > START.length && data.length - START.length <= MAXIMUM_MESSAGE_BYTES && startsWith(data, START)) {
+        frames.add(new String(data, START.length, data.length - START.length, Charsets.UTF_8));
+      }
+      bytes.reset();
+
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+      return data.length >= prefix.length && Arrays.equals(Arrays.copyOf(data, prefix.length), prefix);
+    }
+
+    private static int indexOf(byte[] data, byte[] target, int fromIndex) {
+
+      outer:
+      for (int i = fromIndex; i <= data.length - target.length; i++) {
+        for (int j = 0; j < target.length; j++) {
+          if (data[i + j] != target[j]) {
+            continue outer;
+          }
+        }
+        return i;
+      }
+
+      return -1;
+    }
+  }
+
+}
@@ -4,18 +4,18 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
-import com.google.common.eventbus.Subscribe;
-import com.google.common.io.CharStreams;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.uri.BitcoinURI;
 import org.bitcoinj.uri.BitcoinURIParseException;
+import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.dto.PaymentSessionSummary;
-import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.services.AbstractService;
 import org.multibit.hd.core.services.PaymentProtocolService;
@@ -27,11 +27,19 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Service to maintain a localhost server socket on port 8330.</p>
@@ -39,6 +47,10 @@ import java.util.Queue;
  * <p>If this socket is taken, then another instance of MultiBit HD is likely to be already
  * running and so this service will hand over any data it was given on startup to whatever
  * is listening on that port.</p>
+ *
+ * <p>Incoming messages are resolved on a small pool of threads so a slow payment request server
+ * does not hold up other messages. Repeated messages are ignored, the listener stops reading
+ * while too many messages are waiting, and anything that cannot be queued is counted as dropped.</p>
  */
 public class ExternalDataListeningService extends AbstractService {
 
@@ -59,17 +71,64 @@ public class ExternalDataListeningService extends AbstractService {
    */
   public static final String MESSAGE_END = "$$MBHD-End$$";
 
+  /**
+   * The number of Bitcoin URIs or payment sessions held before further items are dropped
+   */
+  static final int QUEUE_CAPACITY = 50;
+
+  /**
+   * The number of messages resolved at the same time (payment requests involve a network round trip)
+   */
+  static final int MAXIMUM_CONCURRENT_RESOLUTIONS = 4;
+
+  /**
+   * The number of messages waiting for or undergoing resolution before the listener stops reading
+   */
+  static final int MAXIMUM_PENDING_MESSAGES = 16;
+
+  /**
+   * The time a message is remembered after it is received to ignore repeats (a browser or OS may
+   * hand the same link over more than once in quick succession)
+   */
+  static final long DUPLICATE_WINDOW_MILLIS = 3_000;
+
   /**
    * Track the incoming Bitcoin URIs (BIP21)
    */
-  private static final Queue<BitcoinURI> bitcoinURIQueue = Queues.newArrayBlockingQueue(10);
+  private static final Queue<BitcoinURI> bitcoinURIQueue = Queues.newArrayBlockingQueue(QUEUE_CAPACITY);
   /**
    * Track the incoming Payment Protocol sessions
    */
-  private static final Queue<PaymentSessionSummary> paymentSessionSummaryQueue = Queues.newArrayBlockingQueue(10);
+  private static final Queue<PaymentSessionSummary> paymentSessionSummaryQueue = Queues.newArrayBlockingQueue(QUEUE_CAPACITY);
+
+  /**
+   * The number of items dropped because a queue was full
+   */
+  private static final AtomicLong droppedCount = new AtomicLong();
+
+  /**
+   * The number of repeated messages ignored
+   */
+  private static final AtomicLong duplicateCount = new AtomicLong();
+
+  /**
+   * The messages received within the duplicate window with the time received (nanos)
+   */
+  private final Map<String, Long> recentMessages = Maps.newHashMap();
+
+  /**
+   * The messages still being resolved (guarded by the recent messages lock)
+   */
+  private final Set<String> handlingMessages = Sets.newHashSet();
+
+  private final Semaphore pendingMessages = new Semaphore(MAXIMUM_PENDING_MESSAGES);
 
   private Optional<ServerSocket> serverSocket = Optional.absent();
 
+  private Optional<ExternalDataListener> listener = Optional.absent();
+
+  private Optional<ListeningExecutorService> resolverExecutorService = Optional.absent();
+
   private String rawData;
 
   /**
@@ -100,17 +159,29 @@ public class ExternalDataListeningService extends AbstractService {
     try {
 
       // Attempt to own the localhost server socket allowing for a backlog of connections
-      serverSocket = Optional.of(
-        new ServerSocket(
-          MULTIBIT_HD_NETWORK_SOCKET,
-          10,
-          InetAddress.getLoopbackAddress()
-        ));
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      try {
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), MULTIBIT_HD_NETWORK_SOCKET), 50);
+      } catch (IOException e) {
+        serverChannel.close();
+        throw e;
+      }
+      serverSocket = Optional.of(serverChannel.socket());
 
       // Successfully owned the server port
 
       // Handle ongoing messages as master
-      ListenableFuture future = getExecutorService().submit(getInstanceServerRunnable(serverSocket.get()));
+      resolverExecutorService = Optional.of(SafeExecutors.newFixedThreadPool(MAXIMUM_CONCURRENT_RESOLUTIONS, "uri-resolver"));
+      listener = Optional.of(
+        new ExternalDataListener(
+          serverChannel,
+          new ExternalDataListener.MessageHandler() {
+            @Override
+            public boolean offer(String rawData) {
+              return offerExternalData(rawData);
+            }
+          }));
+      ListenableFuture future = getExecutorService().submit(listener.get());
       Futures.addCallback(
         future, new FutureCallback() {
           @Override
@@ -158,7 +229,18 @@ public class ExternalDataListeningService extends AbstractService {
   protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
 
     // Service can survive a switch
-    return preventCleanupOnSwitch(shutdownType);
+    if (!preventCleanupOnSwitch(shutdownType)) {
+      return false;
+    }
+
+    if (listener.isPresent()) {
+      listener.get().close();
+    }
+    if (resolverExecutorService.isPresent()) {
+      resolverExecutorService.get().shutdownNow();
+    }
+
+    return true;
 
   }
 
@@ -167,32 +249,39 @@ public class ExternalDataListeningService extends AbstractService {
    *
    * @param message The message to send (appropriate wrapping will be added)
    */
-  public static synchronized void writeToSocket(String message) {
+  public static void writeToSocket(String message) {
 
     Preconditions.checkNotNull(message, "'message' must be present");
 
-    try {
-      Socket clientSocket = new Socket(
-        InetAddress.getLoopbackAddress(),
-        MULTIBIT_HD_NETWORK_SOCKET
-      );
+    writeToSocket(Arrays.asList(message));
 
-      try (OutputStream out = clientSocket.getOutputStream()) {
+  }
+
+  /**
+   * <p>Write several messages to the MultiBit HD network socket over a single connection</p>
+   *
+   * @param messages The messages to send (appropriate wrapping will be added to each)
+   */
+  public static void writeToSocket(List<String> messages) {
+
+    Preconditions.checkNotNull(messages, "'messages' must be present");
 
+    try (Socket clientSocket = new Socket(InetAddress.getLoopbackAddress(), MULTIBIT_HD_NETWORK_SOCKET);
+         OutputStream out = clientSocket.getOutputStream()) {
+
+      for (String message : messages) {
         // Write out the raw external data for parsing by the other instance
         out.write(MESSAGE_START.getBytes(Charsets.UTF_8));
         out.write(message.getBytes(Charsets.UTF_8));
         out.write(MESSAGE_END.getBytes(Charsets.UTF_8));
-
-        out.close();
       }
-      clientSocket.close();
 
     } catch (IOException e) {
       log.error(e.getMessage(), e);
+      return;
     }
 
-    log.debug("Successful write to external data listening service.");
+    log.debug("Successful write of {} message(s) to external data listening service.", messages.size());
 
   }
 
@@ -214,6 +303,20 @@ public class ExternalDataListeningService extends AbstractService {
     return paymentSessionSummaryQueue;
   }
 
+  /**
+   * @return The number of Bitcoin URIs or payment sessions dropped because a queue was full
+   */
+  public static long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return The number of repeated messages ignored
+   */
+  public static long getDuplicateCount() {
+    return duplicateCount.get();
+  }
+
   /**
    * <p>The server socket created as the master if no other was in place</p>
    * <p>Reduced visibility for testing</p>
@@ -285,13 +388,100 @@ public class ExternalDataListeningService extends AbstractService {
   }
 
   /**
-   * @param serverSocket The server socket on which messages will arrive
+   * <p>Accept a message from the listener for resolution in the background</p>
+   *
+   * @param rawData The raw data from the external source
    *
-   * @return The Runnable handling incoming messages
+   * @return False if too many messages are pending (the listener will offer it again later)
    */
-  private Runnable getInstanceServerRunnable(final ServerSocket serverSocket) {
+  private boolean offerExternalData(final String rawData) {
+
+    if (!pendingMessages.tryAcquire()) {
+      log.debug("External data pending limit reached. Pausing listener.");
+      return false;
+    }
+
+    if (!acceptMessage(rawData, System.nanoTime())) {
+      pendingMessages.release();
+      duplicateCount.incrementAndGet();
+      log.debug("Ignoring repeated external data: '{}'", rawData);
+      return true;
+    }
+
+    log.debug("Received external data: '{}'", rawData);
+
+    try {
+      resolverExecutorService.get().submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              // Attempt to add to the queues and issue an alert
+              addToQueues(rawData, true);
+            } finally {
+              messageHandled(rawData);
+              pendingMessages.release();
+              listener.get().resume();
+            }
+          }
+        });
+    } catch (RuntimeException e) {
+      // Most likely shutting down
+      messageHandled(rawData);
+      pendingMessages.release();
+      log.debug("External data not resolved: {}", e.getMessage());
+    }
+
+    return true;
+  }
+
+  /**
+   * <p>Decide if a message is new or a repeat to ignore</p>
+   *
+   * <p>A message is a repeat only while the same message is still being handled or if it arrived within
+   * the duplicate window. After that the user may deliberately open the same link again (for example
+   * after cancelling the send) so it is accepted.</p>
+   *
+   * @param rawData  The raw data from the external source
+   * @param nowNanos The time the message was received
+   *
+   * @return True if the message should be handled (it is then tracked until {@link #messageHandled(String)})
+   */
+  boolean acceptMessage(String rawData, long nowNanos) {
+
+    long windowNanos = TimeUnit.MILLISECONDS.toNanos(DUPLICATE_WINDOW_MILLIS);
+
+    synchronized (recentMessages) {
+
+      // Forget messages outside the window (the map only ever holds a few seconds of messages)
+      Iterator<Map.Entry<String, Long>> iterator = recentMessages.entrySet().iterator();
+      while (iterator.hasNext()) {
+        if (nowNanos - iterator.next().getValue() > windowNanos) {
+          iterator.remove();
+        }
+      }
+
+      if (handlingMessages.contains(rawData) || recentMessages.containsKey(rawData)) {
+        return false;
+      }
+
+      recentMessages.put(rawData, nowNanos);
+      handlingMessages.add(rawData);
+
+    }
+
+    return true;
+  }
+
+  /**
+   * @param rawData The raw data that has finished being handled
+   */
+  void messageHandled(String rawData) {
+
+    synchronized (recentMessages) {
+      handlingMessages.remove(rawData);
+    }
 
-    return new MessageServerRunnable(serverSocket);
   }
 
   /**
@@ -328,7 +518,7 @@ public class ExternalDataListeningService extends AbstractService {
       }
 
       log.debug("Using '{}' to create BIP21 Bitcoin URI", rawData);
-      bitcoinURIQueue.add(new BitcoinURI(rawData));
+      enqueue(bitcoinURIQueue, new BitcoinURI(rawData));
 
     } catch (UnsupportedEncodingException e) {
       log.error("UTF-8 is not supported on this platform");
@@ -376,7 +566,7 @@ public class ExternalDataListeningService extends AbstractService {
       // TODO Switch this back to "true" for production
       final PaymentSessionSummary paymentSessionSummary = paymentProtocolService.probeForPaymentSession(URI.create(rawData), false, null);
       if (paymentSessionSummary != null) {
-        paymentSessionSummaryQueue.add(paymentSessionSummary);
+        enqueue(paymentSessionSummaryQueue, paymentSessionSummary);
       }
 
     } catch (UnsupportedEncodingException e) {
@@ -388,77 +578,17 @@ public class ExternalDataListeningService extends AbstractService {
   }
 
   /**
-   * The listening server
+   * @param queue The queue
+   * @param item  The item to add if there is space
+   * @param <T>   The item type
    */
-  private static class MessageServerRunnable implements Runnable {
-
-    private final ServerSocket serverSocket;
-
-    public MessageServerRunnable(ServerSocket serverSocket) {
-      this.serverSocket = serverSocket;
-    }
-
-    // Guava will call this due to the annotation
-    @SuppressFBWarnings({"UMAC_UNCALLABLE_METHOD_OF_ANONYMOUS_CLASS"})
-    // Requires its own shutdown subscriber to ensure correct shutdown
-    @Subscribe
-    public void onShutdownEvent(ShutdownEvent event) {
-
-      if (ShutdownEvent.ShutdownType.SWITCH.equals(event.getShutdownType())) {
-        // Can ignore the shutdown
-        log.debug("Instance server runnable ignoring wallet switch shutdown event");
-        return;
-      }
-
-      try {
-        serverSocket.close();
-      } catch (IOException e) {
-        log.error(e.getMessage(), e);
-      }
+  private static <T> void enqueue(Queue<T> queue, T item) {
 
+    if (!queue.offer(item)) {
+      long dropped = droppedCount.incrementAndGet();
+      log.warn("External data queue is full. Dropped {} item(s) so far.", dropped);
     }
 
-    @Override
-    public void run() {
-
-      CoreEvents.subscribe(this);
-
-      boolean socketClosed = false;
-
-      while (!socketClosed) {
-
-        if (serverSocket.isClosed()) {
-          socketClosed = true;
-        } else {
-
-          try {
-
-            Socket client = serverSocket.accept();
-
-            String rawData;
-            try (InputStreamReader reader = new InputStreamReader(client.getInputStream(), Charsets.UTF_8)) {
-              rawData = CharStreams.toString(reader);
-              if (!rawData.startsWith(MESSAGE_START)) {
-                // Message not following the correct format so is likely an error
-                continue;
-              }
-              // Strip off the message start/end tags to leave a raw Bitcoin URI
-              rawData = rawData.replace(MESSAGE_START, "").replace(MESSAGE_END, "");
-            }
-            client.close();
-
-            log.debug("Received external data: '{}'", rawData);
-
-            // Attempt to add to the queues and issue an alert
-            ExternalDataListeningService.addToQueues(rawData, true);
-
-          } catch (IOException e) {
-            socketClosed = true;
-          }
-        }
-      } // End of while
-
-
-    }
   }
-}
\ No newline at end of file
+
+}
@@ -4,6 +4,7 @@ import org.bitcoinj.core.Coin;
 import com.google.common.collect.Lists;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.dto.*;
+import org.multibit.hd.core.services.WalletService;
 import org.multibit.hd.ui.languages.MessageKey;
 import org.multibit.hd.ui.views.components.renderers.AmountBTCTableHeaderRenderer;
 import org.multibit.hd.ui.views.components.tables.ContactTableModel;
@@ -101,6 +102,64 @@ public class Tables {
 
     PaymentTableModel model = new PaymentTableModel(paymentData);
 
+    StripedTable table = newPaymentsTable(model, enterButton);
+
+    // Row sorter for date
+    TableRowSorter<TableModel> rowSorter = new TableRowSorter<>(table.getModel());
+    table.setRowSorter(rowSorter);
+
+    // Sort by date descending
+    List<TableRowSorter.SortKey> sortKeys = Lists.newArrayList();
+    sortKeys.add(new TableRowSorter.SortKey(PaymentTableModel.DATE_COLUMN_INDEX, SortOrder.DESCENDING));
+    rowSorter.setSortKeys(sortKeys);
+
+    // Comparator for date
+    Comparator<DateTime> comparatorDate = newDateTimeComparator();
+    rowSorter.setComparator(PaymentTableModel.DATE_COLUMN_INDEX, comparatorDate);
+
+    // Comparator for status
+    Comparator<PaymentStatus> comparatorStatus = newStatusComparator();
+    rowSorter.setComparator(PaymentTableModel.STATUS_COLUMN_INDEX, comparatorStatus);
+
+    // Comparator for payment type
+    Comparator<PaymentType> comparatorPaymentType = newPaymentTypeComparator();
+    rowSorter.setComparator(PaymentTableModel.TYPE_COLUMN_INDEX, comparatorPaymentType);
+
+    // Comparator for amount BTC
+    Comparator<Coin> comparatorCoin = newCoinComparator();
+    rowSorter.setComparator(PaymentTableModel.AMOUNT_BTC_COLUMN_INDEX, comparatorCoin);
+
+    // Comparator for amount fiat
+    Comparator<FiatPayment> comparatorFiatPayment = newFiatPaymentComparator();
+    rowSorter.setComparator(PaymentTableModel.AMOUNT_FIAT_COLUMN_INDEX, comparatorFiatPayment);
+
+    return table;
+  }
+
+  /**
+   * <p>A paged table only holds the visible window of payments so is suitable for very large wallets.
+   * There is no row sorter since that would read every row - the order is maintained by the wallet service.</p>
+   *
+   * @param walletService The wallet service providing the pages of payments
+   * @param enterButton   The button to be pressed on "Enter" or double click
+   *
+   * @return A new "payments" striped table in paged mode
+   */
+  public static StripedTable newPagedPaymentsTable(WalletService walletService, JButton enterButton) {
+
+    PaymentTableModel model = new PaymentTableModel(walletService, "");
+
+    return newPaymentsTable(model, enterButton);
+  }
+
+  /**
+   * @param model       The payment table model
+   * @param enterButton The button to be pressed on "Enter" or double click
+   *
+   * @return A new "payments" striped table without a row sorter
+   */
+  private static StripedTable newPaymentsTable(PaymentTableModel model, JButton enterButton) {
+
     StripedTable table = new StripedTable(model);
 
     // Ensure it is accessible
@@ -143,35 +202,6 @@ public class Tables {
     amountFiatTableColumn.setCellRenderer(Renderers.newTrailingJustifiedFiatRenderer());
     resizeColumn(table, PaymentTableModel.AMOUNT_FIAT_COLUMN_INDEX, 120, 180);
 
-    // Row sorter for date
-    TableRowSorter<TableModel> rowSorter = new TableRowSorter<>(table.getModel());
-    table.setRowSorter(rowSorter);
-
-    // Sort by date descending
-    List<TableRowSorter.SortKey> sortKeys = Lists.newArrayList();
-    sortKeys.add(new TableRowSorter.SortKey(PaymentTableModel.DATE_COLUMN_INDEX, SortOrder.DESCENDING));
-    rowSorter.setSortKeys(sortKeys);
-
-    // Comparator for date
-    Comparator<DateTime> comparatorDate = newDateTimeComparator();
-    rowSorter.setComparator(PaymentTableModel.DATE_COLUMN_INDEX, comparatorDate);
-
-    // Comparator for status
-    Comparator<PaymentStatus> comparatorStatus = newStatusComparator();
-    rowSorter.setComparator(PaymentTableModel.STATUS_COLUMN_INDEX, comparatorStatus);
-
-    // Comparator for payment type
-    Comparator<PaymentType> comparatorPaymentType = newPaymentTypeComparator();
-    rowSorter.setComparator(PaymentTableModel.TYPE_COLUMN_INDEX, comparatorPaymentType);
-
-    // Comparator for amount BTC
-    Comparator<Coin> comparatorCoin = newCoinComparator();
-    rowSorter.setComparator(PaymentTableModel.AMOUNT_BTC_COLUMN_INDEX, comparatorCoin);
-
-    // Comparator for amount fiat
-    Comparator<FiatPayment> comparatorFiatPayment = newFiatPaymentComparator();
-    rowSorter.setComparator(PaymentTableModel.AMOUNT_FIAT_COLUMN_INDEX, comparatorFiatPayment);
-
     justifyColumnHeaders(table);
 
     return table;
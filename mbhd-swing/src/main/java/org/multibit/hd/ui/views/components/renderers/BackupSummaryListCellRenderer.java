@@ -2,6 +2,8 @@ package org.multibit.hd.ui.views.components.renderers;
 
 import org.multibit.hd.core.dto.BackupSummary;
 import org.multibit.hd.core.utils.Dates;
+import org.multibit.hd.ui.languages.Languages;
+import org.multibit.hd.ui.languages.MessageKey;
 
 import javax.swing.*;
 import java.awt.*;
@@ -42,12 +44,17 @@ public class BackupSummaryListCellRenderer extends JLabel implements ListCellRen
 
     if (value != null) {
       // If the date is available use that, otherwise use the name
+      String text;
       if (value.getCreated() != null) {
         // Display in the system timezone
-        setText(Dates.formatHttpDateHeaderLocal(value.getCreated()));
+        text = Dates.formatHttpDateHeaderLocal(value.getCreated());
       } else {
-        setText(value.getName());
+        text = value.getName();
       }
+      if (value.isCorrupt()) {
+        text = Languages.safeText(MessageKey.SELECT_BACKUP_DAMAGED, text);
+      }
+      setText(text);
     } else {
       setText("");
     }
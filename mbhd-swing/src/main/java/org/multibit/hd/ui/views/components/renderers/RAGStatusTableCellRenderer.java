@@ -36,10 +36,11 @@ public class RAGStatusTableCellRenderer extends DefaultTableCellRenderer {
     // Get the RAG (which is in the model as a RAGStatus
     if (value instanceof PaymentStatus) {
 
-      java.util.List<PaymentData> paymentDatas = paymentTableModel.getPaymentData();
       int modelRow = table.convertRowIndexToModel(row);
-      PaymentData rowPaymentData = paymentDatas.get(modelRow);
-      LabelDecorator.applyPaymentStatusIconAndColor(rowPaymentData.getStatus(), label, rowPaymentData.isCoinBase(), MultiBitUI.SMALL_ICON_SIZE);
+      PaymentData rowPaymentData = paymentTableModel.getPaymentDataAt(modelRow);
+      if (rowPaymentData != null) {
+        LabelDecorator.applyPaymentStatusIconAndColor(rowPaymentData.getStatus(), label, rowPaymentData.isCoinBase(), MultiBitUI.SMALL_ICON_SIZE);
+      }
     }
 
     if (isSelected) {
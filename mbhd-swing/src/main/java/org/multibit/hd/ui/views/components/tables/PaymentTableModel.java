@@ -1,10 +1,14 @@
 package org.multibit.hd.ui.views.components.tables;
 
+import com.google.common.base.Preconditions;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.FiatPayment;
 import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentPage;
+import org.multibit.hd.core.dto.PaymentSortKey;
 import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.core.services.WalletService;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 import org.slf4j.Logger;
@@ -17,6 +21,7 @@ import java.util.List;
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of payments into a table model</li>
+ * <li>Optionally pages through a very large wallet, fetching only the visible window plus a prefetch margin</li>
  * </ul>
  *
  * @since 0.0.1
@@ -31,6 +36,21 @@ public class PaymentTableModel extends AbstractTableModel {
   public static final int AMOUNT_BTC_COLUMN_INDEX = 4;
   public static final int AMOUNT_FIAT_COLUMN_INDEX = 5;
 
+  /**
+   * Above this many payments the payments screen switches to a paged model
+   */
+  public static final int PAGED_THRESHOLD = 5_000;
+
+  /**
+   * The number of rows fetched around the requested row in paged mode
+   */
+  static final int PAGE_SIZE = 200;
+
+  /**
+   * The number of rows fetched either side of the page to allow smooth scrolling
+   */
+  static final int PREFETCH_MARGIN = 100;
+
   private static final Logger log = LoggerFactory.getLogger(PaymentTableModel.class);
 
   private String[] columnNames = {
@@ -46,10 +66,25 @@ public class PaymentTableModel extends AbstractTableModel {
 
   private List<PaymentData> paymentData;
 
+  /**
+   * The source of pages when in paged mode (absent when showing a fixed list)
+   */
+  private WalletService walletService;
+  private String query = "";
+  private PaymentPage currentPage;
+
   public PaymentTableModel(List<PaymentData> paymentData) {
     setPaymentData(paymentData, false);
   }
 
+  /**
+   * @param walletService The wallet service providing sorted pages of payments
+   * @param query         The initial search query (empty for all payments)
+   */
+  public PaymentTableModel(WalletService walletService, String query) {
+    setPaymentQuery(walletService, query, false);
+  }
+
   /**
    * Set the payment data into the table
    *
@@ -57,6 +92,8 @@ public class PaymentTableModel extends AbstractTableModel {
    */
   public void setPaymentData(List<PaymentData> paymentData, boolean fireTableDataChanged) {
 
+    this.walletService = null;
+    this.currentPage = null;
     this.paymentData = paymentData;
 
     data = new Object[paymentData.size()][];
@@ -64,16 +101,7 @@ public class PaymentTableModel extends AbstractTableModel {
     int row = 0;
     for (PaymentData payment : paymentData) {
 
-      Object[] rowData = new Object[]{
-              payment.getDate(),
-              payment.getStatus(),
-              payment.getType(),
-              payment.getDescription(),
-              payment.getAmountCoin(),
-              payment.getAmountFiat()
-      };
-
-      data[row] = rowData;
+      data[row] = toRowData(payment);
 
       row++;
     }
@@ -82,11 +110,61 @@ public class PaymentTableModel extends AbstractTableModel {
     }
   }
 
+  /**
+   * Switch to (or refresh) paged mode where only a window of rows is held in memory
+   *
+   * @param walletService        The wallet service providing sorted pages of payments
+   * @param query                The search query (empty for all payments)
+   * @param fireTableDataChanged True if the table should be notified
+   */
+  public void setPaymentQuery(WalletService walletService, String query, boolean fireTableDataChanged) {
+
+    Preconditions.checkNotNull(walletService, "'walletService' must be present");
+
+    this.walletService = walletService;
+    this.query = query == null ? "" : query;
+    this.paymentData = null;
+
+    // Fetch the first window to establish the row count
+    fetchPage(0);
+
+    if (fireTableDataChanged) {
+      fireTableDataChanged();
+    }
+  }
+
+  /**
+   * @return True if this model pages through the wallet service rather than holding all rows
+   */
+  public boolean isPaged() {
+    return walletService != null;
+  }
+
+  /**
+   * @param modelRow The row in model coordinates
+   *
+   * @return The payment data for the row (fetching the surrounding window if required), null if no longer present
+   */
+  public PaymentData getPaymentDataAt(int modelRow) {
+
+    if (isPaged()) {
+      if (!ensurePageContains(modelRow)) {
+        return null;
+      }
+      return currentPage.getPayments().get(modelRow - currentPage.getOffset());
+    }
+
+    return paymentData.get(modelRow);
+  }
+
   public int getColumnCount() {
     return columnNames.length;
   }
 
   public int getRowCount() {
+    if (isPaged()) {
+      return currentPage.getTotalCount();
+    }
     return data.length;
   }
 
@@ -95,6 +173,12 @@ public class PaymentTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
+    if (isPaged()) {
+      if (!ensurePageContains(row)) {
+        return "";
+      }
+      return data[row - currentPage.getOffset()][col];
+    }
     if (data.length == 0) {
       return "";
     }
@@ -131,8 +215,57 @@ public class PaymentTableModel extends AbstractTableModel {
     // No table updates allowed
   }
 
+  /**
+   * @return The payment data when showing a fixed list (use getPaymentDataAt() in paged mode)
+   */
   public List<PaymentData> getPaymentData() {
     return paymentData;
   }
 
+  /**
+   * @param row The row in model coordinates
+   *
+   * @return True if the current page holds the row after fetching if necessary
+   */
+  private boolean ensurePageContains(int row) {
+
+    if (row < 0) {
+      return false;
+    }
+    if (!currentPage.contains(row)) {
+      fetchPage(row);
+    }
+    return currentPage.contains(row);
+  }
+
+  /**
+   * @param row The row to centre the window on
+   */
+  private void fetchPage(int row) {
+
+    int offset = Math.max(0, row - PREFETCH_MARGIN);
+    currentPage = walletService.getPaymentDataPage(PaymentSortKey.DATE_DESCENDING, query, offset, PAGE_SIZE + 2 * PREFETCH_MARGIN);
+
+    // Only the rows in the window are adapted
+    List<PaymentData> payments = currentPage.getPayments();
+    data = new Object[payments.size()][];
+    for (int i = 0; i < payments.size(); i++) {
+      data[i] = toRowData(payments.get(i));
+    }
+
+    log.trace("Fetched {}", currentPage);
+  }
+
+  private Object[] toRowData(PaymentData payment) {
+
+    return new Object[]{
+      payment.getDate(),
+      payment.getStatus(),
+      payment.getType(),
+      payment.getDescription(),
+      payment.getAmountCoin(),
+      payment.getAmountFiat()
+    };
+  }
+
 }
@@ -99,7 +99,12 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
     WalletService walletService = CoreServices.getCurrentWalletService().get();
     List<PaymentData> paymentList = walletService.getPaymentDataList();
 
-    paymentsTable = Tables.newPaymentsTable(paymentList, detailsButton);
+    if (paymentList.size() > PaymentTableModel.PAGED_THRESHOLD) {
+      // Very large wallet so only hold the visible window
+      paymentsTable = Tables.newPagedPaymentsTable(walletService, detailsButton);
+    } else {
+      paymentsTable = Tables.newPaymentsTable(paymentList, detailsButton);
+    }
 
     // Create the scroll pane and add the table to it.
     JScrollPane scrollPane = new JScrollPane(paymentsTable);
@@ -205,9 +210,13 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
               walletService.getPaymentDataList();
             }
             // Check the search MaV model for a query and apply it
-            List<PaymentData> filteredPaymentDataList = walletService.filterPaymentsByContent(enterSearchMaV.getModel().getValue());
-
-            ((PaymentTableModel) paymentsTable.getModel()).setPaymentData(filteredPaymentDataList, true);
+            PaymentTableModel paymentTableModel = (PaymentTableModel) paymentsTable.getModel();
+            if (paymentTableModel.isPaged()) {
+              paymentTableModel.setPaymentQuery(walletService, enterSearchMaV.getModel().getValue(), true);
+            } else {
+              List<PaymentData> filteredPaymentDataList = walletService.filterPaymentsByContent(enterSearchMaV.getModel().getValue());
+              paymentTableModel.setPaymentData(filteredPaymentDataList, true);
+            }
 
             // Reselect the selected row if possible
             if (selectedTableRow != -1 && selectedTableRow < paymentsTable.getModel().getRowCount()) {
@@ -240,7 +249,11 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
           return;
         }
         int selectedModelRow = paymentsTable.convertRowIndexToModel(selectedTableRow);
-        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData().get(selectedModelRow);
+        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentDataAt(selectedModelRow);
+        if (paymentData == null) {
+          // Row has gone
+          return;
+        }
         log.debug("getDetailsAction : selectedTableRow = " + selectedTableRow + ", selectedModelRow = " + selectedModelRow + ", paymentData = " + paymentData.toString());
 
         PaymentsWizard wizard = Wizards.newPaymentsWizard(paymentData);
@@ -304,7 +317,7 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
         int selectedModelRow = paymentsTable.convertRowIndexToModel(selectedTableRow);
         log.debug("getExportAction : selectedTableRow = " + selectedTableRow + ", selectedModelRow = " + selectedModelRow);
 
-        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData().get(selectedModelRow);
+        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentDataAt(selectedModelRow);
 
         if (paymentData instanceof PaymentRequestData) {
           // We can delete this
@@ -3,6 +3,8 @@ package org.multibit.hd.ui.views.themes;
 import com.google.common.base.Preconditions;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.multibit.hd.ui.languages.LanguageKey;
+import org.multibit.hd.ui.views.themes.painters.CachedRegionPainter;
+import org.multibit.hd.ui.views.themes.painters.DerivedColors;
 
 import javax.swing.*;
 import javax.swing.plaf.ColorUIResource;
@@ -37,6 +39,21 @@ public class Themes {
 
     currentTheme = newTheme;
 
+    // Painter images rendered with the previous theme colors are no longer required
+    CachedRegionPainter.clearCache();
+
+    // Derive the painter colors for the new theme once rather than as each component is created
+    DerivedColors.clear();
+    DerivedColors.precompute(
+      currentTheme.detailPanelBackground(),
+      currentTheme.buttonBackground(),
+      currentTheme.readOnlyBackground(),
+      currentTheme.dangerAlertBackground(),
+      currentTheme.warningAlertBackground(),
+      currentTheme.successAlertBackground(),
+      currentTheme.pendingAlertBackground()
+    );
+
     // Gets used in combo box borders and provides the basis for a "default button"
     UIManager.put("nimbusBase", currentTheme.readOnlyComboBox());
 
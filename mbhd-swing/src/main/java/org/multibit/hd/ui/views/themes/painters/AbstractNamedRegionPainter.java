@@ -1,5 +1,7 @@
 package org.multibit.hd.ui.views.themes.painters;
 
+import javax.swing.*;
+import javax.swing.plaf.UIResource;
 import javax.swing.plaf.nimbus.AbstractRegionPainter;
 import java.awt.*;
 import java.awt.geom.Path2D;
@@ -10,6 +12,8 @@ import java.awt.geom.RoundRectangle2D;
  * <p>Abstract base class to provide the following to Nimbus LAF:</p>
  * <ul>
  * <li>Common methods to support an interior color (not directly supported through Component or LAF APIs)</li>
+ * <li>The details required by CachedRegionPainter to share rendered images between painters</li>
+ * <li>Derived colors looked up from DerivedColors rather than converted to HSB on every use</li>
  * </ul>
  *
  * @since 0.0.1
@@ -39,6 +43,11 @@ public abstract class AbstractNamedRegionPainter extends AbstractRegionPainter {
    */
   private final Color backgroundBasisColor;
 
+  /**
+   * The insets around the stretchable centre of the region
+   */
+  private Insets stretchingInsets;
+
   /**
    * @param foregroundBasisColor The color to use as the basis for the foreground
    * @param backgroundBasisColor The color to use as the basis for the background
@@ -57,6 +66,56 @@ public abstract class AbstractNamedRegionPainter extends AbstractRegionPainter {
     return ctx;
   }
 
+  /**
+   * @param insets     The insets around the stretchable centre of the region
+   * @param canvasSize The size of the canvas used when encoding the region
+   *
+   * @return A new paint context (painters are cached by CachedRegionPainter rather than Nimbus)
+   */
+  protected PaintContext createPaintContext(Insets insets, Dimension canvasSize) {
+
+    this.stretchingInsets = insets;
+
+    return new PaintContext(insets, canvasSize, false);
+  }
+
+  /**
+   * @return The insets around the stretchable centre of the region
+   */
+  Insets getStretchingInsets() {
+    return stretchingInsets;
+  }
+
+  /**
+   * @return The painter state
+   */
+  int getState() {
+    return state;
+  }
+
+  /**
+   * @return The color to use as the basis for the foreground
+   */
+  Color getForegroundBasisColor() {
+    return foregroundBasisColor;
+  }
+
+  /**
+   * @return The color to use as the basis for the background
+   */
+  Color getBackgroundBasisColor() {
+    return backgroundBasisColor;
+  }
+
+  /**
+   * @param c The component being painted
+   *
+   * @return The component specific values that affect the painting (null if there are none)
+   */
+  Object[] getCacheKeys(JComponent c) {
+    return getExtendedCacheKeys(c);
+  }
+
   /**
    * <p>Decodes and returns a color based on the background</p>
    *
@@ -68,16 +127,7 @@ public abstract class AbstractNamedRegionPainter extends AbstractRegionPainter {
    * @return The derived color, who's color value will change if the parent uiDefault color changes.
    */
   public Color adjustBackgroundColor(float hOffset, float sOffset, float bOffset, int aOffset) {
-
-
-    float[] tmp = Color.RGBtoHSB(backgroundBasisColor.getRed(), backgroundBasisColor.getGreen(), backgroundBasisColor.getBlue(), null);
-    // apply offsets
-    tmp[0] = clamp(tmp[0] + hOffset);
-    tmp[1] = clamp(tmp[1] + sOffset);
-    tmp[2] = clamp(tmp[2] + bOffset);
-    int alpha = clamp(backgroundBasisColor.getAlpha() + aOffset);
-    int argbValue = (Color.HSBtoRGB(tmp[0], tmp[1], tmp[2]) & 0xFFFFFF) | (alpha << 24);
-    return new Color(argbValue, true);
+    return DerivedColors.get(backgroundBasisColor, DerivedColors.key(hOffset, sOffset, bOffset, aOffset, false));
   }
 
   /**
@@ -91,44 +141,42 @@ public abstract class AbstractNamedRegionPainter extends AbstractRegionPainter {
    * @return The derived color, who's color value will change if the parent uiDefault color changes.
    */
   public Color adjustForegroundColor(float hOffset, float sOffset, float bOffset, int aOffset) {
-
-
-    float[] tmp = Color.RGBtoHSB(foregroundBasisColor.getRed(), foregroundBasisColor.getGreen(), foregroundBasisColor.getBlue(), null);
-    // apply offsets
-    tmp[0] = clamp(tmp[0] + hOffset);
-    tmp[1] = clamp(tmp[1] + sOffset);
-    tmp[2] = clamp(tmp[2] + bOffset);
-    int alpha = clamp(foregroundBasisColor.getAlpha() + aOffset);
-    int argbValue = (Color.HSBtoRGB(tmp[0], tmp[1], tmp[2]) & 0xFFFFFF) | (alpha << 24);
-    return new Color(argbValue, true);
+    return DerivedColors.get(foregroundBasisColor, DerivedColors.key(hOffset, sOffset, bOffset, aOffset, false));
   }
 
   /**
-   * @param value The value
+   * <p>Equivalent to <code>getComponentColor</code> but without allocating on every paint</p>
    *
-   * @return The value between a limit of 0 to 1
+   * @param c                The component
+   * @param property         The color property ("background" or "foreground")
+   * @param defaultColor     The color used if the component does not specify one
+   * @param saturationOffset The saturation offset used for derivation
+   * @param brightnessOffset The brightness offset used for derivation
+   * @param alphaOffset      The alpha offset used for derivation
+   *
+   * @return The derived component color or the default color
    */
-  private float clamp(float value) {
-    if (value < 0) {
-      value = 0;
-    } else if (value > 1) {
-      value = 1;
+  protected final Color getDerivedComponentColor(JComponent c, String property, Color defaultColor, float saturationOffset, float brightnessOffset, int alphaOffset) {
+
+    Color color = null;
+    if (c != null) {
+      if ("background".equals(property)) {
+        color = c.getBackground();
+      } else if ("foreground".equals(property)) {
+        color = c.getForeground();
+      } else {
+        return getComponentColor(c, property, defaultColor, saturationOffset, brightnessOffset, alphaOffset);
+      }
     }
-    return value;
-  }
 
-  /**
-   * @param value The value
-   *
-   * @return The value between a limit of 0 to 255
-   */
-  private int clamp(int value) {
-    if (value < 0) {
-      value = 0;
-    } else if (value > 255) {
-      value = 255;
+    // Colors set by the LAF apply to the enabled state only so the default is used
+    if (color == null || color instanceof UIResource) {
+      return defaultColor;
+    } else if (saturationOffset != 0 || brightnessOffset != 0 || alphaOffset != 0) {
+      return DerivedColors.get(color, DerivedColors.key(0, saturationOffset, brightnessOffset, alphaOffset, true));
+    } else {
+      return color;
     }
-    return value;
   }
 
 }
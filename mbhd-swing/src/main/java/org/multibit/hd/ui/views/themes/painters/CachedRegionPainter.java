@@ -0,0 +1,196 @@
+package org.multibit.hd.ui.views.themes.painters;
+
+import com.google.common.base.Preconditions;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.print.PrinterGraphics;
+
+/**
+ * <p>Painter to provide the following to NimbusDecorator:</p>
+ * <ul>
+ * <li>Rendering of a named region painter through a shared image cache</li>
+ * <li>Nine patch stretching so that regions of different sizes share the same image</li>
+ * </ul>
+ * <p>Each decorated component receives its own painter instances so the Nimbus image cache
+ * (which is keyed by painter instance) never shares work between components. This painter
+ * keys the image on the painter class, state, basis colors and scaled size instead so that
+ * a screen full of buttons renders each state once and then copies pixels.</p>
+ * <p>Regions larger than their fixed insets plus a small stretchable centre are rendered at that
+ * reduced size and the centre is stretched, which matches the way Nimbus decodes coordinates
+ * between the insets.</p>
+ *
+ * @since 0.3.6
+ */
+public class CachedRegionPainter implements Painter<JComponent> {
+
+  /**
+   * The size of the stretchable centre of a cached image in each direction
+   */
+  static final int STRETCH_SIZE = 16;
+
+  private final AbstractNamedRegionPainter painter;
+
+  private final RegionImageCache cache;
+
+  /**
+   * @param painter The painter to use when an image is not in the cache
+   */
+  public CachedRegionPainter(AbstractNamedRegionPainter painter) {
+    this(painter, RegionImageCache.getInstance());
+  }
+
+  /**
+   * @param painter The painter to use when an image is not in the cache
+   * @param cache   The image cache
+   */
+  CachedRegionPainter(AbstractNamedRegionPainter painter, RegionImageCache cache) {
+
+    Preconditions.checkNotNull(painter, "'painter' must be present");
+    Preconditions.checkNotNull(cache, "'cache' must be present");
+
+    this.painter = painter;
+    this.cache = cache;
+
+  }
+
+  /**
+   * <p>Remove all cached images (called when the theme changes)</p>
+   */
+  public static void clearCache() {
+    RegionImageCache.getInstance().clear();
+  }
+
+  @Override
+  public void paint(Graphics2D g, JComponent c, int width, int height) {
+
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+
+    Insets insets = painter.getStretchingInsets();
+    AffineTransform transform = g.getTransform();
+    if (insets == null || !isScaleOnly(transform) || g instanceof PrinterGraphics) {
+      // Cannot be represented by a cached image
+      painter.paint(g, c, width, height);
+      return;
+    }
+
+    // Regions beyond the fixed insets plus the stretchable centre share a reduced image
+    int imageWidth = reducedSize(width, insets.left + insets.right);
+    int imageHeight = reducedSize(height, insets.top + insets.bottom);
+    int deviceWidth = (int) Math.ceil(imageWidth * transform.getScaleX());
+    int deviceHeight = (int) Math.ceil(imageHeight * transform.getScaleY());
+
+    RegionImageCache.Key key = new RegionImageCache.Key(painter, imageWidth, imageHeight, deviceWidth, deviceHeight, painter.getCacheKeys(c));
+    BufferedImage image = cache.get(key);
+    if (image == null) {
+      image = render(g, c, imageWidth, imageHeight, deviceWidth, deviceHeight);
+      cache.put(key, image);
+    }
+
+    if (imageWidth == width && imageHeight == height) {
+      g.drawImage(image, 0, 0, width, height, null);
+      return;
+    }
+
+    Object oldInterpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+    int[] sourceX = slices(insets.left, insets.right, imageWidth, deviceWidth, imageWidth == width);
+    int[] sourceY = slices(insets.top, insets.bottom, imageHeight, deviceHeight, imageHeight == height);
+    int[] targetX = slices(insets.left, insets.right, width, width, imageWidth == width);
+    int[] targetY = slices(insets.top, insets.bottom, height, height, imageHeight == height);
+
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < 3; column++) {
+        if (targetX[column] < targetX[column + 1] && targetY[row] < targetY[row + 1]) {
+          g.drawImage(
+            image,
+            targetX[column], targetY[row], targetX[column + 1], targetY[row + 1],
+            sourceX[column], sourceY[row], sourceX[column + 1], sourceY[row + 1],
+            null
+          );
+        }
+      }
+    }
+
+    if (oldInterpolation != null) {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldInterpolation);
+    }
+
+  }
+
+  /**
+   * @param g            The graphics context that will receive the image
+   * @param c            The component being painted
+   * @param imageWidth   The width of the painted region
+   * @param imageHeight  The height of the painted region
+   * @param deviceWidth  The width of the image in device pixels
+   * @param deviceHeight The height of the image in device pixels
+   *
+   * @return The region painted into a new translucent image
+   */
+  private BufferedImage render(Graphics2D g, JComponent c, int imageWidth, int imageHeight, int deviceWidth, int deviceHeight) {
+
+    GraphicsConfiguration configuration = g.getDeviceConfiguration();
+    BufferedImage image = configuration != null
+      ? configuration.createCompatibleImage(deviceWidth, deviceHeight, Transparency.TRANSLUCENT)
+      : new BufferedImage(deviceWidth, deviceHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+
+    Graphics2D imageGraphics = image.createGraphics();
+    try {
+      imageGraphics.scale((double) deviceWidth / imageWidth, (double) deviceHeight / imageHeight);
+      painter.paint(imageGraphics, c, imageWidth, imageHeight);
+    } finally {
+      imageGraphics.dispose();
+    }
+
+    return image;
+  }
+
+  /**
+   * @param size  The size of the region in one direction
+   * @param fixed The sum of the insets in that direction
+   *
+   * @return The size of the image to render in that direction
+   */
+  private static int reducedSize(int size, int fixed) {
+    return size > fixed + STRETCH_SIZE ? fixed + STRETCH_SIZE : size;
+  }
+
+  /**
+   * @param before     The inset before the stretchable centre
+   * @param after      The inset after the stretchable centre
+   * @param size       The size of the painted region
+   * @param deviceSize The size to divide (device pixels for the image, the region size for the target)
+   * @param whole      True if the region is not stretched in this direction (a single slice)
+   *
+   * @return The boundaries of the three slices (empty slices have equal boundaries)
+   */
+  private static int[] slices(int before, int after, int size, int deviceSize, boolean whole) {
+
+    if (whole) {
+      return new int[]{0, deviceSize, deviceSize, deviceSize};
+    }
+
+    double scale = (double) deviceSize / size;
+
+    return new int[]{0, (int) Math.round(before * scale), deviceSize - (int) Math.round(after * scale), deviceSize};
+  }
+
+  /**
+   * @param transform The transform of the graphics context
+   *
+   * @return True if the transform only translates and scales by positive factors
+   */
+  private static boolean isScaleOnly(AffineTransform transform) {
+
+    int allowed = AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE | AffineTransform.TYPE_GENERAL_SCALE;
+
+    return (transform.getType() & ~allowed) == 0 && transform.getScaleX() > 0 && transform.getScaleY() > 0;
+  }
+
+}
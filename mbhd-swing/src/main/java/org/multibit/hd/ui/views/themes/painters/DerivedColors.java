@@ -0,0 +1,283 @@
+package org.multibit.hd.ui.views.themes.painters;
+
+import com.google.common.base.Preconditions;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * <p>Table to provide the following to the named region painters:</p>
+ * <ul>
+ * <li>Colors derived from a basis color by HSB offsets, computed once per basis color and theme</li>
+ * <li>Lookup by small integer keys so that painting does not convert to HSB or allocate colors</li>
+ * </ul>
+ * <p>Each distinct set of offsets used by a painter is given a key the first time it is seen and keeps
+ * it for the life of the application. The derived colors are held per basis color until the theme
+ * changes, when {@link #clear()} discards them and the colors of the new theme are precomputed for
+ * every known key.</p>
+ * <p>All access is expected on the EDT but the methods are synchronized so an occasional paint
+ * elsewhere is safe.</p>
+ *
+ * @since 0.3.6
+ */
+public final class DerivedColors {
+
+  /**
+   * The number of ints describing each set of offsets (hue, saturation, brightness, alpha, opaque)
+   */
+  private static final int SPEC_LENGTH = 5;
+
+  /**
+   * The offsets of each key in order
+   */
+  private static int[] specs = new int[64 * SPEC_LENGTH];
+
+  private static int keyCount = 0;
+
+  /**
+   * Open addressing index of key + 1 by hash of the offsets (zero is empty)
+   */
+  private static int[] keyIndex = new int[128];
+
+  /**
+   * Open addressing index of basis ARGB values with the table of derived colors alongside
+   */
+  private static int[] basisValues = new int[32];
+
+  private static Color[][] basisTables = new Color[32][];
+
+  private static int basisCount = 0;
+
+  private static long deriveCount = 0;
+
+  /**
+   * Utilities have private constructors
+   */
+  private DerivedColors() {
+  }
+
+  /**
+   * @param hOffset The hue offset
+   * @param sOffset The saturation offset
+   * @param bOffset The brightness offset
+   * @param aOffset The alpha offset (between -255 and 255)
+   * @param opaque  True if the result is fully opaque rather than the basis alpha plus the offset
+   *                (matches <code>AbstractRegionPainter.getComponentColor</code>)
+   *
+   * @return The key for the offsets (the same offsets always give the same key)
+   */
+  static synchronized int key(float hOffset, float sOffset, float bOffset, int aOffset, boolean opaque) {
+
+    int h = Float.floatToIntBits(hOffset);
+    int s = Float.floatToIntBits(sOffset);
+    int b = Float.floatToIntBits(bOffset);
+    int o = opaque ? 1 : 0;
+
+    int mask = keyIndex.length - 1;
+    int slot = hash(h, s, b, aOffset, o) & mask;
+    while (keyIndex[slot] != 0) {
+      int spec = (keyIndex[slot] - 1) * SPEC_LENGTH;
+      if (specs[spec] == h && specs[spec + 1] == s && specs[spec + 2] == b && specs[spec + 3] == aOffset && specs[spec + 4] == o) {
+        return keyIndex[slot] - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    // First time these offsets have been seen
+    if ((keyCount + 1) * SPEC_LENGTH > specs.length) {
+      specs = Arrays.copyOf(specs, specs.length * 2);
+    }
+    int spec = keyCount * SPEC_LENGTH;
+    specs[spec] = h;
+    specs[spec + 1] = s;
+    specs[spec + 2] = b;
+    specs[spec + 3] = aOffset;
+    specs[spec + 4] = o;
+    keyIndex[slot] = ++keyCount;
+
+    if (keyCount * 2 > keyIndex.length) {
+      rebuildKeyIndex();
+    }
+
+    return keyCount - 1;
+  }
+
+  /**
+   * @param basis The basis color
+   * @param key   The key of the offsets
+   *
+   * @return The derived color (the same instance until the theme changes)
+   */
+  static synchronized Color get(Color basis, int key) {
+
+    Preconditions.checkElementIndex(key, keyCount, "key");
+
+    Color[] table = table(basis.getRGB());
+    if (key >= table.length) {
+      table = Arrays.copyOf(table, keyCount);
+      basisTables[basisSlot(basis.getRGB())] = table;
+    }
+
+    Color derived = table[key];
+    if (derived == null) {
+      derived = derive(basis, key);
+      table[key] = derived;
+    }
+
+    return derived;
+  }
+
+  /**
+   * <p>Derive every known key for the basis colors ahead of painting</p>
+   *
+   * @param basisColors The basis colors of the current theme
+   */
+  public static synchronized void precompute(Color... basisColors) {
+
+    for (Color basis : basisColors) {
+      for (int key = 0; key < keyCount; key++) {
+        get(basis, key);
+      }
+    }
+
+  }
+
+  /**
+   * <p>Discard all derived colors (called when the theme changes)</p>
+   */
+  public static synchronized void clear() {
+
+    basisValues = new int[32];
+    basisTables = new Color[32][];
+    basisCount = 0;
+
+  }
+
+  /**
+   * @return The number of distinct sets of offsets seen
+   */
+  static synchronized int getKeyCount() {
+    return keyCount;
+  }
+
+  /**
+   * @return The number of colors derived (each allocates a color)
+   */
+  static synchronized long getDeriveCount() {
+    return deriveCount;
+  }
+
+  /**
+   * @param basis The basis color
+   * @param key   The key of the offsets
+   *
+   * @return A new derived color
+   */
+  private static Color derive(Color basis, int key) {
+
+    deriveCount++;
+
+    int spec = key * SPEC_LENGTH;
+    float[] tmp = Color.RGBtoHSB(basis.getRed(), basis.getGreen(), basis.getBlue(), null);
+    // apply offsets
+    tmp[0] = clamp(tmp[0] + Float.intBitsToFloat(specs[spec]));
+    tmp[1] = clamp(tmp[1] + Float.intBitsToFloat(specs[spec + 1]));
+    tmp[2] = clamp(tmp[2] + Float.intBitsToFloat(specs[spec + 2]));
+
+    int rgb = Color.HSBtoRGB(tmp[0], tmp[1], tmp[2]) & 0xFFFFFF;
+    if (specs[spec + 4] == 1) {
+      return new Color(rgb);
+    }
+
+    int alpha = Math.max(0, Math.min(255, basis.getAlpha() + specs[spec + 3]));
+    return new Color(rgb | (alpha << 24), true);
+  }
+
+  /**
+   * @param argb The basis ARGB value
+   *
+   * @return The table of derived colors for the basis (created if necessary)
+   */
+  private static Color[] table(int argb) {
+
+    int slot = basisSlot(argb);
+    if (basisTables[slot] == null) {
+      basisValues[slot] = argb;
+      basisTables[slot] = new Color[keyCount];
+      basisCount++;
+      if (basisCount * 2 > basisValues.length) {
+        rebuildBasisIndex();
+        slot = basisSlot(argb);
+      }
+    }
+
+    return basisTables[slot];
+  }
+
+  /**
+   * @param argb The basis ARGB value
+   *
+   * @return The slot holding the basis or the empty slot where it belongs
+   */
+  private static int basisSlot(int argb) {
+
+    int mask = basisValues.length - 1;
+    int slot = mix(argb) & mask;
+    while (basisTables[slot] != null && basisValues[slot] != argb) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private static void rebuildBasisIndex() {
+
+    int[] oldValues = basisValues;
+    Color[][] oldTables = basisTables;
+
+    basisValues = new int[oldValues.length * 2];
+    basisTables = new Color[oldValues.length * 2][];
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldTables[i] != null) {
+        int slot = basisSlot(oldValues[i]);
+        basisValues[slot] = oldValues[i];
+        basisTables[slot] = oldTables[i];
+      }
+    }
+
+  }
+
+  private static void rebuildKeyIndex() {
+
+    keyIndex = new int[keyIndex.length * 2];
+    int mask = keyIndex.length - 1;
+    for (int key = 0; key < keyCount; key++) {
+      int spec = key * SPEC_LENGTH;
+      int slot = hash(specs[spec], specs[spec + 1], specs[spec + 2], specs[spec + 3], specs[spec + 4]) & mask;
+      while (keyIndex[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      keyIndex[slot] = key + 1;
+    }
+
+  }
+
+  private static int hash(int h, int s, int b, int a, int o) {
+    return mix((((h * 31 + s) * 31 + b) * 31 + a) * 31 + o);
+  }
+
+  private static int mix(int value) {
+    int h = value * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static float clamp(float value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > 1) {
+      value = 1;
+    }
+    return value;
+  }
+
+}
@@ -3,7 +3,6 @@ package org.multibit.hd.ui.views.themes.painters;
 import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
-import javax.swing.plaf.nimbus.AbstractRegionPainter;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
@@ -100,7 +99,7 @@ public class NamedButtonRegionPainter extends AbstractNamedRegionPainter {
     super(color, Themes.currentTheme.detailPanelBackground(), state);
 
     Insets insets = new Insets(7, 7, 7, 7);
-    this.ctx = new AbstractRegionPainter.PaintContext(insets, new Dimension(10, 20), false);
+    this.ctx = createPaintContext(insets, new Dimension(10, 20));
 
   }
 
@@ -161,100 +160,100 @@ public class NamedButtonRegionPainter extends AbstractNamedRegionPainter {
     switch (state) {
       case BACKGROUND_DEFAULT:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color4, -0.6197143f, 0.43137252f, 0),
-          getComponentColor(c, "background", color5, -0.5766426f, 0.38039213f, 0),
-          getComponentColor(c, "background", color6, -0.43866998f, 0.24705881f, 0),
-          getComponentColor(c, "background", color7, -0.46404046f, 0.36470586f, 0),
-          getComponentColor(c, "background", color8, -0.47761154f, 0.44313723f, 0)};
+          getDerivedComponentColor(c, "background", color4, -0.6197143f, 0.43137252f, 0),
+          getDerivedComponentColor(c, "background", color5, -0.5766426f, 0.38039213f, 0),
+          getDerivedComponentColor(c, "background", color6, -0.43866998f, 0.24705881f, 0),
+          getDerivedComponentColor(c, "background", color7, -0.46404046f, 0.36470586f, 0),
+          getDerivedComponentColor(c, "background", color8, -0.47761154f, 0.44313723f, 0)};
         break;
       case BACKGROUND_DEFAULT_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color4, -0.6197143f, 0.43137252f, 0),
-          getComponentColor(c, "background", color5, -0.5766426f, 0.38039213f, 0),
-          getComponentColor(c, "background", color6, -0.43866998f, 0.24705881f, 0),
-          getComponentColor(c, "background", color7, -0.46404046f, 0.36470586f, 0),
-          getComponentColor(c, "background", color8, -0.47761154f, 0.44313723f, 0)};
+          getDerivedComponentColor(c, "background", color4, -0.6197143f, 0.43137252f, 0),
+          getDerivedComponentColor(c, "background", color5, -0.5766426f, 0.38039213f, 0),
+          getDerivedComponentColor(c, "background", color6, -0.43866998f, 0.24705881f, 0),
+          getDerivedComponentColor(c, "background", color7, -0.46404046f, 0.36470586f, 0),
+          getDerivedComponentColor(c, "background", color8, -0.47761154f, 0.44313723f, 0)};
         break;
       case BACKGROUND_MOUSEOVER_DEFAULT:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color12, -0.6198413f, 0.43921566f, 0),
-          getComponentColor(c, "background", color13, -0.5822163f, 0.40392154f, 0),
-          getComponentColor(c, "background", color14, -0.4555341f, 0.3215686f, 0),
-          getComponentColor(c, "background", color15, -0.47698414f, 0.43921566f, 0),
-          getComponentColor(c, "background", color16, -0.5455182f, 0.45098037f, 0)};
+          getDerivedComponentColor(c, "background", color12, -0.6198413f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color13, -0.5822163f, 0.40392154f, 0),
+          getDerivedComponentColor(c, "background", color14, -0.4555341f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color15, -0.47698414f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color16, -0.5455182f, 0.45098037f, 0)};
         break;
       case BACKGROUND_MOUSEOVER_DEFAULT_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color12, -0.6198413f, 0.43921566f, 0),
-          getComponentColor(c, "background", color13, -0.5822163f, 0.40392154f, 0),
-          getComponentColor(c, "background", color14, -0.4555341f, 0.3215686f, 0),
-          getComponentColor(c, "background", color15, -0.47698414f, 0.43921566f, 0),
-          getComponentColor(c, "background", color16, -0.5455182f, 0.45098037f, 0)};
+          getDerivedComponentColor(c, "background", color12, -0.6198413f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color13, -0.5822163f, 0.40392154f, 0),
+          getDerivedComponentColor(c, "background", color14, -0.4555341f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color15, -0.47698414f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color16, -0.5455182f, 0.45098037f, 0)};
         break;
       case BACKGROUND_PRESSED_DEFAULT:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color20, -0.38050595f, 0.20392156f, 0),
-          getComponentColor(c, "background", color21, -0.29863563f, 0.1490196f, 0),
-          getComponentColor(c, "background", color22, 0.0f, 0.0f, 0),
-          getComponentColor(c, "background", color23, -0.14126986f, 0.15686274f, 0),
-          getComponentColor(c, "background", color24, -0.20852983f, 0.2588235f, 0)};
+          getDerivedComponentColor(c, "background", color20, -0.38050595f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color21, -0.29863563f, 0.1490196f, 0),
+          getDerivedComponentColor(c, "background", color22, 0.0f, 0.0f, 0),
+          getDerivedComponentColor(c, "background", color23, -0.14126986f, 0.15686274f, 0),
+          getDerivedComponentColor(c, "background", color24, -0.20852983f, 0.2588235f, 0)};
         break;
       case BACKGROUND_PRESSED_DEFAULT_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color20, -0.38050595f, 0.20392156f, 0),
-          getComponentColor(c, "background", color21, -0.29863563f, 0.1490196f, 0),
-          getComponentColor(c, "background", color22, 0.0f, 0.0f, 0),
-          getComponentColor(c, "background", color23, -0.14126986f, 0.15686274f, 0),
-          getComponentColor(c, "background", color24, -0.20852983f, 0.2588235f, 0)};
+          getDerivedComponentColor(c, "background", color20, -0.38050595f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color21, -0.29863563f, 0.1490196f, 0),
+          getDerivedComponentColor(c, "background", color22, 0.0f, 0.0f, 0),
+          getDerivedComponentColor(c, "background", color23, -0.14126986f, 0.15686274f, 0),
+          getDerivedComponentColor(c, "background", color24, -0.20852983f, 0.2588235f, 0)};
         break;
       case BACKGROUND_DISABLED:
         // Do nothing
         break;
       case BACKGROUND_ENABLED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color35, -0.10655806f, 0.24313724f, 0),
-          getComponentColor(c, "background", color36, -0.09823123f, 0.2117647f, 0),
-          getComponentColor(c, "background", color30, -0.07016757f, 0.12941176f, 0),
-          getComponentColor(c, "background", color37, -0.0749532f, 0.24705881f, 0),
-          getComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
+          getDerivedComponentColor(c, "background", color35, -0.10655806f, 0.24313724f, 0),
+          getDerivedComponentColor(c, "background", color36, -0.09823123f, 0.2117647f, 0),
+          getDerivedComponentColor(c, "background", color30, -0.07016757f, 0.12941176f, 0),
+          getDerivedComponentColor(c, "background", color37, -0.0749532f, 0.24705881f, 0),
+          getDerivedComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
         break;
       case BACKGROUND_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color35, -0.10655806f, 0.24313724f, 0),
-          getComponentColor(c, "background", color36, -0.09823123f, 0.2117647f, 0),
-          getComponentColor(c, "background", color30, -0.07016757f, 0.12941176f, 0),
-          getComponentColor(c, "background", color37, -0.0749532f, 0.24705881f, 0),
-          getComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
+          getDerivedComponentColor(c, "background", color35, -0.10655806f, 0.24313724f, 0),
+          getDerivedComponentColor(c, "background", color36, -0.09823123f, 0.2117647f, 0),
+          getDerivedComponentColor(c, "background", color30, -0.07016757f, 0.12941176f, 0),
+          getDerivedComponentColor(c, "background", color37, -0.0749532f, 0.24705881f, 0),
+          getDerivedComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
         break;
       case BACKGROUND_MOUSEOVER:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color41, -0.10658931f, 0.25098038f, 0),
-          getComponentColor(c, "background", color42, -0.098526314f, 0.2352941f, 0),
-          getComponentColor(c, "background", color43, -0.07333623f, 0.20392156f, 0),
-          getComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
+          getDerivedComponentColor(c, "background", color41, -0.10658931f, 0.25098038f, 0),
+          getDerivedComponentColor(c, "background", color42, -0.098526314f, 0.2352941f, 0),
+          getDerivedComponentColor(c, "background", color43, -0.07333623f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
         break;
       case BACKGROUND_MOUSEOVER_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color41, -0.10658931f, 0.25098038f, 0),
-          getComponentColor(c, "background", color42, -0.098526314f, 0.2352941f, 0),
-          getComponentColor(c, "background", color43, -0.07333623f, 0.20392156f, 0),
-          getComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
+          getDerivedComponentColor(c, "background", color41, -0.10658931f, 0.25098038f, 0),
+          getDerivedComponentColor(c, "background", color42, -0.098526314f, 0.2352941f, 0),
+          getDerivedComponentColor(c, "background", color43, -0.07333623f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color38, -0.110526316f, 0.25490195f, 0)};
         break;
       case BACKGROUND_PRESSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color47, -0.05960039f, 0.10196078f, 0),
-          getComponentColor(c, "background", color48, -0.04772438f, 0.06666666f, 0),
-          getComponentColor(c, "background", color49, -0.0018306673f, -0.02352941f, 0),
-          getComponentColor(c, "background", color50, -0.0212406f, 0.13333333f, 0),
-          getComponentColor(c, "background", color51, -0.030845039f, 0.23921567f, 0)};
+          getDerivedComponentColor(c, "background", color47, -0.05960039f, 0.10196078f, 0),
+          getDerivedComponentColor(c, "background", color48, -0.04772438f, 0.06666666f, 0),
+          getDerivedComponentColor(c, "background", color49, -0.0018306673f, -0.02352941f, 0),
+          getDerivedComponentColor(c, "background", color50, -0.0212406f, 0.13333333f, 0),
+          getDerivedComponentColor(c, "background", color51, -0.030845039f, 0.23921567f, 0)};
         break;
       case BACKGROUND_PRESSED_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color47, -0.05960039f, 0.10196078f, 0),
-          getComponentColor(c, "background", color48, -0.04772438f, 0.06666666f, 0),
-          getComponentColor(c, "background", color49, -0.0018306673f, -0.02352941f, 0),
-          getComponentColor(c, "background", color50, -0.0212406f, 0.13333333f, 0),
-          getComponentColor(c, "background", color51, -0.030845039f, 0.23921567f, 0)};
+          getDerivedComponentColor(c, "background", color47, -0.05960039f, 0.10196078f, 0),
+          getDerivedComponentColor(c, "background", color48, -0.04772438f, 0.06666666f, 0),
+          getDerivedComponentColor(c, "background", color49, -0.0018306673f, -0.02352941f, 0),
+          getDerivedComponentColor(c, "background", color50, -0.0212406f, 0.13333333f, 0),
+          getDerivedComponentColor(c, "background", color51, -0.030845039f, 0.23921567f, 0)};
         break;
       default:
         throw new IllegalStateException("Unknown state:" + state);
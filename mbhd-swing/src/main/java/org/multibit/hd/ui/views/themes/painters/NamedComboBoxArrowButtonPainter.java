@@ -1,7 +1,6 @@
 package org.multibit.hd.ui.views.themes.painters;
 
 import javax.swing.*;
-import javax.swing.plaf.nimbus.AbstractRegionPainter;
 import java.awt.*;
 import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
@@ -77,7 +76,7 @@ public class NamedComboBoxArrowButtonPainter extends AbstractNamedRegionPainter
     super(Color.RED, Color.BLUE, state);
 
     Insets insets = new Insets(8, 1, 8, 8);
-    this.ctx = new AbstractRegionPainter.PaintContext(insets, new Dimension(20, 24), false);
+    this.ctx = createPaintContext(insets, new Dimension(20, 24));
 
   }
 
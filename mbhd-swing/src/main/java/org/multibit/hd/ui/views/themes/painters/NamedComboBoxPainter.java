@@ -1,7 +1,6 @@
 package org.multibit.hd.ui.views.themes.painters;
 
 import javax.swing.*;
-import javax.swing.plaf.nimbus.AbstractRegionPainter;
 import java.awt.*;
 import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
@@ -103,7 +102,7 @@ public class NamedComboBoxPainter extends AbstractNamedRegionPainter {
     super(Color.RED, Color.BLUE, state);
 
     Insets insets = new Insets(8, 9, 8, 19);
-    this.ctx = new AbstractRegionPainter.PaintContext(insets, new Dimension(83, 24), false);
+    this.ctx = createPaintContext(insets, new Dimension(83, 24));
 
   }
 
@@ -167,82 +166,82 @@ public class NamedComboBoxPainter extends AbstractNamedRegionPainter {
     switch (state) {
       case BACKGROUND_ENABLED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color17, -0.63174605f, 0.43921566f, 0),
-          getComponentColor(c, "background", color18, -0.6054113f, 0.35686272f, 0),
-          getComponentColor(c, "background", color6, -0.5953556f, 0.32549018f, 0),
-          getComponentColor(c, "background", color19, -0.5998577f, 0.4352941f, 0),
-          getComponentColor(c, "background", color22, -0.6197143f, 0.43137252f, 0),
-          getComponentColor(c, "background", color23, -0.4800539f, 0.28235292f, 0),
-          getComponentColor(c, "background", color24, -0.43866998f, 0.24705881f, 0),
-          getComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0)};
+          getDerivedComponentColor(c, "background", color17, -0.63174605f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color18, -0.6054113f, 0.35686272f, 0),
+          getDerivedComponentColor(c, "background", color6, -0.5953556f, 0.32549018f, 0),
+          getDerivedComponentColor(c, "background", color19, -0.5998577f, 0.4352941f, 0),
+          getDerivedComponentColor(c, "background", color22, -0.6197143f, 0.43137252f, 0),
+          getDerivedComponentColor(c, "background", color23, -0.4800539f, 0.28235292f, 0),
+          getDerivedComponentColor(c, "background", color24, -0.43866998f, 0.24705881f, 0),
+          getDerivedComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0)};
         break;
       case BACKGROUND_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color17, -0.63174605f, 0.43921566f, 0),
-          getComponentColor(c, "background", color18, -0.6054113f, 0.35686272f, 0),
-          getComponentColor(c, "background", color6, -0.5953556f, 0.32549018f, 0),
-          getComponentColor(c, "background", color19, -0.5998577f, 0.4352941f, 0),
-          getComponentColor(c, "background", color22, -0.6197143f, 0.43137252f, 0),
-          getComponentColor(c, "background", color23, -0.4800539f, 0.28235292f, 0),
-          getComponentColor(c, "background", color24, -0.43866998f, 0.24705881f, 0),
-          getComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0)};
+          getDerivedComponentColor(c, "background", color17, -0.63174605f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color18, -0.6054113f, 0.35686272f, 0),
+          getDerivedComponentColor(c, "background", color6, -0.5953556f, 0.32549018f, 0),
+          getDerivedComponentColor(c, "background", color19, -0.5998577f, 0.4352941f, 0),
+          getDerivedComponentColor(c, "background", color22, -0.6197143f, 0.43137252f, 0),
+          getDerivedComponentColor(c, "background", color23, -0.4800539f, 0.28235292f, 0),
+          getDerivedComponentColor(c, "background", color24, -0.43866998f, 0.24705881f, 0),
+          getDerivedComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0)};
         break;
       case BACKGROUND_MOUSEOVER_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color29, -0.6317773f, 0.4470588f, 0),
-          getComponentColor(c, "background", color30, -0.6113241f, 0.41568625f, 0),
-          getComponentColor(c, "background", color31, -0.5985242f, 0.39999998f, 0),
-          getComponentColor(c, "background", color32, -0.6357143f, 0.45098037f, 0),
-          getComponentColor(c, "background", color35, -0.6198413f, 0.43921566f, 0),
-          getComponentColor(c, "background", color36, -0.50527954f, 0.35294116f, 0),
-          getComponentColor(c, "background", color37, -0.4555341f, 0.3215686f, 0),
-          getComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0),
-          getComponentColor(c, "background", color38, -0.4757143f, 0.43137252f, 0)};
+          getDerivedComponentColor(c, "background", color29, -0.6317773f, 0.4470588f, 0),
+          getDerivedComponentColor(c, "background", color30, -0.6113241f, 0.41568625f, 0),
+          getDerivedComponentColor(c, "background", color31, -0.5985242f, 0.39999998f, 0),
+          getDerivedComponentColor(c, "background", color32, -0.6357143f, 0.45098037f, 0),
+          getDerivedComponentColor(c, "background", color35, -0.6198413f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color36, -0.50527954f, 0.35294116f, 0),
+          getDerivedComponentColor(c, "background", color37, -0.4555341f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0),
+          getDerivedComponentColor(c, "background", color38, -0.4757143f, 0.43137252f, 0)};
         break;
       case BACKGROUND_MOUSEOVER:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color29, -0.6317773f, 0.4470588f, 0),
-          getComponentColor(c, "background", color30, -0.6113241f, 0.41568625f, 0),
-          getComponentColor(c, "background", color31, -0.5985242f, 0.39999998f, 0),
-          getComponentColor(c, "background", color32, -0.6357143f, 0.45098037f, 0),
-          getComponentColor(c, "background", color35, -0.6198413f, 0.43921566f, 0),
-          getComponentColor(c, "background", color36, -0.50527954f, 0.35294116f, 0),
-          getComponentColor(c, "background", color37, -0.4555341f, 0.3215686f, 0),
-          getComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0),
-          getComponentColor(c, "background", color38, -0.4757143f, 0.43137252f, 0)};
+          getDerivedComponentColor(c, "background", color29, -0.6317773f, 0.4470588f, 0),
+          getDerivedComponentColor(c, "background", color30, -0.6113241f, 0.41568625f, 0),
+          getDerivedComponentColor(c, "background", color31, -0.5985242f, 0.39999998f, 0),
+          getDerivedComponentColor(c, "background", color32, -0.6357143f, 0.45098037f, 0),
+          getDerivedComponentColor(c, "background", color35, -0.6198413f, 0.43921566f, 0),
+          getDerivedComponentColor(c, "background", color36, -0.50527954f, 0.35294116f, 0),
+          getDerivedComponentColor(c, "background", color37, -0.4555341f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color25, -0.4625541f, 0.35686272f, 0),
+          getDerivedComponentColor(c, "background", color38, -0.4757143f, 0.43137252f, 0)};
         break;
       case BACKGROUND_PRESSED_FOCUSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color41, -0.5847884f, 0.2980392f, 0),
-          getComponentColor(c, "background", color42, -0.53623784f, 0.19999999f, 0),
-          getComponentColor(c, "background", color43, -0.52701867f, 0.17254901f, 0),
-          getComponentColor(c, "background", color44, -0.5456242f, 0.3215686f, 0),
-          getComponentColor(c, "background", color47, -0.38050595f, 0.20392156f, 0),
-          getComponentColor(c, "background", color48, -0.12922078f, 0.054901958f, 0),
-          getComponentColor(c, "background", color49, -0.00895375f, 0.007843137f, 0),
-          getComponentColor(c, "background", color50, -0.1436508f, 0.19215685f, 0)};
+          getDerivedComponentColor(c, "background", color41, -0.5847884f, 0.2980392f, 0),
+          getDerivedComponentColor(c, "background", color42, -0.53623784f, 0.19999999f, 0),
+          getDerivedComponentColor(c, "background", color43, -0.52701867f, 0.17254901f, 0),
+          getDerivedComponentColor(c, "background", color44, -0.5456242f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color47, -0.38050595f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color48, -0.12922078f, 0.054901958f, 0),
+          getDerivedComponentColor(c, "background", color49, -0.00895375f, 0.007843137f, 0),
+          getDerivedComponentColor(c, "background", color50, -0.1436508f, 0.19215685f, 0)};
         break;
       case BACKGROUND_PRESSED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color41, -0.5847884f, 0.2980392f, 0),
-          getComponentColor(c, "background", color42, -0.53623784f, 0.19999999f, 0),
-          getComponentColor(c, "background", color43, -0.52701867f, 0.17254901f, 0),
-          getComponentColor(c, "background", color44, -0.5456242f, 0.3215686f, 0),
-          getComponentColor(c, "background", color47, -0.38050595f, 0.20392156f, 0),
-          getComponentColor(c, "background", color48, -0.12922078f, 0.054901958f, 0),
-          getComponentColor(c, "background", color49, -0.00895375f, 0.007843137f, 0),
-          getComponentColor(c, "background", color50, -0.1436508f, 0.19215685f, 0)};
+          getDerivedComponentColor(c, "background", color41, -0.5847884f, 0.2980392f, 0),
+          getDerivedComponentColor(c, "background", color42, -0.53623784f, 0.19999999f, 0),
+          getDerivedComponentColor(c, "background", color43, -0.52701867f, 0.17254901f, 0),
+          getDerivedComponentColor(c, "background", color44, -0.5456242f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color47, -0.38050595f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color48, -0.12922078f, 0.054901958f, 0),
+          getDerivedComponentColor(c, "background", color49, -0.00895375f, 0.007843137f, 0),
+          getDerivedComponentColor(c, "background", color50, -0.1436508f, 0.19215685f, 0)};
         break;
       case BACKGROUND_ENABLED_SELECTED:
         extendedCacheKeys = new Object[]{
-          getComponentColor(c, "background", color41, -0.5847884f, 0.2980392f, 0),
-          getComponentColor(c, "background", color42, -0.53623784f, 0.19999999f, 0),
-          getComponentColor(c, "background", color43, -0.52701867f, 0.17254901f, 0),
-          getComponentColor(c, "background", color44, -0.5456242f, 0.3215686f, 0),
-          getComponentColor(c, "background", color47, -0.38050595f, 0.20392156f, 0),
-          getComponentColor(c, "background", color48, -0.12922078f, 0.054901958f, 0),
-          getComponentColor(c, "background", color49, -0.00895375f, 0.007843137f, 0),
-          getComponentColor(c, "background", color50, -0.1436508f, 0.19215685f, 0)};
+          getDerivedComponentColor(c, "background", color41, -0.5847884f, 0.2980392f, 0),
+          getDerivedComponentColor(c, "background", color42, -0.53623784f, 0.19999999f, 0),
+          getDerivedComponentColor(c, "background", color43, -0.52701867f, 0.17254901f, 0),
+          getDerivedComponentColor(c, "background", color44, -0.5456242f, 0.3215686f, 0),
+          getDerivedComponentColor(c, "background", color47, -0.38050595f, 0.20392156f, 0),
+          getDerivedComponentColor(c, "background", color48, -0.12922078f, 0.054901958f, 0),
+          getDerivedComponentColor(c, "background", color49, -0.00895375f, 0.007843137f, 0),
+          getDerivedComponentColor(c, "background", color50, -0.1436508f, 0.19215685f, 0)};
         break;
       case BACKGROUND_DISABLED:
         // Do nothing
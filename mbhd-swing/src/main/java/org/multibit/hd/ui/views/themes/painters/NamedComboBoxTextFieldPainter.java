@@ -44,7 +44,7 @@ public class NamedComboBoxTextFieldPainter extends AbstractNamedRegionPainter {
     super(Color.RED, Color.BLUE, state);
 
     Insets insets = new Insets(8, 1, 8, 8);
-    this.ctx = new PaintContext(insets, new Dimension(20, 24), false);
+    this.ctx = createPaintContext(insets, new Dimension(20, 24));
 
   }
 
@@ -89,7 +89,7 @@ public class NamedProgressBarRegionPainter extends AbstractNamedRegionPainter {
     super(color, Themes.currentTheme.detailPanelBackground(), state);
 
     Insets insets = new Insets(7, 7, 7, 7);
-    this.ctx = new PaintContext(insets, new Dimension(10, 20), false);
+    this.ctx = createPaintContext(insets, new Dimension(10, 20));
 
   }
 
@@ -3,7 +3,6 @@ package org.multibit.hd.ui.views.themes.painters;
 import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
-import javax.swing.plaf.nimbus.AbstractRegionPainter;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 
@@ -45,7 +44,7 @@ public final class NamedTabbedPaneTabAreaPainter extends AbstractNamedRegionPain
   public NamedTabbedPaneTabAreaPainter(Color color, int state) {
     super(color, Themes.currentTheme.detailPanelBackground(), state);
 
-    this.ctx = new AbstractRegionPainter.PaintContext(new Insets(0, 5, 6, 5), new Dimension(5, 24), false);
+    this.ctx = createPaintContext(new Insets(0, 5, 6, 5), new Dimension(5, 24));
 
   }
 
@@ -3,7 +3,6 @@ package org.multibit.hd.ui.views.themes.painters;
 import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
-import javax.swing.plaf.nimbus.AbstractRegionPainter;
 import java.awt.*;
 import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
@@ -118,7 +117,7 @@ public final class NamedTabbedPaneTabPainter extends AbstractNamedRegionPainter
       default:
         throw new IllegalStateException("Unknown state:" + state);
     }
-    this.ctx = new AbstractRegionPainter.PaintContext(insets, new Dimension(10, 20), false);
+    this.ctx = createPaintContext(insets, new Dimension(10, 20));
   }
 
   @Override
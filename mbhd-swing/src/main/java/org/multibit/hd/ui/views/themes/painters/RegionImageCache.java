@@ -0,0 +1,217 @@
+package org.multibit.hd.ui.views.themes.painters;
+
+import com.google.common.base.Preconditions;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Cache to provide the following to CachedRegionPainter:</p>
+ * <ul>
+ * <li>Rendered region images shared between all painters of the same class, state and basis colors</li>
+ * <li>A bound on the total number of pixels held, evicting the least recently used images first</li>
+ * </ul>
+ *
+ * @since 0.3.6
+ */
+class RegionImageCache {
+
+  /**
+   * The maximum number of pixels held across all images (4 bytes each)
+   */
+  static final int MAXIMUM_PIXELS = 512 * 1024;
+
+  private static final RegionImageCache INSTANCE = new RegionImageCache(MAXIMUM_PIXELS);
+
+  private final int maximumPixels;
+
+  private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<>(64, 0.75f, true);
+
+  private int pixels = 0;
+
+  private long hitCount = 0;
+
+  private long missCount = 0;
+
+  /**
+   * @param maximumPixels The maximum number of pixels to hold
+   */
+  RegionImageCache(int maximumPixels) {
+
+    Preconditions.checkArgument(maximumPixels > 0, "'maximumPixels' must be positive");
+
+    this.maximumPixels = maximumPixels;
+
+  }
+
+  /**
+   * @return The cache shared by all painters
+   */
+  static RegionImageCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param key The key describing the rendered region
+   *
+   * @return The image or null if it must be rendered
+   */
+  synchronized BufferedImage get(Key key) {
+
+    BufferedImage image = images.get(key);
+    if (image == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+
+    return image;
+  }
+
+  /**
+   * @param key   The key describing the rendered region
+   * @param image The rendered image
+   */
+  synchronized void put(Key key, BufferedImage image) {
+
+    int imagePixels = image.getWidth() * image.getHeight();
+    if (imagePixels > maximumPixels) {
+      return;
+    }
+
+    BufferedImage previous = images.put(key, image);
+    if (previous != null) {
+      pixels -= previous.getWidth() * previous.getHeight();
+    }
+    pixels += imagePixels;
+
+    // Evict the least recently used images until back within the bound
+    Iterator<Map.Entry<Key, BufferedImage>> iterator = images.entrySet().iterator();
+    while (pixels > maximumPixels && iterator.hasNext()) {
+      BufferedImage eldest = iterator.next().getValue();
+      iterator.remove();
+      pixels -= eldest.getWidth() * eldest.getHeight();
+    }
+
+  }
+
+  /**
+   * <p>Remove all images (the basis colors of painters created after a theme change are different)</p>
+   */
+  synchronized void clear() {
+
+    images.clear();
+    pixels = 0;
+
+  }
+
+  /**
+   * @return The number of images held
+   */
+  synchronized int size() {
+    return images.size();
+  }
+
+  /**
+   * @return The number of pixels held across all images
+   */
+  synchronized int getPixels() {
+    return pixels;
+  }
+
+  /**
+   * @return The number of lookups that found an image
+   */
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return The number of lookups that required rendering
+   */
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * <p>Identifies a rendered region independently of the painter instance</p>
+   */
+  static final class Key {
+
+    private final Class<?> painterClass;
+    private final int state;
+    private final int foregroundRgb;
+    private final int backgroundRgb;
+    private final int width;
+    private final int height;
+    private final int deviceWidth;
+    private final int deviceHeight;
+    private final Object[] cacheKeys;
+    private final int hashCode;
+
+    /**
+     * @param painter   The painter
+     * @param width        The width of the painted region
+     * @param height       The height of the painted region
+     * @param deviceWidth  The width of the image in device pixels
+     * @param deviceHeight The height of the image in device pixels
+     * @param cacheKeys    The component specific values that affect the painting (may be null)
+     */
+    Key(AbstractNamedRegionPainter painter, int width, int height, int deviceWidth, int deviceHeight, Object[] cacheKeys) {
+
+      this.painterClass = painter.getClass();
+      this.state = painter.getState();
+      this.foregroundRgb = painter.getForegroundBasisColor().getRGB();
+      this.backgroundRgb = painter.getBackgroundBasisColor().getRGB();
+      this.width = width;
+      this.height = height;
+      this.deviceWidth = deviceWidth;
+      this.deviceHeight = deviceHeight;
+      this.cacheKeys = cacheKeys;
+
+      int result = painterClass.hashCode();
+      result = 31 * result + state;
+      result = 31 * result + foregroundRgb;
+      result = 31 * result + backgroundRgb;
+      result = 31 * result + width;
+      result = 31 * result + height;
+      result = 31 * result + deviceWidth;
+      result = 31 * result + deviceHeight;
+      result = 31 * result + Arrays.hashCode(cacheKeys);
+      this.hashCode = result;
+
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Key key = (Key) o;
+
+      return hashCode == key.hashCode
+        && state == key.state
+        && foregroundRgb == key.foregroundRgb
+        && backgroundRgb == key.backgroundRgb
+        && width == key.width
+        && height == key.height
+        && deviceWidth == key.deviceWidth
+        && deviceHeight == key.deviceHeight
+        && painterClass == key.painterClass
+        && Arrays.equals(cacheKeys, key.cacheKeys);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+}
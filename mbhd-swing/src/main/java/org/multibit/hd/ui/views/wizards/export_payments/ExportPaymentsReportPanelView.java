@@ -4,11 +4,13 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListenableFuture;
 import net.miginfocom.swing.MigLayout;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.dto.CoreMessageKey;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ExportPerformedEvent;
+import org.multibit.hd.core.events.ExportProgressEvent;
 import org.multibit.hd.core.services.CoreServices;
 import org.multibit.hd.core.utils.Dates;
 import org.multibit.hd.ui.MultiBitUI;
@@ -54,6 +56,16 @@ public class ExportPaymentsReportPanelView extends AbstractWizardPanelView<Expor
 
   private static final String SEPARATOR = "-";
 
+  /**
+   * The export in progress (absent if none has been started)
+   */
+  private Optional<ListenableFuture<?>> exportFuture = Optional.absent();
+
+  /**
+   * True once the result has been shown (progress events are not ordered with respect to it)
+   */
+  private boolean exportPerformed = false;
+
   /**
    * @param wizard    The wizard managing the states
    * @param panelName The panel name to filter events from components
@@ -153,12 +165,13 @@ public class ExportPaymentsReportPanelView extends AbstractWizardPanelView<Expor
       String[] stems = createStems();
 
       // Perform the export
+      exportPerformed = false;
       PaymentRequestHeaderConverter paymentRequestHeaderConverter = new PaymentRequestHeaderConverter();
       PaymentRequestConverter paymentRequestConverter = new PaymentRequestConverter();
       TransactionHeaderConverter transactionHeaderConverter = new TransactionHeaderConverter();
       TransactionConverter transactionConverter = new TransactionConverter();
 
-      CoreServices.getCurrentWalletService().get().exportPayments(
+      exportFuture = Optional.<ListenableFuture<?>>of(CoreServices.getCurrentWalletService().get().exportPayments(
         exportPaymentsLocationFile,
         stems[0],
         stems[1],
@@ -166,8 +179,8 @@ public class ExportPaymentsReportPanelView extends AbstractWizardPanelView<Expor
         paymentRequestConverter,
         transactionHeaderConverter,
         transactionConverter
-      );
-      // Results of export are sent by an event
+      ));
+      // Progress and results of export are sent by events
     } else {
       CoreEvents.fireExportPerformedEvent(new ExportPerformedEvent(null, null, false, CoreMessageKey.THE_ERROR_WAS,
         new String[]{Languages.safeText(MessageKey.COULD_NOT_WRITE_TO_THE_DIRECTORY, exportPaymentsLocation)}));
@@ -179,6 +192,17 @@ public class ExportPaymentsReportPanelView extends AbstractWizardPanelView<Expor
     return true;
   }
 
+  @Override
+  public boolean beforeHide(boolean isExitCancel) {
+
+    // Do not leave a large export running in the background after the wizard has gone
+    if (isExitCancel && exportFuture.isPresent() && !exportFuture.get().isDone()) {
+      exportFuture.get().cancel(true);
+    }
+
+    return true;
+  }
+
   /**
    * Create localised filename stems to be used by the Wallet Service export.
    * A stem is something like 'payment-request-2014-04-13', localised.
@@ -197,6 +221,28 @@ public class ExportPaymentsReportPanelView extends AbstractWizardPanelView<Expor
     return new String[]{stem0, stem1};
   }
 
+  /**
+   * Call back as the export progresses
+   */
+  @Subscribe
+  public void onExportProgressEvent(final ExportProgressEvent exportProgressEvent) {
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        if (exportPerformed) {
+          return;
+        }
+        exportCompletedLabel.setText(
+          Languages.safeText(
+            MessageKey.EXPORT_PROGRESS,
+            exportProgressEvent.getRowsExported(),
+            exportProgressEvent.getTotalRows()
+          )
+        );
+      }
+    });
+  }
+
   /**
    * Call back after export
    */
@@ -205,6 +251,7 @@ public class ExportPaymentsReportPanelView extends AbstractWizardPanelView<Expor
     SwingUtilities.invokeLater(new Runnable() {
       @Override
       public void run() {
+        exportPerformed = true;
         if (exportPerformedEvent.isExportWasSuccessful()) {
           AwesomeDecorator.applyIcon(AwesomeIcon.CHECK, exportCompletedLabel, true, MultiBitUI.NORMAL_ICON_SIZE);
           exportCompletedLabel.setText(Languages.safeText(MessageKey.EXPORT_WAS_SUCCESSFUL));
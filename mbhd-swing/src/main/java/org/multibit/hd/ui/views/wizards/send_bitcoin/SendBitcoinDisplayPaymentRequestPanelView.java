@@ -204,7 +204,14 @@ public class SendBitcoinDisplayPaymentRequestPanelView extends AbstractWizardPan
           paymentRequestAmountMaV.getModel().setLocalAmount(null);
           paymentRequestAmountMaV.getView().updateView(configuration);
 
-          PaymentProtocol.PkiVerificationData identity = paymentSession.verifyPki();
+          // Only fall back to the session (verified on construction if at all) when not verified separately
+          Optional<PaymentProtocol.PkiVerificationData> pkiVerificationData = paymentSessionSummary.getPkiVerificationData();
+          final PaymentProtocol.PkiVerificationData identity;
+          if (pkiVerificationData.isPresent()) {
+            identity = pkiVerificationData.get();
+          } else {
+            identity = paymentSession.verifyPki();
+          }
           if (identity != null && identity.displayName != null) {
             displayName.setText(identity.displayName);
           } else {
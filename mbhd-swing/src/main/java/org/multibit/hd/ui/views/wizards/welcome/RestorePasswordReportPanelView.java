@@ -7,7 +7,6 @@ import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.concurrent.SafeExecutors;
-import org.multibit.hd.core.crypto.AESUtils;
 import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.managers.InstallationManager;
@@ -103,7 +102,12 @@ public class RestorePasswordReportPanelView extends AbstractWizardPanelView<Welc
         @Override
         public void run() {
 
-          recoverPassword();
+          try {
+            recoverPassword();
+          } finally {
+            // The seed is no longer needed so zero anything derived from it
+            getWizardModel().closeSeedDerivationSession();
+          }
 
           // Enable the Finish button
           SwingUtilities.invokeLater(new Runnable() {
@@ -140,9 +144,9 @@ public class RestorePasswordReportPanelView extends AbstractWizardPanelView<Welc
     boolean restoreAsTrezor = model.getRestorePasswordEnterSeedPhraseModel().isRestoreAsTrezor();
     WalletId walletId;
     if (restoreAsTrezor) {
-      walletId = new WalletId(seed, WalletId.getWalletIdSaltUsedInScryptForTrezorSoftWallets());
+      walletId = new WalletId(seed, WalletId.getWalletIdSaltUsedInScryptForTrezorSoftWallets(), model.getSeedDerivationSession());
     } else {
-      walletId = new WalletId(seed);
+      walletId = new WalletId(seed, model.getSeedDerivationSession());
     }
 
     String walletRoot = applicationDataDirectory.getAbsolutePath() + File.separator + WalletManager.createWalletRoot(walletId);
@@ -168,7 +172,7 @@ public class RestorePasswordReportPanelView extends AbstractWizardPanelView<Welc
     // Read the encrypted wallet credentials and decrypt with an AES key derived from the seed
     KeyParameter backupAESKey;
     try {
-      backupAESKey = AESUtils.createAESKey(seed, WalletManager.scryptSalt());
+      backupAESKey = model.getSeedDerivationSession().createAESKey(seed, WalletManager.scryptSalt());
     } catch (final NoSuchAlgorithmException e) {
       SwingUtilities.invokeLater(
         new Runnable() {
@@ -13,6 +13,7 @@ import org.multibit.hd.brit.exceptions.SeedPhraseException;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseSize;
+import org.multibit.hd.core.crypto.SeedDerivationSession;
 import org.multibit.hd.core.dto.BackupSummary;
 import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.managers.BackupManager;
@@ -70,6 +71,11 @@ public class WelcomeWizardModel extends AbstractHardwareWalletWizardModel<Welcom
    */
   private Optional<WalletId> walletId = Optional.absent();
 
+  /**
+   * Memoises the wallet IDs and backup keys derived from the seed (opened on first use)
+   */
+  private SeedDerivationSession seedDerivationSession;
+
   /**
    * The "restore method" indicates if a backup location or timestamp was selected
    */
@@ -138,6 +144,44 @@ public class WelcomeWizardModel extends AbstractHardwareWalletWizardModel<Welcom
     }
   }
 
+  @Override
+  public void unsubscribe() {
+
+    super.unsubscribe();
+
+    // The wizard is closing so zero anything derived from the seed
+    closeSeedDerivationSession();
+
+  }
+
+  /**
+   * <p>Callers deriving from the seed must ensure the session is closed when they finish
+   * (see {@link #closeSeedDerivationSession()})</p>
+   *
+   * @return The open seed derivation session for this wizard, opening a new one if required
+   */
+  public synchronized SeedDerivationSession getSeedDerivationSession() {
+
+    if (seedDerivationSession == null || seedDerivationSession.isClosed()) {
+      seedDerivationSession = SeedDerivationSession.open();
+    }
+
+    return seedDerivationSession;
+
+  }
+
+  /**
+   * <p>Close the seed derivation session (if open) zeroing everything derived from the seed</p>
+   */
+  public synchronized void closeSeedDerivationSession() {
+
+    if (seedDerivationSession != null) {
+      seedDerivationSession.close();
+      seedDerivationSession = null;
+    }
+
+  }
+
   @Override
   public void showNext() {
 
@@ -681,7 +725,7 @@ public class WelcomeWizardModel extends AbstractHardwareWalletWizardModel<Welcom
         EnterSeedPhraseModel restoreWalletEnterSeedPhraseModel = getRestoreWalletEnterSeedPhraseModel();
         SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
         byte[] seed = seedGenerator.convertToSeed(restoreWalletEnterSeedPhraseModel.getSeedPhrase());
-        walletId = Optional.of(new WalletId(seed));
+        walletId = Optional.of(new WalletId(seed, getSeedDerivationSession()));
       }
       backupSummaries = BackupManager.INSTANCE.getLocalZipBackups(walletId.get());
 
@@ -708,7 +752,7 @@ public class WelcomeWizardModel extends AbstractHardwareWalletWizardModel<Welcom
         EnterSeedPhraseModel restoreWalletEnterSeedPhraseModel = getRestoreWalletEnterSeedPhraseModel();
         SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
         byte[] seed = seedGenerator.convertToSeed(restoreWalletEnterSeedPhraseModel.getSeedPhrase());
-        walletId = Optional.of(new WalletId(seed));
+        walletId = Optional.of(new WalletId(seed, getSeedDerivationSession()));
       }
       backupSummaries = BackupManager.INSTANCE.getCloudBackups(walletId.get(), new File(getRestoreLocation()));
 
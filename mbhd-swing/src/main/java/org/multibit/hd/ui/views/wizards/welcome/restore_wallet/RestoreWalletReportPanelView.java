@@ -397,6 +397,22 @@ public class RestoreWalletReportPanelView extends AbstractWizardPanelView<Welcom
    */
   private boolean handleCreateWalletStatus(WelcomeWizardModel model) {
 
+    try {
+      return createWallet(model);
+    } finally {
+      // The seed is no longer needed so zero anything derived from it
+      model.closeSeedDerivationSession();
+    }
+
+  }
+
+  /**
+   * @param model The wizard model
+   *
+   * @return True if the wallet creation was successful
+   */
+  private boolean createWallet(WelcomeWizardModel model) {
+
     // Attempt to create the wallet
     switch (model.getRestoreMethod()) {
 
@@ -529,12 +545,13 @@ public class RestoreWalletReportPanelView extends AbstractWizardPanelView<Welcom
           password,
           name,
           notes,
-          true);
+          true,
+          getWizardModel().getSeedDerivationSession());
           return true;
         }
         case MBHD_SOFT_WALLET_BIP32: {
           // BIP32 compliant soft wallet
-          WalletManager.INSTANCE.getOrCreateMBHDSoftWalletSummaryFromEntropy(applicationDataDirectory, entropy, seed, Dates.thenInSeconds(replayDate), password, name, notes, true);
+          WalletManager.INSTANCE.getOrCreateMBHDSoftWalletSummaryFromEntropy(applicationDataDirectory, entropy, seed, Dates.thenInSeconds(replayDate), password, name, notes, true, getWizardModel().getSeedDerivationSession());
 
           return true;
         }
@@ -574,7 +591,7 @@ public class RestoreWalletReportPanelView extends AbstractWizardPanelView<Welcom
     log.debug("Loading wallet backup '" + selectedBackupSummaryModel.getValue().getFile() + "'");
     try {
 
-      WalletId loadedWalletId = BackupManager.INSTANCE.loadZipBackup(selectedBackupSummaryModel.getValue().getFile(), seedPhrase);
+      WalletId loadedWalletId = BackupManager.INSTANCE.loadZipBackup(selectedBackupSummaryModel.getValue().getFile(), seedPhrase, getWizardModel().getSeedDerivationSession());
 
       // Locate the installation directory
       File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
@@ -586,7 +603,7 @@ public class RestoreWalletReportPanelView extends AbstractWizardPanelView<Welcom
       String walletRoot = applicationDataDirectory.getAbsolutePath() + File.separator + WalletManager.createWalletRoot(loadedWalletId);
       WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(new File(walletRoot), loadedWalletId);
 
-      KeyParameter backupAESKey = AESUtils.createAESKey(seed, WalletManager.scryptSalt());
+      KeyParameter backupAESKey = getWizardModel().getSeedDerivationSession().createAESKey(seed, WalletManager.scryptSalt());
       byte[] decryptedPaddedWalletPasswordBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(
         walletSummary.getEncryptedPassword(),
         backupAESKey,
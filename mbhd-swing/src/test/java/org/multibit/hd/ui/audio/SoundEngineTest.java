@@ -0,0 +1,112 @@
+package org.multibit.hd.ui.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.util.io.Streams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SoundEngineTest {
+
+  private static final String PAYMENT_RECEIVED = "receive-bitcoin";
+
+  private final AtomicInteger sinkPlays = new AtomicInteger();
+
+  private SoundEngine testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // A headless sink that takes a little time to "play" each sound
+    AudioSink nullSink = new AudioSink() {
+      @Override
+      public void play(PcmSound sound) {
+        sinkPlays.incrementAndGet();
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    testObject = new SoundEngine(nullSink, 500);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.shutdown(5, TimeUnit.SECONDS);
+
+  }
+
+  @Test
+  public void testLoad_DecodesToPcm() throws Exception {
+
+    testObject.load(PAYMENT_RECEIVED, readMp3());
+
+    assertThat(testObject.isLoaded(PAYMENT_RECEIVED)).isTrue();
+    assertThat(testObject.getDecodeCount()).isEqualTo(1);
+
+    PcmSound sound = SoundEngine.decode(readMp3());
+    assertThat(sound.getFormat().getSampleSizeInBits()).isEqualTo(16);
+    assertThat(sound.getSamples().length % sound.getFormat().getFrameSize()).isEqualTo(0);
+    assertThat(sound.getDurationMillis()).isGreaterThan(0);
+
+  }
+
+  @Test
+  public void testPlay_PaymentBurst() throws Exception {
+
+    testObject.load(PAYMENT_RECEIVED, readMp3());
+
+    // A batch of incoming payments
+    int payments = 1_000;
+    for (int i = 0; i < payments; i++) {
+      testObject.play(PAYMENT_RECEIVED);
+    }
+
+    testObject.shutdown(5, TimeUnit.SECONDS);
+
+    // Decoded once regardless of the number of plays
+    assertThat(testObject.getDecodeCount()).isEqualTo(1);
+
+    // The play in progress and one waiting behind it, the rest merged
+    assertThat(testObject.getPlayCount()).isLessThanOrEqualTo(2);
+    assertThat(testObject.getPlayCount() + testObject.getMergedCount()).isEqualTo(payments);
+    assertThat(sinkPlays.get()).isEqualTo((int) testObject.getPlayCount());
+
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPlay_NotLoaded() throws Exception {
+
+    testObject.play("unknown");
+
+  }
+
+  /**
+   * @return The MP3 bytes of the "payment received" sound
+   */
+  private byte[] readMp3() throws Exception {
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (InputStream is = SoundEngineTest.class.getResourceAsStream("/assets/sounds/" + PAYMENT_RECEIVED + ".mp3")) {
+      Streams.pipeAll(is, baos);
+    }
+
+    return baos.toByteArray();
+  }
+
+}
@@ -0,0 +1,132 @@
+package org.multibit.hd.ui.events.view;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.bitcoinj.core.Coin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ViewEventDispatcherTest {
+
+  /**
+   * Stands in for the EDT queue
+   */
+  private final List<Runnable> edtTasks = Lists.newArrayList();
+
+  private final List<Object> deliveredEvents = Lists.newArrayList();
+
+  private ViewEventDispatcher testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    EventBus eventBus = new EventBus();
+    eventBus.register(this);
+
+    testObject = new ViewEventDispatcher(
+      eventBus,
+      new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          synchronized (edtTasks) {
+            edtTasks.add(command);
+          }
+        }
+      });
+
+  }
+
+  @Subscribe
+  public void onEvent(Object event) {
+    deliveredEvents.add(event);
+  }
+
+  @Test
+  public void testPostLatest_Burst() throws Exception {
+
+    // Network threads report progress and balance while a wizard changes components
+    final int burst = 10_000;
+    final int threads = 4;
+    final CountDownLatch latch = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < burst; i++) {
+            testObject.postLatest(new ProgressChangedEvent("Sync", i * 100 / burst), ProgressChangedEvent.class);
+            if (i % 1_000 == 0) {
+              testObject.post(new ComponentChangedEvent("panel-" + thread + "-" + i, Optional.absent()));
+            }
+          }
+          latch.countDown();
+        }
+      }).start();
+    }
+    latch.await();
+
+    testObject.postLatest(new BalanceChangedEvent(Coin.COIN, BigDecimal.ONE, Optional.of("Bitstamp")), BalanceChangedEvent.class);
+    testObject.postLatest(new BalanceChangedEvent(Coin.CENT, BigDecimal.TEN, Optional.of("Bitstamp")), BalanceChangedEvent.class);
+    testObject.postLatest(new ProgressChangedEvent("Sync", 100), ProgressChangedEvent.class);
+
+    // A single EDT task for the whole burst rather than one per event
+    assertThat(edtTasks).hasSize(1);
+    edtTasks.get(0).run();
+
+    // Every component change plus one balance and one progress
+    assertThat(deliveredEvents).hasSize(threads * burst / 1_000 + 2);
+
+    // Latest values were delivered
+    Object balance = deliveredEvents.get(deliveredEvents.size() - 2);
+    assertThat(((BalanceChangedEvent) balance).getCoinBalance()).isEqualTo(Coin.CENT);
+    Object progress = deliveredEvents.get(deliveredEvents.size() - 1);
+    assertThat(((ProgressChangedEvent) progress).getPercent()).isEqualTo(100);
+
+    // Component changes from each thread arrive in the order they were fired
+    for (int t = 0; t < threads; t++) {
+      int last = -1;
+      for (Object event : deliveredEvents) {
+        if (event instanceof ComponentChangedEvent) {
+          String[] parts = ((ComponentChangedEvent) event).getPanelName().split("-");
+          if (Integer.parseInt(parts[1]) == t) {
+            int sequence = Integer.parseInt(parts[2]);
+            assertThat(sequence).isGreaterThan(last);
+            last = sequence;
+          }
+        }
+      }
+    }
+
+  }
+
+  @Test
+  public void testPost_NextPassAfterDrain() throws Exception {
+
+    testObject.post(new ComponentChangedEvent("first", Optional.absent()));
+    testObject.postLatest(new VerificationStatusChangedEvent("first", false), VerificationStatusChangedEvent.class);
+    testObject.postLatest(new VerificationStatusChangedEvent("first", true), VerificationStatusChangedEvent.class);
+    assertThat(edtTasks).hasSize(1);
+
+    edtTasks.get(0).run();
+    assertThat(deliveredEvents).hasSize(2);
+    assertThat(((VerificationStatusChangedEvent) deliveredEvents.get(1)).isOK()).isTrue();
+
+    // Events after a drain schedule a new pass
+    testObject.post(new ComponentChangedEvent("second", Optional.absent()));
+    assertThat(edtTasks).hasSize(2);
+
+    edtTasks.get(1).run();
+    assertThat(deliveredEvents).hasSize(3);
+
+  }
+
+}
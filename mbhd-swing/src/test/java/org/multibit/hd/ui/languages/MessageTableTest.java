@@ -0,0 +1,143 @@
+package org.multibit.hd.ui.languages;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.CoreMessageKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MessageTableTest {
+
+  private static final Logger log = LoggerFactory.getLogger(MessageTableTest.class);
+
+  /**
+   * Roughly the number of lookups made when a wizard or screen is built
+   */
+  private static final int LOOKUPS_PER_SCREEN = 500;
+
+  private static final int SCREENS = 200;
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+  }
+
+  @Test
+  public void testSafeText_MatchesDirectLookup() throws Exception {
+
+    ResourceBundle rb = ResourceBundle.getBundle(Languages.BASE_NAME, Languages.currentLocale());
+
+    for (MessageKey messageKey : MessageKey.values()) {
+      String pattern = rb.containsKey(messageKey.getKey()) ? rb.getString(messageKey.getKey()) : messageKey.getKey();
+      assertThat(Languages.safeText(messageKey)).isEqualTo(MessageFormat.format(pattern, new Object[0]));
+      assertThat(Languages.safeText(messageKey, "a", 1)).isEqualTo(MessageFormat.format(pattern, "a", 1));
+    }
+
+    for (CoreMessageKey coreMessageKey : CoreMessageKey.values()) {
+      String pattern = rb.containsKey(coreMessageKey.getKey()) ? rb.getString(coreMessageKey.getKey()) : coreMessageKey.getKey();
+      assertThat(Languages.safeText(coreMessageKey)).isEqualTo(MessageFormat.format(pattern, new Object[0]));
+      assertThat(Languages.safeText(coreMessageKey, "a", 1)).isEqualTo(MessageFormat.format(pattern, "a", 1));
+    }
+
+    assertThat(Languages.safeText("not_a_key")).isEqualTo("Key 'not_a_key' is not localised!");
+
+  }
+
+  @Test
+  public void testLocaleSwitch_ReplacesTable() throws Exception {
+
+    MessageTable englishTable = Languages.currentMessageTable();
+
+    // Same locale means same table
+    assertThat(Languages.currentMessageTable()).isSameAs(englishTable);
+
+    // Switch without an event
+    Configurations.currentConfiguration.getLanguage().setLocale(Locale.FRANCE);
+
+    MessageTable frenchTable = Languages.currentMessageTable();
+    assertThat(frenchTable).isNotSameAs(englishTable);
+    assertThat(frenchTable.getLocale()).isEqualTo(Locale.FRANCE);
+
+    // Explicit refresh on a configuration change
+    Languages.refreshMessageTable();
+    assertThat(Languages.currentMessageTable()).isNotSameAs(frenchTable);
+
+  }
+
+  @Test
+  public void testScreenConstruction_Benchmark() throws Exception {
+
+    MessageKey[] messageKeys = MessageKey.values();
+
+    // Warm up both paths
+    simulateScreensDirect(messageKeys, 10);
+    simulateScreensCached(messageKeys, 10);
+
+    MessageTable messageTable = Languages.currentMessageTable();
+    int entryCount = messageTable.getEntryCount();
+
+    long directNanos = simulateScreensDirect(messageKeys, SCREENS);
+    long cachedNanos = simulateScreensCached(messageKeys, SCREENS);
+
+    log.info(
+      "{} screens of {} lookups: direct {} ms, cached {} ms",
+      SCREENS,
+      LOOKUPS_PER_SCREEN,
+      TimeUnit.NANOSECONDS.toMillis(directNanos),
+      TimeUnit.NANOSECONDS.toMillis(cachedNanos)
+    );
+
+    // Timings vary by machine so they are only logged
+
+    // Every lookup was served by the same table without parsing a pattern
+    assertThat(Languages.currentMessageTable()).isSameAs(messageTable);
+    assertThat(messageTable.getEntryCount()).isEqualTo(entryCount);
+
+    // A message without values is formatted once and the same text returned on each lookup
+    String text = Languages.safeText(MessageKey.SELECT_BACKUP_NOTE_2);
+    assertThat(Languages.safeText(MessageKey.SELECT_BACKUP_NOTE_2)).isSameAs(text);
+
+  }
+
+  /**
+   * @return The elapsed time using the bundle lookup and format on every call
+   */
+  private long simulateScreensDirect(MessageKey[] messageKeys, int screens) {
+
+    long start = System.nanoTime();
+    for (int screen = 0; screen < screens; screen++) {
+      for (int i = 0; i < LOOKUPS_PER_SCREEN; i++) {
+        MessageKey messageKey = messageKeys[i % messageKeys.length];
+        ResourceBundle rb = ResourceBundle.getBundle(Languages.BASE_NAME, Languages.currentLocale());
+        String pattern = rb.containsKey(messageKey.getKey()) ? rb.getString(messageKey.getKey()) : messageKey.getKey();
+        MessageFormat.format(pattern, new Object[0]);
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * @return The elapsed time using the message table
+   */
+  private long simulateScreensCached(MessageKey[] messageKeys, int screens) {
+
+    long start = System.nanoTime();
+    for (int screen = 0; screen < screens; screen++) {
+      for (int i = 0; i < LOOKUPS_PER_SCREEN; i++) {
+        Languages.safeText(messageKeys[i % messageKeys.length]);
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+}
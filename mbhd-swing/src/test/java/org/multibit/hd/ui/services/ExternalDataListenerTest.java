@@ -0,0 +1,182 @@
+package org.multibit.hd.ui.services;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ExternalDataListenerTest {
+
+  /**
+   * A small handler capacity to force the listener to pause connections
+   */
+  private final BlockingQueue<String> received = Queues.newArrayBlockingQueue(8);
+
+  private final AtomicInteger refusedCount = new AtomicInteger();
+
+  private ServerSocketChannel serverChannel;
+
+  private ExternalDataListener testObject;
+
+  private Thread listenerThread;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // Use an ephemeral port to avoid clashing with a running instance
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+
+    testObject = new ExternalDataListener(
+      serverChannel,
+      new ExternalDataListener.MessageHandler() {
+        @Override
+        public boolean offer(String rawData) {
+          if (received.offer(rawData)) {
+            return true;
+          }
+          refusedCount.incrementAndGet();
+          return false;
+        }
+      });
+
+    listenerThread = new Thread(testObject, "uri-listener-test");
+    listenerThread.start();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.close();
+    listenerThread.join(5_000);
+
+  }
+
+  @Test
+  public void testListen_ManyClients() throws Exception {
+
+    final int clients = 32;
+    final int messagesPerClient = 50;
+
+    final CountDownLatch sent = new CountDownLatch(clients);
+    for (int c = 0; c < clients; c++) {
+      final int client = c;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          List<String> messages = Lists.newArrayList();
+          for (int m = 0; m < messagesPerClient; m++) {
+            messages.add("bitcoin:1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty?label=" + client + "-" + m);
+          }
+          try {
+            write(messages, true);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+          sent.countDown();
+        }
+      }).start();
+    }
+
+    // Slow consumer that signals capacity after each message
+    Map<Integer, Integer> lastMessage = Maps.newHashMap();
+    for (int i = 0; i < clients * messagesPerClient; i++) {
+      String rawData = received.poll(10, TimeUnit.SECONDS);
+      assertThat(rawData).isNotNull();
+      testObject.resume();
+
+      String[] parts = rawData.substring(rawData.indexOf('=') + 1).split("-");
+      int client = Integer.parseInt(parts[0]);
+      int message = Integer.parseInt(parts[1]);
+
+      // Messages from a connection arrive in the order they were sent
+      Integer last = lastMessage.get(client);
+      assertThat(message).isEqualTo(last == null ? 0 : last + 1);
+      lastMessage.put(client, message);
+    }
+
+    assertThat(sent.await(10, TimeUnit.SECONDS)).isTrue();
+
+    // Nothing lost or duplicated despite the handler refusing while full
+    assertThat(received.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    assertThat(lastMessage).hasSize(clients);
+    assertThat(refusedCount.get()).isGreaterThan(0);
+    assertThat(testObject.getRejectedCount()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testListen_SingleMessageWithoutEnd() throws Exception {
+
+    // Earlier instances may close the connection without an end token
+    write(Lists.newArrayList("bitcoin:1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"), false);
+
+    assertThat(received.poll(5, TimeUnit.SECONDS)).isEqualTo("bitcoin:1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty");
+
+  }
+
+  @Test
+  public void testListen_MalformedAndOversized() throws Exception {
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+         OutputStream out = socket.getOutputStream()) {
+      out.write("GET / HTTP/1.1\r\n\r\n".getBytes(Charsets.UTF_8));
+    }
+
+    try {
+      write(Lists.newArrayList(Strings.repeat("a", ExternalDataListener.MAXIMUM_MESSAGE_BYTES + 1)), true);
+    } catch (IOException e) {
+      // The listener may close the connection before the write completes
+    }
+
+    // A well formed message still gets through
+    write(Lists.newArrayList("bitcoin:1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"), true);
+
+    assertThat(received.poll(5, TimeUnit.SECONDS)).isEqualTo("bitcoin:1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty");
+    for (int i = 0; i < 50 && testObject.getRejectedCount() < 2; i++) {
+      Thread.sleep(100);
+    }
+    assertThat(testObject.getRejectedCount()).isEqualTo(2);
+
+  }
+
+  /**
+   * @param messages The messages to write over a single connection
+   * @param end      True if the end token should follow each message
+   */
+  private void write(List<String> messages, boolean end) throws Exception {
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+         OutputStream out = socket.getOutputStream()) {
+      for (String message : messages) {
+        out.write(ExternalDataListeningService.MESSAGE_START.getBytes(Charsets.UTF_8));
+        out.write(message.getBytes(Charsets.UTF_8));
+        if (end) {
+          out.write(ExternalDataListeningService.MESSAGE_END.getBytes(Charsets.UTF_8));
+        }
+      }
+    }
+
+  }
+
+}
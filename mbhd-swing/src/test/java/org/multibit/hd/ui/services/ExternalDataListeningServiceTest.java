@@ -18,6 +18,7 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.fail;
 import static org.fest.assertions.Assertions.assertThat;
@@ -160,6 +161,60 @@ public class ExternalDataListeningServiceTest {
 
   }
 
+  @Test
+  public void testAddToQueues_Full() throws Exception {
+
+    // Arrange
+    String[] args = new String[]{
+      PAYMENT_REQUEST_BIP21
+    };
+
+    testObject = new ExternalDataListeningService(args);
+    testObject.getBitcoinURIQueue().clear();
+    long droppedCount = ExternalDataListeningService.getDroppedCount();
+
+    // Act
+    for (int i = 0; i < ExternalDataListeningService.QUEUE_CAPACITY + 5; i++) {
+      ExternalDataListeningService.addToQueues(PAYMENT_REQUEST_BIP21, false);
+    }
+
+    // Assert
+    assertThat(testObject.getBitcoinURIQueue().size()).isEqualTo(ExternalDataListeningService.QUEUE_CAPACITY);
+    assertThat(ExternalDataListeningService.getDroppedCount() - droppedCount).isEqualTo(5);
+
+    testObject.getBitcoinURIQueue().clear();
+
+  }
+
+  @Test
+  public void testAcceptMessage_RepeatAfterWindow() throws Exception {
+
+    // Arrange
+    testObject = new ExternalDataListeningService(new String[]{});
+    long windowNanos = TimeUnit.MILLISECONDS.toNanos(ExternalDataListeningService.DUPLICATE_WINDOW_MILLIS);
+    long start = System.nanoTime();
+
+    // Act and assert
+
+    // A repeat while the first is still being handled is ignored even after the window
+    assertThat(testObject.acceptMessage(PAYMENT_REQUEST_BIP21, start)).isTrue();
+    assertThat(testObject.acceptMessage(PAYMENT_REQUEST_BIP21, start + windowNanos + 1)).isFalse();
+
+    // A repeat within the window is ignored once handled
+    testObject.messageHandled(PAYMENT_REQUEST_BIP21);
+    assertThat(testObject.acceptMessage(PAYMENT_REQUEST_BIP21, start + windowNanos / 2)).isFalse();
+
+    // Other messages are unaffected
+    assertThat(testObject.acceptMessage(PAYMENT_REQUEST_BIP21_MINIMUM, start + windowNanos / 2)).isTrue();
+
+    // The same link opened again after the window is handled again
+    assertThat(testObject.acceptMessage(PAYMENT_REQUEST_BIP21, start + windowNanos + 1)).isTrue();
+
+    // Don't crash the JVM
+    CoreEvents.fireShutdownEvent(ShutdownEvent.ShutdownType.SOFT);
+
+  }
+
   @Test
   public void testNotify_BIP21() throws Exception {
 
@@ -0,0 +1,209 @@
+package org.multibit.hd.ui.views.themes.painters;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CachedRegionPainterTest {
+
+  private static final Logger log = LoggerFactory.getLogger(CachedRegionPainterTest.class);
+
+  private static final Color BUTTON_COLOR = new Color(66, 139, 202);
+
+  private static final int[] BUTTON_STATES = new int[]{
+    NamedButtonRegionPainter.BACKGROUND_ENABLED,
+    NamedButtonRegionPainter.BACKGROUND_MOUSEOVER,
+    NamedButtonRegionPainter.BACKGROUND_PRESSED
+  };
+
+  private RegionImageCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+
+    cache = new RegionImageCache(RegionImageCache.MAXIMUM_PIXELS);
+
+  }
+
+  @Test
+  public void testPaint_MatchesDirectRendering() throws Exception {
+
+    JButton button = new JButton("Next");
+
+    for (int state : BUTTON_STATES) {
+
+      NamedButtonRegionPainter painter = new NamedButtonRegionPainter(BUTTON_COLOR, state);
+      CachedRegionPainter cachedPainter = new CachedRegionPainter(painter, cache);
+
+      // Small enough to be cached at the exact size
+      assertThat(maximumDifference(paint(painter, button, 28, 26), paint(cachedPainter, button, 28, 26))).isLessThanOrEqualTo(1);
+
+      // Stretched from the reduced image (gradients are interpolated so differ very slightly)
+      BufferedImage direct = paint(painter, button, 160, 36);
+      BufferedImage stretched = paint(cachedPainter, button, 160, 36);
+      assertThat(maximumDifference(direct, stretched)).isLessThanOrEqualTo(16);
+      assertThat(meanDifference(direct, stretched)).isLessThan(2.0);
+
+    }
+
+  }
+
+  @Test
+  public void testPaint_SharedBetweenComponents() throws Exception {
+
+    // Each decorated component receives its own painters
+    CachedRegionPainter first = new CachedRegionPainter(new NamedButtonRegionPainter(BUTTON_COLOR, NamedButtonRegionPainter.BACKGROUND_ENABLED), cache);
+    CachedRegionPainter second = new CachedRegionPainter(new NamedButtonRegionPainter(BUTTON_COLOR, NamedButtonRegionPainter.BACKGROUND_ENABLED), cache);
+
+    paint(first, new JButton("Back"), 80, 30);
+    paint(second, new JButton("Next"), 140, 30);
+
+    // Same class, state, colors and height so the stretched image is shared
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+
+    // A different basis color is a different image
+    paint(new CachedRegionPainter(new NamedButtonRegionPainter(Color.RED, NamedButtonRegionPainter.BACKGROUND_ENABLED), cache), new JButton("Cancel"), 80, 30);
+    assertThat(cache.size()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testPut_Bounded() throws Exception {
+
+    // Room for only a few button images
+    RegionImageCache smallCache = new RegionImageCache(4 * 30 * 30);
+
+    JButton button = new JButton("Next");
+    for (int height = 20; height < 30; height++) {
+      paint(new CachedRegionPainter(new NamedButtonRegionPainter(BUTTON_COLOR, NamedButtonRegionPainter.BACKGROUND_ENABLED), smallCache), button, 100, height);
+      assertThat(smallCache.getPixels()).isLessThanOrEqualTo(4 * 30 * 30);
+    }
+
+    assertThat(smallCache.size()).isLessThan(10);
+    assertThat(smallCache.getMissCount()).isEqualTo(10);
+
+  }
+
+  @Test
+  public void testPaint_FramesPerSecond() throws Exception {
+
+    // A wizard screen with a column of buttons of different widths in each state
+    int buttonCount = 30;
+    JButton[] buttons = new JButton[buttonCount];
+    NamedButtonRegionPainter[] painters = new NamedButtonRegionPainter[buttonCount];
+    CachedRegionPainter[] cachedPainters = new CachedRegionPainter[buttonCount];
+    for (int i = 0; i < buttonCount; i++) {
+      buttons[i] = new JButton("Button " + i);
+      painters[i] = new NamedButtonRegionPainter(BUTTON_COLOR, BUTTON_STATES[i % BUTTON_STATES.length]);
+      cachedPainters[i] = new CachedRegionPainter(new NamedButtonRegionPainter(BUTTON_COLOR, BUTTON_STATES[i % BUTTON_STATES.length]), cache);
+    }
+
+    BufferedImage screen = new BufferedImage(400, buttonCount * 40, BufferedImage.TYPE_INT_ARGB);
+    int frames = 200;
+
+    // Warm up both paths
+    paintFrames(screen, painters, buttons, 20);
+    paintFrames(screen, cachedPainters, buttons, 20);
+
+    long start = System.nanoTime();
+    paintFrames(screen, painters, buttons, frames);
+    long directNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    paintFrames(screen, cachedPainters, buttons, frames);
+    long cachedNanos = System.nanoTime() - start;
+
+    log.info(
+      "{} buttons: {} frames/s painting directly, {} frames/s through the cache ({} images)",
+      buttonCount,
+      frames * 1_000_000_000L / directNanos,
+      frames * 1_000_000_000L / cachedNanos,
+      cache.size()
+    );
+
+    // One image per state for the shared height regardless of width
+    assertThat(cache.size()).isEqualTo(BUTTON_STATES.length);
+
+  }
+
+  /**
+   * @param screen   The image representing the screen
+   * @param painters The painters for each button
+   * @param buttons  The buttons
+   * @param frames   The number of frames to paint
+   */
+  private void paintFrames(BufferedImage screen, Painter<JComponent>[] painters, JButton[] buttons, int frames) {
+
+    for (int frame = 0; frame < frames; frame++) {
+      Graphics2D g = screen.createGraphics();
+      for (int i = 0; i < painters.length; i++) {
+        // Resizing the wizard changes the widths but not the heights
+        int width = 60 + ((i * 7 + frame) % 120);
+        Graphics2D buttonGraphics = (Graphics2D) g.create(10, i * 40, width, 30);
+        painters[i].paint(buttonGraphics, buttons[i], width, 30);
+        buttonGraphics.dispose();
+      }
+      g.dispose();
+    }
+
+  }
+
+  /**
+   * @return The painter output on a transparent image
+   */
+  private BufferedImage paint(Painter<JComponent> painter, JComponent c, int width, int height) {
+
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    painter.paint(g, c, width, height);
+    g.dispose();
+
+    return image;
+  }
+
+  private int maximumDifference(BufferedImage expected, BufferedImage actual) {
+
+    int maximum = 0;
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        maximum = Math.max(maximum, difference(expected.getRGB(x, y), actual.getRGB(x, y)));
+      }
+    }
+
+    return maximum;
+  }
+
+  private double meanDifference(BufferedImage expected, BufferedImage actual) {
+
+    long total = 0;
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        total += difference(expected.getRGB(x, y), actual.getRGB(x, y));
+      }
+    }
+
+    return (double) total / (expected.getWidth() * expected.getHeight());
+  }
+
+  /**
+   * @return The largest difference between the channels of two ARGB values
+   */
+  private int difference(int expected, int actual) {
+
+    int maximum = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      maximum = Math.max(maximum, Math.abs(((expected >> shift) & 0xff) - ((actual >> shift) & 0xff)));
+    }
+
+    return maximum;
+  }
+
+}
@@ -0,0 +1,182 @@
+package org.multibit.hd.ui.views.themes.painters;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DerivedColorsTest {
+
+  private static final Logger log = LoggerFactory.getLogger(DerivedColorsTest.class);
+
+  private static final Color BUTTON_COLOR = new Color(66, 139, 202);
+
+  /**
+   * The saturation and brightness offsets of the enabled button background
+   */
+  private static final float[][] BUTTON_OFFSETS = new float[][]{
+    {-0.6197143f, 0.43137252f},
+    {-0.5766426f, 0.38039213f},
+    {-0.43866998f, 0.24705881f},
+    {-0.46404046f, 0.36470586f},
+    {-0.47761154f, 0.44313723f}
+  };
+
+  @Test
+  public void testGet_MatchesHSBDerivation() throws Exception {
+
+    Color basis = new Color(25, 81, 130, 200);
+
+    assertSameColor(
+      DerivedColors.get(basis, DerivedColors.key(-0.027777791f, -0.06885965f, -0.36862746f, -190, false)),
+      deriveHSB(basis, -0.027777791f, -0.06885965f, -0.36862746f, -190)
+    );
+    assertSameColor(
+      DerivedColors.get(basis, DerivedColors.key(0.059279382f, 0.3642857f, -0.43529415f, 0, false)),
+      deriveHSB(basis, 0.059279382f, 0.3642857f, -0.43529415f, 0)
+    );
+
+    // The same offsets always give the same key and color
+    int key = DerivedColors.key(0.004681647f, -0.6197143f, 0.43137252f, 0, false);
+    assertThat(DerivedColors.key(0.004681647f, -0.6197143f, 0.43137252f, 0, false)).isEqualTo(key);
+    assertThat(DerivedColors.get(basis, key)).isSameAs(DerivedColors.get(new Color(25, 81, 130, 200), key));
+
+    // Component colors match the Nimbus derivation
+    ReferencePainter painter = new ReferencePainter();
+    JButton button = new JButton("Next");
+    button.setBackground(BUTTON_COLOR);
+    for (float[] offsets : BUTTON_OFFSETS) {
+      assertSameColor(
+        painter.getDerivedComponentColor(button, "background", Color.RED, offsets[0], offsets[1], 0),
+        painter.getNimbusComponentColor(button, offsets[0], offsets[1])
+      );
+    }
+
+  }
+
+  @Test
+  public void testClear_ThemeChange() throws Exception {
+
+    Color basis = new Color(240, 211, 85);
+    int key = DerivedColors.key(0.0f, -0.110526316f, 0.25490195f, -95, false);
+
+    Color before = DerivedColors.get(basis, key);
+    DerivedColors.clear();
+
+    // Derived again for the new theme
+    Color after = DerivedColors.get(basis, key);
+    assertThat(after).isNotSameAs(before);
+    assertSameColor(after, before);
+
+    // Precomputed colors need no further derivation
+    DerivedColors.clear();
+    DerivedColors.precompute(basis, BUTTON_COLOR);
+    long deriveCount = DerivedColors.getDeriveCount();
+    for (int i = 0; i < DerivedColors.getKeyCount(); i++) {
+      DerivedColors.get(basis, i);
+      DerivedColors.get(BUTTON_COLOR, i);
+    }
+    assertThat(DerivedColors.getDeriveCount()).isEqualTo(deriveCount);
+
+  }
+
+  @Test
+  public void testGetCacheKeys_Allocation() throws Exception {
+
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+    Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+
+    JButton button = new JButton("Next");
+    button.setBackground(BUTTON_COLOR);
+
+    NamedButtonRegionPainter painter = new NamedButtonRegionPainter(BUTTON_COLOR, NamedButtonRegionPainter.BACKGROUND_ENABLED);
+    ReferencePainter reference = new ReferencePainter();
+
+    // Each repaint derives the component colors of its state
+    int repaints = 20_000;
+    for (int i = 0; i < repaints; i++) {
+      reference.getNimbusCacheKeys(button);
+      painter.getCacheKeys(button);
+    }
+
+    long threadId = Thread.currentThread().getId();
+
+    long start = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < repaints; i++) {
+      reference.getNimbusCacheKeys(button);
+    }
+    long nimbusBytes = (allocationBean.getThreadAllocatedBytes(threadId) - start) / repaints;
+
+    long deriveCount = DerivedColors.getDeriveCount();
+    start = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < repaints; i++) {
+      painter.getCacheKeys(button);
+    }
+    long tableBytes = (allocationBean.getThreadAllocatedBytes(threadId) - start) / repaints;
+
+    log.info("Bytes allocated per repaint deriving colors: HSB {}, table {}", nimbusBytes, tableBytes);
+
+    // Only the cache key array remains
+    assertThat(DerivedColors.getDeriveCount()).isEqualTo(deriveCount);
+    assertThat(tableBytes).isLessThan(nimbusBytes);
+
+  }
+
+  private static void assertSameColor(Color actual, Color expected) {
+
+    assertThat(actual.getRGB()).isEqualTo(expected.getRGB());
+    assertThat(actual.getAlpha()).isEqualTo(expected.getAlpha());
+
+  }
+
+  /**
+   * @return The color as previously derived on every call
+   */
+  private static Color deriveHSB(Color basis, float hOffset, float sOffset, float bOffset, int aOffset) {
+
+    float[] tmp = Color.RGBtoHSB(basis.getRed(), basis.getGreen(), basis.getBlue(), null);
+    tmp[0] = Math.max(0, Math.min(1, tmp[0] + hOffset));
+    tmp[1] = Math.max(0, Math.min(1, tmp[1] + sOffset));
+    tmp[2] = Math.max(0, Math.min(1, tmp[2] + bOffset));
+    int alpha = Math.max(0, Math.min(255, basis.getAlpha() + aOffset));
+
+    return new Color((Color.HSBtoRGB(tmp[0], tmp[1], tmp[2]) & 0xFFFFFF) | (alpha << 24), true);
+  }
+
+  /**
+   * <p>Painter exposing the Nimbus component color derivation for comparison</p>
+   */
+  private static class ReferencePainter extends AbstractNamedRegionPainter {
+
+    private ReferencePainter() {
+      super(BUTTON_COLOR, BUTTON_COLOR, 0);
+    }
+
+    private Color getNimbusComponentColor(JComponent c, float sOffset, float bOffset) {
+      return getComponentColor(c, "background", Color.RED, sOffset, bOffset, 0);
+    }
+
+    private Object[] getNimbusCacheKeys(JComponent c) {
+
+      Object[] cacheKeys = new Object[BUTTON_OFFSETS.length];
+      for (int i = 0; i < BUTTON_OFFSETS.length; i++) {
+        cacheKeys[i] = getNimbusComponentColor(c, BUTTON_OFFSETS[i][0], BUTTON_OFFSETS[i][1]);
+      }
+
+      return cacheKeys;
+    }
+
+    @Override
+    protected void doPaint(Graphics2D g, JComponent c, int width, int height, Object[] extendedCacheKeys) {
+    }
+  }
+
+}